@@ -15,20 +15,34 @@
  */
 package com.roque.rueda.fileexplorer;
 
-import android.app.ListActivity;
+import android.content.SharedPreferences;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 import android.os.Bundle;
+import android.preference.PreferenceManager;
+import android.support.v7.app.ActionBarActivity;
 
+import com.roque.rueda.fileexplorer.metrics.Metrics;
+import com.roque.rueda.fileexplorer.utils.AndroidPlatform;
 import com.roque.rueda.fileexplorer.utils.UserPreferences;
 
 /**
- * This is a base class for the file list activities
+ * This is a base class for the file list activities, the lists are
+ * shown by fragments.
  * Created by Roque on 4/11/13.
  */
-public class AbstractListFileActivity extends ListActivity {
+public class AbstractListFileActivity extends ActionBarActivity {
 
-    protected UserPreferences preferences;
+    /**
+     * Snapshot of the preferences, replaced by the listener each time
+     * they change.
+     */
+    protected volatile UserPreferences preferences;
 
+    private SharedPreferences sharedPreferences;
+
+    /**
+     * Kept in a field, the shared preferences only hold a weak reference.
+     */
     private OnSharedPreferenceChangeListener listener;
 
     /**
@@ -39,18 +53,45 @@ public class AbstractListFileActivity extends ListActivity {
      */
     @Override
     protected void onCreate(Bundle savedInstanceState) {
-        preferences = new UserPreferences(this);
+        // The files are classified with the mime types of the system.
+        AndroidPlatform.install();
+
+        sharedPreferences = PreferenceManager.getDefaultSharedPreferences(this);
+        preferences = new UserPreferences(sharedPreferences);
+        Metrics.setEnabled(preferences.isRecordMetrics());
+        listener = new OnSharedPreferenceChangeListener() {
+            @Override
+            public void onSharedPreferenceChanged(SharedPreferences shared, String key) {
+                preferences = new UserPreferences(shared);
+                Metrics.setEnabled(preferences.isRecordMetrics());
+                onPreferencesChanged(preferences);
+            }
+        };
+        sharedPreferences.registerOnSharedPreferenceChangeListener(listener);
 
         super.onCreate(savedInstanceState);
     }
 
-    public synchronized UserPreferences getPreferences() { return preferences; }
+    /**
+     *
+     * @return the current snapshot of the preferences.
+     */
+    public UserPreferences getPreferences() { return preferences; }
+
+    /**
+     * Called on the main thread after the preferences changed.
+     * @param preferences new snapshot of the preferences.
+     */
+    protected void onPreferencesChanged(UserPreferences preferences) {
+        // Nothing here
+    }
 
     /**
      * Perform any final cleanup before an activity is destroyed.
      */
     @Override
     protected void onDestroy() {
+        sharedPreferences.unregisterOnSharedPreferenceChangeListener(listener);
         super.onDestroy();
     }
 }
@@ -15,27 +15,162 @@
  */
 package com.roque.rueda.fileexplorer;
 
+import android.app.AlertDialog;
+import android.app.ProgressDialog;
+import android.content.ActivityNotFoundException;
+import android.content.DialogInterface;
+import android.content.Intent;
+import android.net.Uri;
 import android.os.Bundle;
+import android.os.Environment;
+import android.support.v4.app.FragmentManager;
+import android.text.format.DateUtils;
+import android.text.format.Formatter;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
-import android.widget.ListView;
+import android.view.View;
+import android.widget.ArrayAdapter;
+import android.widget.EditText;
+import android.widget.TextView;
+import android.widget.Toast;
 
-import com.roque.rueda.fileexplorer.adapters.FileListAdapter;
+import com.roque.rueda.fileexplorer.archive.ArchiveProvider;
+import com.roque.rueda.fileexplorer.cache.DirectoryCache;
+import com.roque.rueda.fileexplorer.cache.ListingMemoryCache;
+import com.roque.rueda.fileexplorer.cache.SharedListingCache;
+import com.roque.rueda.fileexplorer.cache.ThumbnailCache;
+import com.roque.rueda.fileexplorer.duplicates.DuplicateFinder;
+import com.roque.rueda.fileexplorer.duplicates.DuplicateGroup;
+import com.roque.rueda.fileexplorer.duplicates.DuplicateSearch;
+import com.roque.rueda.fileexplorer.loader.DirectoryLoader;
+import com.roque.rueda.fileexplorer.loader.DirectoryPrefetcher;
+import com.roque.rueda.fileexplorer.loader.DirectorySizeCalculator;
+import com.roque.rueda.fileexplorer.loader.ListingFilter;
+import com.roque.rueda.fileexplorer.loader.ThumbnailLoader;
+import com.roque.rueda.fileexplorer.loader.VisitHistory;
+import com.roque.rueda.fileexplorer.metrics.Metrics;
 import com.roque.rueda.fileexplorer.model.FileItem;
+import com.roque.rueda.fileexplorer.operations.FileOperation;
+import com.roque.rueda.fileexplorer.operations.FileOperationQueue;
+import com.roque.rueda.fileexplorer.operations.OperationProgress;
+import com.roque.rueda.fileexplorer.operations.TrashArea;
+import com.roque.rueda.fileexplorer.operations.TrashEntry;
+import com.roque.rueda.fileexplorer.search.ContentMatch;
+import com.roque.rueda.fileexplorer.search.ContentSearch;
+import com.roque.rueda.fileexplorer.search.FilenameIndex;
+import com.roque.rueda.fileexplorer.search.FilenameIndexService;
+import com.roque.rueda.fileexplorer.storage.StorageAnalysis;
+import com.roque.rueda.fileexplorer.storage.UsageNode;
+import com.roque.rueda.fileexplorer.utils.FileSorter;
+import com.roque.rueda.fileexplorer.utils.FileTypes;
+import com.roque.rueda.fileexplorer.utils.UserPreferences;
+import com.roque.rueda.fileexplorer.watcher.DirectoryWatcher;
+
+import org.apache.commons.io.FileUtils;
 
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
+/**
+ * Shows one or more FolderListFragment panes side by side. The panes
+ * share the caches, the pools and the watcher created here, the menu
+ * acts on the active pane: the last one that was touched.
+ */
 public class ExplorerActivity extends AbstractListFileActivity {
 
     private static final String TAG = "ExplorerActivity";
 
-    private static final String CURRENT_DIR = "current-dir";
+    private static final String ACTIVE_PANE = "active-pane";
+
+    private static final String FILTER_QUERY = "filter-query";
+
+    /**
+     * Prefix of the tags of the panes, followed by a number.
+     */
+    private static final String PANE_TAG = "pane";
+
+    /**
+     * Maximum number of panes open at the same time.
+     */
+    private static final int MAX_PANES = 3;
+
+    /**
+     * Directories listed at the same time by all the panes, the
+     * listing is limited by the disk.
+     */
+    private static final int SCANNER_THREADS = 2;
+
+    private static final String LISTING_CACHE_DIR = "listings";
+
+    private static final String THUMBNAIL_CACHE_DIR = "thumbnails";
+
+    private static final String PAGED_LISTING_DIR = "paged";
+
+    /**
+     * Folder of the external storage where the archive entries are
+     * extracted to be opened by other apps.
+     */
+    private static final String EXTRACTED_DIR = "Android/data/%s/cache/extracted";
+
+    /**
+     * Positions of the actions of the rows, see R.array.file_actions.
+     */
+    private static final int ACTION_COPY = 0;
+    private static final int ACTION_CUT = 1;
+    private static final int ACTION_DELETE = 2;
+
+    private static final String FILENAME_INDEX_FILE = "filenames.idx";
+
+    private static final String VISIT_HISTORY_FILE = "visits";
+
+    private static final String METRICS_FILE = "metrics.txt";
+
+    /**
+     * Panes in the order they were attached, and the pane the menu acts on.
+     */
+    private final List<FolderListFragment> mPanes = new ArrayList<FolderListFragment>();
+    private FolderListFragment mActivePane;
+    private String mActivePaneTag;
+
+    private DirectoryCache mDirectoryCache;
+    private SharedListingCache mListings;
+    private ExecutorService mScanners;
+    private ExecutorService mSizePool;
+    private DirectoryPrefetcher mPrefetcher;
+    private DirectoryWatcher mWatcher;
+    private ThumbnailLoader mThumbnailLoader;
+    private ArchiveProvider mArchives;
+    private FileOperationQueue mOperations;
+    private TextView mOperationStatus;
 
-    private ListView mExplorerListView;
-    private File mCurrentDir;
-    private List<FileItem> mFiles;
-    private FileListAdapter adapter;
+    /**
+     * Files copied or cut with the actions of the rows, they are pasted
+     * with the menu.
+     */
+    private final List<File> mClipboard = new ArrayList<File>();
+    private boolean mClipboardMove;
+    private FilenameIndexService mSearchIndex;
+
+    /**
+     * Filter of the listings, built from the preferences and the query
+     * typed by the user.
+     */
+    private ListingFilter mFilter = ListingFilter.ACCEPT_ALL;
+    private String mFilterQuery = "";
+    private DuplicateSearch mDuplicateSearch;
+    private ProgressDialog mDuplicateProgress;
+    private StorageAnalysis mStorageAnalysis;
+    private ProgressDialog mStorageProgress;
+    private ContentSearch mContentSearch;
+    private AlertDialog mContentResults;
 
 
     @Override
@@ -43,32 +178,1193 @@ public class ExplorerActivity extends AbstractListFileActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.explorer);
 
-//        if (savedInstanceState == null) {
-//            getSupportFragmentManager().beginTransaction()
-//                    .add(R.id.container, new FolderListFragment())
-//                    .commit();
-//        }
+        mThumbnailLoader = new ThumbnailLoader(
+                new ThumbnailCache(new File(getCacheDir(), THUMBNAIL_CACHE_DIR),
+                        ThumbnailCache.DEFAULT_MAX_BYTES),
+                getResources().getDimensionPixelSize(R.dimen.thumbnail_size));
+
+        mDirectoryCache = new DirectoryCache(
+                new File(getCacheDir(), LISTING_CACHE_DIR), DirectoryCache.DEFAULT_MAX_BYTES);
+        ListingMemoryCache memoryCache =
+                new ListingMemoryCache(ListingMemoryCache.DEFAULT_MAX_BYTES);
+        mListings = new SharedListingCache(memoryCache);
+        mArchives = new ArchiveProvider();
+        mScanners = DirectoryLoader.newScannerPool(SCANNER_THREADS);
+        mSizePool = DirectorySizeCalculator.newPool(Runtime.getRuntime().availableProcessors());
+        mPrefetcher = new DirectoryPrefetcher(memoryCache,
+                new VisitHistory(new File(getFilesDir(), VISIT_HISTORY_FILE)));
+        mWatcher = new DirectoryWatcher(mDirectoryCache, mListings);
+
+        if (savedInstanceState != null) {
+            String savedQuery = savedInstanceState.getString(FILTER_QUERY);
+            if (savedQuery != null) {
+                mFilterQuery = savedQuery;
+            }
+            mActivePaneTag = savedInstanceState.getString(ACTIVE_PANE);
+        }
+        mFilter = buildFilter();
+
+        // The panes that were open are restored by the fragment manager.
+        if (savedInstanceState == null) {
+            int panes = Math.min(getResources().getInteger(R.integer.default_pane_count),
+                    MAX_PANES);
+            for (int i = 0; i < panes; i++) {
+                addPane(getPreferences().getStartDir());
+            }
+        }
+
+        mSearchIndex = new FilenameIndexService(
+                new File(getFilesDir(), FILENAME_INDEX_FILE), getPreferences().getStartDir());
+        mSearchIndex.update();
+
+        mOperationStatus = (TextView) findViewById(R.id.operation_status);
+        // The queue outlives the activity, a rotation does not stop the
+        // operation that is running.
+        mOperations = FileOperationQueue.getInstance(this);
+        mOperations.setListener(mOperationListener);
+    }
+
+    /**
+     *
+     * @return thumbnail loader shared by the panes.
+     */
+    ThumbnailLoader getThumbnailLoader() {
+        return mThumbnailLoader;
+    }
+
+    /**
+     *
+     * @return listings shared by the panes.
+     */
+    SharedListingCache getListings() {
+        return mListings;
+    }
+
+    /**
+     *
+     * @return pool of the size calculators of the panes.
+     */
+    ExecutorService getSizePool() {
+        return mSizePool;
+    }
+
+    DirectoryPrefetcher getPrefetcher() {
+        return mPrefetcher;
+    }
+
+    DirectoryWatcher getWatcher() {
+        return mWatcher;
+    }
+
+    ArchiveProvider getArchives() {
+        return mArchives;
+    }
+
+    /**
+     *
+     * @return filter of the listings of the panes.
+     */
+    ListingFilter getFilter() {
+        return mFilter;
+    }
+
+    /**
+     * Creates the loader of a pane, it runs on the shared pool. Each
+     * pane writes its paged listings in its own directory.
+     * @param paneTag tag of the pane.
+     * @return loader of the pane.
+     */
+    DirectoryLoader createLoader(String paneTag) {
+        DirectoryLoader loader = new DirectoryLoader(mDirectoryCache, mListings, mArchives,
+                mScanners);
+        loader.enablePaging(new File(new File(getCacheDir(), PAGED_LISTING_DIR), paneTag),
+                DirectoryLoader.DEFAULT_PAGING_THRESHOLD);
+        return loader;
+    }
+
+    /**
+     * Opens a new pane at the side of the others.
+     * @param dir directory displayed by the pane.
+     */
+    private void addPane(File dir) {
+        FragmentManager fragments = getSupportFragmentManager();
+        String tag = null;
+        for (int i = 0; tag == null; i++) {
+            if (fragments.findFragmentByTag(PANE_TAG + i) == null) {
+                tag = PANE_TAG + i;
+            }
+        }
+        mActivePaneTag = tag;
+        fragments.beginTransaction()
+                .add(R.id.panes, FolderListFragment.newInstance(dir), tag)
+                .commit();
+        // The tag of the next pane is looked up among the added ones.
+        fragments.executePendingTransactions();
+    }
+
+    /**
+     * Closes the active pane, the last pane is never closed.
+     */
+    private void closeActivePane() {
+        if (mPanes.size() < 2 || mActivePane == null) {
+            return;
+        }
+        getSupportFragmentManager().beginTransaction()
+                .remove(mActivePane)
+                .commit();
     }
 
+    /**
+     * Called by a pane once it can be used.
+     * @param pane pane that was created.
+     */
+    void attachPane(FolderListFragment pane) {
+        mPanes.add(pane);
+        if (mActivePane == null || pane.getTag().equals(mActivePaneTag)) {
+            mActivePane = pane;
+        }
+        supportInvalidateOptionsMenu();
+    }
+
+    /**
+     * Called by a pane when it is destroyed.
+     * @param pane pane that was closed.
+     */
+    void detachPane(FolderListFragment pane) {
+        mPanes.remove(pane);
+        if (mActivePane == pane) {
+            setActivePane(mPanes.isEmpty() ? null : mPanes.get(mPanes.size() - 1));
+        }
+        supportInvalidateOptionsMenu();
+    }
+
+    /**
+     * Makes a pane the target of the menu.
+     * @param pane pane that was touched.
+     */
+    void setActivePane(FolderListFragment pane) {
+        mActivePane = pane;
+        if (pane != null) {
+            mActivePaneTag = pane.getTag();
+            onPaneNavigated(pane);
+        }
+    }
+
+    /**
+     * Called when a pane shows other directory.
+     * @param pane pane that changed.
+     */
+    void onPaneNavigated(FolderListFragment pane) {
+        if (pane == mActivePane && pane.getDirectory() != null) {
+            setTitle(pane.getDirectory().getAbsolutePath());
+        }
+    }
+
+    /**
+     *
+     * @return directory of the active pane, null if there is none.
+     */
+    private File getCurrentDir() {
+        return mActivePane != null ? mActivePane.getDirectory() : null;
+    }
+
+    /**
+     * Shows a directory in the active pane.
+     * @param dir directory that is going to be displayed.
+     */
+    private void navigateTo(File dir) {
+        if (mActivePane != null) {
+            mActivePane.navigateTo(dir);
+        }
+    }
+
+    private void refresh() {
+        if (mActivePane != null) {
+            mActivePane.refresh();
+        }
+    }
 
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         
         // Inflate the menu; this adds items to the action bar if it is present.
         getMenuInflater().inflate(R.menu.explorer, menu);
+
+        MenuItem sortItem = menu.findItem(getSortMenuId(getPreferences().getSortMode()));
+        if (sortItem != null) {
+            sortItem.setChecked(true);
+        }
         return true;
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        MenuItem pasteItem = menu.findItem(R.id.action_paste);
+        if (pasteItem != null) {
+            pasteItem.setVisible(!mClipboard.isEmpty());
+        }
+        boolean recordMetrics = getPreferences().isRecordMetrics();
+        MenuItem metricsItem = menu.findItem(R.id.action_metrics);
+        if (metricsItem != null) {
+            metricsItem.setChecked(recordMetrics);
+        }
+        MenuItem dumpItem = menu.findItem(R.id.action_dump_metrics);
+        if (dumpItem != null) {
+            dumpItem.setVisible(recordMetrics);
+        }
+        MenuItem addPaneItem = menu.findItem(R.id.action_add_pane);
+        if (addPaneItem != null) {
+            addPaneItem.setVisible(mPanes.size() < MAX_PANES);
+        }
+        MenuItem closePaneItem = menu.findItem(R.id.action_close_pane);
+        if (closePaneItem != null) {
+            closePaneItem.setVisible(mPanes.size() > 1);
+        }
+        return super.onPrepareOptionsMenu(menu);
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         // Handle action bar item clicks here. The action bar will
         // automatically handle clicks on the Home/Up button, so long
         // as you specify a parent activity in AndroidManifest.xml.
         switch (item.getItemId()) {
+            case R.id.action_refresh:
+                refresh();
+                return true;
+            case R.id.action_add_pane:
+                if (mPanes.size() < MAX_PANES && getCurrentDir() != null) {
+                    // The listing of the active pane is shared, it is not read again.
+                    addPane(getCurrentDir());
+                }
+                return true;
+            case R.id.action_close_pane:
+                closeActivePane();
+                return true;
+            case R.id.action_search:
+                showSearchDialog();
+                return true;
+            case R.id.action_search_content:
+                showContentSearchDialog();
+                return true;
+            case R.id.action_paste:
+                paste();
+                return true;
+            case R.id.action_filter:
+                showFilterDialog();
+                return true;
+            case R.id.action_duplicates:
+                findDuplicates();
+                return true;
+            case R.id.action_storage:
+                analyzeStorage();
+                return true;
+            case R.id.action_trash:
+                showTrash();
+                return true;
+            case R.id.action_metrics:
+                getPreferences().setRecordMetrics(!item.isChecked());
+                return true;
+            case R.id.action_dump_metrics:
+                dumpMetrics();
+                return true;
             case R.id.action_settings:
                 return true;
+            case R.id.action_sort_name:
+            case R.id.action_sort_natural:
+            case R.id.action_sort_size:
+            case R.id.action_sort_modified:
+            case R.id.action_sort_type:
+                item.setChecked(true);
+                setSortMode(getSortMode(item.getItemId()));
+                return true;
         }
         return super.onOptionsItemSelected(item);
     }
 
+    private static int getSortMode(int menuId) {
+        switch (menuId) {
+            case R.id.action_sort_natural:
+                return FileSorter.SORT_NATURAL;
+            case R.id.action_sort_size:
+                return FileSorter.SORT_SIZE;
+            case R.id.action_sort_modified:
+                return FileSorter.SORT_MODIFIED;
+            case R.id.action_sort_type:
+                return FileSorter.SORT_TYPE;
+            default:
+                return FileSorter.SORT_NAME;
+        }
+    }
+
+    private static int getSortMenuId(int sortMode) {
+        switch (sortMode) {
+            case FileSorter.SORT_NATURAL:
+                return R.id.action_sort_natural;
+            case FileSorter.SORT_SIZE:
+                return R.id.action_sort_size;
+            case FileSorter.SORT_MODIFIED:
+                return R.id.action_sort_modified;
+            case FileSorter.SORT_TYPE:
+                return R.id.action_sort_type;
+            default:
+                return R.id.action_sort_name;
+        }
+    }
+
+    /**
+     * Stores the sort order and sorts the items of every pane again.
+     * @param sortMode one of the FileSorter.SORT_ constants.
+     */
+    private void setSortMode(int sortMode) {
+        getPreferences().setSortMode(sortMode);
+
+        for (FolderListFragment pane : mPanes) {
+            pane.setSortMode(sortMode);
+        }
+    }
+
+    /**
+     * Shows the actions of a row, called by the actions icon of the row.
+     * @param view actions icon that was clicked.
+     */
+    public void showPopupMenu(View view) {
+        FileItem found = null;
+        for (FolderListFragment pane : mPanes) {
+            found = pane.getItemForView(view);
+            if (found != null) {
+                setActivePane(pane);
+                break;
+            }
+        }
+        if (found == null) {
+            return;
+        }
+
+        final FileItem item = found;
+        final File path = item.getPath();
+        if (mArchives.isInOpenArchive(path)) {
+            // The archives are read only.
+            return;
+        }
+
+        new AlertDialog.Builder(this)
+                .setTitle(item.getName())
+                .setItems(R.array.file_actions, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        switch (which) {
+                            case ACTION_COPY:
+                            case ACTION_CUT:
+                                mClipboard.clear();
+                                mClipboard.add(path);
+                                mClipboardMove = which == ACTION_CUT;
+                                Toast.makeText(ExplorerActivity.this, R.string.ready_to_paste,
+                                        Toast.LENGTH_SHORT).show();
+                                break;
+                            case ACTION_DELETE:
+                                confirmDelete(path);
+                                break;
+                        }
+                    }
+                })
+                .show();
+    }
+
+    /**
+     * Asks if the file is moved to the trash, where it can be restored,
+     * or deleted.
+     */
+    private void confirmDelete(final File path) {
+        new AlertDialog.Builder(this)
+                .setMessage(getString(R.string.delete_confirm, path.getName()))
+                .setPositiveButton(R.string.action_move_to_trash,
+                        new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        mOperations.trash(Collections.singletonList(path));
+                    }
+                })
+                .setNeutralButton(R.string.action_delete, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        mOperations.delete(Collections.singletonList(path));
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    /**
+     * Shows the files in the trash of the volume of the active pane,
+     * selecting a file restores it.
+     */
+    private void showTrash() {
+        File currentDir = getCurrentDir();
+        if (currentDir == null) {
+            return;
+        }
+        final TrashArea trash = TrashArea.forFile(currentDir);
+        if (trash == null) {
+            Toast.makeText(this, R.string.no_trash, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        final List<TrashEntry> entries = trash.list();
+        if (entries.isEmpty()) {
+            Toast.makeText(this, R.string.trash_empty, Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        CharSequence[] titles = new CharSequence[entries.size()];
+        for (int i = 0; i < titles.length; i++) {
+            TrashEntry entry = entries.get(i);
+            titles[i] = getString(R.string.trash_entry, entry.getName(),
+                    entry.getOriginalPath().getParent(),
+                    DateUtils.getRelativeTimeSpanString(entry.getDeletedTime()));
+        }
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.action_trash)
+                .setItems(titles, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        mOperations.restore(Collections.singletonList(entries.get(which)));
+                    }
+                })
+                .setNeutralButton(R.string.action_empty_trash,
+                        new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        confirmEmptyTrash(trash, entries.size());
+                    }
+                })
+                .show();
+    }
+
+    private void confirmEmptyTrash(final TrashArea trash, int count) {
+        new AlertDialog.Builder(this)
+                .setMessage(getString(R.string.empty_trash_confirm, count))
+                .setPositiveButton(R.string.action_delete, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        mOperations.delete(Collections.singletonList(trash.getDirectory()));
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    /**
+     * Copies or moves the files of the clipboard to the directory of the
+     * active pane.
+     */
+    private void paste() {
+        File currentDir = getCurrentDir();
+        if (currentDir == null || mClipboard.isEmpty()) {
+            return;
+        }
+        if (!currentDir.isDirectory()) {
+            Toast.makeText(this, R.string.unable_to_paste, Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        if (mClipboardMove) {
+            mOperations.move(mClipboard, currentDir);
+            // The files are no longer where they were cut.
+            mClipboard.clear();
+        } else {
+            mOperations.copy(mClipboard, currentDir);
+        }
+    }
+
+    private final FileOperationQueue.Listener mOperationListener =
+            new FileOperationQueue.Listener() {
+        @Override
+        public void onOperationProgress(FileOperation operation, OperationProgress progress) {
+            mOperationStatus.setVisibility(View.VISIBLE);
+            mOperationStatus.setText(getProgressText(operation, progress));
+        }
+
+        @Override
+        public void onOperationFinished(FileOperation operation, OperationProgress progress,
+                                        int failures, String firstError) {
+            mOperationStatus.setVisibility(View.GONE);
+            if (failures > 0) {
+                Log.w(TAG, "Operation " + operation.getId() + ": " + firstError);
+                Toast.makeText(ExplorerActivity.this,
+                        getString(R.string.operation_failed, failures), Toast.LENGTH_LONG).show();
+            }
+        }
+    };
+
+    /**
+     * Describes the progress of an operation, like "Copying 3 of 10,
+     * 5.2 MB/s, 00:12 left".
+     */
+    private String getProgressText(FileOperation operation, OperationProgress progress) {
+        int label;
+        switch (operation.getType()) {
+            case FileOperation.TYPE_MOVE:
+                label = R.string.operation_move;
+                break;
+            case FileOperation.TYPE_DELETE:
+                label = R.string.operation_delete;
+                break;
+            case FileOperation.TYPE_TRASH:
+                label = R.string.operation_trash;
+                break;
+            case FileOperation.TYPE_RESTORE:
+                label = R.string.operation_restore;
+                break;
+            default:
+                label = R.string.operation_copy;
+                break;
+        }
+
+        if (progress.getFilesTotal() == 0) {
+            return getString(R.string.operation_progress_count, getString(label),
+                    progress.getFilesDone());
+        }
+
+        long remaining = progress.getRemainingMillis();
+        return getString(R.string.operation_progress, getString(label),
+                progress.getFilesDone(), progress.getFilesTotal(),
+                Formatter.formatFileSize(this, progress.getBytesPerSecond()),
+                remaining == OperationProgress.UNKNOWN
+                        ? getString(R.string.unknown_time) : DateUtils.formatElapsedTime(remaining / 1000));
+    }
+
+    /**
+     * Asks for the terms to look for in the file names.
+     */
+    private void showSearchDialog() {
+        final EditText input = new EditText(this);
+        input.setSingleLine();
+        input.setHint(R.string.search_hint);
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.action_search)
+                .setView(input)
+                .setPositiveButton(R.string.action_search, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        search(input.getText().toString());
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    /**
+     * Looks for the query in the file name index and shows the results,
+     * selecting a result opens the directory that contains it.
+     * @param query terms separated by white spaces.
+     */
+    private void search(final String query) {
+        // The short terms are looked for in every name of the index, which
+        // reads the whole index from the storage.
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final List<File> results =
+                        mSearchIndex.query(query, FilenameIndex.DEFAULT_MAX_RESULTS);
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!isFinishing()) {
+                            showSearchResults(query, results);
+                        }
+                    }
+                });
+            }
+        }, TAG).start();
+    }
+
+    /**
+     * Shows the results of a search of the file name index.
+     * @param query terms that were looked for.
+     * @param results paths that match, null if there is no index yet.
+     */
+    private void showSearchResults(String query, final List<File> results) {
+        if (results == null) {
+            Toast.makeText(this, R.string.search_not_ready, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        if (results.isEmpty()) {
+            Toast.makeText(this, R.string.search_no_results, Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        CharSequence[] paths = new CharSequence[results.size()];
+        for (int i = 0; i < paths.length; i++) {
+            paths[i] = results.get(i).getAbsolutePath();
+        }
+
+        new AlertDialog.Builder(this)
+                .setTitle(query)
+                .setItems(paths, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        File result = results.get(which);
+                        File dir = result.isDirectory() ? result : result.getParentFile();
+                        if (dir != null) {
+                            navigateTo(dir);
+                        }
+                    }
+                })
+                .show();
+    }
+
+    /**
+     * Asks for the text to look for inside the files under the directory
+     * of the active pane.
+     */
+    private void showContentSearchDialog() {
+        final File currentDir = getCurrentDir();
+        if (currentDir == null) {
+            return;
+        }
+        final EditText input = new EditText(this);
+        input.setSingleLine();
+        input.setHint(R.string.search_content_hint);
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.action_search_content)
+                .setView(input)
+                .setPositiveButton(R.string.action_search, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        String text = input.getText().toString();
+                        if (text.length() > 0) {
+                            searchContent(currentDir, text);
+                        }
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    /**
+     * Looks for the text inside the files under a directory, the files
+     * are listed as they are found. Selecting a file opens the directory
+     * that contains it.
+     */
+    private void searchContent(File dir, final String text) {
+        cancelContentSearch();
+
+        final List<ContentMatch> matches = new ArrayList<ContentMatch>();
+        final ArrayAdapter<String> adapter = new ArrayAdapter<String>(this,
+                android.R.layout.simple_list_item_1, new ArrayList<String>());
+        mContentResults = new AlertDialog.Builder(this)
+                .setTitle(getString(R.string.search_content_progress, 0))
+                .setAdapter(adapter, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        File parent = matches.get(which).getItem().getPath().getParentFile();
+                        cancelContentSearch();
+                        if (parent != null) {
+                            navigateTo(parent);
+                        }
+                    }
+                })
+                .setOnCancelListener(new DialogInterface.OnCancelListener() {
+                    @Override
+                    public void onCancel(DialogInterface dialog) {
+                        cancelContentSearch();
+                    }
+                })
+                .show();
+
+        mContentSearch = new ContentSearch(dir, text, new ContentSearch.Listener() {
+            @Override
+            public void onContentProgress(int searched, List<ContentMatch> found) {
+                for (ContentMatch match : found) {
+                    matches.add(match);
+                    adapter.add(getString(R.string.search_content_match,
+                            match.getItem().getPath().getAbsolutePath(), match.getMatchCount(),
+                            match.getOffsets()[0]));
+                }
+                mContentResults.setTitle(getString(R.string.search_content_progress, searched));
+            }
+
+            @Override
+            public void onContentSearchFinished(int matched) {
+                mContentSearch = null;
+                if (matched == 0) {
+                    cancelContentSearch();
+                    Toast.makeText(ExplorerActivity.this, R.string.search_no_results,
+                            Toast.LENGTH_SHORT).show();
+                } else {
+                    mContentResults.setTitle(getString(R.string.search_content_done,
+                            matched, text));
+                }
+            }
+        });
+        mContentSearch.start();
+    }
+
+    private void cancelContentSearch() {
+        if (mContentSearch != null) {
+            mContentSearch.cancel();
+            mContentSearch = null;
+        }
+        if (mContentResults != null) {
+            mContentResults.dismiss();
+            mContentResults = null;
+        }
+    }
+
+    /**
+     * Asks for the query that filters the listings, an empty query
+     * shows every entry.
+     */
+    private void showFilterDialog() {
+        final EditText input = new EditText(this);
+        input.setSingleLine();
+        input.setHint(R.string.filter_hint);
+        input.setText(mFilterQuery);
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.action_filter)
+                .setView(input)
+                .setPositiveButton(R.string.action_filter, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        mFilterQuery = input.getText().toString().trim();
+                        updateFilter();
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    private ListingFilter buildFilter() {
+        return new ListingFilter.Builder()
+                .setShowHidden(getPreferences().isShowSystemFiles())
+                .parseQuery(mFilterQuery)
+                .build();
+    }
+
+    /**
+     * Builds the filter again and lists the directories of the panes
+     * with it if it changed.
+     */
+    private void updateFilter() {
+        ListingFilter filter = buildFilter();
+        if (filter.getKey().equals(mFilter.getKey())) {
+            return;
+        }
+
+        mFilter = filter;
+        for (FolderListFragment pane : mPanes) {
+            pane.updateFilter();
+        }
+    }
+
+    @Override
+    protected void onPreferencesChanged(UserPreferences preferences) {
+        updateFilter();
+    }
+
+    /**
+     * Looks for duplicated files under the start directory, showing the
+     * progress until the groups are found.
+     */
+    private void findDuplicates() {
+        cancelDuplicateSearch();
+
+        mDuplicateProgress = new ProgressDialog(this);
+        mDuplicateProgress.setIndeterminate(true);
+        mDuplicateProgress.setMessage(getString(R.string.duplicates_scanning, 0));
+        mDuplicateProgress.setOnCancelListener(new DialogInterface.OnCancelListener() {
+            @Override
+            public void onCancel(DialogInterface dialog) {
+                cancelDuplicateSearch();
+            }
+        });
+        mDuplicateProgress.show();
+
+        mDuplicateSearch = new DuplicateSearch(getPreferences().getStartDir(),
+                new DuplicateSearch.Listener() {
+            @Override
+            public void onDuplicateProgress(int stage, int processed, int total) {
+                int message;
+                switch (stage) {
+                    case DuplicateFinder.STAGE_PARTIAL_HASH:
+                        message = R.string.duplicates_partial_hash;
+                        break;
+                    case DuplicateFinder.STAGE_FULL_HASH:
+                        message = R.string.duplicates_full_hash;
+                        break;
+                    default:
+                        message = R.string.duplicates_scanning;
+                        break;
+                }
+                mDuplicateProgress.setMessage(getString(message, processed, total));
+            }
+
+            @Override
+            public void onDuplicatesFound(List<DuplicateGroup> groups) {
+                mDuplicateProgress.dismiss();
+                mDuplicateProgress = null;
+                mDuplicateSearch = null;
+                showDuplicates(groups);
+            }
+        });
+        mDuplicateSearch.start();
+    }
+
+    private void cancelDuplicateSearch() {
+        if (mDuplicateSearch != null) {
+            mDuplicateSearch.cancel();
+            mDuplicateSearch = null;
+        }
+        if (mDuplicateProgress != null) {
+            mDuplicateProgress.dismiss();
+            mDuplicateProgress = null;
+        }
+    }
+
+    /**
+     * Shows the groups of duplicates, selecting a group allows to delete
+     * some of its copies.
+     */
+    private void showDuplicates(final List<DuplicateGroup> groups) {
+        if (groups.isEmpty()) {
+            Toast.makeText(this, R.string.duplicates_none, Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        CharSequence[] titles = new CharSequence[groups.size()];
+        for (int i = 0; i < titles.length; i++) {
+            DuplicateGroup group = groups.get(i);
+            titles[i] = getString(R.string.duplicates_group,
+                    group.getItems().get(0).getName(), group.getItems().size(),
+                    Formatter.formatFileSize(this, group.getWastedBytes()));
+        }
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.action_duplicates)
+                .setItems(titles, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        showDuplicateGroup(groups.get(which));
+                    }
+                })
+                .show();
+    }
+
+    /**
+     * Shows the copies of a group, every copy but the first is selected
+     * to be deleted.
+     */
+    private void showDuplicateGroup(DuplicateGroup group) {
+        final List<FileItem> items = group.getItems();
+        CharSequence[] paths = new CharSequence[items.size()];
+        final boolean[] selected = new boolean[items.size()];
+        for (int i = 0; i < paths.length; i++) {
+            paths[i] = items.get(i).getPath().getAbsolutePath();
+            selected[i] = i > 0;
+        }
+
+        new AlertDialog.Builder(this)
+                .setTitle(Formatter.formatFileSize(this, group.getSize()))
+                .setMultiChoiceItems(paths, selected,
+                        new DialogInterface.OnMultiChoiceClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which, boolean isChecked) {
+                        selected[which] = isChecked;
+                    }
+                })
+                .setPositiveButton(R.string.action_delete, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        List<File> files = new ArrayList<File>();
+                        for (int i = 0; i < selected.length; i++) {
+                            if (selected[i]) {
+                                files.add(items.get(i).getPath());
+                            }
+                        }
+                        if (!files.isEmpty()) {
+                            mOperations.delete(files);
+                        }
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    /**
+     * Counts the space used under the start directory, showing the
+     * total while the folders are counted.
+     */
+    private void analyzeStorage() {
+        cancelStorageAnalysis();
+
+        mStorageProgress = new ProgressDialog(this);
+        mStorageProgress.setIndeterminate(true);
+        mStorageProgress.setMessage(getString(R.string.storage_scanning,
+                Formatter.formatFileSize(this, 0), 0));
+        mStorageProgress.setOnCancelListener(new DialogInterface.OnCancelListener() {
+            @Override
+            public void onCancel(DialogInterface dialog) {
+                cancelStorageAnalysis();
+            }
+        });
+        mStorageProgress.show();
+
+        mStorageAnalysis = new StorageAnalysis(getPreferences().getStartDir(),
+                new StorageAnalysis.Listener() {
+            @Override
+            public void onStorageProgress(UsageNode root, int folders) {
+                mStorageProgress.setMessage(getString(R.string.storage_scanning,
+                        Formatter.formatFileSize(ExplorerActivity.this, root.getBytes()),
+                        folders));
+            }
+
+            @Override
+            public void onStorageAnalyzed(UsageNode root) {
+                mStorageProgress.dismiss();
+                mStorageProgress = null;
+                mStorageAnalysis = null;
+                showStorageUsage(root);
+            }
+        });
+        mStorageAnalysis.start();
+    }
+
+    private void cancelStorageAnalysis() {
+        if (mStorageAnalysis != null) {
+            mStorageAnalysis.cancel();
+            mStorageAnalysis = null;
+        }
+        if (mStorageProgress != null) {
+            mStorageProgress.dismiss();
+            mStorageProgress = null;
+        }
+    }
+
+    /**
+     * Shows the subfolders of a folder, the biggest ones first, with the
+     * category of files that uses most of their space. Selecting a
+     * subfolder shows its own subfolders.
+     */
+    private void showStorageUsage(final UsageNode node) {
+        final List<UsageNode> children = node.getChildrenBySize();
+        String[] categories = getResources().getStringArray(R.array.storage_categories);
+
+        CharSequence[] titles = new CharSequence[children.size()];
+        for (int i = 0; i < titles.length; i++) {
+            UsageNode child = children.get(i);
+            int top = 0;
+            for (int category = 1; category < UsageNode.CATEGORY_COUNT; category++) {
+                if (child.getBytes(category) > child.getBytes(top)) {
+                    top = category;
+                }
+            }
+            titles[i] = getString(R.string.storage_folder, child.getName(),
+                    Formatter.formatFileSize(this, child.getBytes()),
+                    getPercent(child.getBytes(), node.getBytes()), categories[top]);
+        }
+
+        new AlertDialog.Builder(this)
+                .setTitle(getString(R.string.storage_total, node.getName(),
+                        Formatter.formatFileSize(this, node.getBytes())))
+                .setItems(titles, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        showStorageUsage(children.get(which));
+                    }
+                })
+                .setPositiveButton(R.string.storage_open, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        navigateTo(node.getPath());
+                    }
+                })
+                .setNeutralButton(R.string.storage_by_category,
+                        new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        showStorageCategories(node);
+                    }
+                })
+                .show();
+    }
+
+    /**
+     * Shows the space used by each category of files under a folder.
+     */
+    private void showStorageCategories(UsageNode node) {
+        String[] categories = getResources().getStringArray(R.array.storage_categories);
+        CharSequence[] titles = new CharSequence[UsageNode.CATEGORY_COUNT];
+        for (int category = 0; category < titles.length; category++) {
+            long bytes = node.getBytes(category);
+            titles[category] = getString(R.string.storage_category, categories[category],
+                    Formatter.formatFileSize(this, bytes), getPercent(bytes, node.getBytes()));
+        }
+
+        new AlertDialog.Builder(this)
+                .setTitle(getString(R.string.storage_total, node.getName(),
+                        Formatter.formatFileSize(this, node.getBytes())))
+                .setItems(titles, null)
+                .show();
+    }
+
+    private static int getPercent(long bytes, long total) {
+        return total == 0 ? 0 : (int) (bytes * 100 / total);
+    }
+
+    /**
+     * Writes the metrics to a file of the app and to the log.
+     */
+    private void dumpMetrics() {
+        StringWriter text = new StringWriter();
+        Metrics.dump(new PrintWriter(text));
+        for (String line : text.toString().split("\n")) {
+            Log.i(TAG, line);
+        }
+
+        File file = new File(getFilesDir(), METRICS_FILE);
+        try {
+            FileUtils.writeStringToFile(file, text.toString());
+            Toast.makeText(this, getString(R.string.metrics_saved, file), Toast.LENGTH_SHORT).show();
+        } catch (IOException ioe) {
+            Log.w(TAG, "Unable to write " + file, ioe);
+            Toast.makeText(this, R.string.metrics_not_saved, Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    /**
+     * Adds the metrics to the output of "adb shell dumpsys activity",
+     * only called from Honeycomb on.
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        Metrics.dump(writer);
+    }
+
+    /**
+     * The directories may have changed while the activity was stopped.
+     */
+    @Override
+    protected void onRestart() {
+        super.onRestart();
+        for (FolderListFragment pane : mPanes) {
+            pane.refresh();
+        }
+        mSearchIndex.update();
+    }
+
+    @Override
+    protected void onStop() {
+        mPrefetcher.cancel();
+        mPrefetcher.save();
+        super.onStop();
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+
+        if (mActivePaneTag != null) {
+            outState.putString(ACTIVE_PANE, mActivePaneTag);
+        }
+        outState.putString(FILTER_QUERY, mFilterQuery);
+    }
+
+    /**
+     * Extracts a file of an archive on a background thread and opens it
+     * with the app that handles its type.
+     * @param path path of the entry inside the archive.
+     */
+    void openArchiveEntry(final File path) {
+        File dir = new File(Environment.getExternalStorageDirectory(),
+                String.format(EXTRACTED_DIR, getPackageName()));
+        final File destination = new File(dir, path.getName());
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Toast.makeText(this, R.string.unable_to_extract, Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                boolean extracted;
+                try {
+                    mArchives.extract(path, destination);
+                    extracted = true;
+                } catch (IOException ioe) {
+                    Log.w(TAG, "Unable to extract " + path, ioe);
+                    destination.delete();
+                    extracted = false;
+                }
+
+                final boolean success = extracted;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (success) {
+                            viewFile(destination);
+                        } else {
+                            Toast.makeText(ExplorerActivity.this, R.string.unable_to_extract,
+                                    Toast.LENGTH_SHORT).show();
+                        }
+                    }
+                });
+            }
+        }, TAG).start();
+    }
+
+    /**
+     * Opens a file with the app that handles its type.
+     * @param file file that is going to be opened.
+     */
+    private void viewFile(File file) {
+        String mimeType = FileTypes.getMimeType(file);
+        Intent intent = new Intent(Intent.ACTION_VIEW);
+        intent.setDataAndType(Uri.fromFile(file), mimeType != null ? mimeType : "*/*");
+        try {
+            startActivity(intent);
+        } catch (ActivityNotFoundException anfe) {
+            Toast.makeText(this, R.string.no_app_to_open, Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    /**
+     * The active pane goes to the parent directory, if its directory is
+     * the root the activity is closed.
+     */
+    @Override
+    public void onBackPressed() {
+        if (mActivePane == null || !mActivePane.navigateUp()) {
+            super.onBackPressed();
+        }
+    }
+
+    /**
+     * Perform any final cleanup before an activity is destroyed. The
+     * panes are destroyed by super.onDestroy, the objects they share
+     * are released after them.
+     */
+    @Override
+    protected void onDestroy() {
+        mSearchIndex.shutdown();
+        mOperations.setListener(null);
+        if (isFinishing()) {
+            mOperations.shutdown();
+        }
+        cancelDuplicateSearch();
+        cancelStorageAnalysis();
+        cancelContentSearch();
+        super.onDestroy();
+
+        mPrefetcher.shutdown();
+        mWatcher.shutdown();
+        mScanners.shutdownNow();
+        mSizePool.shutdownNow();
+        mThumbnailLoader.shutdown();
+        mArchives.clear();
+    }
 }
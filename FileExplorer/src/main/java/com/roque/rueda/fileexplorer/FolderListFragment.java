@@ -1,42 +1,103 @@
-/*
- * Copyright 2013 Roque Rueda.
- *
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- *
- *      http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-
 package com.roque.rueda.fileexplorer;
 
-import android.support.v7.app.ActionBarActivity;
-import android.support.v7.app.ActionBar;
-import android.support.v4.app.Fragment;
 import android.os.Bundle;
+import android.support.v4.app.ListFragment;
 import android.view.LayoutInflater;
+import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AbsListView;
+import android.widget.ListView;
+import android.widget.Toast;
+
+import com.roque.rueda.fileexplorer.adapters.FileListAdapter;
+import com.roque.rueda.fileexplorer.loader.DirectoryLoader;
+import com.roque.rueda.fileexplorer.loader.DirectorySizeCalculator;
+import com.roque.rueda.fileexplorer.loader.ListingDiff;
+import com.roque.rueda.fileexplorer.loader.ListingFilter;
+import com.roque.rueda.fileexplorer.loader.PagedListing;
+import com.roque.rueda.fileexplorer.model.FileItem;
+import com.roque.rueda.fileexplorer.model.FileItemTable;
+import com.roque.rueda.fileexplorer.utils.FileSorter;
+import com.roque.rueda.fileexplorer.utils.FileTypes;
+import com.roque.rueda.fileexplorer.watcher.DirectoryWatcher;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Created by Roque on 27/10/13.
  *
- * This fragment its used to display the list of folders.
- *
+ * This fragment its used to display the list of folders. Each pane of
+ * the ExplorerActivity is one of these fragments, it shows one
+ * directory and keeps it updated while it changes.
  *
+ * The panes share the caches, the thread pools and the watcher of the
+ * activity: a directory open in two panes is listed and watched once.
  */
-public class FolderListFragment extends Fragment {
+public class FolderListFragment extends ListFragment
+        implements DirectoryLoader.Callback, DirectoryWatcher.Listener {
+
+    private static final String ARG_DIR = "dir";
+
+    private static final String CURRENT_DIR = "current-dir";
+
+    private ExplorerActivity mActivity;
+    private File mCurrentDir;
+
+    /**
+     * Filter used to list the current directory.
+     */
+    private ListingFilter mFilter;
+    private FileItemTable mTable;
+    private List<FileItem> mFiles;
+
+    /**
+     * Listing of the current directory when it is too big to be kept
+     * in the table, null otherwise.
+     */
+    private PagedListing mPagedListing;
+    private FileListAdapter adapter;
+    private DirectoryLoader mLoader;
+    private DirectorySizeCalculator mSizeCalculator;
+
+    /**
+     * A load of the current directory is in progress.
+     */
+    private boolean mLoading;
+
+    /**
+     * The directory changed while it was being loaded.
+     */
+    private boolean mRefreshPending;
+
+    /**
+     * Items read while the current directory is refreshed, null when
+     * the directory is being loaded for the first time.
+     */
+    private List<FileItem> mRefreshFiles;
 
     public FolderListFragment() {
 
     }
 
+    /**
+     * Creates a pane that shows a directory.
+     * @param dir directory displayed when the pane is created.
+     * @return new pane.
+     */
+    public static FolderListFragment newInstance(File dir) {
+        Bundle arguments = new Bundle();
+        arguments.putString(ARG_DIR, dir.getAbsolutePath());
+
+        FolderListFragment fragment = new FolderListFragment();
+        fragment.setArguments(arguments);
+        return fragment;
+    }
+
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
                              Bundle savedInstanceState) {
@@ -44,4 +105,437 @@ public class FolderListFragment extends Fragment {
         return rootView;
     }
 
+    /**
+     * The shared objects of the activity exist once its onCreate
+     * finished, even when the fragment is restored before.
+     */
+    @Override
+    public void onActivityCreated(Bundle savedInstanceState) {
+        super.onActivityCreated(savedInstanceState);
+        mActivity = (ExplorerActivity) getActivity();
+
+        // The items are kept in columns, only the rows on screen are objects.
+        mTable = new FileItemTable(null);
+        mFiles = mTable.asList();
+        adapter = new FileListAdapter(mActivity, mFiles, mActivity.getThumbnailLoader());
+        setListAdapter(adapter);
+
+        ListView listView = getListView();
+        listView.setRecyclerListener(adapter);
+        listView.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+                // The prefetch waits while the rows are being scrolled.
+                mActivity.getPrefetcher().setPaused(scrollState != SCROLL_STATE_IDLE);
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem,
+                                 int visibleItemCount, int totalItemCount) {
+                adapter.setViewport(firstVisibleItem, firstVisibleItem + visibleItemCount - 1);
+            }
+        });
+        listView.setOnTouchListener(new View.OnTouchListener() {
+            @Override
+            public boolean onTouch(View view, MotionEvent event) {
+                if (event.getAction() == MotionEvent.ACTION_DOWN) {
+                    mActivity.setActivePane(FolderListFragment.this);
+                }
+                return false;
+            }
+        });
+
+        mLoader = mActivity.createLoader(getTag());
+        mSizeCalculator = new DirectorySizeCalculator(new DirectorySizeCalculator.Listener() {
+            @Override
+            public void onSizesChanged() {
+                adapter.notifyDataSetChanged();
+            }
+        }, mActivity.getSizePool());
+
+        String dir = null;
+        if (savedInstanceState != null) {
+            dir = savedInstanceState.getString(CURRENT_DIR);
+        }
+        if (dir == null) {
+            dir = getArguments().getString(ARG_DIR);
+        }
+
+        mActivity.attachPane(this);
+        navigateTo(new File(dir));
+    }
+
+    @Override
+    public void onStart() {
+        super.onStart();
+
+        if (mCurrentDir != null) {
+            mActivity.getWatcher().watch(mCurrentDir, mFilter, this);
+        }
+    }
+
+    @Override
+    public void onStop() {
+        mActivity.getWatcher().stop(this);
+        super.onStop();
+    }
+
+    @Override
+    public void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+
+        if (mCurrentDir != null) {
+            outState.putString(CURRENT_DIR, mCurrentDir.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Releases the listing and the loads of the pane, the pools are
+     * released by the activity.
+     */
+    @Override
+    public void onDestroy() {
+        if (mActivity != null) {
+            mLoader.shutdown();
+            mSizeCalculator.shutdown();
+            adapter.cancelThumbnails();
+            releaseListing();
+            closePagedListing();
+            mActivity.detachPane(this);
+        }
+        super.onDestroy();
+    }
+
+    /**
+     *
+     * @return directory displayed by the pane.
+     */
+    public File getDirectory() {
+        return mCurrentDir;
+    }
+
+    @Override
+    public void onListItemClick(ListView l, View v, int position, long id) {
+        mActivity.setActivePane(this);
+        FileItem item = adapter.getItem(position);
+
+        if (item == null) {
+            return;
+        }
+
+        if (item.isDirectory() || FileTypes.getType(item) == FileTypes.TYPE_ZIP) {
+            // The zip archives are browsed as folders.
+            navigateTo(item.getPath());
+        } else if (mActivity.getArchives().isInOpenArchive(item.getPath())) {
+            mActivity.openArchiveEntry(item.getPath());
+        }
+    }
+
+    /**
+     * Gets the item of the row that contains a view.
+     * @param view view inside a row.
+     * @return item of the row or null if the view is not in this pane.
+     */
+    public FileItem getItemForView(View view) {
+        if (adapter == null) {
+            return null;
+        }
+        int position = getListView().getPositionForView(view);
+        if (position == ListView.INVALID_POSITION) {
+            return null;
+        }
+        return adapter.getItem(position);
+    }
+
+    /**
+     * Goes to the parent directory.
+     * @return false if the current directory is the root.
+     */
+    public boolean navigateUp() {
+        if (mCurrentDir != null && !FileTypes.isRootFile(mCurrentDir)
+                && mCurrentDir.getParentFile() != null) {
+            navigateTo(mCurrentDir.getParentFile());
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Shows the content of the specified directory, the load of the
+     * previous directory is cancelled.
+     * @param dir directory that is going to be displayed.
+     */
+    public void navigateTo(File dir) {
+        releaseListing();
+        mCurrentDir = dir;
+        mFilter = mActivity.getFilter();
+        mActivity.onPaneNavigated(this);
+
+        mSizeCalculator.cancel();
+        adapter.cancelThumbnails();
+        mActivity.getPrefetcher().cancel();
+        mActivity.getPrefetcher().visit(dir);
+        mRefreshFiles = null;
+        mRefreshPending = false;
+        mLoading = true;
+        closePagedListing();
+        mTable.reset(dir);
+        adapter.clear();
+        // Kept while the pane displays it, so other panes can use it.
+        mActivity.getListings().acquire(dir, mFilter.getKey());
+        mLoader.load(dir, mFilter, mActivity.getPreferences().getSortMode(), this);
+        mActivity.getWatcher().watch(dir, mFilter, this);
+    }
+
+    /**
+     * Lists the current directory again if the filter of the activity
+     * changed since it was listed.
+     */
+    public void updateFilter() {
+        if (mCurrentDir != null
+                && !mActivity.getFilter().getKey().equals(mFilter.getKey())) {
+            navigateTo(mCurrentDir);
+        }
+    }
+
+    /**
+     * Reads the current directory again and updates only the items that
+     * changed, the scroll position of the list is kept.
+     */
+    public void refresh() {
+        if (mCurrentDir == null) {
+            return;
+        }
+
+        // A paged listing is replaced, there is no list to compare with.
+        mRefreshFiles = mPagedListing == null ? new ArrayList<FileItem>() : null;
+        mRefreshPending = false;
+        mLoading = true;
+        mLoader.load(mCurrentDir, mFilter, mActivity.getPreferences().getSortMode(), this);
+    }
+
+    /**
+     * Sorts the displayed items again.
+     * @param sortMode one of the FileSorter.SORT_ constants.
+     */
+    public void setSortMode(int sortMode) {
+        if (mPagedListing != null) {
+            // The order of the pages is computed on the worker thread,
+            // a load that was in progress is started again after it.
+            mRefreshPending |= mLoading;
+            mLoading = true;
+            mLoader.sort(mPagedListing, sortMode, this);
+        } else if (!mLoading) {
+            FileSorter.sort(mTable, sortMode);
+            adapter.notifyDataSetChanged();
+        }
+    }
+
+    private void releaseListing() {
+        if (mCurrentDir != null) {
+            mActivity.getListings().release(mCurrentDir, mFilter.getKey());
+        }
+    }
+
+    /**
+     * Deletes the paged listing of the directory, if there is one. The
+     * adapter has to be cleared or given other listing.
+     */
+    private void closePagedListing() {
+        if (mPagedListing != null) {
+            mPagedListing.close();
+            mPagedListing = null;
+        }
+    }
+
+    @Override
+    public void onBatchLoaded(File dir, List<FileItem> batch) {
+        if (mPagedListing != null) {
+            // The directory is no longer big enough to be paged.
+            closePagedListing();
+            adapter.clear();
+        }
+
+        if (mRefreshFiles != null) {
+            mRefreshFiles.addAll(batch);
+        } else {
+            adapter.addFiles(batch);
+        }
+    }
+
+    @Override
+    public void onLoadFinished(File dir, int total, FileSorter.Ranks ranks) {
+        mLoading = false;
+
+        if (mPagedListing != null) {
+            // The directory was paged and now it is empty.
+            closePagedListing();
+            adapter.clear();
+        }
+
+        int sortMode = mActivity.getPreferences().getSortMode();
+
+        if (mRefreshFiles != null) {
+            FileSorter.sort(mRefreshFiles, ranks, sortMode);
+            List<ListingDiff.Operation> operations = ListingDiff.compute(mFiles, mRefreshFiles);
+            mRefreshFiles = null;
+            applyDiff(operations);
+        } else {
+            // The items are sorted once all of them are on the list.
+            if (ranks.name.length == mTable.size()) {
+                mTable.setRanks(ranks.name, ranks.natural);
+            }
+            FileSorter.sort(mTable, sortMode);
+            adapter.notifyDataSetChanged();
+
+            // Count the size of the folders.
+            int readableDir = FileItem.FLAG_DIRECTORY | FileItem.FLAG_READABLE;
+            List<File> subdirs = new ArrayList<File>();
+            for (int row = 0; row < mTable.size(); row++) {
+                int flags = mTable.getFlags(row);
+                // The folders of the archives already know their size.
+                if ((flags & readableDir) == readableDir
+                        && (flags & FileItem.FLAG_SIZE_COMPLETE) == 0) {
+                    mSizeCalculator.calculate(mTable.get(row));
+                    subdirs.add(mTable.getPath(row));
+                }
+            }
+            // While the user looks at the folder, the next ones are listed.
+            mActivity.getPrefetcher().prefetch(subdirs, mFilter);
+        }
+
+        if (mRefreshPending) {
+            refresh();
+        }
+    }
+
+    @Override
+    public void onPagedListingLoaded(File dir, PagedListing listing, int[] order) {
+        mLoading = false;
+        mRefreshFiles = null;
+
+        listing.setOrder(order);
+        if (listing != mPagedListing) {
+            // The folder sizes are not counted, there are too many.
+            closePagedListing();
+            mTable.reset(dir);
+            adapter.clear();
+            mPagedListing = listing;
+        }
+        adapter.setPagedListing(listing);
+
+        if (mRefreshPending) {
+            refresh();
+        }
+    }
+
+    /**
+     * Applies the operations to the listing and counts the size of the
+     * folders that are new or changed.
+     */
+    private void applyDiff(List<ListingDiff.Operation> operations) {
+        Map<File, FileItem> counted = getCountedFolders(operations);
+        adapter.applyDiff(operations, getListView());
+
+        for (ListingDiff.Operation operation : operations) {
+            if (operation.item == null) {
+                continue;
+            }
+
+            // The table copied the values of the item, the size is
+            // written to the row.
+            FileItem row = mTable.get(operation.position);
+            FileItem old = counted.get(row.getPath());
+            if (old != null && old.getLastModifiedTime() == row.getLastModifiedTime()) {
+                // Only the flags or the position of the folder changed.
+                row.setSize(old.getSize());
+                row.setFlags(row.getFlags() | FileItem.FLAG_SIZE_COMPLETE);
+            }
+            calculateSize(row);
+        }
+    }
+
+    /**
+     * Gets the values of the changed or moved folders whose size was
+     * already counted, before the rows are replaced.
+     * @return the old values of the folders by path.
+     */
+    private Map<File, FileItem> getCountedFolders(List<ListingDiff.Operation> operations) {
+        Map<File, FileItem> counted = new HashMap<File, FileItem>();
+        for (ListingDiff.Operation operation : operations) {
+            if (operation.item != null && operation.item.isDirectory()) {
+                counted.put(operation.item.getPath(), null);
+            }
+        }
+        if (counted.isEmpty()) {
+            return counted;
+        }
+
+        for (int row = 0; row < mTable.size(); row++) {
+            int flags = mTable.getFlags(row);
+            if ((flags & FileItem.FLAG_SIZE_COMPLETE) != 0) {
+                File path = mTable.getPath(row);
+                if (counted.containsKey(path)) {
+                    counted.put(path, new FileItem(path, mTable.getSize(row),
+                            mTable.getLastModifiedTime(row), flags));
+                }
+            }
+        }
+        return counted;
+    }
+
+    private void calculateSize(FileItem item) {
+        if (item.isDirectory() && item.canRead()
+                && (item.getFlags() & FileItem.FLAG_SIZE_COMPLETE) == 0) {
+            mSizeCalculator.calculate(item);
+        }
+    }
+
+    @Override
+    public void onLoadFailed(File dir) {
+        mRefreshFiles = null;
+        mRefreshPending = false;
+        mLoading = false;
+        Toast.makeText(mActivity, R.string.unable_to_list_dir, Toast.LENGTH_SHORT).show();
+    }
+
+    @Override
+    public void onEntriesChanged(File dir, List<FileItem> updated, List<File> removed) {
+        if (mPagedListing != null && !mLoading) {
+            // The rows of a paged listing are not changed one by one.
+            refresh();
+            return;
+        }
+
+        if (mLoading) {
+            // The changes are read when the load finishes.
+            mRefreshPending = true;
+            return;
+        }
+
+        List<ListingDiff.Operation> operations = ListingDiff.compute(mFiles, updated, removed);
+        applyDiff(operations);
+
+        boolean inserted = false;
+        for (ListingDiff.Operation operation : operations) {
+            if (operation.type == ListingDiff.INSERT) {
+                inserted = true;
+            }
+        }
+
+        // The new items were added at the end.
+        if (inserted) {
+            FileSorter.sort(mTable, mActivity.getPreferences().getSortMode());
+            adapter.notifyDataSetChanged();
+        }
+    }
+
+    @Override
+    public void onDirectoryInvalidated(File dir) {
+        if (mLoading) {
+            mRefreshPending = true;
+        } else {
+            refresh();
+        }
+    }
 }
@@ -16,52 +16,108 @@
 package com.roque.rueda.fileexplorer.adapters;
 
 
+import android.graphics.Bitmap;
+import android.text.format.Formatter;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AbsListView;
 import android.widget.BaseAdapter;
 import android.widget.ImageView;
+import android.widget.ListView;
 import android.widget.TextView;
 
 import com.roque.rueda.fileexplorer.ExplorerActivity;
-import com.roque.rueda.fileexplorer.model.FileItem;
 import com.roque.rueda.fileexplorer.R;
+import com.roque.rueda.fileexplorer.loader.ListingDiff;
+import com.roque.rueda.fileexplorer.loader.PagedListing;
+import com.roque.rueda.fileexplorer.loader.ThumbnailLoader;
+import com.roque.rueda.fileexplorer.metrics.Histogram;
+import com.roque.rueda.fileexplorer.metrics.Metrics;
+import com.roque.rueda.fileexplorer.model.FileItem;
+import com.roque.rueda.fileexplorer.utils.IconUtil;
 
+import java.io.File;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 
 /**
- * Adapter that used to show the file items in a list view.
+ * Adapter that used to show the file items in a list view. The rows come
+ * from the list of items, or from a PagedListing for the directories
+ * that are too big to keep in memory.
  *
  * Created by Roque on 13/11/13.
  */
-public class FileListAdapter extends BaseAdapter {
+public class FileListAdapter extends BaseAdapter implements AbsListView.RecyclerListener {
 
     /**
      * This class represents a container for each view.
      */
-    public static class ViewHolder {
+    public static class ViewHolder implements ThumbnailLoader.Target {
         public TextView resName;
         public ImageView resIcon;
         public ImageView resActions;
         public TextView resMeta;
+
+        /**
+         * File displayed by the row and its last modified time, used to
+         * drop the thumbnails of files that the row no longer displays.
+         */
+        File path;
+        long lastModified;
+        ThumbnailLoader.Request thumbnailRequest;
+
+        void cancelThumbnail() {
+            if (thumbnailRequest != null) {
+                thumbnailRequest.cancel();
+                thumbnailRequest = null;
+            }
+        }
+
+        @Override
+        public void onThumbnailLoaded(File path, long lastModified, Bitmap thumbnail) {
+            if (lastModified == this.lastModified && path.equals(this.path)) {
+                thumbnailRequest = null;
+                resIcon.setImageBitmap(thumbnail);
+            }
+        }
     }
 
     private static final String TAG = "FileListAdapter";
+
+    private static final Histogram BIND_TIME = Metrics.histogram("adapter.bind");
     private ExplorerActivity mContext;
     private List<FileItem> mFiles;
+    private PagedListing mPagedListing;
+    private ThumbnailLoader mThumbnailLoader;
     private LayoutInflater mInflater;
+    private DateFormat mDateFormat;
+    private Date mDate = new Date();
+
+    /**
+     * Holders of the rows created by this adapter, the thumbnail loader
+     * is shared with the adapters of the other panes.
+     */
+    private final List<ViewHolder> mHolders = new ArrayList<ViewHolder>();
 
     /**
      * Creates an instance and set the required values for this adapter.
      * @param context Context for this File List adapter.
      * @param files List of files to show as items on the list.
+     * @param thumbnailLoader loader of the thumbnails of images and
+     *                        videos, may be null to show only icons.
      */
-    public FileListAdapter(ExplorerActivity context, List<FileItem> files) {
+    public FileListAdapter(ExplorerActivity context, List<FileItem> files,
+                           ThumbnailLoader thumbnailLoader) {
         super();
 
         mContext = context;
         this.mFiles = files;
+        mThumbnailLoader = thumbnailLoader;
         mInflater = context.getLayoutInflater();
+        mDateFormat = android.text.format.DateFormat.getDateFormat(context);
     }
 
     /**
@@ -70,7 +126,9 @@ public class FileListAdapter extends BaseAdapter {
      */
     @Override
     public int getCount() {
-        if (mFiles == null) {
+        if (mPagedListing != null) {
+            return mPagedListing.size();
+        } else if (mFiles == null) {
             return 0;
         } else {
             return mFiles.size();
@@ -85,8 +143,10 @@ public class FileListAdapter extends BaseAdapter {
      * items is null.
      */
     @Override
-    public Object getItem(int position) {
-        if (mFiles == null) {
+    public FileItem getItem(int position) {
+        if (mPagedListing != null) {
+            return mPagedListing.get(position);
+        } else if (mFiles == null) {
             return null;
         } else {
             return  mFiles.get(position);
@@ -100,7 +160,94 @@ public class FileListAdapter extends BaseAdapter {
      */
     @Override
     public long getItemId(int position) {
-        return  position;
+        return getItem(position).hashCode();
+    }
+
+    /**
+     * The id of each item is based on its path, so the list can keep its
+     * scroll position and selection when items are inserted or removed.
+     * @return true
+     */
+    @Override
+    public boolean hasStableIds() {
+        return true;
+    }
+
+    /**
+     * Shows the rows of a paged listing instead of the list of items.
+     * @param listing listing that is displayed, null to display the list
+     *                of items again.
+     */
+    public void setPagedListing(PagedListing listing) {
+        mPagedListing = listing;
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Sets the rows that are on screen, the pages of a paged listing far
+     * from them are dropped first.
+     * @param first first visible position.
+     * @param last last visible position.
+     */
+    public void setViewport(int first, int last) {
+        if (mPagedListing != null) {
+            mPagedListing.setViewport(first, last);
+        }
+    }
+
+    /**
+     * Adds a batch of items at the end of the list and refresh the views.
+     * @param files items that are going to be added.
+     */
+    public void addFiles(List<FileItem> files) {
+        mFiles.addAll(files);
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Updates the list applying only the operations of a diff. When the
+     * operations only change items, the rows of those items that are
+     * visible are bound again and the rest of the rows are not touched.
+     * @param operations operations computed by ListingDiff.
+     * @param listView list view that displays this adapter.
+     */
+    public void applyDiff(List<ListingDiff.Operation> operations, ListView listView) {
+        if (operations.isEmpty()) {
+            return;
+        }
+
+        ListingDiff.apply(mFiles, operations);
+
+        boolean structural = false;
+        for (ListingDiff.Operation operation : operations) {
+            if (operation.type != ListingDiff.CHANGE) {
+                structural = true;
+                break;
+            }
+        }
+
+        if (structural) {
+            notifyDataSetChanged();
+            return;
+        }
+
+        int first = listView.getFirstVisiblePosition();
+        int last = listView.getLastVisiblePosition();
+        for (ListingDiff.Operation operation : operations) {
+            int position = operation.position;
+            if (position >= first && position <= last) {
+                getView(position, listView.getChildAt(position - first), listView);
+            }
+        }
+    }
+
+    /**
+     * Removes all the items of the list.
+     */
+    public void clear() {
+        mPagedListing = null;
+        mFiles.clear();
+        notifyDataSetChanged();
     }
 
     /**
@@ -112,6 +259,7 @@ public class FileListAdapter extends BaseAdapter {
      */
     @Override
     public View getView(int position, View convertView, ViewGroup parent) {
+        long start = Metrics.start();
         ViewHolder holder = null;
 
         // Check if the convertView is null
@@ -121,22 +269,107 @@ public class FileListAdapter extends BaseAdapter {
 
             holder = new ViewHolder();
             holder.resName = (TextView) convertView.findViewById(R.id.explorer_resName);
-            holder.resMeta = (TextView) convertView.findViewById(R.id.explorer_resIcon);
+            holder.resMeta = (TextView) convertView.findViewById(R.id.explorer_resMeta);
             holder.resIcon = (ImageView) convertView.findViewById(R.id.explorer_resIcon);
             holder.resActions = (ImageView) convertView.findViewById(R.id.explorer_resActions);
 
             // Set the holder into the view as data.
             convertView.setTag(holder);
+            mHolders.add(holder);
         } else {
 
             // Get the data from the view.
             holder = (ViewHolder) convertView.getTag();
         }
 
-        final FileItem currentFile = mFiles.get(position);
+        final FileItem currentFile = getItem(position);
         holder.resName.setText(currentFile.getName());
-        holder.resIcon.setImageDrawable(Util.getIcon);
+        bindIcon(holder, currentFile);
+        holder.resMeta.setText(getMeta(currentFile));
 
+        BIND_TIME.recordSince(start);
+        return convertView;
+    }
+
+    /**
+     * Shows the thumbnail of the item if it is in memory, otherwise the
+     * icon of its type is shown and the thumbnail is requested.
+     * @param holder holder of the row.
+     * @param item item displayed by the row.
+     */
+    private void bindIcon(ViewHolder holder, FileItem item) {
+        File path = item.getPath();
+        long lastModified = item.getLastModifiedTime();
+        if (holder.thumbnailRequest != null && (holder.thumbnailRequest.isCancelled()
+                || !holder.thumbnailRequest.isFor(path, lastModified))) {
+            holder.cancelThumbnail();
+        }
+        holder.path = path;
+        holder.lastModified = lastModified;
+
+        int type = IconUtil.classify(item);
+        if (mThumbnailLoader == null || !ThumbnailLoader.hasThumbnail(type)) {
+            holder.resIcon.setImageDrawable(IconUtil.getIcon(mContext, type));
+            return;
+        }
+
+        Bitmap thumbnail = mThumbnailLoader.getCached(path, lastModified);
+        if (thumbnail != null) {
+            holder.cancelThumbnail();
+            holder.resIcon.setImageBitmap(thumbnail);
+            return;
+        }
+
+        holder.resIcon.setImageDrawable(IconUtil.getIcon(mContext, type));
+        if (holder.thumbnailRequest == null) {
+            holder.thumbnailRequest = mThumbnailLoader.load(path, lastModified, type, holder);
+        }
+    }
 
+    /**
+     * Cancels the thumbnails requested by the rows of this adapter, used
+     * when the displayed files change.
+     */
+    public void cancelThumbnails() {
+        for (ViewHolder holder : mHolders) {
+            holder.cancelThumbnail();
+        }
+    }
+
+    /**
+     * The row is no longer on screen, its thumbnail is not needed.
+     * @param view view of the row.
+     */
+    @Override
+    public void onMovedToScrapHeap(View view) {
+        Object tag = view.getTag();
+        if (tag instanceof ViewHolder) {
+            ((ViewHolder) tag).cancelThumbnail();
+        }
+    }
+
+    /**
+     * Builds the text that describes the item using the values that
+     * were read when the item was listed.
+     * @param item item that is going to be described.
+     * @return size and last modified date of the item.
+     */
+    private String getMeta(FileItem item) {
+        if (!item.hasSnapshot()) {
+            return "";
+        }
+
+        mDate.setTime(item.getLastModifiedTime());
+        String date = mDateFormat.format(mDate);
+
+        int flags = item.getFlags();
+        if (item.isFile() || (flags & FileItem.FLAG_SIZE_COMPLETE) != 0) {
+            return Formatter.formatFileSize(mContext, item.getSize()) + "  " + date;
+        } else if ((flags & FileItem.FLAG_SIZE_PARTIAL) != 0) {
+            return mContext.getString(R.string.size_partial,
+                    Formatter.formatFileSize(mContext, item.getSize())) + "  " + date;
+        } else {
+            return date;
+        }
     }
 }
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.archive;
+
+import android.util.Log;
+
+import com.roque.rueda.fileexplorer.model.FileItem;
+import com.roque.rueda.fileexplorer.utils.MimeSniffer;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lets the zip archives be browsed as folders. A path inside an archive
+ * is the path of the archive followed by the path of the entry, like
+ * /sdcard/photos.zip/2013/beach.jpg.
+ *
+ * The last archives that were opened are kept in memory, so going in
+ * and out of the folders of an archive reads its central directory once.
+ *
+ * Created by Roque on 27/11/13.
+ */
+public class ArchiveProvider {
+
+    private static final String TAG = "ArchiveProvider";
+
+    private static final int MAX_OPEN_ARCHIVES = 2;
+
+    /**
+     * Open archives by path, in access order.
+     */
+    private final LinkedHashMap<String, ZipArchive> mArchives =
+            new LinkedHashMap<String, ZipArchive>(4, 0.75f, true);
+
+    /**
+     * Indicates if the path is inside an archive that is already open,
+     * it does not touch the disk.
+     * @param path path that is going to be checked.
+     * @return true if the path is inside an open archive.
+     */
+    public synchronized boolean isInOpenArchive(File path) {
+        String value = path.getAbsolutePath();
+        for (String archive : mArchives.keySet()) {
+            if (value.length() > archive.length() && value.startsWith(archive)
+                    && value.charAt(archive.length()) == File.separatorChar) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Lists a folder inside an archive, or the root of an archive.
+     * @param dir path of the folder.
+     * @return items of the folder or null if the path is not inside
+     * an archive.
+     */
+    public List<FileItem> list(File dir) {
+        Location location = resolve(dir);
+        return location == null ? null : location.archive.list(location.path);
+    }
+
+    /**
+     * Copies a file entry of an archive, the entry is decompressed while
+     * it is copied.
+     * @param path path of the entry.
+     * @param destination file where the content is written.
+     * @throws IOException if the path is not a file inside an archive or
+     * it can not be copied.
+     */
+    public void extract(File path, File destination) throws IOException {
+        Location location = resolve(path);
+        if (location == null) {
+            throw new IOException("Not inside an archive: " + path);
+        }
+
+        InputStream in = location.archive.openEntry(location.path);
+        try {
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(destination));
+            try {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) >= 0) {
+                    out.write(buffer, 0, read);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Closes all the archives.
+     */
+    public synchronized void clear() {
+        mArchives.clear();
+    }
+
+    /**
+     * An archive and a path inside it.
+     */
+    private static class Location {
+        final ZipArchive archive;
+        final String path;
+
+        Location(ZipArchive archive, String path) {
+            this.archive = archive;
+            this.path = path;
+        }
+    }
+
+    /**
+     * Finds the archive that contains the path. The parents of the path
+     * are checked until one exists on the disk, if it is a zip archive
+     * the rest of the path is inside it.
+     */
+    private Location resolve(File path) {
+        File archiveFile = path.getAbsoluteFile();
+        StringBuilder inner = new StringBuilder();
+        while (archiveFile != null && !archiveFile.exists()) {
+            inner.insert(0, archiveFile.getName()).insert(0, '/');
+            archiveFile = archiveFile.getParentFile();
+        }
+        if (archiveFile == null || !archiveFile.isFile()) {
+            return null;
+        }
+
+        ZipArchive archive = getArchive(archiveFile);
+        if (archive == null) {
+            return null;
+        }
+        return new Location(archive, inner.length() > 0 ? inner.substring(1) : "");
+    }
+
+    private ZipArchive getArchive(File file) {
+        String key = file.getAbsolutePath();
+        synchronized (this) {
+            ZipArchive archive = mArchives.get(key);
+            if (archive != null && archive.getLastModified() == file.lastModified()) {
+                return archive;
+            }
+        }
+
+        if (!MimeSniffer.isZip(file)) {
+            return null;
+        }
+
+        ZipArchive archive;
+        try {
+            archive = ZipArchive.open(file);
+        } catch (IOException ioe) {
+            Log.w(TAG, "Unable to open " + file, ioe);
+            return null;
+        }
+
+        synchronized (this) {
+            mArchives.put(key, archive);
+            Iterator<Map.Entry<String, ZipArchive>> iterator = mArchives.entrySet().iterator();
+            while (mArchives.size() > MAX_OPEN_ARCHIVES && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+        return archive;
+    }
+}
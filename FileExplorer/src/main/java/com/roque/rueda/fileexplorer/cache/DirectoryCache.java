@@ -0,0 +1,383 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.cache;
+
+import android.util.Log;
+
+import com.roque.rueda.fileexplorer.metrics.Counter;
+import com.roque.rueda.fileexplorer.metrics.Metrics;
+import com.roque.rueda.fileexplorer.model.FileItem;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores the listing of the directories on disk, so a directory that was
+ * already visited can be shown without listing it again while its last
+ * modified time does not change.
+ *
+ * Each directory is stored in its own file with this binary format:
+ * <pre>
+ * int    magic
+ * int    version
+ * short  path length, path bytes in UTF-8
+ * short  filter key length, filter key bytes in UTF-8
+ * long   last modified time of the directory
+ * int    number of items
+ * items: short name length, name bytes in UTF-8,
+ *        long size, long last modified time, int flags
+ * </pre>
+ * A directory listed with a ListingFilter is stored with the key of the
+ * filter, it is only served to the loads that use the same filter.
+ * The files are read with a memory mapped buffer. When the files use more
+ * than the byte budget, the least recently used ones are deleted.
+ *
+ * Created by Roque on 19/11/13.
+ */
+public class DirectoryCache {
+
+    private static final String TAG = "DirectoryCache";
+
+    private static final Counter HITS = Metrics.counter("cache.disk.hit");
+    private static final Counter MISSES = Metrics.counter("cache.disk.miss");
+
+    /**
+     * Default size of the cache in bytes.
+     */
+    public static final long DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+
+    private static final int MAGIC = 0x46454443;
+    private static final int VERSION = 2;
+    private static final String CHARSET = "UTF-8";
+    private static final String SUFFIX = ".dc";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final int CACHED_FLAGS = FileItem.FLAG_FILE | FileItem.FLAG_DIRECTORY
+            | FileItem.FLAG_READABLE | FileItem.FLAG_WRITABLE | FileItem.FLAG_HIDDEN;
+
+    /**
+     * File systems may store the modified time in seconds, a directory
+     * changed less than this time ago is not cached because a second
+     * change could keep the same time.
+     */
+    private static final long MODIFIED_TIME_RESOLUTION = 2000;
+
+    private final File mCacheDir;
+    private final long mMaxBytes;
+
+    /**
+     * Size of each cache file by file name, in access order.
+     */
+    private final LinkedHashMap<String, Long> mEntries =
+            new LinkedHashMap<String, Long>(16, 0.75f, true);
+    private long mTotalBytes;
+    private boolean mEntriesRead;
+    private byte[] mNameBuffer = new byte[256];
+
+    /**
+     * Creates a cache that stores its files in the specified directory.
+     * The directory is read the first time the cache is used.
+     * @param cacheDir directory where the files are stored.
+     * @param maxBytes maximum number of bytes used by the files.
+     */
+    public DirectoryCache(File cacheDir, long maxBytes) {
+        mCacheDir = cacheDir;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Gets the cached items of the directory.
+     * @param dir directory that is going to be read.
+     * @param lastModified current last modified time of the directory.
+     * @return items of the directory or null if the directory is not
+     * cached or it changed since it was cached.
+     */
+    public List<FileItem> get(File dir, long lastModified) {
+        return get(dir, lastModified, "");
+    }
+
+    /**
+     * Gets the cached items of the directory listed with a filter.
+     * @param dir directory that is going to be read.
+     * @param lastModified current last modified time of the directory.
+     * @param filterKey key of the filter used to list the directory.
+     * @return items of the directory or null if the directory is not
+     * cached, it changed since it was cached or it was cached with
+     * other filter.
+     */
+    public synchronized List<FileItem> get(File dir, long lastModified, String filterKey) {
+        readEntries();
+
+        String key = getKey(dir);
+        if (!mEntries.containsKey(key)) {
+            MISSES.increment();
+            return null;
+        }
+        // Marks the entry as the most recently used.
+        mEntries.get(key);
+
+        File file = new File(mCacheDir, key);
+        try {
+            List<FileItem> items = read(file, dir, lastModified, filterKey);
+            if (items == null) {
+                MISSES.increment();
+                remove(key);
+            } else {
+                HITS.increment();
+            }
+            return items;
+        } catch (IOException ioe) {
+            Log.w(TAG, "Unable to read " + file, ioe);
+            MISSES.increment();
+            remove(key);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the items of the directory.
+     * @param dir directory that was listed.
+     * @param lastModified last modified time of the directory when it was listed.
+     * @param items items of the directory.
+     */
+    public void put(File dir, long lastModified, List<FileItem> items) {
+        put(dir, lastModified, "", items);
+    }
+
+    /**
+     * Stores the items of the directory listed with a filter, they
+     * replace the items stored with any other filter.
+     * @param dir directory that was listed.
+     * @param lastModified last modified time of the directory when it was listed.
+     * @param filterKey key of the filter used to list the directory.
+     * @param items items of the directory that the filter accepted.
+     */
+    public synchronized void put(File dir, long lastModified, String filterKey,
+                                 List<FileItem> items) {
+        if (lastModified == 0
+                || System.currentTimeMillis() - lastModified < MODIFIED_TIME_RESOLUTION) {
+            return;
+        }
+
+        readEntries();
+
+        String key = getKey(dir);
+        File file = new File(mCacheDir, key);
+        File temp = new File(mCacheDir, key + TEMP_SUFFIX);
+
+        try {
+            write(temp, dir, lastModified, filterKey, items);
+            if (!temp.renameTo(file)) {
+                throw new IOException("Unable to rename " + temp);
+            }
+        } catch (IOException ioe) {
+            Log.w(TAG, "Unable to write " + file, ioe);
+            temp.delete();
+            remove(key);
+            return;
+        }
+
+        Long previous = mEntries.put(key, file.length());
+        if (previous != null) {
+            mTotalBytes -= previous;
+        }
+        mTotalBytes += file.length();
+        trimToSize();
+    }
+
+    /**
+     * Removes the directory from the cache.
+     * @param dir directory that is going to be removed.
+     */
+    public synchronized void remove(File dir) {
+        readEntries();
+        remove(getKey(dir));
+    }
+
+    private void remove(String key) {
+        Long size = mEntries.remove(key);
+        if (size != null) {
+            mTotalBytes -= size;
+        }
+        new File(mCacheDir, key).delete();
+    }
+
+    /**
+     * Deletes the least recently used files until the cache fits the budget.
+     */
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+        while (mTotalBytes > mMaxBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            mTotalBytes -= entry.getValue();
+            new File(mCacheDir, entry.getKey()).delete();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Reads the files that are already on disk, the oldest files are
+     * considered the least recently used.
+     */
+    private void readEntries() {
+        if (mEntriesRead) {
+            return;
+        }
+        mEntriesRead = true;
+
+        if (!mCacheDir.isDirectory() && !mCacheDir.mkdirs()) {
+            Log.w(TAG, "Unable to create " + mCacheDir);
+        }
+
+        File[] files = mCacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        final long[] modified = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            modified[i] = files[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                long l = modified[lhs];
+                long r = modified[rhs];
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+
+        for (Integer index : order) {
+            File file = files[index];
+            if (file.getName().endsWith(SUFFIX)) {
+                long size = file.length();
+                mEntries.put(file.getName(), size);
+                mTotalBytes += size;
+            } else {
+                // Left over of a write that did not finish.
+                file.delete();
+            }
+        }
+        trimToSize();
+    }
+
+    private static String getKey(File dir) {
+        String path = dir.getAbsolutePath();
+        return Integer.toHexString(path.hashCode()) + "_" + path.length() + SUFFIX;
+    }
+
+    private static void write(File file, File dir, long lastModified, String filterKey,
+                              List<FileItem> items) throws IOException {
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeString(out, dir.getAbsolutePath());
+            writeString(out, filterKey);
+            out.writeLong(lastModified);
+            out.writeInt(items.size());
+
+            for (FileItem item : items) {
+                // The size of the folders is counted apart, it is not cached.
+                writeString(out, item.getName());
+                out.writeLong(item.isFile() ? item.getSize() : 0);
+                out.writeLong(item.getLastModifiedTime());
+                out.writeInt(item.getFlags() & CACHED_FLAGS);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(CHARSET);
+        if (bytes.length > 0xFFFF) {
+            throw new IOException("Name too long: " + value);
+        }
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads the items of a cache file.
+     * @return the items or null if the file belongs to other directory,
+     * other filter or the directory changed.
+     */
+    private List<FileItem> read(File file, File dir, long lastModified,
+                                String filterKey) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return null;
+            }
+            if (!dir.getAbsolutePath().equals(readString(buffer))) {
+                // Other directory with the same key.
+                return null;
+            }
+            if (!filterKey.equals(readString(buffer))) {
+                return null;
+            }
+            if (buffer.getLong() != lastModified) {
+                return null;
+            }
+
+            int count = buffer.getInt();
+            List<FileItem> items = new ArrayList<FileItem>(count);
+            for (int i = 0; i < count; i++) {
+                String name = readString(buffer);
+                long size = buffer.getLong();
+                long modified = buffer.getLong();
+                int flags = buffer.getInt();
+                items.add(new FileItem(new File(dir, name), size, modified, flags));
+            }
+            return items;
+        } catch (BufferUnderflowException bue) {
+            throw new IOException("Truncated file " + file);
+        } finally {
+            in.close();
+        }
+    }
+
+    private String readString(MappedByteBuffer buffer) throws UnsupportedEncodingException {
+        int length = buffer.getShort() & 0xFFFF;
+        if (mNameBuffer.length < length) {
+            mNameBuffer = new byte[length];
+        }
+        buffer.get(mNameBuffer, 0, length);
+        return new String(mNameBuffer, 0, length, CHARSET);
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.cache;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Stores the thumbnails of the files on disk, so a thumbnail is decoded
+ * only once while the file does not change.
+ *
+ * Each thumbnail is stored in its own file with this format:
+ * <pre>
+ * int    magic
+ * UTF    path of the file
+ * long   last modified time of the file
+ * bytes  compressed bitmap
+ * </pre>
+ * When the files use more than the byte budget, the least recently used
+ * ones are deleted.
+ *
+ * Created by Roque on 25/11/13.
+ */
+public class ThumbnailCache {
+
+    private static final String TAG = "ThumbnailCache";
+
+    /**
+     * Default size of the cache in bytes.
+     */
+    public static final long DEFAULT_MAX_BYTES = 8 * 1024 * 1024;
+
+    private static final int MAGIC = 0x46455448;
+    private static final String SUFFIX = ".th";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int JPEG_QUALITY = 85;
+
+    private final File mCacheDir;
+    private final long mMaxBytes;
+
+    /**
+     * Size of each cache file by file name, in access order.
+     */
+    private final LinkedHashMap<String, Long> mEntries =
+            new LinkedHashMap<String, Long>(16, 0.75f, true);
+    private long mTotalBytes;
+    private boolean mEntriesRead;
+
+    /**
+     * Creates a cache that stores its files in the specified directory.
+     * The directory is read the first time the cache is used.
+     * @param cacheDir directory where the files are stored.
+     * @param maxBytes maximum number of bytes used by the files.
+     */
+    public ThumbnailCache(File cacheDir, long maxBytes) {
+        mCacheDir = cacheDir;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Gets the thumbnail of a file.
+     * @param path file of the thumbnail.
+     * @param lastModified current last modified time of the file.
+     * @return the thumbnail or null if it is not cached or the file
+     * changed since it was cached.
+     */
+    public Bitmap get(File path, long lastModified) {
+        String key = getKey(path);
+        synchronized (this) {
+            readEntries();
+            if (mEntries.get(key) == null) {
+                return null;
+            }
+        }
+
+        // The decode runs outside the lock, the file is replaced with a
+        // rename so it is never read half written.
+        File file = new File(mCacheDir, key);
+        try {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt() == MAGIC && path.getAbsolutePath().equals(in.readUTF())
+                        && in.readLong() == lastModified) {
+                    return BitmapFactory.decodeStream(in);
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException ioe) {
+            Log.w(TAG, "Unable to read " + file, ioe);
+        }
+        return null;
+    }
+
+    /**
+     * Stores the thumbnail of a file, replacing the previous one.
+     * @param path file of the thumbnail.
+     * @param lastModified last modified time of the file.
+     * @param thumbnail thumbnail of the file.
+     * @param alpha true to keep the transparent pixels of the thumbnail.
+     */
+    public void put(File path, long lastModified, Bitmap thumbnail, boolean alpha) {
+        String key = getKey(path);
+        File file = new File(mCacheDir, key);
+        File temp = new File(mCacheDir, key + TEMP_SUFFIX + Thread.currentThread().getId());
+
+        synchronized (this) {
+            readEntries();
+        }
+        try {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeUTF(path.getAbsolutePath());
+                out.writeLong(lastModified);
+                thumbnail.compress(alpha ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG,
+                        JPEG_QUALITY, out);
+            } finally {
+                out.close();
+            }
+        } catch (IOException ioe) {
+            Log.w(TAG, "Unable to write " + file, ioe);
+            temp.delete();
+            return;
+        }
+
+        synchronized (this) {
+            if (!temp.renameTo(file)) {
+                Log.w(TAG, "Unable to rename " + temp);
+                temp.delete();
+                return;
+            }
+            Long previous = mEntries.put(key, file.length());
+            if (previous != null) {
+                mTotalBytes -= previous;
+            }
+            mTotalBytes += file.length();
+            trimToSize();
+        }
+    }
+
+    /**
+     * Deletes the least recently used files until the cache fits the budget.
+     */
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+        while (mTotalBytes > mMaxBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            mTotalBytes -= entry.getValue();
+            new File(mCacheDir, entry.getKey()).delete();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Reads the files that are already on disk, the oldest files are
+     * considered the least recently used.
+     */
+    private void readEntries() {
+        if (mEntriesRead) {
+            return;
+        }
+        mEntriesRead = true;
+
+        if (!mCacheDir.isDirectory() && !mCacheDir.mkdirs()) {
+            Log.w(TAG, "Unable to create " + mCacheDir);
+        }
+
+        File[] files = mCacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        final long[] modified = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            modified[i] = files[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                long l = modified[lhs];
+                long r = modified[rhs];
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+
+        for (Integer index : order) {
+            File file = files[index];
+            if (file.getName().endsWith(SUFFIX)) {
+                long size = file.length();
+                mEntries.put(file.getName(), size);
+                mTotalBytes += size;
+            } else {
+                // Left over of a write that did not finish.
+                file.delete();
+            }
+        }
+        trimToSize();
+    }
+
+    private static String getKey(File path) {
+        String value = path.getAbsolutePath();
+        return Integer.toHexString(value.hashCode()) + "_" + value.length() + SUFFIX;
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.duplicates;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.roque.rueda.fileexplorer.utils.StorageUtil;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs a DuplicateFinder on background threads and reports its progress
+ * and its result on the main thread.
+ *
+ * Created by Roque on 29/11/13.
+ */
+public class DuplicateSearch {
+
+    private static final String TAG = "DuplicateSearch";
+
+    /**
+     * Time between the progress reports in milliseconds.
+     */
+    private static final long PROGRESS_INTERVAL = 250;
+
+    /**
+     * Receives the progress and the result of the search on the main thread.
+     */
+    public interface Listener {
+        /**
+         * Called periodically while the search runs.
+         * @param stage one of the DuplicateFinder.STAGE_ constants.
+         * @param processed files processed by the stage.
+         * @param total files that the stage has to process, 0 while scanning.
+         */
+        void onDuplicateProgress(int stage, int processed, int total);
+
+        /**
+         * Called when the search finishes, it is not called if the
+         * search is cancelled.
+         * @param groups groups of duplicates, the ones that waste more space first.
+         */
+        void onDuplicatesFound(List<DuplicateGroup> groups);
+    }
+
+    private final File mRoot;
+    private final Listener mListener;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService mWorkers;
+    private final DuplicateFinder mFinder;
+    private volatile boolean mCancelled;
+
+    private final Runnable mProgressReporter = new Runnable() {
+        @Override
+        public void run() {
+            if (mCancelled) {
+                return;
+            }
+            mListener.onDuplicateProgress(mFinder.getStage(), mFinder.getProcessed(),
+                    mFinder.getStageTotal());
+            mHandler.postDelayed(this, PROGRESS_INTERVAL);
+        }
+    };
+
+    /**
+     * Creates the search, the number of files read at the same time
+     * depends on the storage of the directory.
+     * @param root directory that is searched.
+     * @param listener listener of the progress and the result.
+     */
+    public DuplicateSearch(File root, Listener listener) {
+        mRoot = root;
+        mListener = listener;
+
+        int parallelism = StorageUtil.getParallelism(Collections.singletonList(root));
+        mWorkers = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, TAG);
+            }
+        });
+        mFinder = new DuplicateFinder(root, mWorkers, parallelism);
+    }
+
+    /**
+     * Starts the search, it can be started only once.
+     */
+    public void start() {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                search();
+            }
+        }, TAG).start();
+        mHandler.post(mProgressReporter);
+    }
+
+    private void search() {
+        long start = SystemClock.elapsedRealtime();
+        final List<DuplicateGroup> groups = mFinder.find();
+        mWorkers.shutdown();
+
+        if (mCancelled) {
+            return;
+        }
+        Log.d(TAG, "Found " + groups.size() + " groups of duplicates in " + mRoot + " in "
+                + (SystemClock.elapsedRealtime() - start) + " ms");
+
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mHandler.removeCallbacks(mProgressReporter);
+                if (!mCancelled) {
+                    mListener.onDuplicatesFound(groups);
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops the search, the listener is not called anymore. Must be
+     * called on the main thread.
+     */
+    public void cancel() {
+        mCancelled = true;
+        mFinder.cancel();
+        mHandler.removeCallbacks(mProgressReporter);
+    }
+}
@@ -0,0 +1,707 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.loader;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import com.roque.rueda.fileexplorer.archive.ArchiveProvider;
+import com.roque.rueda.fileexplorer.cache.CachedListing;
+import com.roque.rueda.fileexplorer.cache.DirectoryCache;
+import com.roque.rueda.fileexplorer.cache.ListingMemoryCache;
+import com.roque.rueda.fileexplorer.cache.SharedListingCache;
+import com.roque.rueda.fileexplorer.metrics.Counter;
+import com.roque.rueda.fileexplorer.metrics.Histogram;
+import com.roque.rueda.fileexplorer.metrics.Metrics;
+import com.roque.rueda.fileexplorer.model.FileItem;
+import com.roque.rueda.fileexplorer.utils.FileSorter;
+import com.roque.rueda.fileexplorer.utils.FileTypes;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lists directories on a worker thread and delivers the resulting
+ * file items to the main thread in small batches, so the first rows
+ * can be shown before the whole directory has been read.
+ *
+ * Only one directory is loaded at a time, starting a new load cancels
+ * the one that is in progress. The entries rejected by the ListingFilter
+ * of the load are skipped while the directory is read.
+ *
+ * When caches are used, a directory that did not change since it was
+ * cached is served from the memory cache, or else from the disk cache.
+ * The listings that are read are kept in both.
+ *
+ * When paging is enabled, the directories with more entries than the
+ * paging threshold are delivered as a PagedListing instead of batches,
+ * already sorted on the worker thread.
+ *
+ * Several loaders, one per pane, can share a pool of threads and a
+ * SharedListingCache. A load that misses the caches then joins the scan
+ * of the same directory started by other loader, so a directory open
+ * in two panes is read once.
+ *
+ * Created by Roque on 17/11/13.
+ */
+public class DirectoryLoader {
+
+    /**
+     * Receives the results of a directory load. All the methods
+     * are called on the main thread.
+     */
+    public interface Callback {
+
+        /**
+         * Called each time a new group of items is ready.
+         * @param dir directory that is being loaded.
+         * @param batch items that were read since the last batch.
+         */
+        void onBatchLoaded(File dir, List<FileItem> batch);
+
+        /**
+         * Called once all the items of the directory were delivered.
+         * @param dir directory that was loaded.
+         * @param total number of items that were delivered.
+         * @param ranks name ranks of the items in the order they were
+         *              delivered, computed on the worker thread.
+         */
+        void onLoadFinished(File dir, int total, FileSorter.Ranks ranks);
+
+        /**
+         * Called when the directory can not be listed.
+         * @param dir directory that was requested.
+         */
+        void onLoadFailed(File dir);
+
+        /**
+         * Called instead of the batches when the directory was read into
+         * a paged listing, and each time that listing is sorted again.
+         * @param dir directory that was loaded.
+         * @param listing listing of the directory.
+         * @param order sorted order of the rows, for PagedListing.setOrder.
+         */
+        void onPagedListingLoaded(File dir, PagedListing listing, int[] order);
+    }
+
+    private static final String TAG = "DirectoryLoader";
+
+    private static final Histogram LOAD_TIME = Metrics.histogram("listing.load");
+    private static final Histogram PAGED_LOAD_TIME = Metrics.histogram("listing.paged");
+    private static final Counter ENTRIES = Metrics.counter("listing.entries");
+
+    /**
+     * Number of items that are delivered in the first batch, this is
+     * about one screen of rows.
+     */
+    public static final int FIRST_BATCH_SIZE = 16;
+
+    /**
+     * Default number of items that are delivered on each batch.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 128;
+
+    /**
+     * Default number of entries above which a directory is paged.
+     */
+    public static final int DEFAULT_PAGING_THRESHOLD = 20000;
+
+    private static final String SPILL_PREFIX = "listing";
+    private static final String SPILL_SUFFIX = ".pl";
+
+    private final ExecutorService mExecutor;
+    private final boolean mSharedExecutor;
+    private final Handler mHandler;
+    private final int mBatchSize;
+    private final DirectoryCache mCache;
+    private final ListingMemoryCache mMemoryCache;
+    private final SharedListingCache mListings;
+    private final ArchiveProvider mArchives;
+    private LoadTask mCurrentTask;
+    private volatile File mSpillDir;
+    private volatile int mPagingThreshold = DEFAULT_PAGING_THRESHOLD;
+
+    /**
+     * Creates a loader that uses the default batch size and no cache.
+     */
+    public DirectoryLoader() {
+        this(null, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Creates a loader that uses the default batch size.
+     * @param cache cache of listings or null to always list the directories.
+     */
+    public DirectoryLoader(DirectoryCache cache) {
+        this(cache, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Creates a loader that uses the default batch size and can list
+     * the folders of the zip archives.
+     * @param cache cache of listings or null to always list the directories.
+     * @param archives provider of the archive folders, may be null.
+     */
+    public DirectoryLoader(DirectoryCache cache, ArchiveProvider archives) {
+        this(cache, archives, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Creates a loader that uses the default batch size, a cache in
+     * memory and can list the folders of the zip archives.
+     * @param cache cache of listings or null to always list the directories.
+     * @param memoryCache cache of listings in memory, may be null.
+     * @param archives provider of the archive folders, may be null.
+     */
+    public DirectoryLoader(DirectoryCache cache, ListingMemoryCache memoryCache,
+                           ArchiveProvider archives) {
+        this(cache, memoryCache, archives, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Creates a loader that delivers the items in batches of the
+     * specified size.
+     * @param cache cache of listings or null to always list the directories.
+     * @param batchSize number of items on each batch.
+     */
+    public DirectoryLoader(DirectoryCache cache, int batchSize) {
+        this(cache, null, batchSize);
+    }
+
+    /**
+     * Creates a loader that delivers the items in batches of the
+     * specified size.
+     * @param cache cache of listings or null to always list the directories.
+     * @param archives provider of the archive folders, may be null.
+     * @param batchSize number of items on each batch.
+     */
+    public DirectoryLoader(DirectoryCache cache, ArchiveProvider archives, int batchSize) {
+        this(cache, null, archives, batchSize);
+    }
+
+    /**
+     * Creates a loader that delivers the items in batches of the
+     * specified size.
+     * @param cache cache of listings or null to always list the directories.
+     * @param memoryCache cache of listings in memory, may be null.
+     * @param archives provider of the archive folders, may be null.
+     * @param batchSize number of items on each batch.
+     */
+    public DirectoryLoader(DirectoryCache cache, ListingMemoryCache memoryCache,
+                           ArchiveProvider archives, int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+
+        mBatchSize = batchSize;
+        mCache = cache;
+        mMemoryCache = memoryCache;
+        mListings = null;
+        mArchives = archives;
+        mHandler = new Handler(Looper.getMainLooper());
+        mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, TAG);
+            }
+        });
+        mSharedExecutor = false;
+    }
+
+    /**
+     * Creates a loader that runs on a pool shared with other loaders and
+     * shares their listings and their scans.
+     * @param cache cache of listings or null to always list the directories.
+     * @param listings listings shared by the loaders.
+     * @param archives provider of the archive folders, may be null.
+     * @param executor pool of the loaders, see newScannerPool. It is not
+     *                 shut down by this loader.
+     */
+    public DirectoryLoader(DirectoryCache cache, SharedListingCache listings,
+                           ArchiveProvider archives, ExecutorService executor) {
+        mBatchSize = DEFAULT_BATCH_SIZE;
+        mCache = cache;
+        mMemoryCache = listings.getMemoryCache();
+        mListings = listings;
+        mArchives = archives;
+        mHandler = new Handler(Looper.getMainLooper());
+        mExecutor = executor;
+        mSharedExecutor = true;
+    }
+
+    /**
+     * Creates the pool of threads shared by several loaders.
+     * @param threads number of directories listed at the same time.
+     * @return pool for the loaders, it has to be shut down by the caller.
+     */
+    public static ExecutorService newScannerPool(int threads) {
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, TAG + " #" + mCount.incrementAndGet());
+            }
+        });
+    }
+
+    /**
+     * Delivers the big directories as paged listings, their items are
+     * written to files in the specified directory. The files left by a
+     * previous run are deleted.
+     * @param spillDir directory of the paged listings.
+     * @param threshold number of entries above which a directory is paged.
+     */
+    public void enablePaging(final File spillDir, int threshold) {
+        mSpillDir = spillDir;
+        mPagingThreshold = threshold;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                File[] files = spillDir.listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        file.delete();
+                    }
+                } else if (!spillDir.mkdirs()) {
+                    Log.w(TAG, "Unable to create " + spillDir);
+                }
+            }
+        });
+    }
+
+    /**
+     * Starts loading the specified directory, any load in progress
+     * is cancelled. Must be called from the main thread.
+     * @param dir directory that is going to be listed.
+     * @param callback callback that receives the items.
+     */
+    public void load(File dir, Callback callback) {
+        load(dir, ListingFilter.ACCEPT_ALL, callback);
+    }
+
+    /**
+     * Starts loading the entries of the directory that the filter
+     * accepts, any load in progress is cancelled. Must be called from
+     * the main thread.
+     * @param dir directory that is going to be listed.
+     * @param filter filter of the entries.
+     * @param callback callback that receives the items.
+     */
+    public void load(File dir, ListingFilter filter, Callback callback) {
+        load(dir, filter, FileSorter.SORT_NAME, callback);
+    }
+
+    /**
+     * Starts loading the entries of the directory that the filter
+     * accepts, any load in progress is cancelled. Must be called from
+     * the main thread.
+     * @param dir directory that is going to be listed.
+     * @param filter filter of the entries.
+     * @param sortMode order of the rows if the directory is paged, the
+     *                 rest of the listings are sorted by the caller.
+     * @param callback callback that receives the items.
+     */
+    public void load(File dir, ListingFilter filter, int sortMode, Callback callback) {
+        start(new LoadTask(dir, filter, sortMode, callback, null));
+    }
+
+    /**
+     * Sorts a paged listing again on the worker thread, any load in
+     * progress is cancelled. The order is delivered to
+     * onPagedListingLoaded. Must be called from the main thread.
+     * @param listing listing that is going to be sorted.
+     * @param sortMode one of the FileSorter.SORT_ constants.
+     * @param callback callback that receives the order.
+     */
+    public void sort(PagedListing listing, int sortMode, Callback callback) {
+        start(new LoadTask(listing.getDirectory(), ListingFilter.ACCEPT_ALL, sortMode,
+                callback, listing));
+    }
+
+    private void start(LoadTask task) {
+        cancel();
+
+        mCurrentTask = task;
+        mCurrentTask.mFuture = mExecutor.submit(mCurrentTask);
+    }
+
+    /**
+     * Cancels the load in progress, the callback of that load is not
+     * going to be called again. Must be called from the main thread.
+     */
+    public void cancel() {
+        if (mCurrentTask != null) {
+            mCurrentTask.cancel();
+            mCurrentTask = null;
+        }
+    }
+
+    /**
+     * Cancels the load in progress and releases the worker thread, a
+     * shared pool is left running. This loader can not be used after
+     * this call.
+     */
+    public void shutdown() {
+        cancel();
+        if (!mSharedExecutor) {
+            mExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Lists a single directory and posts the batches to the main thread.
+     */
+    private class LoadTask implements Runnable, SharedListingCache.ScanListener {
+
+        private final File mDir;
+        private final ListingFilter mFilter;
+        private final int mSortMode;
+        private final Callback mCallback;
+        private final PagedListing mListing;
+        private volatile boolean mCancelled;
+        private Future<?> mFuture;
+
+        /**
+         * @param listing paged listing that is sorted again, null to
+         *                list the directory.
+         */
+        LoadTask(File dir, ListingFilter filter, int sortMode, Callback callback,
+                 PagedListing listing) {
+            mDir = dir;
+            mFilter = filter;
+            mSortMode = sortMode;
+            mCallback = callback;
+            mListing = listing;
+        }
+
+        void cancel() {
+            mCancelled = true;
+            if (mFuture != null) {
+                mFuture.cancel(true);
+            }
+        }
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+
+            try {
+                load();
+            } catch (RuntimeException re) {
+                // A damaged file must not leave the pane loading forever.
+                Log.e(TAG, "Unable to load " + mDir, re);
+                postFailed();
+            }
+        }
+
+        private void load() {
+            if (mListing != null) {
+                postPaged(mListing, mListing.computeOrder(mSortMode));
+                return;
+            }
+
+            long lastModified = mDir.lastModified();
+
+            // The items were already classified when they were stored,
+            // and usually ranked too.
+            CachedListing listing = getCached(lastModified);
+            if (listing != null) {
+                // A filter by age drops the files that got too old.
+                List<FileItem> cached = mFilter.dropExpired(listing.getItems());
+                FileSorter.Ranks ranks = cached == listing.getItems() ? listing.getRanks() : null;
+                if (ranks == null) {
+                    ranks = FileSorter.computeRanks(cached);
+                    putCached(lastModified, cached, ranks);
+                }
+                postBatch(cached);
+                postFinished(cached.size(), ranks);
+                return;
+            }
+
+            if (mCache != null) {
+                List<FileItem> cached = mCache.get(mDir, lastModified, mFilter.getKey());
+                if (cached != null) {
+                    cached = mFilter.dropExpired(cached);
+                    for (FileItem item : cached) {
+                        FileTypes.sniffType(item);
+                    }
+                    // Ranked once here, the memory caches keep the ranks.
+                    FileSorter.Ranks ranks = FileSorter.computeRanks(cached);
+                    putCached(lastModified, cached, ranks);
+                    postBatch(cached);
+                    postFinished(cached.size(), ranks);
+                    return;
+                }
+            }
+
+            if (mListings == null) {
+                scan(lastModified);
+            } else if (mListings.joinScan(mDir, mFilter.getKey(), this)) {
+                // The result is delivered to the loads that join the scan,
+                // or they are told to scan the directory themselves.
+                CachedListing scanned = null;
+                try {
+                    scanned = scan(lastModified);
+                } finally {
+                    if (scanned != null) {
+                        mListings.finishScan(mDir, lastModified, mFilter.getKey(),
+                                scanned.getItems(), scanned.getRanks());
+                    } else {
+                        mListings.abortScan(mDir, mFilter.getKey());
+                    }
+                }
+            }
+        }
+
+        /**
+         * Lists the directory and posts its items.
+         * @return items of the directory and their ranks, null if it was
+         * not read in memory or the load was cancelled.
+         */
+        private CachedListing scan(long lastModified) {
+            // Only the names are read here, each item reads its values
+            // from the file system while the batches are being delivered.
+            long start = Metrics.start();
+            String[] names = mDir.list();
+
+            if (names == null) {
+                // Not a directory, it may be a zip archive or a folder inside one.
+                List<FileItem> entries = mArchives != null ? mArchives.list(mDir) : null;
+                if (entries == null) {
+                    Log.w(TAG, "Unable to list " + mDir);
+                    postFailed();
+                } else if (!mCancelled) {
+                    postArchive(entries);
+                }
+                return null;
+            }
+
+            File spillDir = mSpillDir;
+            if (spillDir != null && names.length >= mPagingThreshold
+                    && loadPaged(spillDir, names, start)) {
+                return null;
+            }
+
+            DirectoryScanner scanner = new DirectoryScanner(mFilter, FIRST_BATCH_SIZE, mBatchSize);
+            List<FileItem> items = scanner.scan(mDir, names, new DirectoryScanner.Callback() {
+                @Override
+                public boolean onBatch(List<FileItem> batch) {
+                    if (mCancelled) {
+                        // Other panes may be waiting for this scan.
+                        return mListings != null
+                                && mListings.hasWaitingScans(mDir, mFilter.getKey());
+                    }
+                    postBatch(batch);
+                    return true;
+                }
+            });
+            if (items == null) {
+                return null;
+            }
+            LOAD_TIME.recordSince(start);
+            ENTRIES.add(names.length);
+
+            // Comparing the names is the slow part of sorting, it is done
+            // here and kept with the listing.
+            FileSorter.Ranks ranks = FileSorter.computeRanks(items);
+            // Copied before the main thread can change the items.
+            putCached(lastModified, items, ranks);
+            postFinished(items.size(), ranks);
+
+            if (mCache != null) {
+                mCache.put(mDir, lastModified, mFilter.getKey(), items);
+            }
+            return new CachedListing(items, ranks);
+        }
+
+        private CachedListing getCached(long lastModified) {
+            if (mListings != null) {
+                return mListings.getListing(mDir, lastModified, mFilter.getKey());
+            } else if (mMemoryCache != null) {
+                return mMemoryCache.getListing(mDir, lastModified, mFilter.getKey());
+            }
+            return null;
+        }
+
+        private void putCached(long lastModified, List<FileItem> items, FileSorter.Ranks ranks) {
+            if (mListings != null) {
+                mListings.put(mDir, lastModified, mFilter.getKey(), items, ranks);
+            } else if (mMemoryCache != null) {
+                mMemoryCache.put(mDir, lastModified, mFilter.getKey(), items, ranks);
+            }
+        }
+
+        /**
+         * The scan joined by this load finished, the items are delivered
+         * in a single batch.
+         */
+        @Override
+        public void onScanFinished(long lastModified, final List<FileItem> items,
+                                   final FileSorter.Ranks ranks) {
+            if (mCancelled) {
+                return;
+            }
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (!items.isEmpty()) {
+                        postBatch(items);
+                    }
+                    postFinished(items.size(),
+                            ranks != null ? ranks : FileSorter.computeRanks(items));
+                }
+            });
+        }
+
+        /**
+         * The scan joined by this load stopped, the load starts again.
+         */
+        @Override
+        public void onScanAborted() {
+            if (!mCancelled) {
+                execute(this);
+            }
+        }
+
+        private void execute(Runnable task) {
+            try {
+                mExecutor.execute(task);
+            } catch (RejectedExecutionException ree) {
+                // The loaders were shut down.
+            }
+        }
+
+        /**
+         * Reads the directory into a paged listing, the listings of this
+         * size are not cached.
+         * @param start value of Metrics.start when the directory was listed.
+         * @return false if the listing could not be written, the
+         * directory is then listed in memory.
+         */
+        private boolean loadPaged(File spillDir, String[] names, long start) {
+            PagedListing listing = null;
+            try {
+                listing = new PagedListing(mDir,
+                        File.createTempFile(SPILL_PREFIX, SPILL_SUFFIX, spillDir),
+                        PagedListing.DEFAULT_PAGE_SIZE, PagedListing.DEFAULT_MAX_PAGES);
+                boolean built = listing.build(names, mFilter, new PagedListing.Callback() {
+                    @Override
+                    public boolean onProgress(int count) {
+                        return !mCancelled;
+                    }
+                });
+                if (built && !mCancelled) {
+                    int[] order = listing.computeOrder(mSortMode);
+                    PAGED_LOAD_TIME.recordSince(start);
+                    ENTRIES.add(names.length);
+                    postPaged(listing, order);
+                } else {
+                    listing.close();
+                }
+                return true;
+            } catch (IOException ioe) {
+                Log.w(TAG, "Unable to page " + mDir, ioe);
+                if (listing != null) {
+                    listing.close();
+                }
+                return false;
+            }
+        }
+
+        /**
+         * Posts the items of an archive folder, they are already in
+         * memory so they are delivered in a single batch.
+         */
+        private void postArchive(List<FileItem> entries) {
+            List<FileItem> items = entries;
+            if (!mFilter.isAcceptAll()) {
+                items = new ArrayList<FileItem>(entries.size());
+                for (FileItem entry : entries) {
+                    if (mFilter.accept(entry)) {
+                        items.add(entry);
+                    }
+                }
+            }
+            for (FileItem item : items) {
+                FileTypes.getType(item);
+            }
+            if (!items.isEmpty()) {
+                postBatch(items);
+            }
+            postFinished(items.size(), FileSorter.computeRanks(items));
+        }
+
+        private void postBatch(final List<FileItem> batch) {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mCancelled) {
+                        mCallback.onBatchLoaded(mDir, batch);
+                    }
+                }
+            });
+        }
+
+        private void postFinished(final int total, final FileSorter.Ranks ranks) {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mCancelled) {
+                        mCallback.onLoadFinished(mDir, total, ranks);
+                    }
+                }
+            });
+        }
+
+        private void postPaged(final PagedListing listing, final int[] order) {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mCancelled) {
+                        // Nobody is going to display it.
+                        if (listing != mListing) {
+                            listing.close();
+                        }
+                    } else {
+                        mCallback.onPagedListingLoaded(mDir, listing, order);
+                    }
+                }
+            });
+        }
+
+        private void postFailed() {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mCancelled) {
+                        mCallback.onLoadFailed(mDir);
+                    }
+                }
+            });
+        }
+    }
+}
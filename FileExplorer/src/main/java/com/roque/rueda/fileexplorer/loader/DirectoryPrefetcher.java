@@ -0,0 +1,263 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.loader;
+
+import android.os.Process;
+import android.util.Log;
+
+import com.roque.rueda.fileexplorer.cache.ListingMemoryCache;
+import com.roque.rueda.fileexplorer.model.FileItem;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lists the subdirectories that are likely to be opened next while the
+ * user looks at a directory, and stores them in the memory cache used
+ * by the DirectoryLoader. The subdirectories are ranked by the visits
+ * recorded in the VisitHistory, the most visited and recent first.
+ *
+ * The work runs on a single thread with the lowest priority. It waits
+ * while the list is scrolled and it is dropped as soon as the user
+ * opens other directory.
+ *
+ * Created by Roque on 01/12/13.
+ */
+public class DirectoryPrefetcher {
+
+    private static final String TAG = "DirectoryPrefetcher";
+
+    /**
+     * Default number of subdirectories listed for each directory.
+     */
+    public static final int DEFAULT_MAX_DIRECTORIES = 4;
+
+    /**
+     * Time between the checks of the pause, in milliseconds.
+     */
+    private static final long BACKOFF_INTERVAL = 100;
+
+    /**
+     * Items listed between two checks of the pause.
+     */
+    private static final int CHECK_INTERVAL = 64;
+
+    private final ListingMemoryCache mCache;
+    private final VisitHistory mHistory;
+    private final int mMaxDirectories;
+    private final ExecutorService mExecutor;
+
+    /**
+     * Incremented each time the pending prefetch is dropped.
+     */
+    private final AtomicInteger mGeneration = new AtomicInteger();
+    private volatile boolean mPaused;
+
+    /**
+     * Creates a prefetcher that lists the default number of subdirectories.
+     * @param cache cache where the listings are stored.
+     * @param history history used to rank the subdirectories.
+     */
+    public DirectoryPrefetcher(ListingMemoryCache cache, VisitHistory history) {
+        this(cache, history, DEFAULT_MAX_DIRECTORIES);
+    }
+
+    /**
+     * Creates a prefetcher.
+     * @param cache cache where the listings are stored.
+     * @param history history used to rank the subdirectories.
+     * @param maxDirectories number of subdirectories listed for each directory.
+     */
+    public DirectoryPrefetcher(ListingMemoryCache cache, VisitHistory history,
+                               int maxDirectories) {
+        mCache = cache;
+        mHistory = history;
+        mMaxDirectories = maxDirectories;
+        mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
+                        runnable.run();
+                    }
+                }, TAG);
+            }
+        });
+    }
+
+    /**
+     * Records the visit of a directory in the history, on the thread of
+     * the prefetcher.
+     * @param dir directory that was opened.
+     */
+    public void visit(final File dir) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mHistory.recordVisit(dir);
+            }
+        });
+    }
+
+    /**
+     * Lists the best ranked subdirectories in the background, the
+     * pending prefetch is dropped.
+     * @param subdirs subdirectories of the directory that is displayed,
+     *                in the order they are displayed.
+     * @param filter filter used to list them, the same used by the loader.
+     */
+    public void prefetch(final List<File> subdirs, final ListingFilter filter) {
+        final int generation = mGeneration.incrementAndGet();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (File dir : rank(subdirs)) {
+                    if (!waitWhilePaused(generation)) {
+                        return;
+                    }
+                    prefetch(dir, filter, generation);
+                }
+            }
+        });
+    }
+
+    /**
+     * Pauses the prefetch, it is used while the list is scrolled so the
+     * disk and the processor are free for the rows.
+     * @param paused true to pause, false to continue.
+     */
+    public void setPaused(boolean paused) {
+        mPaused = paused;
+    }
+
+    /**
+     * Drops the pending prefetch.
+     */
+    public void cancel() {
+        mGeneration.incrementAndGet();
+    }
+
+    /**
+     * Writes the history on the thread of the prefetcher.
+     */
+    public void save() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mHistory.save();
+            }
+        });
+    }
+
+    /**
+     * Drops the pending prefetch and releases the thread once the
+     * history is written. This prefetcher can not be used after this call.
+     */
+    public void shutdown() {
+        cancel();
+        save();
+        mExecutor.shutdown();
+    }
+
+    /**
+     * Sorts the subdirectories by score, the ones with the same score
+     * keep their order.
+     */
+    private List<File> rank(List<File> subdirs) {
+        final long now = System.currentTimeMillis();
+        final double[] scores = new double[subdirs.size()];
+        Integer[] order = new Integer[subdirs.size()];
+        for (int i = 0; i < order.length; i++) {
+            scores[i] = mHistory.getScore(subdirs.get(i), now);
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                return Double.compare(scores[rhs], scores[lhs]);
+            }
+        });
+
+        int count = Math.min(mMaxDirectories, order.length);
+        List<File> ranked = new ArrayList<File>(count);
+        for (int i = 0; i < count; i++) {
+            ranked.add(subdirs.get(order[i]));
+        }
+        return ranked;
+    }
+
+    /**
+     * Waits until the prefetch is not paused.
+     * @return false if the prefetch was dropped.
+     */
+    private boolean waitWhilePaused(int generation) {
+        while (mPaused && mGeneration.get() == generation) {
+            try {
+                Thread.sleep(BACKOFF_INTERVAL);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return mGeneration.get() == generation;
+    }
+
+    private void prefetch(File dir, ListingFilter filter, final int generation) {
+        long lastModified = dir.lastModified();
+        if (mCache.contains(dir, lastModified, filter.getKey())) {
+            return;
+        }
+
+        String[] names = dir.list();
+        if (names == null) {
+            return;
+        }
+
+        // Big directories are skipped before they are read.
+        long nameChars = 0;
+        for (String name : names) {
+            nameChars += name.length();
+        }
+        if (ListingMemoryCache.estimateBytes(dir, names.length, nameChars)
+                > mCache.getMaxBytes() / 2) {
+            return;
+        }
+
+        DirectoryScanner scanner = new DirectoryScanner(filter, CHECK_INTERVAL, CHECK_INTERVAL);
+        List<FileItem> items = scanner.scan(dir, names, new DirectoryScanner.Callback() {
+            @Override
+            public boolean onBatch(List<FileItem> batch) {
+                return waitWhilePaused(generation);
+            }
+        });
+        if (items == null) {
+            return;
+        }
+
+        if (mCache.put(dir, lastModified, filter.getKey(), items)) {
+            Log.d(TAG, "Prefetched " + items.size() + " items of " + dir);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.loader;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import com.roque.rueda.fileexplorer.model.FileItem;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Calculates the size of directories walking their subtrees with a
+ * SizeWalk on a pool that uses all the cores.
+ *
+ * While the walk is in progress the partial totals are written into the
+ * items on the main thread, so the list can show the size counted so far.
+ * The calculators of several panes can share one pool.
+ *
+ * Created by Roque on 18/11/13.
+ */
+public class DirectorySizeCalculator {
+
+    /**
+     * Receives the notifications of this calculator on the main thread.
+     */
+    public interface Listener {
+
+        /**
+         * Called when the size of one or more items was updated.
+         */
+        void onSizesChanged();
+    }
+
+    private static final String TAG = "DirectorySizeCalculator";
+
+    /**
+     * Time between two updates of the items, in milliseconds.
+     */
+    private static final long PUBLISH_INTERVAL = 300;
+
+    private final ExecutorService mExecutor;
+    private final boolean mSharedExecutor;
+    private final Handler mHandler;
+    private final Listener mListener;
+    private final List<Calculation> mCalculations = new ArrayList<Calculation>();
+    private boolean mPublishScheduled;
+
+    private final Runnable mPublishTask = new Runnable() {
+        @Override
+        public void run() {
+            mPublishScheduled = false;
+            publish();
+        }
+    };
+
+    /**
+     * Creates a calculator that uses one thread per core.
+     * @param listener listener notified when the sizes change.
+     */
+    public DirectorySizeCalculator(Listener listener) {
+        this(listener, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a calculator with the specified number of threads.
+     * @param listener listener notified when the sizes change.
+     * @param threads number of threads used to walk the directories.
+     */
+    public DirectorySizeCalculator(Listener listener, int threads) {
+        this(listener, newPool(threads), false);
+    }
+
+    /**
+     * Creates a calculator that walks the directories on a pool shared
+     * with other calculators.
+     * @param listener listener notified when the sizes change.
+     * @param executor pool created with newPool, it is not shut down
+     *                 by this calculator.
+     */
+    public DirectorySizeCalculator(Listener listener, ExecutorService executor) {
+        this(listener, executor, true);
+    }
+
+    private DirectorySizeCalculator(Listener listener, ExecutorService executor,
+                                    boolean shared) {
+        mListener = listener;
+        mHandler = new Handler(Looper.getMainLooper());
+        mExecutor = executor;
+        mSharedExecutor = shared;
+    }
+
+    /**
+     * Creates a pool for the calculators.
+     * @param threads number of threads used to walk the directories.
+     * @return pool that has to be shut down by the caller.
+     */
+    public static ExecutorService newPool(int threads) {
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, TAG + " #" + mCount.incrementAndGet());
+            }
+        });
+    }
+
+    /**
+     * Starts calculating the size of the directory item. The size and
+     * the FLAG_SIZE_PARTIAL / FLAG_SIZE_COMPLETE flags of the item are
+     * updated on the main thread. Must be called from the main thread.
+     * @param item directory that is going to be measured.
+     * @return calculation that can be used to cancel the walk.
+     */
+    public Calculation calculate(FileItem item) {
+        Calculation calculation = new Calculation(item);
+        mCalculations.add(calculation);
+
+        calculation.start();
+        schedulePublish();
+
+        return calculation;
+    }
+
+    /**
+     * Cancels all the calculations in progress. Must be called from
+     * the main thread.
+     */
+    public void cancel() {
+        for (Calculation calculation : mCalculations) {
+            calculation.cancel();
+        }
+        mCalculations.clear();
+        mHandler.removeCallbacks(mPublishTask);
+        mPublishScheduled = false;
+    }
+
+    /**
+     * Cancels all the calculations and releases the threads, a shared
+     * pool is left running. This calculator can not be used after this
+     * call.
+     */
+    public void shutdown() {
+        cancel();
+        if (!mSharedExecutor) {
+            mExecutor.shutdownNow();
+        }
+    }
+
+    private void schedulePublish() {
+        if (!mPublishScheduled) {
+            mPublishScheduled = true;
+            mHandler.postDelayed(mPublishTask, PUBLISH_INTERVAL);
+        }
+    }
+
+    /**
+     * Copies the totals counted so far into the items.
+     */
+    private void publish() {
+        if (mCalculations.isEmpty()) {
+            return;
+        }
+
+        for (int i = mCalculations.size() - 1; i >= 0; i--) {
+            Calculation calculation = mCalculations.get(i);
+            boolean finished = calculation.isFinished();
+            FileItem item = calculation.mItem;
+
+            item.setSize(calculation.getBytes());
+            int flags = item.getFlags() & ~(FileItem.FLAG_SIZE_PARTIAL | FileItem.FLAG_SIZE_COMPLETE);
+            item.setFlags(flags | (finished ? FileItem.FLAG_SIZE_COMPLETE : FileItem.FLAG_SIZE_PARTIAL));
+
+            if (finished) {
+                mCalculations.remove(i);
+            }
+        }
+
+        mListener.onSizesChanged();
+
+        if (!mCalculations.isEmpty()) {
+            schedulePublish();
+        }
+    }
+
+    /**
+     * Size calculation of a single directory.
+     */
+    public class Calculation extends SizeWalk {
+
+        private final FileItem mItem;
+
+        Calculation(FileItem item) {
+            super(item.getPath(), mExecutor);
+            mItem = item;
+        }
+    }
+}
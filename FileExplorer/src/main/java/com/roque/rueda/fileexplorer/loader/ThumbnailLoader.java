@@ -0,0 +1,422 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.loader;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.ThumbnailUtils;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.provider.MediaStore;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import com.roque.rueda.fileexplorer.cache.ThumbnailCache;
+import com.roque.rueda.fileexplorer.metrics.Counter;
+import com.roque.rueda.fileexplorer.metrics.Metrics;
+import com.roque.rueda.fileexplorer.utils.FileTypes;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decodes the thumbnails of images and videos on a small pool of
+ * threads. The thumbnails are kept in memory in a LRU sized in bytes
+ * and on disk in a ThumbnailCache, both keyed by the path and the last
+ * modified time of the file, so a file that is edited gets a new
+ * thumbnail.
+ *
+ * The most recent requests are decoded first, they belong to the rows
+ * that are on screen.
+ *
+ * Created by Roque on 25/11/13.
+ */
+public class ThumbnailLoader {
+
+    /**
+     * Receives the thumbnails on the main thread.
+     */
+    public interface Target {
+
+        /**
+         * Called when a requested thumbnail is ready, the target has to
+         * check that it still displays the same file.
+         * @param path file of the thumbnail.
+         * @param lastModified last modified time of the file.
+         * @param thumbnail thumbnail of the file.
+         */
+        void onThumbnailLoaded(File path, long lastModified, Bitmap thumbnail);
+    }
+
+    /**
+     * A thumbnail that is waiting to be decoded.
+     */
+    public final class Request implements Runnable {
+
+        private final File mPath;
+        private final long mLastModified;
+        private final int mType;
+        private final Target mTarget;
+        private final long mSequence;
+        private volatile boolean mCancelled;
+
+        private Request(File path, long lastModified, int type, Target target, long sequence) {
+            mPath = path;
+            mLastModified = lastModified;
+            mType = type;
+            mTarget = target;
+            mSequence = sequence;
+        }
+
+        /**
+         * Indicates if this request is for the file with the last modified time.
+         */
+        public boolean isFor(File path, long lastModified) {
+            return mLastModified == lastModified && mPath.equals(path);
+        }
+
+        /**
+         *
+         * @return true if the request was cancelled.
+         */
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+        /**
+         * The thumbnail is not decoded if the request did not start, and
+         * it is not delivered to the target.
+         */
+        public void cancel() {
+            mCancelled = true;
+            removePending(this);
+        }
+
+        @Override
+        public void run() {
+            if (mCancelled) {
+                return;
+            }
+
+            final Bitmap thumbnail = getThumbnail(this);
+            synchronized (mPending) {
+                mPending.remove(this);
+            }
+            if (thumbnail == null || mCancelled) {
+                return;
+            }
+
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mCancelled) {
+                        mTarget.onThumbnailLoaded(mPath, mLastModified, thumbnail);
+                    }
+                }
+            });
+        }
+    }
+
+    private static final String TAG = "ThumbnailLoader";
+
+    private static final Counter HITS = Metrics.counter("cache.thumbnail.hit");
+    private static final Counter MISSES = Metrics.counter("cache.thumbnail.miss");
+
+    private static final int POOL_SIZE = 2;
+
+    /**
+     * Part of the heap used by the thumbnails in memory.
+     */
+    private static final int MEMORY_FRACTION = 8;
+
+    private final ThumbnailCache mDiskCache;
+    private final int mSize;
+    private final LruCache<String, Bitmap> mMemoryCache;
+    private final Handler mHandler;
+    private final ThreadPoolExecutor mExecutor;
+
+    /**
+     * Requests that are waiting or running.
+     */
+    private final Set<Request> mPending = new HashSet<Request>();
+
+    /**
+     * Files that could not be decoded, they are not tried again.
+     */
+    private final Set<String> mFailed = new HashSet<String>();
+
+    private long mSequence;
+
+    /**
+     * Creates a loader that uses an eighth of the heap for the thumbnails
+     * in memory.
+     * @param diskCache cache where the thumbnails are stored, may be null.
+     * @param size maximum width and height of the thumbnails in pixels.
+     */
+    public ThumbnailLoader(ThumbnailCache diskCache, int size) {
+        this(diskCache, size, (int) (Runtime.getRuntime().maxMemory() / MEMORY_FRACTION));
+    }
+
+    /**
+     * Creates a loader.
+     * @param diskCache cache where the thumbnails are stored, may be null.
+     * @param size maximum width and height of the thumbnails in pixels.
+     * @param memoryBytes maximum number of bytes of the thumbnails in memory.
+     */
+    public ThumbnailLoader(ThumbnailCache diskCache, int size, int memoryBytes) {
+        mDiskCache = diskCache;
+        mSize = size;
+        mMemoryCache = new LruCache<String, Bitmap>(memoryBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getRowBytes() * value.getHeight();
+            }
+        };
+        mHandler = new Handler(Looper.getMainLooper());
+
+        // The newest request first.
+        PriorityBlockingQueue<Runnable> queue = new PriorityBlockingQueue<Runnable>(16,
+                new Comparator<Runnable>() {
+                    @Override
+                    public int compare(Runnable lhs, Runnable rhs) {
+                        long l = ((Request) lhs).mSequence;
+                        long r = ((Request) rhs).mSequence;
+                        return l > r ? -1 : (l == r ? 0 : 1);
+                    }
+                });
+        mExecutor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, 0, TimeUnit.MILLISECONDS, queue,
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                runnable.run();
+                            }
+                        }, TAG);
+                    }
+                });
+    }
+
+    /**
+     * Indicates if the files of the icon type have thumbnails.
+     * @param type icon type of the file.
+     * @return true for images and videos.
+     */
+    public static boolean hasThumbnail(int type) {
+        return type == FileTypes.TYPE_IMAGE || type == FileTypes.TYPE_VIDEO;
+    }
+
+    /**
+     * Gets a thumbnail that is already in memory.
+     * @param path file of the thumbnail.
+     * @param lastModified last modified time of the file.
+     * @return the thumbnail or null if it has to be loaded.
+     */
+    public Bitmap getCached(File path, long lastModified) {
+        Bitmap thumbnail = mMemoryCache.get(getKey(path, lastModified));
+        if (thumbnail != null) {
+            HITS.increment();
+        } else {
+            MISSES.increment();
+        }
+        return thumbnail;
+    }
+
+    /**
+     * Requests the thumbnail of a file.
+     * @param path file of the thumbnail.
+     * @param lastModified last modified time of the file.
+     * @param type icon type of the file, TYPE_IMAGE or TYPE_VIDEO.
+     * @param target target that receives the thumbnail.
+     * @return the request, or null if the file has no thumbnail.
+     */
+    public Request load(File path, long lastModified, int type, Target target) {
+        synchronized (mFailed) {
+            if (mFailed.contains(getKey(path, lastModified))) {
+                return null;
+            }
+        }
+
+        Request request;
+        synchronized (mPending) {
+            request = new Request(path, lastModified, type, target, mSequence++);
+            mPending.add(request);
+        }
+        mExecutor.execute(request);
+        return request;
+    }
+
+    /**
+     * Cancels all the requests, used when the displayed files change.
+     */
+    public void cancelAll() {
+        List<Request> pending;
+        synchronized (mPending) {
+            pending = new ArrayList<Request>(mPending);
+        }
+        for (Request request : pending) {
+            request.cancel();
+        }
+    }
+
+    /**
+     * Cancels the requests and stops the threads, the loader can not be
+     * used after this call.
+     */
+    public void shutdown() {
+        cancelAll();
+        mExecutor.shutdownNow();
+        mMemoryCache.evictAll();
+    }
+
+    private void removePending(Request request) {
+        synchronized (mPending) {
+            mPending.remove(request);
+        }
+        // Cancelled requests do not wait in the queue.
+        mExecutor.remove(request);
+    }
+
+    /**
+     * Gets the thumbnail of the request from memory, from disk or
+     * decoding the file, in that order.
+     */
+    private Bitmap getThumbnail(Request request) {
+        String key = getKey(request.mPath, request.mLastModified);
+        Bitmap thumbnail = mMemoryCache.get(key);
+        if (thumbnail != null) {
+            return thumbnail;
+        }
+
+        if (mDiskCache != null) {
+            thumbnail = mDiskCache.get(request.mPath, request.mLastModified);
+        }
+        if (thumbnail == null && !request.mCancelled) {
+            try {
+                thumbnail = request.mType == FileTypes.TYPE_VIDEO
+                        ? decodeVideo(request.mPath) : decodeImage(request.mPath);
+            } catch (OutOfMemoryError oome) {
+                Log.w(TAG, "Unable to decode " + request.mPath, oome);
+                return null;
+            }
+
+            if (thumbnail == null) {
+                synchronized (mFailed) {
+                    mFailed.add(key);
+                }
+                return null;
+            }
+            if (mDiskCache != null) {
+                mDiskCache.put(request.mPath, request.mLastModified, thumbnail,
+                        request.mType == FileTypes.TYPE_IMAGE && hasAlpha(request.mPath));
+            }
+        }
+
+        if (thumbnail != null) {
+            mMemoryCache.put(key, thumbnail);
+        }
+        return thumbnail;
+    }
+
+    /**
+     * Decodes the image reading only one pixel of each block of pixels
+     * that fits in the thumbnail.
+     */
+    private Bitmap decodeImage(File path) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path.getPath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= mSize
+                && options.outHeight / (sampleSize * 2) >= mSize) {
+            sampleSize *= 2;
+        }
+        options.inSampleSize = sampleSize;
+        options.inJustDecodeBounds = false;
+        return scale(BitmapFactory.decodeFile(path.getPath(), options));
+    }
+
+    private Bitmap decodeVideo(File path) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.FROYO) {
+            return null;
+        }
+        return scale(FroyoThumbnails.createVideoThumbnail(path));
+    }
+
+    /**
+     * Scales the bitmap so its biggest side is the thumbnail size.
+     */
+    private Bitmap scale(Bitmap bitmap) {
+        if (bitmap == null) {
+            return null;
+        }
+
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int biggest = Math.max(width, height);
+        if (biggest <= mSize) {
+            return bitmap;
+        }
+
+        Bitmap scaled = Bitmap.createScaledBitmap(bitmap, Math.max(1, width * mSize / biggest),
+                Math.max(1, height * mSize / biggest), true);
+        if (scaled != bitmap) {
+            bitmap.recycle();
+        }
+        return scaled;
+    }
+
+    /**
+     * Formats that may have transparent pixels, their thumbnails are
+     * stored without loss.
+     */
+    private static boolean hasAlpha(File path) {
+        String name = path.getName().toLowerCase();
+        return name.endsWith(".png") || name.endsWith(".gif") || name.endsWith(".webp");
+    }
+
+    private static String getKey(File path, long lastModified) {
+        return path.getPath() + '@' + lastModified;
+    }
+
+    /**
+     * ThumbnailUtils was added in Froyo, it is only loaded when the
+     * device has it.
+     */
+    private static class FroyoThumbnails {
+
+        static Bitmap createVideoThumbnail(File path) {
+            return ThumbnailUtils.createVideoThumbnail(path.getPath(),
+                    MediaStore.Video.Thumbnails.MINI_KIND);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.loader;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers how often and how recently each directory was visited, so
+ * the directories that are likely to be opened next can be ranked.
+ *
+ * The history is small, only the directories with the best scores are
+ * kept. It is stored in a file with this binary format:
+ * <pre>
+ * int    magic
+ * int    version
+ * int    number of entries
+ * entries: UTF path, int visits, long last visit time
+ * </pre>
+ *
+ * Created by Roque on 01/12/13.
+ */
+public class VisitHistory {
+
+    private static final String TAG = "VisitHistory";
+
+    /**
+     * Maximum number of directories that are remembered.
+     */
+    public static final int MAX_ENTRIES = 256;
+
+    private static final int MAGIC = 0x46455648;
+    private static final int VERSION = 1;
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * Time after which the visits of a directory count half.
+     */
+    private static final double HALF_LIFE = 7 * 24 * 60 * 60 * 1000.0;
+
+    private static class Entry {
+        int visits;
+        long lastVisit;
+    }
+
+    private final File mFile;
+    private final Map<String, Entry> mEntries = new HashMap<String, Entry>();
+    private boolean mLoaded;
+    private boolean mDirty;
+
+    /**
+     * Creates a history stored in the file, the file is read the first
+     * time the history is used.
+     * @param file file where the history is stored.
+     */
+    public VisitHistory(File file) {
+        mFile = file;
+    }
+
+    /**
+     * Records a visit to the directory.
+     * @param dir directory that was visited.
+     */
+    public synchronized void recordVisit(File dir) {
+        load();
+
+        String path = dir.getAbsolutePath();
+        Entry entry = mEntries.get(path);
+        if (entry == null) {
+            entry = new Entry();
+            mEntries.put(path, entry);
+        }
+        entry.visits++;
+        entry.lastVisit = System.currentTimeMillis();
+        mDirty = true;
+
+        if (mEntries.size() > MAX_ENTRIES * 2) {
+            trim(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Computes the score of the directory, each visit counts less as
+     * time goes by.
+     * @param dir directory that is going to be ranked.
+     * @param now current time in milliseconds.
+     * @return score of the directory, 0 if it was never visited.
+     */
+    public synchronized double getScore(File dir, long now) {
+        load();
+
+        Entry entry = mEntries.get(dir.getAbsolutePath());
+        return entry == null ? 0 : score(entry, now);
+    }
+
+    private static double score(Entry entry, long now) {
+        long age = Math.max(0, now - entry.lastVisit);
+        return entry.visits * Math.pow(0.5, age / HALF_LIFE);
+    }
+
+    /**
+     * Writes the history if it changed since it was read. Reads and
+     * writes the disk, it should not be called on the main thread.
+     */
+    public synchronized void save() {
+        if (!mDirty) {
+            return;
+        }
+        trim(System.currentTimeMillis());
+
+        File temp = new File(mFile.getPath() + TEMP_SUFFIX);
+        try {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(mEntries.size());
+                for (Map.Entry<String, Entry> entry : mEntries.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeInt(entry.getValue().visits);
+                    out.writeLong(entry.getValue().lastVisit);
+                }
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(mFile)) {
+                throw new IOException("Unable to rename " + temp);
+            }
+            mDirty = false;
+        } catch (IOException ioe) {
+            Log.w(TAG, "Unable to write " + mFile, ioe);
+            temp.delete();
+        }
+    }
+
+    /**
+     * Keeps only the directories with the best scores.
+     */
+    private void trim(final long now) {
+        if (mEntries.size() <= MAX_ENTRIES) {
+            return;
+        }
+
+        List<Map.Entry<String, Entry>> entries =
+                new ArrayList<Map.Entry<String, Entry>>(mEntries.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, Entry>>() {
+            @Override
+            public int compare(Map.Entry<String, Entry> lhs, Map.Entry<String, Entry> rhs) {
+                return Double.compare(score(rhs.getValue(), now), score(lhs.getValue(), now));
+            }
+        });
+        for (int i = MAX_ENTRIES; i < entries.size(); i++) {
+            mEntries.remove(entries.get(i).getKey());
+        }
+    }
+
+    private void load() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+
+        if (!mFile.isFile()) {
+            return;
+        }
+        try {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(mFile)));
+            try {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    return;
+                }
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    String path = in.readUTF();
+                    Entry entry = new Entry();
+                    entry.visits = in.readInt();
+                    entry.lastVisit = in.readLong();
+                    mEntries.put(path, entry);
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException ioe) {
+            Log.w(TAG, "Unable to read " + mFile, ioe);
+            mEntries.clear();
+        }
+    }
+}
@@ -0,0 +1,381 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.operations;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.roque.rueda.fileexplorer.utils.StorageUtil;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs the copy, move, delete and trash operations one after the other on a
+ * background thread and reports their progress on the main thread.
+ *
+ * Each operation is stored in an OperationJournal until it finishes, an
+ * operation that was interrupted because the app was closed or killed
+ * runs again when the queue is created.
+ *
+ * There is one queue per process, so an operation keeps running while
+ * the activity is recreated, like when the screen rotates. The activity
+ * only sets itself as the listener.
+ *
+ * Created by Roque on 28/11/13.
+ */
+public class FileOperationQueue {
+
+    /**
+     * Receives the progress of the operations on the main thread.
+     */
+    public interface Listener {
+
+        /**
+         * Called periodically while an operation runs.
+         * @param operation operation that is running.
+         * @param progress current progress.
+         */
+        void onOperationProgress(FileOperation operation, OperationProgress progress);
+
+        /**
+         * Called when an operation finished or was cancelled.
+         * @param operation operation that finished.
+         * @param progress final progress.
+         * @param failures number of files that could not be processed.
+         * @param firstError description of the first failure or null.
+         */
+        void onOperationFinished(FileOperation operation, OperationProgress progress,
+                                 int failures, String firstError);
+    }
+
+    private static final String TAG = "FileOperationQueue";
+
+    /**
+     * Directory of the journal, inside the files of the app.
+     */
+    private static final String JOURNAL_DIR = "operations";
+
+    /**
+     * Time between two progress reports, in milliseconds.
+     */
+    private static final long PROGRESS_INTERVAL = 500;
+
+    private static FileOperationQueue sInstance;
+
+    private final OperationJournal mJournal;
+    private Listener mListener;
+    private final Handler mHandler;
+    private final ExecutorService mExecutor;
+    private final ExecutorService mWorkers;
+    private volatile OperationRunner mCurrent;
+    private volatile boolean mShutdown;
+    private long mNextId;
+
+    // Speed of the current operation, used only on the main thread.
+    private OperationRunner mSampled;
+    private long mSampledBytes;
+    private long mSampledTime;
+    private double mBytesPerSecond;
+    private boolean mReporting;
+
+    /**
+     * Reports the progress while there is an operation running.
+     */
+    private final Runnable mProgressReporter = new Runnable() {
+        @Override
+        public void run() {
+            OperationRunner runner = mCurrent;
+            if (runner == null || mShutdown) {
+                mReporting = false;
+                return;
+            }
+            OperationProgress progress = sample(runner);
+            if (mListener != null) {
+                mListener.onOperationProgress(runner.getOperation(), progress);
+            }
+            mHandler.postDelayed(this, PROGRESS_INTERVAL);
+        }
+    };
+
+    private final Runnable mStartReporting = new Runnable() {
+        @Override
+        public void run() {
+            if (!mReporting) {
+                mReporting = true;
+                mProgressReporter.run();
+            }
+        }
+    };
+
+    /**
+     * Gets the queue of the process, it is created the first time and
+     * after a shutdown, then the operations that did not finish run again.
+     * @param context any context of the app.
+     * @return queue of the process.
+     */
+    public static synchronized FileOperationQueue getInstance(Context context) {
+        if (sInstance == null) {
+            File journalDir = new File(context.getApplicationContext().getFilesDir(), JOURNAL_DIR);
+            sInstance = new FileOperationQueue(new OperationJournal(journalDir));
+            sInstance.resumePending();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Creates a queue.
+     * @param journal journal of the operations that did not finish.
+     */
+    private FileOperationQueue(OperationJournal journal) {
+        mJournal = journal;
+        mHandler = new Handler(Looper.getMainLooper());
+        mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, TAG);
+            }
+        });
+        // A fixed pool queues the workers, a worker that just finished may
+        // not be idle yet when the next step of the operation starts.
+        mWorkers = Executors.newFixedThreadPool(StorageUtil.INTERNAL_PARALLELISM,
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                runnable.run();
+                            }
+                        }, TAG + "Worker");
+                    }
+                });
+        mNextId = System.currentTimeMillis();
+    }
+
+    /**
+     * Sets the listener of the progress, must be called on the main
+     * thread.
+     * @param listener listener that receives the progress, or null while
+     *                 there is no activity to show it.
+     */
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Copies the files to a directory, existing files are replaced.
+     * @param sources files or directories to copy.
+     * @param destination directory where the files are copied.
+     * @return the queued operation.
+     */
+    public FileOperation copy(List<File> sources, File destination) {
+        return enqueue(FileOperation.TYPE_COPY, sources, destination);
+    }
+
+    /**
+     * Moves the files to a directory, existing files are replaced.
+     * @param sources files or directories to move.
+     * @param destination directory where the files are moved.
+     * @return the queued operation.
+     */
+    public FileOperation move(List<File> sources, File destination) {
+        return enqueue(FileOperation.TYPE_MOVE, sources, destination);
+    }
+
+    /**
+     * Deletes the files and the content of the directories.
+     * @param sources files or directories to delete.
+     * @return the queued operation.
+     */
+    public FileOperation delete(List<File> sources) {
+        return enqueue(FileOperation.TYPE_DELETE, sources, null);
+    }
+
+    /**
+     * Moves the files to the trash of their volume, the files that are
+     * already in the trash are deleted.
+     * @param sources files or directories to move.
+     * @return the queued operation.
+     */
+    public FileOperation trash(List<File> sources) {
+        return enqueue(FileOperation.TYPE_TRASH, sources, null);
+    }
+
+    /**
+     * Moves files back from the trash to where they were.
+     * @param entries entries of the files in the trash.
+     * @return the queued operation.
+     */
+    public FileOperation restore(List<TrashEntry> entries) {
+        List<File> sources = new ArrayList<File>(entries.size());
+        for (TrashEntry entry : entries) {
+            sources.add(entry.getTrashedPath());
+        }
+        return enqueue(FileOperation.TYPE_RESTORE, sources, null);
+    }
+
+    private synchronized FileOperation enqueue(int type, List<File> sources, File destination) {
+        FileOperation operation = new FileOperation(mNextId++, type, sources, destination);
+        submit(operation, false);
+        return operation;
+    }
+
+    /**
+     * Queues again the operations that did not finish the last time the
+     * app ran.
+     */
+    private void resumePending() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (FileOperation operation : mJournal.readPending()) {
+                    synchronized (FileOperationQueue.this) {
+                        mNextId = Math.max(mNextId, operation.getId() + 1);
+                    }
+                    Log.i(TAG, "Resuming operation " + operation.getId());
+                    submit(operation, true);
+                }
+            }
+        });
+    }
+
+    private void submit(final FileOperation operation, final boolean resumed) {
+        if (!resumed) {
+            mJournal.add(operation);
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mShutdown) {
+                    return;
+                }
+                OperationRunner runner = new OperationRunner(operation, mWorkers,
+                        getParallelism(operation), resumed);
+                mCurrent = runner;
+                mHandler.post(mStartReporting);
+
+                long start = SystemClock.elapsedRealtime();
+                try {
+                    runner.run();
+                } catch (RuntimeException re) {
+                    Log.e(TAG, "Operation " + operation.getId() + " failed", re);
+                    runner.cancel();
+                } finally {
+                    mCurrent = null;
+                    Log.d(TAG, "Operation " + operation.getId() + " took "
+                            + (SystemClock.elapsedRealtime() - start) + " ms");
+
+                    // An operation stopped by shutdown runs again the next time.
+                    if (!mShutdown) {
+                        mJournal.remove(operation);
+                        postFinished(runner);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Cancels the operation, the files that were already processed are
+     * not restored.
+     * @param operation operation that is going to be cancelled.
+     */
+    public void cancel(FileOperation operation) {
+        OperationRunner runner = mCurrent;
+        if (runner != null && runner.getOperation() == operation) {
+            runner.cancel();
+        }
+    }
+
+    /**
+     * Stops the operation that is running and the threads, the pending
+     * operations stay in the journal. Called when the app is closed, the
+     * next getInstance creates a new queue.
+     */
+    public void shutdown() {
+        synchronized (FileOperationQueue.class) {
+            if (sInstance == this) {
+                sInstance = null;
+            }
+        }
+        mShutdown = true;
+        OperationRunner runner = mCurrent;
+        if (runner != null) {
+            runner.cancel();
+        }
+        mExecutor.shutdownNow();
+        mWorkers.shutdown();
+        mHandler.removeCallbacks(mProgressReporter);
+    }
+
+    private void postFinished(final OperationRunner runner) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mShutdown && mListener != null) {
+                    mListener.onOperationFinished(runner.getOperation(), sample(runner),
+                            runner.getFailures(), runner.getFirstError());
+                }
+            }
+        });
+    }
+
+    /**
+     * Builds the progress of the runner, the speed is averaged over the
+     * last samples so it does not jump between reports.
+     */
+    private OperationProgress sample(OperationRunner runner) {
+        long now = SystemClock.elapsedRealtime();
+        long bytes = runner.getBytesDone();
+        if (mSampled != runner) {
+            mSampled = runner;
+            mBytesPerSecond = 0;
+        } else if (now > mSampledTime) {
+            double speed = (bytes - mSampledBytes) * 1000.0 / (now - mSampledTime);
+            mBytesPerSecond = mBytesPerSecond == 0 ? speed : mBytesPerSecond * 0.7 + speed * 0.3;
+        }
+        mSampledBytes = bytes;
+        mSampledTime = now;
+
+        long total = runner.getBytesTotal();
+        long remaining = OperationProgress.UNKNOWN;
+        if (total > 0 && mBytesPerSecond > 0) {
+            remaining = (long) ((total - bytes) * 1000 / mBytesPerSecond);
+        }
+        return new OperationProgress(bytes, total, runner.getFilesDone(), runner.getFilesTotal(),
+                (long) mBytesPerSecond, remaining);
+    }
+
+    /**
+     * Chooses the number of files that are copied at the same time from
+     * the storage of the source and the destination.
+     */
+    private static int getParallelism(FileOperation operation) {
+        List<File> files = new ArrayList<File>(operation.getSources());
+        files.add(operation.getDestination());
+        return StorageUtil.getParallelism(files);
+    }
+}
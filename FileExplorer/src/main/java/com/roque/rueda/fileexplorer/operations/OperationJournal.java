@@ -0,0 +1,186 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.operations;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Remembers the operations that did not finish, so they can be run again
+ * after the app is killed. Each operation is stored in its own small file
+ * that is deleted when the operation finishes:
+ * <pre>
+ * int    magic
+ * int    version
+ * int    type
+ * UTF    destination, empty when there is none
+ * int    number of sources
+ * UTF    path of each source
+ * </pre>
+ * Running an operation again is safe, the files that were already
+ * copied are skipped.
+ *
+ * Created by Roque on 28/11/13.
+ */
+public class OperationJournal {
+
+    private static final String TAG = "OperationJournal";
+
+    private static final int MAGIC = 0x46454F4A;
+    private static final int VERSION = 1;
+    private static final String SUFFIX = ".op";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File mDir;
+
+    /**
+     * Creates a journal that stores its files in the directory.
+     * @param dir directory of the journal.
+     */
+    public OperationJournal(File dir) {
+        mDir = dir;
+    }
+
+    /**
+     * Stores an operation before it starts.
+     * @param operation operation that is going to run.
+     */
+    public synchronized void add(FileOperation operation) {
+        if (!mDir.isDirectory() && !mDir.mkdirs()) {
+            Log.w(TAG, "Unable to create " + mDir);
+            return;
+        }
+
+        File file = getFile(operation.getId());
+        File temp = new File(mDir, file.getName() + TEMP_SUFFIX);
+        try {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(operation.getType());
+                File destination = operation.getDestination();
+                out.writeUTF(destination != null ? destination.getAbsolutePath() : "");
+                out.writeInt(operation.getSources().size());
+                for (File source : operation.getSources()) {
+                    out.writeUTF(source.getAbsolutePath());
+                }
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("Unable to rename " + temp);
+            }
+        } catch (IOException ioe) {
+            Log.w(TAG, "Unable to write " + file, ioe);
+            temp.delete();
+        }
+    }
+
+    /**
+     * Forgets an operation that finished.
+     * @param operation operation that finished.
+     */
+    public synchronized void remove(FileOperation operation) {
+        getFile(operation.getId()).delete();
+    }
+
+    /**
+     * Reads the operations that did not finish, in the order they were
+     * added.
+     * @return operations that have to run again.
+     */
+    public synchronized List<FileOperation> readPending() {
+        List<FileOperation> operations = new ArrayList<FileOperation>();
+        File[] files = mDir.listFiles();
+        if (files == null) {
+            return operations;
+        }
+
+        for (File file : files) {
+            if (!file.getName().endsWith(SUFFIX)) {
+                // Left over of a write that did not finish.
+                file.delete();
+                continue;
+            }
+
+            try {
+                operations.add(read(file));
+            } catch (IOException ioe) {
+                Log.w(TAG, "Unable to read " + file, ioe);
+                file.delete();
+            }
+        }
+
+        FileOperation[] sorted = operations.toArray(new FileOperation[operations.size()]);
+        Arrays.sort(sorted, new Comparator<FileOperation>() {
+            @Override
+            public int compare(FileOperation lhs, FileOperation rhs) {
+                long l = lhs.getId();
+                long r = rhs.getId();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        return Arrays.asList(sorted);
+    }
+
+    private FileOperation read(File file) throws IOException {
+        String name = file.getName();
+        long id;
+        try {
+            id = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+        } catch (NumberFormatException nfe) {
+            throw new IOException("Invalid name " + name);
+        }
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not an operation " + file);
+            }
+            int type = in.readInt();
+            String destination = in.readUTF();
+            int count = in.readInt();
+            List<File> sources = new ArrayList<File>(count);
+            for (int i = 0; i < count; i++) {
+                sources.add(new File(in.readUTF()));
+            }
+            return new FileOperation(id, type, sources,
+                    destination.length() > 0 ? new File(destination) : null);
+        } catch (IllegalArgumentException iae) {
+            throw new IOException("Invalid operation " + file);
+        } finally {
+            in.close();
+        }
+    }
+
+    private File getFile(long id) {
+        return new File(mDir, id + SUFFIX);
+    }
+}
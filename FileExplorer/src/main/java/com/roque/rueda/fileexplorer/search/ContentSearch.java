@@ -0,0 +1,186 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.search;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.roque.rueda.fileexplorer.utils.StorageUtil;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs a ContentSearcher on background threads and hands its matches to
+ * the main thread as they are found.
+ *
+ * Created by Roque on 07/12/13.
+ */
+public class ContentSearch {
+
+    private static final String TAG = "ContentSearch";
+
+    /**
+     * Maximum number of files reported by a search.
+     */
+    public static final int MAX_RESULTS = 500;
+
+    /**
+     * Time between the progress reports in milliseconds, the matches
+     * found in between are reported together.
+     */
+    private static final long PROGRESS_INTERVAL = 250;
+
+    /**
+     * Receives the progress and the matches of the search on the main thread.
+     */
+    public interface Listener {
+        /**
+         * Called periodically while the search runs.
+         * @param searched files searched so far.
+         * @param matches files found since the last call, may be empty.
+         */
+        void onContentProgress(int searched, List<ContentMatch> matches);
+
+        /**
+         * Called when the search finishes, after the last matches were
+         * reported. It is not called if the search is cancelled.
+         * @param matched number of files that contain the text.
+         */
+        void onContentSearchFinished(int matched);
+    }
+
+    private final File mRoot;
+    private final Listener mListener;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService mWorkers;
+    private final ContentSearcher mSearcher;
+    private volatile boolean mCancelled;
+
+    // Matches not reported yet, guarded by itself.
+    private final List<ContentMatch> mPending = new ArrayList<ContentMatch>();
+
+    private final Runnable mProgressReporter = new Runnable() {
+        @Override
+        public void run() {
+            if (mCancelled) {
+                return;
+            }
+            report();
+            mHandler.postDelayed(this, PROGRESS_INTERVAL);
+        }
+    };
+
+    /**
+     * Creates the search, the number of files read at the same time
+     * depends on the storage of the directory.
+     * @param root directory that is searched.
+     * @param text text that is looked for, ignoring the case of the
+     *             letters A to Z.
+     * @param listener listener of the progress and the matches.
+     */
+    public ContentSearch(File root, String text, Listener listener) {
+        mRoot = root;
+        mListener = listener;
+
+        int parallelism = StorageUtil.getParallelism(Collections.singletonList(root));
+        mWorkers = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, TAG);
+            }
+        });
+        mSearcher = new ContentSearcher(root, new BytePattern(text, true), MAX_RESULTS,
+                mWorkers, parallelism);
+    }
+
+    /**
+     * Starts the search, it can be started only once.
+     */
+    public void start() {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                search();
+            }
+        }, TAG).start();
+        mHandler.post(mProgressReporter);
+    }
+
+    private void search() {
+        long start = SystemClock.elapsedRealtime();
+        final int matched = mSearcher.search(new ContentSearcher.Callback() {
+            @Override
+            public void onMatch(ContentMatch match) {
+                synchronized (mPending) {
+                    mPending.add(match);
+                }
+            }
+        });
+        mWorkers.shutdown();
+
+        if (mCancelled) {
+            return;
+        }
+        Log.d(TAG, "Found " + matched + " files in " + mRoot + " in "
+                + (SystemClock.elapsedRealtime() - start) + " ms");
+
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mHandler.removeCallbacks(mProgressReporter);
+                if (!mCancelled) {
+                    report();
+                    mListener.onContentSearchFinished(Math.min(matched, MAX_RESULTS));
+                }
+            }
+        });
+    }
+
+    private void report() {
+        List<ContentMatch> matches;
+        synchronized (mPending) {
+            matches = new ArrayList<ContentMatch>(mPending);
+            mPending.clear();
+        }
+        mListener.onContentProgress(mSearcher.getSearched(), matches);
+    }
+
+    /**
+     * Stops the search, the listener is not called anymore. Must be
+     * called on the main thread.
+     */
+    public void cancel() {
+        mCancelled = true;
+        mSearcher.cancel();
+        mHandler.removeCallbacks(mProgressReporter);
+    }
+}
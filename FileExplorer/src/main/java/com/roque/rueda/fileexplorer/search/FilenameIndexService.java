@@ -0,0 +1,155 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.search;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Keeps the FilenameIndex of a directory tree up to date. The index on
+ * disk is opened right away, so the queries work while the tree is
+ * walked again on a background thread with the lowest priority.
+ *
+ * Created by Roque on 24/11/13.
+ */
+public class FilenameIndexService {
+
+    private static final String TAG = "FilenameIndexService";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File mIndexFile;
+    private final File mRoot;
+    private volatile FilenameIndex mIndex;
+    private Thread mThread;
+    private FilenameIndexBuilder mBuilder;
+
+    /**
+     * Creates the service.
+     * @param indexFile file where the index is stored.
+     * @param root directory that is indexed.
+     */
+    public FilenameIndexService(File indexFile, File root) {
+        mIndexFile = indexFile;
+        mRoot = root;
+    }
+
+    /**
+     * Opens the stored index and starts updating it, does nothing if an
+     * update is already running.
+     */
+    public synchronized void update() {
+        if (mThread != null && mThread.isAlive()) {
+            return;
+        }
+
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
+                rebuild();
+            }
+        }, TAG);
+        mThread.start();
+    }
+
+    private void rebuild() {
+        if (mIndex == null && mIndexFile.isFile()) {
+            try {
+                mIndex = FilenameIndex.open(mIndexFile);
+            } catch (IOException ioe) {
+                Log.w(TAG, "Unable to open " + mIndexFile, ioe);
+            } catch (RuntimeException re) {
+                // A truncated index, it is built again from scratch.
+                Log.w(TAG, "Damaged index " + mIndexFile, re);
+            }
+        }
+
+        FilenameIndexBuilder builder;
+        synchronized (this) {
+            if (Thread.currentThread() != mThread) {
+                return;
+            }
+            builder = new FilenameIndexBuilder(mRoot, mIndex);
+            mBuilder = builder;
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        File temp = new File(mIndexFile.getPath() + TEMP_SUFFIX);
+        try {
+            if (!builder.build(temp)) {
+                temp.delete();
+                return;
+            }
+            // The previous mapping stays valid after the file is replaced.
+            if (!temp.renameTo(mIndexFile)) {
+                throw new IOException("Unable to rename " + temp);
+            }
+            mIndex = FilenameIndex.open(mIndexFile);
+        } catch (IOException ioe) {
+            Log.w(TAG, "Unable to write " + mIndexFile, ioe);
+            temp.delete();
+            return;
+        } catch (RuntimeException re) {
+            // This thread has no one to report to, the index stays as it was.
+            Log.w(TAG, "Unable to index " + mRoot, re);
+            temp.delete();
+            return;
+        }
+
+        Log.d(TAG, "Indexed " + mIndex.getEntryCount() + " entries in "
+                + (SystemClock.elapsedRealtime() - start) + " ms, listed "
+                + builder.getListedDirectories() + " directories, reused "
+                + builder.getReusedDirectories());
+    }
+
+    /**
+     *
+     * @return true if there is an index to query.
+     */
+    public boolean isReady() {
+        return mIndex != null;
+    }
+
+    /**
+     * Finds the files whose name contains every term of the query.
+     * @param query terms separated by white spaces.
+     * @param maxResults maximum number of results.
+     * @return paths that match, or null if there is no index yet.
+     */
+    public List<File> query(String query, int maxResults) {
+        FilenameIndex index = mIndex;
+        if (index == null) {
+            return null;
+        }
+        return index.query(query, maxResults);
+    }
+
+    /**
+     * Stops the update that is running.
+     */
+    public synchronized void shutdown() {
+        if (mBuilder != null) {
+            mBuilder.cancel();
+        }
+        mThread = null;
+        mBuilder = null;
+    }
+}
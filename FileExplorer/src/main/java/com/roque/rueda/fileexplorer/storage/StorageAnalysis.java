@@ -0,0 +1,181 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.storage;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.roque.rueda.fileexplorer.utils.StorageUtil;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs a StorageAnalyzer on background threads and reports its progress
+ * and its result on the main thread. The last result is kept, so the
+ * next analysis of the same directory only reads the folders that
+ * changed.
+ *
+ * Created by Roque on 05/12/13.
+ */
+public class StorageAnalysis {
+
+    private static final String TAG = "StorageAnalysis";
+
+    /**
+     * Time between the progress reports in milliseconds.
+     */
+    private static final long PROGRESS_INTERVAL = 250;
+
+    /**
+     * Time between the checks of the end of the analysis in milliseconds.
+     */
+    private static final long POLL_INTERVAL = 20;
+
+    /**
+     * Tree of the last analysis that finished, shared by the activities.
+     */
+    private static UsageNode sLastResult;
+
+    /**
+     * Receives the progress and the result of the analysis on the main thread.
+     */
+    public interface Listener {
+        /**
+         * Called periodically while the analysis runs.
+         * @param root root of the tree, it keeps growing.
+         * @param folders number of folders counted so far.
+         */
+        void onStorageProgress(UsageNode root, int folders);
+
+        /**
+         * Called when the analysis finishes, it is not called if the
+         * analysis is cancelled.
+         * @param root root of the complete tree.
+         */
+        void onStorageAnalyzed(UsageNode root);
+    }
+
+    private final File mRoot;
+    private final Listener mListener;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService mWorkers;
+    private final StorageAnalyzer mAnalyzer;
+    private volatile boolean mCancelled;
+
+    private final Runnable mProgressReporter = new Runnable() {
+        @Override
+        public void run() {
+            if (mCancelled) {
+                return;
+            }
+            mListener.onStorageProgress(mAnalyzer.getRoot(), mAnalyzer.getFolderCount());
+            mHandler.postDelayed(this, PROGRESS_INTERVAL);
+        }
+    };
+
+    /**
+     * Creates the analysis, the number of folders read at the same time
+     * depends on the storage of the directory.
+     * @param root directory that is analyzed.
+     * @param listener listener of the progress and the result.
+     */
+    public StorageAnalysis(File root, Listener listener) {
+        mRoot = root;
+        mListener = listener;
+
+        int parallelism = StorageUtil.getParallelism(Collections.singletonList(root));
+        mWorkers = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, TAG);
+            }
+        });
+        mAnalyzer = new StorageAnalyzer(root, mWorkers, getLastResult());
+    }
+
+    private static synchronized UsageNode getLastResult() {
+        return sLastResult;
+    }
+
+    private static synchronized void setLastResult(UsageNode root) {
+        sLastResult = root;
+    }
+
+    /**
+     * Starts the analysis, it can be started only once.
+     */
+    public void start() {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                analyze();
+            }
+        }, TAG).start();
+        mHandler.post(mProgressReporter);
+    }
+
+    private void analyze() {
+        long start = SystemClock.elapsedRealtime();
+        mAnalyzer.start();
+        while (!mAnalyzer.isFinished() && !mCancelled) {
+            SystemClock.sleep(POLL_INTERVAL);
+        }
+        mWorkers.shutdown();
+
+        if (mCancelled) {
+            return;
+        }
+        final UsageNode root = mAnalyzer.getRoot();
+        setLastResult(root);
+        Log.d(TAG, "Analyzed " + mAnalyzer.getFolderCount() + " folders of " + mRoot + ", "
+                + mAnalyzer.getReusedFolderCount() + " unchanged, in "
+                + (SystemClock.elapsedRealtime() - start) + " ms");
+
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mHandler.removeCallbacks(mProgressReporter);
+                if (!mCancelled) {
+                    mListener.onStorageAnalyzed(root);
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops the analysis, the listener is not called anymore. Must be
+     * called on the main thread.
+     */
+    public void cancel() {
+        mCancelled = true;
+        mAnalyzer.cancel();
+        mHandler.removeCallbacks(mProgressReporter);
+    }
+}
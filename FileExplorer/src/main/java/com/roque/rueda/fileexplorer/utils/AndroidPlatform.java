@@ -0,0 +1,63 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.utils;
+
+import android.os.Environment;
+import android.webkit.MimeTypeMap;
+
+import com.roque.rueda.fileexplorer.operations.TrashArea;
+import com.roque.rueda.fileexplorer.platform.MimeTypeResolver;
+import com.roque.rueda.fileexplorer.platform.StorageLocator;
+
+import java.io.File;
+
+/**
+ * Platform of the core classes backed by the Android system.
+ *
+ * Created by Roque on 02/12/13.
+ */
+public class AndroidPlatform implements MimeTypeResolver, StorageLocator {
+
+    private static boolean sInstalled;
+
+    /**
+     * Installs this platform in FileTypes and TrashArea, only the first
+     * call does it. Must be called before any file is classified.
+     */
+    public static synchronized void install() {
+        if (!sInstalled) {
+            AndroidPlatform platform = new AndroidPlatform();
+            FileTypes.install(platform, platform);
+            TrashArea.install(platform);
+            sInstalled = true;
+        }
+    }
+
+    @Override
+    public String getMimeTypeFromExtension(String extension) {
+        return MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension);
+    }
+
+    @Override
+    public boolean hasExtension(String extension) {
+        return MimeTypeMap.getSingleton().hasExtension(extension);
+    }
+
+    @Override
+    public File getExternalStorageDirectory() {
+        return Environment.getExternalStorageDirectory();
+    }
+}
@@ -17,157 +17,93 @@ package com.roque.rueda.fileexplorer.utils;
 
 import android.content.Context;
 import android.graphics.drawable.Drawable;
-import android.net.Uri;
-import android.os.Environment;
-import android.support.v7.appcompat.R;
-import android.webkit.MimeTypeMap;
+
+import com.roque.rueda.fileexplorer.R;
+import com.roque.rueda.fileexplorer.metrics.Histogram;
+import com.roque.rueda.fileexplorer.metrics.Metrics;
+import com.roque.rueda.fileexplorer.model.FileItem;
 
 import java.io.File;
-import java.io.IOException;
 
 /**
  * Contains a set of common methods that are used to get the proper
- * icon to show display an icon to the user.
+ * icon to show display an icon to the user. The files are classified
+ * by FileTypes.
  *
  * Created by Roque on 16/11/13.
  */
 public class IconUtil {
 
-    private static final String TAG = "IconUtil";
-
-    private static final String AUDIO_FILE = "audio/";
-    private static final String VIDEO_FILE = "video/";
-    private static final String IMAGE_FILE = "image/";
-    private static final String ZIP_FILE = ".zip";
-    private static final String ROOT = "/";
-
-    /**
-     * Gets the mime type for the specified type.
-     * @param file File that is going to be analyzed.
-     * @return String mime type name of the file.
-     */
-    private static String getMimeType(File file) {
-        // Creates a Uri for the file.
-        Uri uri = Uri.fromFile(file);
-        // Gets the mime type string from his uri
-        return MimeTypeMap.getSingleton().getMimeTypeFromExtension(MimeTypeMap.getFileExtensionFromUrl(uri.toString()));
-    }
-
+    private static final Histogram CLASSIFY_TIME = Metrics.histogram("icons.classify");
 
     /**
-     * Determines if a file is a Audio File using his mime type.
-     * @param file File that is going to be analyzed
-     * @return true if the file is consider as a Audio type.
+     * Drawable resource of each type, indexed by type.
      */
-    static boolean isMusic(File file) {
-        String type = getMimeType(file);
-
-        if(type == null) {
-            return false;
-        } else {
-            return type.toLowerCase().startsWith(AUDIO_FILE);
-        }
-    }
+    private static final int[] ICON_RESOURCES = {
+            R.drawable.ic_file,
+            R.drawable.ic_sys,
+            R.drawable.ic_sd,
+            R.drawable.ic_folder,
+            R.drawable.ic_apk,
+            R.drawable.ic_zip,
+            R.drawable.ic_audio_file,
+            R.drawable.ic_video_file,
+            R.drawable.ic_image_file,
+            R.drawable.ic_file
+    };
 
     /**
-     * Determines if a file is a Video File using his mime type.
-     * @param file File that is going to be analyzed
-     * @return true if the file is consider as a Audio type.
+     * Drawables shared by all the rows, indexed by type. The icons
+     * are plain bitmaps of the same size so a single instance can be
+     * set on several image views.
      */
-    static boolean isVideo(File file) {
-        String type = getMimeType(file);
-
-        if(type == null) {
-            return false;
-        } else {
-            return type.toLowerCase().startsWith(VIDEO_FILE);
-        }
-    }
+    private static final Drawable[] sIcons = new Drawable[FileTypes.TYPE_COUNT];
 
     /**
-     * Determines if a file is a Image File using his mime type.
-     * @param file File that is going to be analyzed
-     * @return true if the file is consider as a Audio type.
+     * Gets the shared drawable of a type, each drawable is decoded
+     * only once.
+     * @param ctx Context used to load the drawable.
+     * @param type one of the FileTypes.TYPE_ constants.
+     * @return Drawable for the type.
      */
-    static boolean isPicture(File file) {
-        String type = getMimeType(file);
-
-        if(type == null) {
-            return false;
-        } else {
-            return type.toLowerCase().startsWith(IMAGE_FILE);
+    public static Drawable getIcon(Context ctx, int type) {
+        Drawable icon = sIcons[type];
+        if (icon == null) {
+            icon = ctx.getApplicationContext().getResources().getDrawable(ICON_RESOURCES[type]);
+            sIcons[type] = icon;
         }
+        return icon;
     }
 
     /**
-     * Determines if a path of the file system is protected.
-     * @param path Path that is going to be analyzed.
-     * @return true if the path can not be read or write in.
+     * Gets the icon of the item using the values that were read when
+     * the item was listed, so the disk is not touched.
+     * @param ctx Context used to load the drawable.
+     * @param item item that is going to be displayed.
+     * @return Drawable icon for the item.
      */
-    public static boolean isProtected(File path) {
-        return (!path.canRead() && !path.canWrite());
+    public static Drawable getIcon(Context ctx, FileItem item) {
+        return getIcon(ctx, classify(item));
     }
 
-    /**
-     * Indicate if the path is a zip file.
-     * @param path Path that is going to be analyzed.
-     * @return true of the file is a zip file.
-     */
-    public static boolean isUnzippable(File path) {
-        return (path.isFile() && path.canRead() && path.getName().endsWith(ZIP_FILE));
-    }
-
-    /**
-     * Determines if the dir is the root path or not.
-     * @param dir directory that is going to be analyzed.
-     * @return true if the directory is the root path.
-     */
-    public static boolean isRootFile(File dir) {
-        return dir.getAbsolutePath().equals(ROOT);
+    public static Drawable getIcon(Context ctx, File file) {
+        long start = Metrics.start();
+        int type = FileTypes.getType(file);
+        CLASSIFY_TIME.recordSince(start);
+        return getIcon(ctx, type);
     }
 
     /**
-     * Determines if the directory is the sd card or not.
-     * @param file file that is going to be analyzed.
-     * @return true if the directory is the sd card.
+     * Gets the type of the icon of an item, like FileTypes.getType, and
+     * records the time it took.
+     * @param item item that is going to be displayed.
+     * @return one of the FileTypes.TYPE_ constants.
      */
-    public static boolean isSdCard(File file) {
-        try {
-            return (file.getCanonicalPath().equals(Environment.getExternalStorageDirectory().getCanonicalPath()));
-        } catch (IOException ioe){
-            return false;
-        }
-    }
-
-    public static Drawable getIcon(Context ctx, File file) {
-
-        // Is this a directory?
-        if (!file.isFile()) {
-            if (isProtected(file)) {
-                return ctx.getResources().getDrawable(R.drawable.ic_sys);
-            } else if (isSdCard(file)) {
-                return ctx.getResources().getDrawable(R.drawable.ic_sd);
-            } else {
-                return ctx.getResources().getDrawable(R.drawable.ic_folder);
-            }
-        } else {
-            String fileName = file.getName();
-            if (isProtected(file)) {
-                return ctx.getResources().getDrawable(R.drawable.ic_sys);
-            } else if (fileName.endsWith(".apk")) {
-                return ctx.getResources().getDrawable(R.drawable.ic_apk);
-            } else if (fileName.endsWith(".zip")) {
-                return ctx.getResources().getDrawable(R.drawable.ic_zip);
-            } else if (isMusic(file)) {
-                return ctx.getResources().getDrawable(R.drawable.ic_audio_file);
-            } else if (isVideo(file)) {
-                return ctx.getResources().getDrawable(R.drawable.ic_video_file);
-            } else if (isPicture(file)) {
-                return ctx.getResources().getDrawable(R.drawable.ic_image);
-            } else {
-                return ctx.getResources().getDrawable(R.drawable.ic_file);
-            }
-        }
+    public static int classify(FileItem item) {
+        long start = Metrics.start();
+        int type = FileTypes.getType(item);
+        CLASSIFY_TIME.recordSince(start);
+        return type;
     }
 
 }
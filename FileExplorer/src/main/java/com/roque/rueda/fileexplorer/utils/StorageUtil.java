@@ -0,0 +1,66 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.utils;
+
+import android.os.Environment;
+
+import java.io.File;
+import java.util.Collection;
+
+/**
+ * Common methods about the storage where the files are.
+ *
+ * Created by Roque on 29/11/13.
+ */
+public class StorageUtil {
+
+    /**
+     * Files read or written at the same time on the internal storage.
+     */
+    public static final int INTERNAL_PARALLELISM = 4;
+
+    /**
+     * Files read or written at the same time when the external storage
+     * is involved, sd cards get slower with many requests at once.
+     */
+    public static final int EXTERNAL_PARALLELISM = 2;
+
+    /**
+     * Chooses how many files can be read or written at the same time.
+     * @param files files that are going to be accessed, may contain null.
+     * @return EXTERNAL_PARALLELISM if any file is on the external
+     * storage, INTERNAL_PARALLELISM otherwise.
+     */
+    public static int getParallelism(Collection<File> files) {
+        for (File file : files) {
+            if (file != null && isOnExternalStorage(file)) {
+                return EXTERNAL_PARALLELISM;
+            }
+        }
+        return INTERNAL_PARALLELISM;
+    }
+
+    /**
+     * Indicates if a file is on the external storage.
+     * @param file file that is going to be analyzed.
+     * @return true if the file is the external storage or is inside it.
+     */
+    public static boolean isOnExternalStorage(File file) {
+        String root = Environment.getExternalStorageDirectory().getAbsolutePath();
+        String path = file.getAbsolutePath();
+        return path.equals(root) || path.startsWith(root + File.separator);
+    }
+}
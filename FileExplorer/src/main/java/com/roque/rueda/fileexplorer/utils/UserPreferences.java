@@ -15,8 +15,8 @@
  */
 package com.roque.rueda.fileexplorer.utils;
 
-import android.app.Activity;
-import android.preference.PreferenceManager;
+import android.content.SharedPreferences;
+import android.os.Build;
 
 import java.io.File;
 
@@ -25,6 +25,11 @@ import java.io.File;
  *
  * User preferences for this application.
  *
+ * An instance is an immutable snapshot of the values, they are read and
+ * checked once when it is created. A new snapshot is created each time
+ * the preferences change, so the values can be read from any thread
+ * without locks or map lookups.
+ *
  */
 public class UserPreferences {
 
@@ -44,44 +49,54 @@ public class UserPreferences {
      */
     public static final String PREF_SHOW_SYSTEM_FILES = "showSysFiles";
 
+    /**
+     * Order used to sort the items, one of the FileSorter.SORT_ constants.
+     */
+    public static final String PREF_SORT_MODE = "sortMode";
+
+    /**
+     * Records the timings of the hot paths, see Metrics.
+     */
+    public static final String PREF_RECORD_METRICS = "recordMetrics";
+
     /**
      * Initial directory.
      */
     private static final String INITIAL_DIR = "/";
 
     /**
-     * Context of the application.
+     * Preferences where the values are stored, only used to write them.
      */
-    private Activity mContext;
+    private final SharedPreferences mPreferences;
+
+    private final File mStartDir;
+    private final boolean mShowSystemFiles;
+    private final boolean mEnableSdCardOptions;
+    private final int mSortMode;
+    private final boolean mRecordMetrics;
 
     /**
-     * Builds a new user preferences using an activity as
-     * context.
-     * @param context Context that is going to be used in
-     *                this user preferences.
+     * Builds a snapshot of the stored preferences.
+     * @param preferences preferences where the values are stored.
      */
-    public UserPreferences(Activity context) {
-        mContext = context;
+    public UserPreferences(SharedPreferences preferences) {
+        mPreferences = preferences;
+
+        File homeDir = new File(preferences.getString(DEFAULT_HOME_DIR, INITIAL_DIR));
+        mStartDir = homeDir.isDirectory() ? homeDir : new File(INITIAL_DIR);
+        mShowSystemFiles = preferences.getBoolean(PREF_SHOW_SYSTEM_FILES, true);
+        mEnableSdCardOptions = preferences.getBoolean(PREF_SD_CARD_OPTIONS, true);
+        mSortMode = preferences.getInt(PREF_SORT_MODE, FileSorter.SORT_NAME);
+        mRecordMetrics = preferences.getBoolean(PREF_RECORD_METRICS, false);
     }
 
     /**
-     * Gets the start directory if not exists it's created.
+     * Gets the start directory, it was checked when the snapshot was
+     * created and it is the root if it was not a directory.
      * @return File reference to the start directory.
      */
     public File getStartDir() {
-        // Gets the default start path
-        String dirPath = PreferenceManager
-                .getDefaultSharedPreferences(mContext).getString(DEFAULT_HOME_DIR,
-                        INITIAL_DIR);
-
-        File homeDir = new File(dirPath);
-
-        if (homeDir.exists() && homeDir.isDirectory()) {
-            return homeDir;
-        } else {
-            return new File(INITIAL_DIR);
-        }
-
+        return mStartDir;
     }
 
     /**
@@ -89,8 +104,7 @@ public class UserPreferences {
      * @return true if the system files are showing
      */
     public boolean isShowSystemFiles() {
-        return PreferenceManager.getDefaultSharedPreferences(mContext)
-                .getBoolean(PREF_SHOW_SYSTEM_FILES, true);
+        return mShowSystemFiles;
     }
 
     /**
@@ -98,8 +112,64 @@ public class UserPreferences {
      * @return true if the user have sd card options.
      */
     public boolean isEnableSdCardOptions() {
-        return  PreferenceManager.getDefaultSharedPreferences(mContext)
-                .getBoolean(PREF_SD_CARD_OPTIONS, true);
+        return mEnableSdCardOptions;
+    }
+
+    /**
+     * Gets the order used to sort the items.
+     * @return one of the FileSorter.SORT_ constants.
+     */
+    public int getSortMode() {
+        return mSortMode;
+    }
+
+    /**
+     * Stores the order used to sort the items, this snapshot keeps the
+     * previous value and the change listeners receive a new one.
+     * @param sortMode one of the FileSorter.SORT_ constants.
+     */
+    public void setSortMode(int sortMode) {
+        save(mPreferences.edit().putInt(PREF_SORT_MODE, sortMode));
+    }
+
+    /**
+     * Indicates whether the timings of the hot paths are recorded.
+     * @return true if the metrics are enabled.
+     */
+    public boolean isRecordMetrics() {
+        return mRecordMetrics;
+    }
+
+    /**
+     * Stores whether the timings are recorded, the change listeners
+     * receive a new snapshot.
+     * @param recordMetrics true to enable the metrics.
+     */
+    public void setRecordMetrics(boolean recordMetrics) {
+        save(mPreferences.edit().putBoolean(PREF_RECORD_METRICS, recordMetrics));
+    }
+
+    /**
+     * Writes the changes, the setters are called from the main thread so
+     * the file is written in the background when the device can.
+     */
+    private static void save(SharedPreferences.Editor editor) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD) {
+            GingerbreadEditor.apply(editor);
+        } else {
+            editor.commit();
+        }
+    }
+
+    /**
+     * Editor.apply was added in Gingerbread, it is only loaded when the
+     * device has it.
+     */
+    private static class GingerbreadEditor {
+
+        static void apply(SharedPreferences.Editor editor) {
+            editor.apply();
+        }
     }
 
 }
@@ -0,0 +1,329 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.watcher;
+
+import android.os.FileObserver;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.roque.rueda.fileexplorer.cache.DirectoryCache;
+import com.roque.rueda.fileexplorer.cache.SharedListingCache;
+import com.roque.rueda.fileexplorer.loader.ListingFilter;
+import com.roque.rueda.fileexplorer.model.FileItem;
+import com.roque.rueda.fileexplorer.utils.FileTypes;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the directories that are displayed and reports the entries
+ * that were created, changed or removed. The inotify events are grouped
+ * with an EventCoalescer, so a burst of events produces a single update.
+ *
+ * Each listener, one per pane, watches one directory at a time. The
+ * panes that display the same directory share one watch: the changed
+ * entries are read once and delivered to all of them.
+ *
+ * Created by Roque on 21/11/13.
+ */
+public class DirectoryWatcher {
+
+    /**
+     * Receives the changes of a watched directory on the main thread.
+     */
+    public interface Listener {
+
+        /**
+         * Called when some entries of the directory changed.
+         * @param dir directory that is watched.
+         * @param updated entries that were created or changed.
+         * @param removed entries that no longer exist.
+         */
+        void onEntriesChanged(File dir, List<FileItem> updated, List<File> removed);
+
+        /**
+         * Called when the whole directory has to be read again.
+         * @param dir directory that is watched.
+         */
+        void onDirectoryInvalidated(File dir);
+    }
+
+    private static final String TAG = "DirectoryWatcher";
+
+    /**
+     * Default minimum time between two updates, in milliseconds.
+     */
+    public static final long DEFAULT_INTERVAL = 250;
+
+    /**
+     * Inotify event reported when the kernel dropped events.
+     */
+    private static final int Q_OVERFLOW = 0x00004000;
+
+    private static final int ENTRY_EVENTS = FileObserver.CREATE | FileObserver.DELETE
+            | FileObserver.MOVED_FROM | FileObserver.MOVED_TO
+            | FileObserver.CLOSE_WRITE | FileObserver.ATTRIB;
+
+    private static final int SELF_EVENTS = FileObserver.DELETE_SELF | FileObserver.MOVE_SELF;
+
+    private final DirectoryCache mCache;
+    private final SharedListingCache mListings;
+    private final long mInterval;
+    private final Handler mHandler;
+    private final ScheduledExecutorService mExecutor;
+    private final EventCoalescer.Scheduler mScheduler;
+
+    /**
+     * Watches by directory and filter key, and watch of each listener.
+     * Only used on the main thread.
+     */
+    private final Map<String, Watch> mWatches = new HashMap<String, Watch>();
+    private final Map<Listener, Watch> mListenerWatches = new HashMap<Listener, Watch>();
+
+    /**
+     * Creates a watcher that uses the default interval.
+     * @param cache cache of listings that is invalidated when the
+     *              entries change, may be null.
+     * @param listings listings shared by the panes, they are invalidated
+     *                 when the entries change, may be null.
+     */
+    public DirectoryWatcher(DirectoryCache cache, SharedListingCache listings) {
+        this(cache, listings, DEFAULT_INTERVAL);
+    }
+
+    /**
+     * Creates a watcher.
+     * @param cache cache of listings that is invalidated when the
+     *              entries change, may be null.
+     * @param listings listings shared by the panes, they are invalidated
+     *                 when the entries change, may be null.
+     * @param intervalMillis minimum time between two updates.
+     */
+    public DirectoryWatcher(DirectoryCache cache, SharedListingCache listings,
+                            long intervalMillis) {
+        mCache = cache;
+        mListings = listings;
+        mInterval = intervalMillis;
+        mHandler = new Handler(Looper.getMainLooper());
+        mExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, TAG);
+            }
+        });
+        mScheduler = new EventCoalescer.Scheduler() {
+            @Override
+            public void schedule(Runnable task, long delayMillis) {
+                mExecutor.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+            }
+        };
+    }
+
+    /**
+     * Starts watching the directory for the listener, the directory
+     * that the listener watched before is no longer watched for it.
+     * Must be called from the main thread.
+     * @param dir directory that is going to be watched.
+     * @param listener listener that receives the changes.
+     */
+    public void watch(File dir, Listener listener) {
+        watch(dir, ListingFilter.ACCEPT_ALL, listener);
+    }
+
+    /**
+     * Starts watching the entries of the directory that the filter
+     * accepts, an entry that stops being accepted is reported as
+     * removed. The directory that the listener watched before is no
+     * longer watched for it. Must be called from the main thread.
+     * @param dir directory that is going to be watched.
+     * @param filter filter of the entries.
+     * @param listener listener that receives the changes.
+     */
+    public void watch(File dir, ListingFilter filter, Listener listener) {
+        stop(listener);
+
+        String key = dir.getAbsolutePath() + '\n' + filter.getKey();
+        Watch watch = mWatches.get(key);
+        if (watch == null) {
+            watch = new Watch(key, dir, filter);
+            mWatches.put(key, watch);
+            watch.start();
+        }
+        watch.mListeners.add(listener);
+        mListenerWatches.put(listener, watch);
+    }
+
+    /**
+     * Stops watching the directory of the listener, the watch ends when
+     * no listener uses it. Must be called from the main thread.
+     * @param listener listener that is no longer notified.
+     */
+    public void stop(Listener listener) {
+        Watch watch = mListenerWatches.remove(listener);
+        if (watch == null) {
+            return;
+        }
+        watch.mListeners.remove(listener);
+        if (watch.mListeners.isEmpty()) {
+            mWatches.remove(watch.mKey);
+            watch.stop();
+        }
+    }
+
+    /**
+     * Stops all the watches and releases the thread. This watcher can
+     * not be used after this call.
+     */
+    public void shutdown() {
+        for (Watch watch : mWatches.values()) {
+            watch.stop();
+        }
+        mWatches.clear();
+        mListenerWatches.clear();
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * Watch of a single directory.
+     */
+    private class Watch implements EventCoalescer.Sink {
+
+        private final String mKey;
+        private final File mDir;
+        private final ListingFilter mFilter;
+        private final EventCoalescer mCoalescer;
+        private final FileObserver mObserver;
+
+        /**
+         * Listeners of the directory, only used on the main thread.
+         */
+        private final List<Listener> mListeners = new ArrayList<Listener>();
+
+        Watch(String key, File dir, ListingFilter filter) {
+            mKey = key;
+            mDir = dir;
+            mFilter = filter;
+            mCoalescer = new EventCoalescer(mInterval, mScheduler, this);
+            mObserver = new FileObserver(dir.getAbsolutePath(),
+                    ENTRY_EVENTS | SELF_EVENTS | Q_OVERFLOW) {
+                @Override
+                public void onEvent(int event, String path) {
+                    if ((event & (SELF_EVENTS | Q_OVERFLOW)) != 0 || path == null) {
+                        mCoalescer.onOverflow();
+                    } else if ((event & ENTRY_EVENTS) != 0) {
+                        mCoalescer.onEvent(path);
+                    }
+                }
+            };
+        }
+
+        void start() {
+            mObserver.startWatching();
+        }
+
+        void stop() {
+            mObserver.stopWatching();
+            mCoalescer.close();
+        }
+
+        /**
+         * Reads the entries of the batch on the watcher thread and
+         * delivers them to the main thread.
+         */
+        @Override
+        public void onEvents(Set<String> names, boolean overflow) {
+            if (mCache != null) {
+                mCache.remove(mDir);
+            }
+            if (mListings != null) {
+                mListings.remove(mDir);
+            }
+
+            if (overflow) {
+                postInvalidated();
+                return;
+            }
+
+            final List<FileItem> updated = new ArrayList<FileItem>();
+            final List<File> removed = new ArrayList<File>();
+            for (String name : names) {
+                File file = new File(mDir, name);
+                // The entries that the filter rejects are gone from the list.
+                FileItem item = file.exists() ? mFilter.snapshot(mDir, name) : null;
+                if (item != null) {
+                    FileTypes.sniffType(item);
+                    updated.add(item);
+                } else {
+                    removed.add(file);
+                }
+            }
+
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    List<Listener> listeners = getListeners();
+                    for (int i = 0; i < listeners.size(); i++) {
+                        // Each pane gets its own items, it changes their sizes.
+                        listeners.get(i).onEntriesChanged(mDir,
+                                i == 0 ? updated : copy(updated), removed);
+                    }
+                }
+            });
+        }
+
+        private void postInvalidated() {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    for (Listener listener : getListeners()) {
+                        listener.onDirectoryInvalidated(mDir);
+                    }
+                }
+            });
+        }
+
+        /**
+         * Copies the listeners on the main thread, they can stop
+         * watching while they are notified.
+         * @return listeners or an empty list if the watch ended.
+         */
+        private List<Listener> getListeners() {
+            if (mWatches.get(mKey) != this) {
+                return new ArrayList<Listener>();
+            }
+            return new ArrayList<Listener>(mListeners);
+        }
+    }
+
+    private static List<FileItem> copy(List<FileItem> items) {
+        List<FileItem> copies = new ArrayList<FileItem>(items.size());
+        for (FileItem item : items) {
+            FileItem copy = new FileItem(item.getPath(), item.getSize(),
+                    item.getLastModifiedTime(), item.getFlags());
+            copy.setType(item.getType());
+            copies.add(copy);
+        }
+        return copies;
+    }
+}
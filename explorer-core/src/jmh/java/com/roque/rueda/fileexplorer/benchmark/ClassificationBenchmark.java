@@ -0,0 +1,105 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.benchmark;
+
+import com.roque.rueda.fileexplorer.model.FileItem;
+import com.roque.rueda.fileexplorer.utils.FileTypes;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the classification of the files into types, from the values
+ * read while listing and by sniffing the content of the files without
+ * a known extension. The files start with real headers, jpeg, png, mp4,
+ * mp3, zip, pdf and text, and a fifth of them has no extension or a
+ * wrong one, see SyntheticTree.createMixed.
+ *
+ * Created by Roque on 02/12/13.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ClassificationBenchmark {
+
+    private static final int ENTRIES = 2000;
+
+    private File mDir;
+    private FileItem[] mItems;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mDir = SyntheticTree.createMixed(ENTRIES);
+        String[] names = mDir.list();
+        mItems = new FileItem[names.length];
+        for (int i = 0; i < names.length; i++) {
+            mItems[i] = FileItem.snapshot(new File(mDir, names[i]));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SyntheticTree.delete(mDir);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ENTRIES)
+    public void getType(Blackhole blackhole) {
+        for (FileItem item : mItems) {
+            blackhole.consume(FileTypes.getType(item));
+        }
+    }
+
+    /**
+     * The sniffed type is kept in the item, so each call classifies
+     * new items.
+     */
+    @Benchmark
+    @OperationsPerInvocation(ENTRIES)
+    public void sniffType(Blackhole blackhole) {
+        for (FileItem item : mItems) {
+            blackhole.consume(FileTypes.sniffType(new FileItem(item.getPath(),
+                    item.getSize(), item.getLastModifiedTime(), item.getFlags())));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ENTRIES)
+    public void getMimeType(Blackhole blackhole) {
+        for (FileItem item : mItems) {
+            blackhole.consume(FileTypes.getMimeType(item.getPath()));
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.benchmark;
+
+import com.roque.rueda.fileexplorer.search.BytePattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the search of a text in 4 MB of content, with the byte
+ * pattern and by decoding the content to a String first. The text is
+ * not in the content, so all of it is searched.
+ *
+ * Created by Roque on 07/12/13.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ContentSearchBenchmark {
+
+    private static final int CONTENT_SIZE = 4 * 1024 * 1024;
+
+    @Param({"if", "NullPointerException"})
+    public String text;
+
+    private byte[] mContent;
+    private BytePattern mPattern;
+    private BytePattern mIgnoreCasePattern;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // Words of source code, so the bytes repeat like in real text.
+        String[] words = { "public", "static", "void", "return", "int", "for", "while",
+                "null", "new", "String", "\n", "    ", "{", "}", "(", ")", ";" };
+        Random random = new Random(CONTENT_SIZE);
+        mContent = new byte[CONTENT_SIZE];
+        int position = 0;
+        while (position < CONTENT_SIZE) {
+            String word = words[random.nextInt(words.length)] + " ";
+            for (int i = 0; i < word.length() && position < CONTENT_SIZE; i++) {
+                mContent[position++] = (byte) word.charAt(i);
+            }
+        }
+        mPattern = new BytePattern(text, false);
+        mIgnoreCasePattern = new BytePattern(text, true);
+    }
+
+    @Benchmark
+    public int bytePattern() {
+        return mPattern.indexOf(mContent, 0, mContent.length);
+    }
+
+    @Benchmark
+    public int bytePatternIgnoreCase() {
+        return mIgnoreCasePattern.indexOf(mContent, 0, mContent.length);
+    }
+
+    @Benchmark
+    public int decodedString() throws UnsupportedEncodingException {
+        return new String(mContent, "UTF-8").indexOf(text);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.benchmark;
+
+import com.roque.rueda.fileexplorer.loader.DirectoryScanner;
+import com.roque.rueda.fileexplorer.loader.ListingFilter;
+import com.roque.rueda.fileexplorer.model.FileItem;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long it takes to read and classify a directory, with
+ * and without a filter. The directory is in the page cache after the
+ * warm up, so this measures the calls and not the disk.
+ *
+ * One of each fifty entries is a folder and the filter keeps the jpg
+ * files, so it rejects about 90% of the entries. Run it with
+ * -PjmhArgs="-prof gc" to see the bytes allocated by each scan.
+ *
+ * Created by Roque on 02/12/13.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ListingBenchmark {
+
+    private static final int FOLDER_EVERY = 50;
+
+    @Param({"1000", "10000", "50000"})
+    public int entries;
+
+    private File mDir;
+    private DirectoryScanner mScanner;
+    private DirectoryScanner mFilteredScanner;
+    private ListingFilter mFilter;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mDir = SyntheticTree.create(entries, FOLDER_EVERY);
+        mScanner = new DirectoryScanner(ListingFilter.ACCEPT_ALL, 50, 500);
+        mFilter = new ListingFilter.Builder().parseQuery("*.jpg").build();
+        mFilteredScanner = new DirectoryScanner(mFilter, 50, 500);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SyntheticTree.delete(mDir);
+    }
+
+    @Benchmark
+    public List<FileItem> scan() {
+        return mScanner.scan(mDir);
+    }
+
+    /**
+     * The filter rejects most of the entries by name before they are
+     * stat, they never become FileItems.
+     */
+    @Benchmark
+    public List<FileItem> scanFiltered() {
+        return mFilteredScanner.scan(mDir);
+    }
+
+    /**
+     * Same result as scanFiltered but every entry is read first, this is
+     * what the filter saves.
+     */
+    @Benchmark
+    public int scanThenFilter() {
+        List<FileItem> items = mScanner.scan(mDir);
+        int accepted = 0;
+        for (FileItem item : items) {
+            if (mFilter.accept(item)) {
+                accepted++;
+            }
+        }
+        return accepted;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.benchmark;
+
+import com.roque.rueda.fileexplorer.metrics.Counter;
+import com.roque.rueda.fileexplorer.metrics.Histogram;
+import com.roque.rueda.fileexplorer.metrics.Metrics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost that the metrics add to a hot path. With the metrics
+ * disabled, counter and timer should cost at most a few nanoseconds more
+ * than baseline, which does the same work without metrics.
+ *
+ * Created by Roque on 04/12/13.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MetricsBenchmark {
+
+    private static final Counter COUNTER = Metrics.counter("benchmark.counter");
+    private static final Histogram HISTOGRAM = Metrics.histogram("benchmark.timer");
+
+    @Param({"false", "true"})
+    public boolean enabled;
+
+    private int mValue;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Metrics.setEnabled(enabled);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Metrics.setEnabled(false);
+        Metrics.reset();
+    }
+
+    @Benchmark
+    public int baseline() {
+        return ++mValue;
+    }
+
+    @Benchmark
+    public int counter() {
+        COUNTER.increment();
+        return ++mValue;
+    }
+
+    @Benchmark
+    public int timer() {
+        long start = Metrics.start();
+        int value = ++mValue;
+        HISTOGRAM.recordSince(start);
+        return value;
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.benchmark;
+
+import com.roque.rueda.fileexplorer.loader.SizeWalk;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Measures the size of a big tree counted by the parallel walk, with a
+ * thread per core, and by the same walk on a single thread.
+ *
+ * The tree is created in /dev/shm when it exists, so the walk measures
+ * the calls and not the disk; -Dbench.dir=path creates it somewhere
+ * else. A tree of a million files needs as many free inodes, tmpfs gives
+ * one per page of memory by default. Each folder has 100 files and the
+ * folders are nested by the digits of their number, up to 4 levels for
+ * a million files.
+ *
+ * Created by Roque on 07/12/13.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SizeWalkBenchmark {
+
+    private static final int FILES_PER_FOLDER = 100;
+    private static final int MAX_FILE_SIZE = 64 * 1024;
+
+    /**
+     * Time between the checks of the end of the parallel walk.
+     */
+    private static final long POLL_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    @Param({"1000000"})
+    public int files;
+
+    private File mRoot;
+    private ExecutorService mPool;
+
+    private final Executor mCallingThread = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        File shm = new File("/dev/shm");
+        File parent = new File(System.getProperty("bench.dir",
+                shm.isDirectory() ? shm.getPath() : System.getProperty("java.io.tmpdir")));
+        mRoot = File.createTempFile("bench", "", parent);
+        if (!mRoot.delete() || !mRoot.mkdir()) {
+            throw new IOException("Unable to create " + mRoot);
+        }
+
+        Random random = new Random(files);
+        int folders = (files + FILES_PER_FOLDER - 1) / FILES_PER_FOLDER;
+        for (int folder = 0; folder < folders; folder++) {
+            File dir = new File(mRoot, getFolderPath(folder));
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Unable to create " + dir);
+            }
+            int count = Math.min(FILES_PER_FOLDER, files - folder * FILES_PER_FOLDER);
+            for (int i = 0; i < count; i++) {
+                RandomAccessFile out = new RandomAccessFile(new File(dir, "file" + i), "rw");
+                try {
+                    // Sparse files, only the size matters.
+                    out.setLength(random.nextInt(MAX_FILE_SIZE));
+                } finally {
+                    out.close();
+                }
+            }
+        }
+
+        mPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        mPool.shutdown();
+        FileUtils.deleteDirectory(mRoot);
+    }
+
+    @Benchmark
+    public long parallel() {
+        SizeWalk walk = new SizeWalk(mRoot, mPool);
+        walk.start();
+        while (!walk.isFinished()) {
+            LockSupport.parkNanos(POLL_NANOS);
+        }
+        return walk.getBytes();
+    }
+
+    @Benchmark
+    public long singleThread() {
+        SizeWalk walk = new SizeWalk(mRoot, mCallingThread);
+        walk.start();
+        return walk.getBytes();
+    }
+
+    /**
+     * Gets the path of a folder from the digits of its number, so 1234 is
+     * 1/2/3/4 and 12 is 1/2.
+     */
+    private static String getFolderPath(int folder) {
+        String digits = Integer.toString(folder);
+        StringBuilder path = new StringBuilder();
+        for (int i = 0; i < digits.length(); i++) {
+            if (i > 0) {
+                path.append(File.separatorChar);
+            }
+            path.append(digits.charAt(i));
+        }
+        return path.toString();
+    }
+}
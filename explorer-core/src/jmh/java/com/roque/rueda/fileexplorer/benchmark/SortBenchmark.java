@@ -0,0 +1,122 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.benchmark;
+
+import com.roque.rueda.fileexplorer.model.FileItem;
+import com.roque.rueda.fileexplorer.model.FileItemTable;
+import com.roque.rueda.fileexplorer.utils.FileSorter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the sorting of a listing. The items are made in memory so
+ * only the sort is measured.
+ *
+ * Created by Roque on 02/12/13.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SortBenchmark {
+
+    @Param({"1000", "50000"})
+    public int entries;
+
+    @Param({"0", "1", "2", "4"})
+    public int mode;
+
+    private List<FileItem> mItems;
+    private FileSorter.Ranks mRanks;
+    private FileItemTable mTable;
+    private int[] mNameRanks;
+    private int[] mNaturalRanks;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        File dir = new File("/bench");
+        Random random = new Random(entries);
+        mItems = new ArrayList<FileItem>(entries);
+        for (int i = 0; i < entries; i++) {
+            boolean directory = i % 10 == 0;
+            int flags = FileItem.FLAG_READABLE
+                    | (directory ? FileItem.FLAG_DIRECTORY : FileItem.FLAG_FILE);
+            mItems.add(new FileItem(new File(dir, SyntheticTree.name(random, i)),
+                    directory ? 0 : random.nextInt(4 * 1024 * 1024),
+                    random.nextLong() & 0xFFFFFFFFFFFL, flags));
+        }
+        mRanks = FileSorter.computeRanks(mItems);
+        mNameRanks = mRanks.name.clone();
+        mNaturalRanks = mRanks.natural.clone();
+        mTable = new FileItemTable(dir);
+    }
+
+    /**
+     * Resets the table to the listing order before each call, so every
+     * call sorts the same input.
+     */
+    @Setup(Level.Invocation)
+    public void fillTable() {
+        mTable.reset(mTable.getDirectory());
+        for (FileItem item : mItems) {
+            mTable.add(item);
+        }
+        mTable.setRanks(mNameRanks.clone(), mNaturalRanks.clone());
+    }
+
+    /**
+     * The collation keys, done once per listing on the worker thread.
+     */
+    @Benchmark
+    public FileSorter.Ranks computeRanks() {
+        return FileSorter.computeRanks(mItems);
+    }
+
+    /**
+     * The sort done on the main thread when the user changes the order.
+     */
+    @Benchmark
+    public FileItemTable sortTable() {
+        FileSorter.sort(mTable, mode);
+        return mTable;
+    }
+
+    @Benchmark
+    public List<FileItem> sortList() {
+        List<FileItem> items = new ArrayList<FileItem>(mItems);
+        FileSorter.sort(items, mRanks, mode);
+        return items;
+    }
+}
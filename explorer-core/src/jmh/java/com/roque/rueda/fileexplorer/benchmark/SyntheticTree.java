@@ -0,0 +1,232 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+/**
+ * Creates directories with generated names, sizes and types in a
+ * temporary folder, the same seed always gives the same tree.
+ *
+ * Created by Roque on 02/12/13.
+ */
+final class SyntheticTree {
+
+    private static final String[] EXTENSIONS = {
+            "jpg", "png", "mp3", "ogg", "mp4", "3gp", "apk", "zip", "txt", "pdf", "dat", ""
+    };
+
+    /**
+     * Contents of the mixed corpus, like the storage of a phone: the
+     * header in hex, or null for text, the extension and the percentage
+     * of the files that have it.
+     */
+    private static final Object[][] CONTENTS = {
+            { "FFD8FFE000104A464946", "jpg", 35 },
+            { "89504E470D0A1A0A", "png", 10 },
+            { "0000001C667479706D703432", "mp4", 10 },
+            { "49443303", "mp3", 10 },
+            { "504B0304", "zip", 5 },
+            { "255044462D312E34", "pdf", 5 },
+            { null, "txt", 20 },
+            { "", "bin", 5 }
+    };
+
+    /**
+     * Bytes written at the start of each file of the mixed corpus, the
+     * sniffer reads only 64.
+     */
+    private static final int HEADER_SIZE = 64;
+
+    private static final int PERCENT_NO_EXTENSION = 15;
+    private static final int PERCENT_WRONG_EXTENSION = 5;
+
+    private SyntheticTree() {
+        // Nothing here
+    }
+
+    /**
+     * Creates a directory with the specified number of entries, one of
+     * each ten entries is a folder and one of each twenty is hidden.
+     * @param count number of entries.
+     * @return the new directory.
+     */
+    static File create(int count) throws IOException {
+        return create(count, 10);
+    }
+
+    /**
+     * Creates a directory with the specified number of entries and one
+     * folder of each folderEvery entries, one of each twenty is hidden.
+     * @param count number of entries.
+     * @param folderEvery entries per folder.
+     * @return the new directory.
+     */
+    static File create(int count, int folderEvery) throws IOException {
+        File root = File.createTempFile("bench", "");
+        if (!root.delete() || !root.mkdir()) {
+            throw new IOException("Unable to create " + root);
+        }
+
+        Random random = new Random(count);
+        for (int i = 0; i < count; i++) {
+            String name = name(random, i, folderEvery);
+            File file = new File(root, name);
+            if (i % folderEvery == 0) {
+                if (!file.mkdir()) {
+                    throw new IOException("Unable to create " + file);
+                }
+            } else {
+                RandomAccessFile out = new RandomAccessFile(file, "rw");
+                try {
+                    // Sparse files, only the size matters.
+                    out.setLength(random.nextInt(4 * 1024 * 1024));
+                } finally {
+                    out.close();
+                }
+            }
+        }
+        return root;
+    }
+
+    /**
+     * Creates a directory with files that start with the header of their
+     * type, in the proportions of CONTENTS. Most files have the extension
+     * of their content, some have none and some have a wrong one, so only
+     * their content tells their type. One of each ten entries is a folder.
+     * @param count number of entries.
+     * @return the new directory.
+     */
+    static File createMixed(int count) throws IOException {
+        File root = File.createTempFile("bench", "");
+        if (!root.delete() || !root.mkdir()) {
+            throw new IOException("Unable to create " + root);
+        }
+
+        Random random = new Random(count);
+        byte[] header = new byte[HEADER_SIZE];
+        for (int i = 0; i < count; i++) {
+            if (i % 10 == 0) {
+                File dir = new File(root, "Folder " + i);
+                if (!dir.mkdir()) {
+                    throw new IOException("Unable to create " + dir);
+                }
+                continue;
+            }
+
+            Object[] content = pickContent(random);
+            fillHeader(header, (String) content[0], random);
+
+            int naming = random.nextInt(100);
+            String name = (random.nextBoolean() ? "IMG_" : "Track ") + random.nextInt(10000)
+                    + '_' + i;
+            if (naming >= PERCENT_NO_EXTENSION + PERCENT_WRONG_EXTENSION) {
+                name += "." + content[1];
+            } else if (naming >= PERCENT_NO_EXTENSION) {
+                name += ".dat";
+            }
+
+            RandomAccessFile out = new RandomAccessFile(new File(root, name), "rw");
+            try {
+                out.write(header);
+                // Sparse after the header, only the size matters.
+                out.setLength(HEADER_SIZE + random.nextInt(4 * 1024 * 1024));
+            } finally {
+                out.close();
+            }
+        }
+        return root;
+    }
+
+    private static Object[] pickContent(Random random) {
+        int percent = random.nextInt(100);
+        for (Object[] content : CONTENTS) {
+            percent -= (Integer) content[2];
+            if (percent < 0) {
+                return content;
+            }
+        }
+        return CONTENTS[CONTENTS.length - 1];
+    }
+
+    /**
+     * Fills the header with the signature in hex followed by random
+     * bytes, or with words when the signature is null.
+     */
+    private static void fillHeader(byte[] header, String hex, Random random) {
+        if (hex == null) {
+            String text = "Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do ";
+            for (int i = 0; i < header.length; i++) {
+                header[i] = (byte) text.charAt(i % text.length());
+            }
+            return;
+        }
+
+        random.nextBytes(header);
+        for (int i = 0; i < hex.length() / 2; i++) {
+            header[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        if (hex.length() == 0) {
+            // Unknown binary data, it must not start with a signature by chance.
+            header[0] = 0x13;
+        }
+    }
+
+    /**
+     * Generates a name like the ones of a camera or a music folder,
+     * mixing words, numbers and extensions.
+     */
+    static String name(Random random, int index) {
+        return name(random, index, 10);
+    }
+
+    /**
+     * Generates a name, the entries of each folderEvery have no
+     * extension because they are folders.
+     */
+    static String name(Random random, int index, int folderEvery) {
+        StringBuilder name = new StringBuilder();
+        if (index % 20 == 1) {
+            name.append('.');
+        }
+        name.append(random.nextBoolean() ? "IMG_" : "Track ");
+        name.append(random.nextInt(10000));
+        name.append('_').append(index);
+        if (index % folderEvery != 0) {
+            String extension = EXTENSIONS[random.nextInt(EXTENSIONS.length)];
+            if (extension.length() > 0) {
+                name.append('.').append(extension);
+            }
+        }
+        return name.toString();
+    }
+
+    /**
+     * Deletes a directory created by create.
+     */
+    static void delete(File root) {
+        File[] files = root.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        root.delete();
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.benchmark;
+
+import com.roque.rueda.fileexplorer.model.FileItem;
+import com.roque.rueda.fileexplorer.platform.JvmPlatform;
+import com.roque.rueda.fileexplorer.platform.StorageLocator;
+import com.roque.rueda.fileexplorer.utils.FileTypes;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts the calls to the file system made for each row of a listing,
+ * classifying the files from the disk on every bind against reading a
+ * snapshot once when the directory is listed. Each row is bound a few
+ * times, like when the list is scrolled back and forth.
+ *
+ * The calls are counted by a File that counts the methods that become
+ * a system call. JMH reports the calls and the rows of all the measured
+ * iterations, the calls per row are printed at the end of the trial; the
+ * time is only a reference.
+ *
+ * Created by Roque on 07/12/13.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SyscallBenchmark {
+
+    private static final int ENTRIES = 1000;
+    private static final int BINDS_PER_ROW = 3;
+
+    /**
+     * Calls made to the file system and rows listed.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Calls {
+
+        public long syscalls;
+        public long rows;
+
+        private long mTotalSyscalls;
+        private long mTotalRows;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            syscalls = 0;
+            rows = 0;
+        }
+
+        @TearDown(Level.Iteration)
+        public void addIteration() {
+            mTotalSyscalls += syscalls;
+            mTotalRows += rows;
+        }
+
+        @TearDown(Level.Trial)
+        public void print() {
+            System.out.printf("%nsyscalls per row: %.2f%n",
+                    mTotalRows == 0 ? 0 : (double) mTotalSyscalls / mTotalRows);
+        }
+    }
+
+    /**
+     * File that counts its calls to the file system.
+     */
+    private static class CountingFile extends File {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Calls mCalls;
+
+        CountingFile(File dir, String name, Calls calls) {
+            super(dir, name);
+            mCalls = calls;
+        }
+
+        @Override
+        public boolean isFile() {
+            mCalls.syscalls++;
+            return super.isFile();
+        }
+
+        @Override
+        public boolean isDirectory() {
+            mCalls.syscalls++;
+            return super.isDirectory();
+        }
+
+        @Override
+        public boolean canRead() {
+            mCalls.syscalls++;
+            return super.canRead();
+        }
+
+        @Override
+        public boolean canWrite() {
+            mCalls.syscalls++;
+            return super.canWrite();
+        }
+
+        @Override
+        public long length() {
+            mCalls.syscalls++;
+            return super.length();
+        }
+
+        @Override
+        public long lastModified() {
+            mCalls.syscalls++;
+            return super.lastModified();
+        }
+
+        @Override
+        public String getCanonicalPath() throws IOException {
+            mCalls.syscalls++;
+            return super.getCanonicalPath();
+        }
+    }
+
+    private File mDir;
+    private String[] mNames;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mDir = SyntheticTree.create(ENTRIES);
+        mNames = mDir.list();
+
+        // With an sd card every folder that is not the sd card is
+        // resolved, like on a device.
+        final File sdCard = new File(mDir, "sdcard");
+        FileTypes.install(new JvmPlatform(), new StorageLocator() {
+            @Override
+            public File getExternalStorageDirectory() {
+                return sdCard;
+            }
+        });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        FileTypes.install(new JvmPlatform(), new JvmPlatform());
+        SyntheticTree.delete(mDir);
+    }
+
+    /**
+     * Before the snapshots: the row only has the file, every bind
+     * classifies it and reads its size and date from the disk.
+     */
+    @Benchmark
+    public long bindFromDisk(Calls calls) {
+        long total = 0;
+        for (String name : mNames) {
+            File file = new CountingFile(mDir, name, calls);
+            for (int i = 0; i < BINDS_PER_ROW; i++) {
+                total += FileTypes.getType(file);
+                total += file.isFile() ? file.length() : 0;
+                total += file.lastModified();
+            }
+            calls.rows++;
+        }
+        return total;
+    }
+
+    /**
+     * With the snapshots: the file is read once when it is listed, the
+     * binds read the item.
+     */
+    @Benchmark
+    public long bindFromSnapshot(Calls calls) {
+        long total = 0;
+        for (String name : mNames) {
+            FileItem item = FileItem.snapshot(new CountingFile(mDir, name, calls));
+            for (int i = 0; i < BINDS_PER_ROW; i++) {
+                total += FileTypes.getType(item);
+                total += item.getSize();
+                total += item.getLastModifiedTime();
+            }
+            calls.rows++;
+        }
+        return total;
+    }
+}
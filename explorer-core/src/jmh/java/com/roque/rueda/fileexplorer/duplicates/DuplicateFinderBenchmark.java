@@ -0,0 +1,180 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.duplicates;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the stages of the search of duplicates. The folder has files
+ * of many sizes like a photo folder: one of each ten files is a copy of
+ * another file and one of each twenty has the size and the edges of
+ * another file but not its middle, so every stage has work to do.
+ *
+ * find is the whole search. The other benchmarks apply a single stage
+ * to every file, on one thread, to show what each stage costs and what
+ * the previous stages save.
+ *
+ * It is in the package of the finder to reach the partial hash.
+ *
+ * Created by Roque on 07/12/13.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DuplicateFinderBenchmark {
+
+    private static final int FILES = 2000;
+    private static final int MAX_SIZE = 512 * 1024;
+    private static final int PARALLELISM = 4;
+
+    private File mRoot;
+    private final List<File> mFiles = new ArrayList<File>();
+    private ExecutorService mExecutor;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mRoot = File.createTempFile("bench", "");
+        if (!mRoot.delete() || !mRoot.mkdir()) {
+            throw new IOException("Unable to create " + mRoot);
+        }
+
+        Random random = new Random(FILES);
+        byte[] data = new byte[MAX_SIZE];
+        for (int i = 0; i < FILES; i++) {
+            File file = new File(mRoot, "dir" + (i % 20) + File.separator + "file" + i);
+            if (i % 10 == 9) {
+                File original = mFiles.get(random.nextInt(mFiles.size()));
+                FileUtils.copyFile(original, file);
+            } else if (i % 20 == 4) {
+                // Same size and edges as the previous file, other middle.
+                byte[] content = FileUtils.readFileToByteArray(mFiles.get(i - 1));
+                if (content.length > DuplicateFinder.EDGE_SIZE * 3) {
+                    content[content.length / 2]++;
+                }
+                FileUtils.writeByteArrayToFile(file, content);
+            } else {
+                // Mostly small files with a few big ones.
+                int size = 1 + (int) (MAX_SIZE * Math.pow(random.nextDouble(), 3));
+                random.nextBytes(data);
+                write(file, data, size);
+            }
+            mFiles.add(file);
+        }
+        mExecutor = Executors.newFixedThreadPool(PARALLELISM);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        mExecutor.shutdown();
+        FileUtils.deleteDirectory(mRoot);
+    }
+
+    @Benchmark
+    public List<DuplicateGroup> find() {
+        return new DuplicateFinder(mRoot, mExecutor, PARALLELISM).find();
+    }
+
+    /**
+     * The scan stage, the size of every file.
+     */
+    @Benchmark
+    public long sizeOfAll() {
+        long total = 0;
+        for (File file : mFiles) {
+            total += file.length();
+        }
+        return total;
+    }
+
+    /**
+     * The partial hash stage applied to every file.
+     */
+    @Benchmark
+    public long partialHashOfAll() throws IOException {
+        byte[] buffer = new byte[DuplicateFinder.EDGE_SIZE * 2];
+        long hashes = 0;
+        for (File file : mFiles) {
+            hashes ^= DuplicateFinder.partialHash(file, file.length(), buffer);
+        }
+        return hashes;
+    }
+
+    /**
+     * The full hash stage applied to every file, what a search without
+     * the first stages would read.
+     */
+    @Benchmark
+    public int fullHashOfAll() throws IOException, NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance("MD5");
+        byte[] buffer = new byte[64 * 1024];
+        int hashes = 0;
+        for (File file : mFiles) {
+            digest.reset();
+            FileInputStream in = new FileInputStream(file);
+            try {
+                int read;
+                while ((read = in.read(buffer)) >= 0) {
+                    digest.update(buffer, 0, read);
+                }
+            } finally {
+                in.close();
+            }
+            hashes ^= digest.digest()[0];
+        }
+        return hashes;
+    }
+
+    private static void write(File file, byte[] data, int length) throws IOException {
+        File parent = file.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Unable to create " + parent);
+        }
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data, 0, length);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.operations;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a copy of a folder with many small files and a few big ones
+ * by OperationRunner and by FileUtils.copyDirectory, and a copy that
+ * runs again over a complete target. The files are in the page cache
+ * after the warm up, so this measures the calls and not the disk.
+ *
+ * It is in the package of the runner because the runner is not public.
+ *
+ * Created by Roque on 07/12/13.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CopyBenchmark {
+
+    private static final int DIRECTORIES = 50;
+    private static final int SMALL_FILES = 5000;
+    private static final int SMALL_FILE_MAX_SIZE = 16 * 1024;
+    private static final int BIG_FILES = 4;
+    private static final int BIG_FILE_SIZE = 32 * 1024 * 1024;
+
+    private static final int PARALLELISM = 4;
+
+    private File mRoot;
+    private File mSource;
+    private File mTarget;
+    private File mCopy;
+    private File mResumeTarget;
+    private ExecutorService mExecutor;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mRoot = File.createTempFile("bench", "");
+        if (!mRoot.delete() || !mRoot.mkdir()) {
+            throw new IOException("Unable to create " + mRoot);
+        }
+        mSource = new File(mRoot, "source");
+        mTarget = new File(mRoot, "target");
+        mCopy = new File(mTarget, mSource.getName());
+        mResumeTarget = new File(mRoot, "resume");
+
+        Random random = new Random(SMALL_FILES);
+        byte[] data = new byte[BIG_FILE_SIZE];
+        random.nextBytes(data);
+        for (int i = 0; i < SMALL_FILES; i++) {
+            File dir = new File(mSource, "dir" + (i % DIRECTORIES));
+            write(new File(dir, "file" + i), data, 1 + random.nextInt(SMALL_FILE_MAX_SIZE));
+        }
+        for (int i = 0; i < BIG_FILES; i++) {
+            write(new File(mSource, "big" + i), data, BIG_FILE_SIZE);
+        }
+
+        mExecutor = Executors.newFixedThreadPool(PARALLELISM);
+        copy(mResumeTarget);
+    }
+
+    @Setup(Level.Invocation)
+    public void clearTarget() throws IOException {
+        FileUtils.deleteDirectory(mTarget);
+        if (!mTarget.mkdir()) {
+            throw new IOException("Unable to create " + mTarget);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        mExecutor.shutdown();
+        FileUtils.deleteDirectory(mRoot);
+    }
+
+    @Benchmark
+    public int runner() {
+        return copy(mTarget);
+    }
+
+    @Benchmark
+    public File copyDirectory() throws IOException {
+        FileUtils.copyDirectory(mSource, mCopy);
+        return mCopy;
+    }
+
+    /**
+     * Every target already has the size and the modified time of its
+     * source, so nothing is copied.
+     */
+    @Benchmark
+    public int resumed() {
+        return copy(mResumeTarget);
+    }
+
+    private int copy(File destination) {
+        FileOperation operation = new FileOperation(0, FileOperation.TYPE_COPY,
+                Collections.singletonList(mSource), destination);
+        int failures = new OperationRunner(operation, mExecutor, PARALLELISM, false).run();
+        if (failures > 0) {
+            throw new IllegalStateException(failures + " files were not copied");
+        }
+        return failures;
+    }
+
+    private static void write(File file, byte[] data, int length) throws IOException {
+        File parent = file.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Unable to create " + parent);
+        }
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data, 0, length);
+        } finally {
+            out.close();
+        }
+    }
+}
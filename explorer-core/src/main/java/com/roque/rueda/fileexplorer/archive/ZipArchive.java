@@ -0,0 +1,575 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.archive;
+
+import com.roque.rueda.fileexplorer.model.FileItem;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads the entries of a zip archive from its central directory, so
+ * opening an archive only reads the end of the file and not the local
+ * header of each entry. The central directory is memory mapped and
+ * parsed once, the archive can then be listed as a tree of folders.
+ *
+ * Zip64 archives are supported, archives split in several disks are not.
+ *
+ * Created by Roque on 27/11/13.
+ */
+public class ZipArchive {
+
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int EOCD_SIZE = 22;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int ZIP64_EOCD_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_EOCD_SIZE = 56;
+    private static final int CENTRAL_SIGNATURE = 0x02014b50;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int LOCAL_SIGNATURE = 0x04034b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+
+    private static final String CHARSET = "UTF-8";
+    private static final char SEPARATOR = '/';
+
+    private final File mFile;
+    private final long mLastModified;
+
+    // Columns of the file entries, indexed by entry id.
+    private int mCount;
+    private String[] mNames;
+    private long[] mSizes;
+    private long[] mCompressedSizes;
+    private long[] mOffsets;
+    private int[] mDosTimes;
+    private short[] mMethods;
+
+    /**
+     * Folders of the archive by path, the root folder is "".
+     */
+    private final Map<String, Folder> mFolders = new HashMap<String, Folder>();
+
+    /**
+     * A folder of the archive, it may have no entry of its own.
+     */
+    private static class Folder {
+        final List<String> folders = new ArrayList<String>();
+        final List<Integer> files = new ArrayList<Integer>();
+        long size;
+        int dosTime;
+    }
+
+    private ZipArchive(File file) {
+        mFile = file;
+        mLastModified = file.lastModified();
+    }
+
+    /**
+     * Opens an archive reading its central directory.
+     * @param file zip archive.
+     * @return the archive.
+     * @throws IOException if the file can not be read or is not a zip archive.
+     */
+    public static ZipArchive open(File file) throws IOException {
+        ZipArchive archive = new ZipArchive(file);
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            archive.readCentralDirectory(input.getChannel());
+        } finally {
+            input.close();
+        }
+        return archive;
+    }
+
+    /**
+     *
+     * @return file of the archive.
+     */
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     *
+     * @return last modified time of the archive when it was opened.
+     */
+    public long getLastModified() {
+        return mLastModified;
+    }
+
+    /**
+     *
+     * @return number of file entries of the archive.
+     */
+    public int getEntryCount() {
+        return mCount;
+    }
+
+    private void readCentralDirectory(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        if (fileSize < EOCD_SIZE) {
+            throw new IOException("Not a zip archive: " + mFile);
+        }
+
+        // The end of central directory record is followed by a comment
+        // of up to 64 KB, only that part of the file is searched.
+        long tailStart = Math.max(0, fileSize - EOCD_SIZE - MAX_COMMENT_SIZE);
+        ByteBuffer tail = map(channel, tailStart, fileSize - tailStart);
+        int eocd = -1;
+        for (int i = tail.limit() - EOCD_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == EOCD_SIGNATURE) {
+                eocd = i;
+                break;
+            }
+        }
+        if (eocd < 0) {
+            throw new IOException("Not a zip archive: " + mFile);
+        }
+
+        long count = tail.getShort(eocd + 10) & 0xFFFF;
+        long directorySize = tail.getInt(eocd + 12) & ZIP64_MAGIC;
+        long directoryOffset = tail.getInt(eocd + 16) & ZIP64_MAGIC;
+
+        if (count == 0xFFFF || directorySize == ZIP64_MAGIC || directoryOffset == ZIP64_MAGIC) {
+            long locator = tailStart + eocd - ZIP64_LOCATOR_SIZE;
+            ByteBuffer buffer = locator >= 0 ? read(channel, locator, ZIP64_LOCATOR_SIZE) : null;
+            if (buffer != null && buffer.getInt(0) == ZIP64_LOCATOR_SIGNATURE) {
+                long record = buffer.getLong(8);
+                if (record < 0 || record > fileSize - ZIP64_EOCD_SIZE) {
+                    throw new IOException("Invalid zip64 locator: " + mFile);
+                }
+                buffer = read(channel, record, ZIP64_EOCD_SIZE);
+                if (buffer.getInt(0) != ZIP64_EOCD_SIGNATURE) {
+                    throw new IOException("Invalid zip64 record: " + mFile);
+                }
+                count = buffer.getLong(32);
+                directorySize = buffer.getLong(40);
+                directoryOffset = buffer.getLong(48);
+            }
+        }
+
+        // The values come from the file, each entry takes at least a
+        // header so the count is bounded by the size of the directory.
+        if (directorySize < 0 || directorySize > Integer.MAX_VALUE
+                || count < 0 || count > directorySize / CENTRAL_HEADER_SIZE
+                || directoryOffset < 0 || directoryOffset > fileSize - directorySize) {
+            throw new IOException("Invalid central directory: " + mFile);
+        }
+
+        parseEntries(map(channel, directoryOffset, directorySize), (int) count);
+    }
+
+    private void parseEntries(ByteBuffer directory, int count) throws IOException {
+        mNames = new String[count];
+        mSizes = new long[count];
+        mCompressedSizes = new long[count];
+        mOffsets = new long[count];
+        mDosTimes = new int[count];
+        mMethods = new short[count];
+
+        Folder root = new Folder();
+        root.dosTime = -1;
+        mFolders.put("", root);
+
+        byte[] nameBuffer = new byte[256];
+        int position = 0;
+        for (int i = 0; i < count; i++) {
+            if (position + CENTRAL_HEADER_SIZE > directory.limit()
+                    || directory.getInt(position) != CENTRAL_SIGNATURE) {
+                throw new IOException("Invalid central directory entry " + i + ": " + mFile);
+            }
+
+            int method = directory.getShort(position + 10) & 0xFFFF;
+            int dosTime = directory.getInt(position + 12);
+            long compressedSize = directory.getInt(position + 20) & ZIP64_MAGIC;
+            long size = directory.getInt(position + 24) & ZIP64_MAGIC;
+            int nameLength = directory.getShort(position + 28) & 0xFFFF;
+            int extraLength = directory.getShort(position + 30) & 0xFFFF;
+            int commentLength = directory.getShort(position + 32) & 0xFFFF;
+            long offset = directory.getInt(position + 42) & ZIP64_MAGIC;
+
+            int nameStart = position + CENTRAL_HEADER_SIZE;
+            if (nameStart + nameLength + extraLength > directory.limit()) {
+                throw new IOException("Truncated central directory: " + mFile);
+            }
+            if (nameBuffer.length < nameLength) {
+                nameBuffer = new byte[nameLength];
+            }
+            for (int j = 0; j < nameLength; j++) {
+                nameBuffer[j] = directory.get(nameStart + j);
+            }
+            String name = decode(nameBuffer, nameLength);
+
+            // Only the values that do not fit in 32 bits are in the extra
+            // field, in this order.
+            if (size == ZIP64_MAGIC || compressedSize == ZIP64_MAGIC || offset == ZIP64_MAGIC) {
+                int extra = nameStart + nameLength;
+                int extraEnd = extra + extraLength;
+                while (extra + 4 <= extraEnd) {
+                    int id = directory.getShort(extra) & 0xFFFF;
+                    int length = directory.getShort(extra + 2) & 0xFFFF;
+                    int fieldEnd = extra + 4 + length;
+                    if (fieldEnd > extraEnd) {
+                        throw new IOException("Invalid extra field of entry " + i + ": " + mFile);
+                    }
+                    if (id == ZIP64_EXTRA_ID) {
+                        int value = extra + 4;
+                        if (size == ZIP64_MAGIC) {
+                            size = readExtraLong(directory, value, fieldEnd, i);
+                            value += 8;
+                        }
+                        if (compressedSize == ZIP64_MAGIC) {
+                            compressedSize = readExtraLong(directory, value, fieldEnd, i);
+                            value += 8;
+                        }
+                        if (offset == ZIP64_MAGIC) {
+                            offset = readExtraLong(directory, value, fieldEnd, i);
+                        }
+                        break;
+                    }
+                    extra = fieldEnd;
+                }
+                if (size < 0 || compressedSize < 0 || offset < 0) {
+                    throw new IOException("Invalid zip64 values of entry " + i + ": " + mFile);
+                }
+            }
+
+            position = nameStart + nameLength + extraLength + commentLength;
+            addEntry(name, method, dosTime, compressedSize, size, offset);
+        }
+    }
+
+    private long readExtraLong(ByteBuffer directory, int position, int fieldEnd, int entry)
+            throws IOException {
+        if (position + 8 > fieldEnd) {
+            throw new IOException("Truncated zip64 extra field of entry " + entry + ": " + mFile);
+        }
+        return directory.getLong(position);
+    }
+
+    private void addEntry(String name, int method, int dosTime, long compressedSize, long size,
+                          long offset) {
+        String path = normalize(name);
+        if (path == null) {
+            return;
+        }
+
+        boolean directory = name.charAt(name.length() - 1) == SEPARATOR;
+        if (directory) {
+            getFolder(path).dosTime = dosTime;
+            return;
+        }
+
+        int id = mCount++;
+        mNames[id] = path;
+        mSizes[id] = size;
+        mCompressedSizes[id] = compressedSize;
+        mOffsets[id] = offset;
+        mDosTimes[id] = dosTime;
+        mMethods[id] = (short) method;
+
+        int separator = path.lastIndexOf(SEPARATOR);
+        Folder parent = getFolder(separator < 0 ? "" : path.substring(0, separator));
+        parent.files.add(id);
+
+        // Each folder knows the size of everything under it.
+        String folder = path;
+        while (true) {
+            separator = folder.lastIndexOf(SEPARATOR);
+            folder = separator < 0 ? "" : folder.substring(0, separator);
+            mFolders.get(folder).size += size;
+            if (separator < 0) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Gets a folder, creating it and its parents if they do not exist.
+     */
+    private Folder getFolder(String path) {
+        Folder folder = mFolders.get(path);
+        if (folder == null) {
+            folder = new Folder();
+            folder.dosTime = -1;
+            mFolders.put(path, folder);
+
+            int separator = path.lastIndexOf(SEPARATOR);
+            Folder parent = getFolder(separator < 0 ? "" : path.substring(0, separator));
+            parent.folders.add(path);
+        }
+        return folder;
+    }
+
+    /**
+     * Removes the empty, "." and leading separators of an entry name.
+     * @return the path or null if the entry has to be ignored because
+     * it points outside of the archive.
+     */
+    private static String normalize(String name) {
+        StringBuilder path = new StringBuilder(name.length());
+        int start = 0;
+        while (start <= name.length()) {
+            int end = name.indexOf(SEPARATOR, start);
+            if (end < 0) {
+                end = name.length();
+            }
+            String segment = name.substring(start, end);
+            if (segment.equals("..")) {
+                return null;
+            }
+            if (segment.length() > 0 && !segment.equals(".")) {
+                if (path.length() > 0) {
+                    path.append(SEPARATOR);
+                }
+                path.append(segment);
+            }
+            start = end + 1;
+        }
+        return path.length() > 0 ? path.toString() : null;
+    }
+
+    /**
+     * Indicates if the path is a folder of the archive.
+     * @param path path inside the archive, "" for the root.
+     * @return true if the folder exists.
+     */
+    public boolean isFolder(String path) {
+        return mFolders.containsKey(path);
+    }
+
+    /**
+     * Lists a folder of the archive. The items have the path of the
+     * archive followed by the path inside it, the folders have their
+     * size already computed.
+     * @param path path of the folder inside the archive, "" for the root.
+     * @return items of the folder or null if the folder does not exist.
+     */
+    public List<FileItem> list(String path) {
+        Folder folder = mFolders.get(path);
+        if (folder == null) {
+            return null;
+        }
+
+        List<FileItem> items = new ArrayList<FileItem>(folder.folders.size() + folder.files.size());
+        for (String folderPath : folder.folders) {
+            Folder child = mFolders.get(folderPath);
+            items.add(new FileItem(new File(mFile, folderPath), child.size,
+                    toMillis(child.dosTime),
+                    FileItem.FLAG_DIRECTORY | FileItem.FLAG_READABLE
+                            | FileItem.FLAG_SIZE_COMPLETE));
+        }
+        for (int id : folder.files) {
+            items.add(new FileItem(new File(mFile, mNames[id]), mSizes[id],
+                    toMillis(mDosTimes[id]), FileItem.FLAG_FILE | FileItem.FLAG_READABLE));
+        }
+        return items;
+    }
+
+    /**
+     * Opens the content of a file entry, the entry is decompressed while
+     * it is read.
+     * @param path path of the entry inside the archive.
+     * @return stream with the content of the entry.
+     * @throws IOException if the entry does not exist or can not be read.
+     */
+    public InputStream openEntry(String path) throws IOException {
+        int id = findEntry(path);
+        if (id < 0) {
+            throw new IOException("No entry " + path + " in " + mFile);
+        }
+
+        int method = mMethods[id];
+        if (method != METHOD_STORED && method != METHOD_DEFLATED) {
+            throw new IOException("Unsupported compression method " + method);
+        }
+
+        RandomAccessFile input = new RandomAccessFile(mFile, "r");
+        try {
+            FileChannel channel = input.getChannel();
+            ByteBuffer header = read(channel, mOffsets[id], LOCAL_HEADER_SIZE);
+            if (header.getInt(0) != LOCAL_SIGNATURE) {
+                throw new IOException("Invalid local header of " + path);
+            }
+            long dataOffset = mOffsets[id] + LOCAL_HEADER_SIZE
+                    + (header.getShort(26) & 0xFFFF) + (header.getShort(28) & 0xFFFF);
+
+            InputStream data = new RegionInputStream(input, dataOffset,
+                    mCompressedSizes[id], method == METHOD_DEFLATED);
+            if (method == METHOD_STORED) {
+                return data;
+            }
+
+            final Inflater inflater = new Inflater(true);
+            return new InflaterInputStream(data, inflater, 8192) {
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    inflater.end();
+                }
+            };
+        } catch (IOException ioe) {
+            input.close();
+            throw ioe;
+        }
+    }
+
+    /**
+     * Gets the uncompressed size of a file entry.
+     * @param path path of the entry inside the archive.
+     * @return size in bytes or -1 if the entry does not exist.
+     */
+    public long getSize(String path) {
+        int id = findEntry(path);
+        return id < 0 ? -1 : mSizes[id];
+    }
+
+    private int findEntry(String path) {
+        int separator = path.lastIndexOf(SEPARATOR);
+        Folder folder = mFolders.get(separator < 0 ? "" : path.substring(0, separator));
+        if (folder != null) {
+            for (int id : folder.files) {
+                if (mNames[id].equals(path)) {
+                    return id;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Converts a MS-DOS date and time to milliseconds, folders without
+     * entry use the time of the archive.
+     */
+    private long toMillis(int dosTime) {
+        if (dosTime == -1) {
+            return mLastModified;
+        }
+
+        int time = dosTime & 0xFFFF;
+        int date = dosTime >>> 16;
+        Calendar calendar = new GregorianCalendar(((date >> 9) & 0x7F) + 1980,
+                ((date >> 5) & 0x0F) - 1, date & 0x1F, (time >> 11) & 0x1F,
+                (time >> 5) & 0x3F, (time & 0x1F) * 2);
+        return calendar.getTimeInMillis();
+    }
+
+    private static String decode(byte[] bytes, int length) {
+        try {
+            return new String(bytes, 0, length, CHARSET);
+        } catch (UnsupportedEncodingException uee) {
+            throw new AssertionError(uee);
+        }
+    }
+
+    private static ByteBuffer map(FileChannel channel, long position, long size)
+            throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int size)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of archive");
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * Reads a part of the archive file. The Inflater needs one byte more
+     * than the compressed data when it does not read the zlib header, so
+     * a zero is added at the end of deflated data.
+     */
+    private static class RegionInputStream extends InputStream {
+
+        private final RandomAccessFile mInput;
+        private long mPosition;
+        private long mRemaining;
+        private boolean mPadding;
+
+        RegionInputStream(RandomAccessFile input, long position, long length, boolean padding) {
+            mInput = input;
+            mPosition = position;
+            mRemaining = length;
+            mPadding = padding;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (mRemaining <= 0) {
+                if (mPadding && length > 0) {
+                    mPadding = false;
+                    buffer[offset] = 0;
+                    return 1;
+                }
+                return -1;
+            }
+
+            mInput.seek(mPosition);
+            int read = mInput.read(buffer, offset, (int) Math.min(length, mRemaining));
+            if (read < 0) {
+                throw new IOException("Unexpected end of archive");
+            }
+            mPosition += read;
+            mRemaining -= read;
+            return read;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, mRemaining);
+        }
+
+        @Override
+        public void close() throws IOException {
+            mInput.close();
+        }
+    }
+}
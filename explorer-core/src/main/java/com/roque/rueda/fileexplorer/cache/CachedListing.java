@@ -0,0 +1,61 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.cache;
+
+import com.roque.rueda.fileexplorer.model.FileItem;
+import com.roque.rueda.fileexplorer.utils.FileSorter;
+
+import java.util.List;
+
+/**
+ * Listing of a directory read from a cache: a copy of its items and the
+ * name ranks that were stored with them, if any.
+ *
+ * Created by Roque on 07/12/13.
+ */
+public class CachedListing {
+
+    private final List<FileItem> mItems;
+    private final FileSorter.Ranks mRanks;
+
+    /**
+     * Creates a listing.
+     * @param items items of the directory.
+     * @param ranks ranks of the items or null.
+     */
+    public CachedListing(List<FileItem> items, FileSorter.Ranks ranks) {
+        mItems = items;
+        mRanks = ranks;
+    }
+
+    /**
+     *
+     * @return copy of the items, the caller can change them.
+     */
+    public List<FileItem> getItems() {
+        return mItems;
+    }
+
+    /**
+     *
+     * @return ranks of the items in the same order, or null if they
+     * were not stored or were ranked for other locale. They are shared
+     * and must not be changed.
+     */
+    public FileSorter.Ranks getRanks() {
+        return mRanks;
+    }
+}
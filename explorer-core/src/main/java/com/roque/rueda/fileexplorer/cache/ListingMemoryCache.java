@@ -0,0 +1,280 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.cache;
+
+import com.roque.rueda.fileexplorer.metrics.Counter;
+import com.roque.rueda.fileexplorer.metrics.Metrics;
+import com.roque.rueda.fileexplorer.model.FileItem;
+import com.roque.rueda.fileexplorer.utils.FileSorter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps listings of directories in memory, so a directory can be shown
+ * without reading the disk while its last modified time does not
+ * change. The listings are kept while their estimated size fits the
+ * byte budget, the least recently used ones are dropped first.
+ *
+ * The items are copied when they are stored and when they are returned,
+ * so the callers can change them. The name ranks of the items can be
+ * stored with them, so a hit does not compare the names again.
+ *
+ * Created by Roque on 01/12/13.
+ */
+public class ListingMemoryCache {
+
+    /**
+     * Default budget in bytes.
+     */
+    public static final long DEFAULT_MAX_BYTES = 1024 * 1024;
+
+    /**
+     * Estimated bytes of an item without its strings: the item, its
+     * File and the headers of the path and name strings.
+     */
+    private static final int ITEM_OVERHEAD = 128;
+
+    /**
+     * Directories changed less than this time ago are not stored, the
+     * same rule used by DirectoryCache.
+     */
+    private static final long MODIFIED_TIME_RESOLUTION = 2000;
+
+    private static final Counter HITS = Metrics.counter("cache.memory.hit");
+    private static final Counter MISSES = Metrics.counter("cache.memory.miss");
+
+    private static class Listing {
+        final long lastModified;
+        final String filterKey;
+        final FileItem[] items;
+        final FileSorter.Ranks ranks;
+        final long bytes;
+
+        Listing(long lastModified, String filterKey, FileItem[] items, FileSorter.Ranks ranks,
+                long bytes) {
+            this.lastModified = lastModified;
+            this.filterKey = filterKey;
+            this.items = items;
+            this.ranks = ranks;
+            this.bytes = bytes;
+        }
+    }
+
+    private final long mMaxBytes;
+    private final LinkedHashMap<String, Listing> mListings =
+            new LinkedHashMap<String, Listing>(16, 0.75f, true);
+    private long mTotalBytes;
+
+    /**
+     * Creates a cache.
+     * @param maxBytes estimated bytes that the listings can use.
+     */
+    public ListingMemoryCache(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     *
+     * @return estimated bytes that the listings can use.
+     */
+    public long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    /**
+     * Gets a copy of the stored items of the directory.
+     * @param dir directory that is going to be read.
+     * @param lastModified current last modified time of the directory.
+     * @param filterKey key of the filter used to list the directory.
+     * @return items of the directory or null if it is not stored, it
+     * changed or it was listed with other filter.
+     */
+    public List<FileItem> get(File dir, long lastModified, String filterKey) {
+        CachedListing listing = getListing(dir, lastModified, filterKey);
+        return listing != null ? listing.getItems() : null;
+    }
+
+    /**
+     * Gets a copy of the stored items of the directory with their ranks.
+     * @param dir directory that is going to be read.
+     * @param lastModified current last modified time of the directory.
+     * @param filterKey key of the filter used to list the directory.
+     * @return listing of the directory or null if it is not stored, it
+     * changed or it was listed with other filter.
+     */
+    public synchronized CachedListing getListing(File dir, long lastModified, String filterKey) {
+        String key = dir.getAbsolutePath();
+        Listing listing = mListings.get(key);
+        if (listing == null) {
+            MISSES.increment();
+            return null;
+        }
+        if (listing.lastModified != lastModified || !listing.filterKey.equals(filterKey)) {
+            MISSES.increment();
+            remove(key);
+            return null;
+        }
+        HITS.increment();
+
+        List<FileItem> items = new ArrayList<FileItem>(listing.items.length);
+        for (FileItem item : listing.items) {
+            items.add(copy(item));
+        }
+        return new CachedListing(items, currentRanks(listing.ranks));
+    }
+
+    /**
+     * Indicates if the directory is stored with the same last modified
+     * time and filter, the disk is not read.
+     * @param dir directory that is going to be checked.
+     * @param lastModified last modified time of the directory.
+     * @param filterKey key of the filter used to list the directory.
+     * @return true if get would return the items.
+     */
+    public synchronized boolean contains(File dir, long lastModified, String filterKey) {
+        Listing listing = mListings.get(dir.getAbsolutePath());
+        return listing != null && listing.lastModified == lastModified
+                && listing.filterKey.equals(filterKey);
+    }
+
+    /**
+     * Stores a copy of the items of the directory, listings that do not
+     * fit in half of the budget or that changed too recently are not
+     * stored.
+     * @param dir directory that was listed.
+     * @param lastModified last modified time of the directory when it was listed.
+     * @param filterKey key of the filter used to list the directory.
+     * @param items items of the directory.
+     * @return true if the listing was stored.
+     */
+    public boolean put(File dir, long lastModified, String filterKey, List<FileItem> items) {
+        return put(dir, lastModified, filterKey, items, null);
+    }
+
+    /**
+     * Stores a copy of the items of the directory and their ranks, like
+     * put without ranks.
+     * @param dir directory that was listed.
+     * @param lastModified last modified time of the directory when it was listed.
+     * @param filterKey key of the filter used to list the directory.
+     * @param items items of the directory.
+     * @param ranks ranks of the items in the same order, or null.
+     * @return true if the listing was stored.
+     */
+    public synchronized boolean put(File dir, long lastModified, String filterKey,
+                                    List<FileItem> items, FileSorter.Ranks ranks) {
+        String key = dir.getAbsolutePath();
+        if (lastModified == 0
+                || System.currentTimeMillis() - lastModified < MODIFIED_TIME_RESOLUTION) {
+            remove(key);
+            return false;
+        }
+
+        if (ranks != null && ranks.name.length != items.size()) {
+            ranks = null;
+        }
+        long bytes = estimateBytes(key, items, ranks);
+        if (bytes > mMaxBytes / 2) {
+            remove(key);
+            return false;
+        }
+
+        FileItem[] copies = new FileItem[items.size()];
+        for (int i = 0; i < copies.length; i++) {
+            copies[i] = copy(items.get(i));
+        }
+
+        Listing previous = mListings.put(key,
+                new Listing(lastModified, filterKey, copies, ranks, bytes));
+        if (previous != null) {
+            mTotalBytes -= previous.bytes;
+        }
+        mTotalBytes += bytes;
+        trimToSize();
+        return true;
+    }
+
+    /**
+     * Removes the directory from the cache.
+     * @param dir directory that is going to be removed.
+     */
+    public synchronized void remove(File dir) {
+        remove(dir.getAbsolutePath());
+    }
+
+    /**
+     * Estimates the bytes used by a listing, without storing it.
+     * @param dir directory that was listed.
+     * @param count number of items.
+     * @param nameChars total characters of the names.
+     * @return estimated bytes.
+     */
+    public static long estimateBytes(File dir, int count, long nameChars) {
+        // Each path repeats the directory, the strings use two bytes per char.
+        long pathChars = (long) count * (dir.getPath().length() + 1) + nameChars;
+        return (long) count * ITEM_OVERHEAD + 2 * (pathChars + nameChars);
+    }
+
+    private static long estimateBytes(String dir, List<FileItem> items, FileSorter.Ranks ranks) {
+        long nameChars = 0;
+        for (FileItem item : items) {
+            nameChars += item.getName().length();
+        }
+        long bytes = estimateBytes(new File(dir), items.size(), nameChars);
+        // Two ints per item.
+        return ranks != null ? bytes + 8L * items.size() : bytes;
+    }
+
+    /**
+     * Gets the ranks if they are still valid, the names are ranked by
+     * the collator of the locale.
+     */
+    static FileSorter.Ranks currentRanks(FileSorter.Ranks ranks) {
+        return ranks != null && ranks.isCurrent() ? ranks : null;
+    }
+
+    private void remove(String key) {
+        Listing listing = mListings.remove(key);
+        if (listing != null) {
+            mTotalBytes -= listing.bytes;
+        }
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Listing>> iterator = mListings.entrySet().iterator();
+        while (mTotalBytes > mMaxBytes && iterator.hasNext()) {
+            mTotalBytes -= iterator.next().getValue().bytes;
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Copies an item with its values and its type.
+     * @param item item that is going to be copied.
+     * @return new item.
+     */
+    static FileItem copy(FileItem item) {
+        FileItem copy = new FileItem(item.getPath(), item.getSize(),
+                item.getLastModifiedTime(), item.getFlags());
+        copy.setType(item.getType());
+        return copy;
+    }
+}
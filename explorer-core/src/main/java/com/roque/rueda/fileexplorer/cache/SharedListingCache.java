@@ -0,0 +1,377 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.cache;
+
+import com.roque.rueda.fileexplorer.metrics.Counter;
+import com.roque.rueda.fileexplorer.metrics.Metrics;
+import com.roque.rueda.fileexplorer.model.FileItem;
+import com.roque.rueda.fileexplorer.utils.FileSorter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Listings shared by the panes that display directories. A pane
+ * acquires the directory it displays and releases it when it leaves,
+ * while a directory is acquired by some pane its listing is kept here
+ * whatever its size, so the other panes that open it do not read the
+ * disk. Once no pane displays it, the listing is handed to the
+ * ListingMemoryCache, which keeps it while it fits its budget.
+ *
+ * The scans are shared too: a load that misses the caches joins the
+ * scan of the same directory that is in progress, if there is one,
+ * instead of starting a second one.
+ *
+ * All the methods can be called from any thread. The items are copied
+ * when they are stored and when they are returned, their name ranks are
+ * kept with them.
+ *
+ * Created by Roque on 06/12/13.
+ */
+public class SharedListingCache {
+
+    /**
+     * Receives the result of a scan that was joined. The methods are
+     * called on the thread that did the scan.
+     */
+    public interface ScanListener {
+
+        /**
+         * Called when the scan finished.
+         * @param lastModified last modified time of the directory when
+         *                     it was listed.
+         * @param items copy of the items for this listener.
+         * @param ranks ranks of the items, shared by the listeners.
+         */
+        void onScanFinished(long lastModified, List<FileItem> items, FileSorter.Ranks ranks);
+
+        /**
+         * Called when the scan stopped without a result, the listener
+         * has to read the directory itself.
+         */
+        void onScanAborted();
+    }
+
+    /**
+     * Same rule used by ListingMemoryCache.
+     */
+    private static final long MODIFIED_TIME_RESOLUTION = 2000;
+
+    private static final Counter HITS = Metrics.counter("cache.shared.hit");
+    private static final Counter JOINS = Metrics.counter("cache.shared.join");
+
+    private static class Entry {
+        final File dir;
+        final String filterKey;
+        int references;
+        long lastModified;
+        FileItem[] items;
+        FileSorter.Ranks ranks;
+
+        /**
+         * Listeners waiting for the scan in progress, null when the
+         * directory is not being scanned.
+         */
+        List<ScanListener> waiting;
+
+        Entry(File dir, String filterKey) {
+            this.dir = dir;
+            this.filterKey = filterKey;
+        }
+    }
+
+    private final ListingMemoryCache mMemoryCache;
+    private final Map<String, Entry> mEntries = new HashMap<String, Entry>();
+
+    /**
+     * Creates a cache.
+     * @param memoryCache cache of the listings that are not displayed.
+     */
+    public SharedListingCache(ListingMemoryCache memoryCache) {
+        mMemoryCache = memoryCache;
+    }
+
+    /**
+     *
+     * @return cache of the listings that are not displayed.
+     */
+    public ListingMemoryCache getMemoryCache() {
+        return mMemoryCache;
+    }
+
+    /**
+     * Marks the directory as displayed by one more pane, its listing is
+     * kept until every pane releases it.
+     * @param dir directory that is displayed.
+     * @param filterKey key of the filter used to list the directory.
+     */
+    public synchronized void acquire(File dir, String filterKey) {
+        getEntry(dir, filterKey, true).references++;
+    }
+
+    /**
+     * Marks the directory as no longer displayed by a pane. When no
+     * pane displays it, its listing goes to the memory cache.
+     * @param dir directory that was displayed.
+     * @param filterKey key of the filter used to list the directory.
+     */
+    public void release(File dir, String filterKey) {
+        Entry released = null;
+        synchronized (this) {
+            Entry entry = getEntry(dir, filterKey, false);
+            if (entry == null || entry.references == 0) {
+                return;
+            }
+            entry.references--;
+            if (entry.references == 0 && entry.items != null) {
+                released = entry;
+            }
+            removeIfUnused(entry);
+        }
+
+        if (released != null) {
+            mMemoryCache.put(released.dir, released.lastModified, released.filterKey,
+                    toList(released.items), released.ranks);
+        }
+    }
+
+    /**
+     * Gets a copy of the listing of the directory, from the displayed
+     * listings or else from the memory cache.
+     * @param dir directory that is going to be read.
+     * @param lastModified current last modified time of the directory.
+     * @param filterKey key of the filter used to list the directory.
+     * @return items of the directory or null if it is not stored or it
+     * changed.
+     */
+    public List<FileItem> get(File dir, long lastModified, String filterKey) {
+        CachedListing listing = getListing(dir, lastModified, filterKey);
+        return listing != null ? listing.getItems() : null;
+    }
+
+    /**
+     * Gets a copy of the listing of the directory with its ranks, like get.
+     * @param dir directory that is going to be read.
+     * @param lastModified current last modified time of the directory.
+     * @param filterKey key of the filter used to list the directory.
+     * @return listing of the directory or null if it is not stored or it
+     * changed.
+     */
+    public CachedListing getListing(File dir, long lastModified, String filterKey) {
+        synchronized (this) {
+            Entry entry = getEntry(dir, filterKey, false);
+            if (entry != null && entry.items != null) {
+                if (entry.lastModified == lastModified) {
+                    HITS.increment();
+                    return new CachedListing(copy(entry.items),
+                            ListingMemoryCache.currentRanks(entry.ranks));
+                }
+                entry.items = null;
+                entry.ranks = null;
+            }
+        }
+        return mMemoryCache.getListing(dir, lastModified, filterKey);
+    }
+
+    /**
+     * Stores a copy of the listing of the directory, it is kept here if
+     * some pane displays the directory and in the memory cache otherwise.
+     * @param dir directory that was listed.
+     * @param lastModified last modified time of the directory when it was listed.
+     * @param filterKey key of the filter used to list the directory.
+     * @param items items of the directory.
+     */
+    public void put(File dir, long lastModified, String filterKey, List<FileItem> items) {
+        put(dir, lastModified, filterKey, items, null);
+    }
+
+    /**
+     * Stores a copy of the listing of the directory with its ranks, like
+     * put without ranks.
+     * @param dir directory that was listed.
+     * @param lastModified last modified time of the directory when it was listed.
+     * @param filterKey key of the filter used to list the directory.
+     * @param items items of the directory.
+     * @param ranks ranks of the items in the same order, or null.
+     */
+    public void put(File dir, long lastModified, String filterKey, List<FileItem> items,
+                    FileSorter.Ranks ranks) {
+        synchronized (this) {
+            Entry entry = getEntry(dir, filterKey, false);
+            if (entry != null && entry.references > 0) {
+                store(entry, lastModified, items, ranks);
+                return;
+            }
+        }
+        mMemoryCache.put(dir, lastModified, filterKey, items, ranks);
+    }
+
+    /**
+     * Drops the listings of the directory, used when its entries change.
+     * @param dir directory that changed.
+     */
+    public void remove(File dir) {
+        File absolute = dir.getAbsoluteFile();
+        synchronized (this) {
+            Iterator<Entry> iterator = mEntries.values().iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                if (entry.dir.equals(absolute)) {
+                    entry.items = null;
+                    entry.ranks = null;
+                    if (entry.references == 0 && entry.waiting == null) {
+                        iterator.remove();
+                    }
+                }
+            }
+        }
+        mMemoryCache.remove(dir);
+    }
+
+    /**
+     * Registers a scan of the directory. If no scan of the directory is
+     * in progress, the caller has to scan it and then call finishScan or
+     * abortScan. Otherwise the listener receives the result of the scan
+     * in progress.
+     * @param dir directory that is going to be listed.
+     * @param filterKey key of the filter used to list the directory.
+     * @param listener listener of the scan in progress.
+     * @return true if the caller has to scan the directory, false if
+     * the listener was added to the scan in progress.
+     */
+    public synchronized boolean joinScan(File dir, String filterKey, ScanListener listener) {
+        Entry entry = getEntry(dir, filterKey, true);
+        if (entry.waiting == null) {
+            entry.waiting = new ArrayList<ScanListener>();
+            return true;
+        }
+        entry.waiting.add(listener);
+        JOINS.increment();
+        return false;
+    }
+
+    /**
+     *
+     * @param dir directory that is being listed.
+     * @param filterKey key of the filter used to list the directory.
+     * @return true if a load joined the scan of the directory.
+     */
+    public synchronized boolean hasWaitingScans(File dir, String filterKey) {
+        Entry entry = getEntry(dir, filterKey, false);
+        return entry != null && entry.waiting != null && !entry.waiting.isEmpty();
+    }
+
+    /**
+     * Stores the result of a scan registered with joinScan and delivers
+     * it to the listeners that joined it.
+     * @param dir directory that was listed.
+     * @param lastModified last modified time of the directory when it was listed.
+     * @param filterKey key of the filter used to list the directory.
+     * @param items items of the directory.
+     * @param ranks ranks of the items in the same order.
+     */
+    public void finishScan(File dir, long lastModified, String filterKey, List<FileItem> items,
+                           FileSorter.Ranks ranks) {
+        put(dir, lastModified, filterKey, items, ranks);
+        for (ScanListener listener : endScan(dir, filterKey)) {
+            listener.onScanFinished(lastModified, copy(items), ranks);
+        }
+    }
+
+    /**
+     * Ends a scan registered with joinScan that has no result, the
+     * listeners that joined it scan the directory themselves.
+     * @param dir directory that was being listed.
+     * @param filterKey key of the filter used to list the directory.
+     */
+    public void abortScan(File dir, String filterKey) {
+        for (ScanListener listener : endScan(dir, filterKey)) {
+            listener.onScanAborted();
+        }
+    }
+
+    private synchronized List<ScanListener> endScan(File dir, String filterKey) {
+        Entry entry = getEntry(dir, filterKey, false);
+        if (entry == null || entry.waiting == null) {
+            return new ArrayList<ScanListener>();
+        }
+        List<ScanListener> waiting = entry.waiting;
+        entry.waiting = null;
+        removeIfUnused(entry);
+        return waiting;
+    }
+
+    private void store(Entry entry, long lastModified, List<FileItem> items,
+                       FileSorter.Ranks ranks) {
+        // A second change in the same second would keep the same time.
+        if (lastModified == 0
+                || System.currentTimeMillis() - lastModified < MODIFIED_TIME_RESOLUTION) {
+            entry.items = null;
+            entry.ranks = null;
+            return;
+        }
+        entry.lastModified = lastModified;
+        entry.ranks = ranks != null && ranks.name.length == items.size() ? ranks : null;
+        entry.items = new FileItem[items.size()];
+        for (int i = 0; i < entry.items.length; i++) {
+            entry.items[i] = ListingMemoryCache.copy(items.get(i));
+        }
+    }
+
+    private Entry getEntry(File dir, String filterKey, boolean create) {
+        String key = dir.getAbsolutePath() + '\n' + filterKey;
+        Entry entry = mEntries.get(key);
+        if (entry == null && create) {
+            entry = new Entry(dir.getAbsoluteFile(), filterKey);
+            mEntries.put(key, entry);
+        }
+        return entry;
+    }
+
+    private void removeIfUnused(Entry entry) {
+        if (entry.references == 0 && entry.waiting == null) {
+            mEntries.remove(entry.dir.getAbsolutePath() + '\n' + entry.filterKey);
+        }
+    }
+
+    private static List<FileItem> copy(FileItem[] items) {
+        List<FileItem> copies = new ArrayList<FileItem>(items.length);
+        for (FileItem item : items) {
+            copies.add(ListingMemoryCache.copy(item));
+        }
+        return copies;
+    }
+
+    private static List<FileItem> copy(List<FileItem> items) {
+        List<FileItem> copies = new ArrayList<FileItem>(items.size());
+        for (FileItem item : items) {
+            copies.add(ListingMemoryCache.copy(item));
+        }
+        return copies;
+    }
+
+    private static List<FileItem> toList(FileItem[] items) {
+        List<FileItem> list = new ArrayList<FileItem>(items.length);
+        for (FileItem item : items) {
+            list.add(item);
+        }
+        return list;
+    }
+}
@@ -0,0 +1,466 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.duplicates;
+
+import com.roque.rueda.fileexplorer.model.FileItem;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * Finds the files with the same content under a directory reading as
+ * little as possible:
+ * <ol>
+ * <li>The files are grouped by size, a file with a unique size has no
+ * duplicate and is never opened.</li>
+ * <li>The files whose size collides are grouped by a hash of their
+ * first and last 4 KB.</li>
+ * <li>Only the files that still collide are read completely, with
+ * memory mapped reads, and grouped by their MD5.</li>
+ * </ol>
+ * The hashing stages read several files at the same time.
+ *
+ * Created by Roque on 29/11/13.
+ */
+public class DuplicateFinder {
+
+    public static final int STAGE_SCAN = 0;
+    public static final int STAGE_PARTIAL_HASH = 1;
+    public static final int STAGE_FULL_HASH = 2;
+    public static final int STAGE_DONE = 3;
+
+    /**
+     * Bytes read from the start and from the end of each file in the
+     * partial hash stage.
+     */
+    static final int EDGE_SIZE = 4096;
+
+    /**
+     * Files smaller than this are read with a buffer, the bigger ones
+     * are mapped.
+     */
+    private static final long MAP_THRESHOLD = 64 * 1024;
+
+    /**
+     * Bytes mapped at once, so big files do not take the address space.
+     */
+    private static final long MAP_CHUNK = 8 * 1024 * 1024;
+
+    private static final String DIGEST = "MD5";
+
+    /**
+     * Work done on each file of a stage by a worker.
+     */
+    private interface Stage {
+        void process(int file, byte[] buffer, MessageDigest digest) throws IOException;
+    }
+
+    private final File mRoot;
+    private final Executor mExecutor;
+    private final int mParallelism;
+    private volatile boolean mCancelled;
+
+    private volatile int mStage = STAGE_SCAN;
+    private final AtomicInteger mProcessed = new AtomicInteger();
+    private volatile int mStageTotal;
+
+    // Files found by the scan.
+    private int mCount;
+    private File[] mFiles = new File[256];
+    private long[] mSizes = new long[256];
+
+    // Hashes of each file, only valid for the files of the stage.
+    private long[] mPartialHashes;
+    private long[] mHashesHigh;
+    private long[] mHashesLow;
+    private boolean[] mFailed;
+
+    /**
+     * Creates a finder.
+     * @param root directory that is searched.
+     * @param executor executor of the workers, it must have at least
+     *                 parallelism threads.
+     * @param parallelism number of files read at the same time.
+     */
+    public DuplicateFinder(File root, Executor executor, int parallelism) {
+        mRoot = root;
+        mExecutor = executor;
+        mParallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Stops the search, find returns as soon as possible.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    /**
+     *
+     * @return one of the STAGE_ constants.
+     */
+    public int getStage() {
+        return mStage;
+    }
+
+    /**
+     *
+     * @return files processed by the current stage, or files found
+     * during the scan.
+     */
+    public int getProcessed() {
+        return mStage == STAGE_SCAN ? mCount : mProcessed.get();
+    }
+
+    /**
+     *
+     * @return files that the current stage has to process.
+     */
+    public int getStageTotal() {
+        return mStageTotal;
+    }
+
+    /**
+     * Searches the duplicates on the calling thread.
+     * @return groups of files with the same content, the ones that waste
+     * more space first, or an empty list if the search was cancelled.
+     */
+    public List<DuplicateGroup> find() {
+        scan(mRoot);
+        if (mCancelled) {
+            return Collections.emptyList();
+        }
+
+        mPartialHashes = new long[mCount];
+        mHashesHigh = new long[mCount];
+        mHashesLow = new long[mCount];
+        mFailed = new boolean[mCount];
+
+        // Sizes that are unique can not have duplicates.
+        int[] candidates = collide(all(), false, false);
+
+        startStage(STAGE_PARTIAL_HASH, candidates.length);
+        runStage(candidates, new Stage() {
+            @Override
+            public void process(int file, byte[] buffer, MessageDigest digest) throws IOException {
+                mPartialHashes[file] = partialHash(mFiles[file], mSizes[file], buffer);
+            }
+        });
+        candidates = collide(candidates, true, false);
+
+        startStage(STAGE_FULL_HASH, candidates.length);
+        runStage(candidates, new Stage() {
+            @Override
+            public void process(int file, byte[] buffer, MessageDigest digest) throws IOException {
+                fullHash(file, buffer, digest);
+            }
+        });
+        candidates = collide(candidates, true, true);
+        if (mCancelled) {
+            return Collections.emptyList();
+        }
+
+        List<DuplicateGroup> groups = buildGroups(candidates);
+        mStage = STAGE_DONE;
+        return groups;
+    }
+
+    private void startStage(int stage, int total) {
+        mProcessed.set(0);
+        mStageTotal = total;
+        mStage = stage;
+    }
+
+    private void scan(File dir) {
+        String[] names = dir.list();
+        if (names == null) {
+            return;
+        }
+
+        for (String name : names) {
+            if (mCancelled) {
+                return;
+            }
+
+            File file = new File(dir, name);
+            if (file.isDirectory()) {
+                if (!isSymlink(file)) {
+                    scan(file);
+                }
+            } else {
+                // Empty files are all equal, they are not worth reporting.
+                long size = file.length();
+                if (size > 0 && !isSymlink(file)) {
+                    add(file, size);
+                }
+            }
+        }
+    }
+
+    private void add(File file, long size) {
+        if (mCount == mFiles.length) {
+            File[] files = new File[mCount * 2];
+            long[] sizes = new long[mCount * 2];
+            System.arraycopy(mFiles, 0, files, 0, mCount);
+            System.arraycopy(mSizes, 0, sizes, 0, mCount);
+            mFiles = files;
+            mSizes = sizes;
+        }
+        mFiles[mCount] = file;
+        mSizes[mCount] = size;
+        mCount++;
+    }
+
+    private int[] all() {
+        int[] files = new int[mCount];
+        for (int i = 0; i < mCount; i++) {
+            files[i] = i;
+        }
+        return files;
+    }
+
+    /**
+     * Keeps the files that have the same key as another file, the key is
+     * the size and optionally the hashes. The result is sorted by key.
+     */
+    private int[] collide(int[] files, final boolean partial, final boolean full) {
+        Integer[] order = new Integer[files.length];
+        int count = 0;
+        for (int file : files) {
+            if (!mFailed[file]) {
+                order[count++] = file;
+            }
+        }
+
+        final Comparator<Integer> comparator = new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                int result = compareLongs(mSizes[lhs], mSizes[rhs]);
+                if (result == 0 && partial) {
+                    result = compareLongs(mPartialHashes[lhs], mPartialHashes[rhs]);
+                }
+                if (result == 0 && full) {
+                    result = compareLongs(mHashesHigh[lhs], mHashesHigh[rhs]);
+                    if (result == 0) {
+                        result = compareLongs(mHashesLow[lhs], mHashesLow[rhs]);
+                    }
+                }
+                return result;
+            }
+        };
+        Arrays.sort(order, 0, count, comparator);
+
+        int[] result = new int[count];
+        int resultCount = 0;
+        int start = 0;
+        while (start < count) {
+            int end = start + 1;
+            while (end < count && comparator.compare(order[start], order[end]) == 0) {
+                end++;
+            }
+            if (end - start > 1) {
+                for (int i = start; i < end; i++) {
+                    result[resultCount++] = order[i];
+                }
+            }
+            start = end;
+        }
+
+        int[] trimmed = new int[resultCount];
+        System.arraycopy(result, 0, trimmed, 0, resultCount);
+        return trimmed;
+    }
+
+    private static int compareLongs(long lhs, long rhs) {
+        return lhs < rhs ? -1 : (lhs == rhs ? 0 : 1);
+    }
+
+    /**
+     * Processes the files with several workers, a file that can not be
+     * read is marked as failed and left out of the next stages.
+     */
+    private void runStage(final int[] files, final Stage stage) {
+        final AtomicInteger next = new AtomicInteger();
+        Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                byte[] buffer = new byte[EDGE_SIZE * 2];
+                MessageDigest digest;
+                try {
+                    digest = MessageDigest.getInstance(DIGEST);
+                } catch (NoSuchAlgorithmException nsae) {
+                    throw new AssertionError(nsae);
+                }
+
+                int position;
+                while (!mCancelled && (position = next.getAndIncrement()) < files.length) {
+                    int file = files[position];
+                    try {
+                        stage.process(file, buffer, digest);
+                    } catch (IOException ioe) {
+                        mFailed[file] = true;
+                    }
+                    mProcessed.incrementAndGet();
+                }
+            }
+        };
+
+        int workers = Math.min(mParallelism, files.length);
+        if (workers <= 1) {
+            worker.run();
+            return;
+        }
+
+        final CountDownLatch finished = new CountDownLatch(workers);
+        for (int i = 0; i < workers; i++) {
+            final Runnable task = worker;
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        finished.countDown();
+                    }
+                }
+            });
+        }
+
+        try {
+            finished.await();
+        } catch (InterruptedException ie) {
+            mCancelled = true;
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Hashes the first and the last EDGE_SIZE bytes of a file, small files
+     * are hashed completely.
+     */
+    static long partialHash(File file, long size, byte[] buffer) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            CRC32 head = new CRC32();
+            CRC32 tail = new CRC32();
+            if (size <= buffer.length) {
+                input.readFully(buffer, 0, (int) size);
+                head.update(buffer, 0, (int) size);
+            } else {
+                input.readFully(buffer, 0, EDGE_SIZE);
+                head.update(buffer, 0, EDGE_SIZE);
+                input.seek(size - EDGE_SIZE);
+                input.readFully(buffer, 0, EDGE_SIZE);
+                tail.update(buffer, 0, EDGE_SIZE);
+            }
+            return (head.getValue() << 32) | tail.getValue();
+        } finally {
+            input.close();
+        }
+    }
+
+    private void fullHash(int file, byte[] buffer, MessageDigest digest) throws IOException {
+        long size = mSizes[file];
+        digest.reset();
+
+        RandomAccessFile input = new RandomAccessFile(mFiles[file], "r");
+        try {
+            if (size < MAP_THRESHOLD) {
+                int read;
+                while ((read = input.read(buffer)) >= 0) {
+                    digest.update(buffer, 0, read);
+                }
+            } else {
+                FileChannel channel = input.getChannel();
+                for (long position = 0; position < size && !mCancelled; position += MAP_CHUNK) {
+                    MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY,
+                            position, Math.min(MAP_CHUNK, size - position));
+                    digest.update(chunk);
+                }
+            }
+        } finally {
+            input.close();
+        }
+
+        byte[] hash = digest.digest();
+        mHashesHigh[file] = toLong(hash, 0);
+        mHashesLow[file] = toLong(hash, 8);
+    }
+
+    private static long toLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * Builds the groups from the files sorted by key.
+     */
+    private List<DuplicateGroup> buildGroups(int[] files) {
+        List<DuplicateGroup> groups = new ArrayList<DuplicateGroup>();
+        int start = 0;
+        while (start < files.length) {
+            int first = files[start];
+            int end = start + 1;
+            while (end < files.length && mSizes[files[end]] == mSizes[first]
+                    && mHashesHigh[files[end]] == mHashesHigh[first]
+                    && mHashesLow[files[end]] == mHashesLow[first]) {
+                end++;
+            }
+
+            List<FileItem> items = new ArrayList<FileItem>(end - start);
+            for (int i = start; i < end; i++) {
+                items.add(FileItem.snapshot(mFiles[files[i]]));
+            }
+            groups.add(new DuplicateGroup(mSizes[first], items));
+            start = end;
+        }
+
+        Collections.sort(groups, new Comparator<DuplicateGroup>() {
+            @Override
+            public int compare(DuplicateGroup lhs, DuplicateGroup rhs) {
+                return compareLongs(rhs.getWastedBytes(), lhs.getWastedBytes());
+            }
+        });
+        return groups;
+    }
+
+    private static boolean isSymlink(File file) {
+        try {
+            return FileUtils.isSymlink(file);
+        } catch (IOException ioe) {
+            return true;
+        }
+    }
+}
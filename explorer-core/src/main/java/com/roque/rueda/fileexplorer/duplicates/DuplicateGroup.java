@@ -0,0 +1,61 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.duplicates;
+
+import com.roque.rueda.fileexplorer.model.FileItem;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Files that have the same content.
+ *
+ * Created by Roque on 29/11/13.
+ */
+public class DuplicateGroup {
+
+    private final long mSize;
+    private final List<FileItem> mItems;
+
+    DuplicateGroup(long size, List<FileItem> items) {
+        mSize = size;
+        mItems = Collections.unmodifiableList(items);
+    }
+
+    /**
+     *
+     * @return size of each file of the group.
+     */
+    public long getSize() {
+        return mSize;
+    }
+
+    /**
+     *
+     * @return files of the group, at least two.
+     */
+    public List<FileItem> getItems() {
+        return mItems;
+    }
+
+    /**
+     *
+     * @return bytes that are freed keeping a single copy.
+     */
+    public long getWastedBytes() {
+        return mSize * (mItems.size() - 1);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.loader;
+
+import com.roque.rueda.fileexplorer.model.FileItem;
+import com.roque.rueda.fileexplorer.utils.FileTypes;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the entries of a directory that a ListingFilter accepts into
+ * classified FileItems. The items are handed out in batches while the
+ * directory is read, the first batch is smaller so the first rows can
+ * be shown sooner.
+ *
+ * Created by Roque on 02/12/13.
+ */
+public class DirectoryScanner {
+
+    /**
+     * Receives the batches of a scan on the thread of the scan.
+     */
+    public interface Callback {
+
+        /**
+         * Called each time a batch is ready.
+         * @param batch items read since the last batch, the list is not
+         *              changed after this call.
+         * @return false to stop the scan.
+         */
+        boolean onBatch(List<FileItem> batch);
+    }
+
+    private final ListingFilter mFilter;
+    private final int mFirstBatchSize;
+    private final int mBatchSize;
+
+    /**
+     * Creates a scanner.
+     * @param filter filter of the entries.
+     * @param firstBatchSize number of items of the first batch.
+     * @param batchSize number of items of the rest of the batches.
+     */
+    public DirectoryScanner(ListingFilter filter, int firstBatchSize, int batchSize) {
+        if (firstBatchSize <= 0 || batchSize <= 0) {
+            throw new IllegalArgumentException("batch sizes must be positive");
+        }
+
+        mFilter = filter;
+        mFirstBatchSize = firstBatchSize;
+        mBatchSize = batchSize;
+    }
+
+    /**
+     * Lists and reads a directory without batches.
+     * @param dir directory that is going to be read.
+     * @return accepted items of the directory or null if it can not be listed.
+     */
+    public List<FileItem> scan(File dir) {
+        String[] names = dir.list();
+        return names == null ? null : scan(dir, names, null);
+    }
+
+    /**
+     * Reads the entries of a directory that was already listed.
+     * @param dir directory that contains the entries.
+     * @param names names of the entries.
+     * @param callback callback that receives the batches, may be null.
+     * @return accepted items of the directory, or null if the callback
+     * stopped the scan.
+     */
+    public List<FileItem> scan(File dir, String[] names, Callback callback) {
+        List<FileItem> items = new ArrayList<FileItem>(names.length);
+        int limit = mFirstBatchSize;
+        List<FileItem> batch = callback != null ? new ArrayList<FileItem>(limit) : null;
+
+        for (String name : names) {
+            FileItem item = mFilter.snapshot(dir, name);
+            if (item == null) {
+                continue;
+            }
+            // Classify here so binding the row does not allocate.
+            FileTypes.sniffType(item);
+            items.add(item);
+
+            if (batch != null) {
+                batch.add(item);
+                if (batch.size() >= limit) {
+                    if (!callback.onBatch(batch)) {
+                        return null;
+                    }
+                    limit = mBatchSize;
+                    batch = new ArrayList<FileItem>(limit);
+                }
+            }
+        }
+
+        if (batch != null && !batch.isEmpty() && !callback.onBatch(batch)) {
+            return null;
+        }
+        return items;
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.loader;
+
+import com.roque.rueda.fileexplorer.model.FileItem;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compares two listings of the same directory and builds the operations
+ * that turn the old listing into the new one.
+ *
+ * Items are matched by path using FileItem.equals, a matched item whose
+ * size, last modified time or flags changed is reported as a change.
+ * The operations must be applied in the order they are returned: first
+ * the removals, from the last position to the first, then the inserts,
+ * from the first position to the last, and then the changes.
+ *
+ * Created by Roque on 20/11/13.
+ */
+public class ListingDiff {
+
+    /**
+     * The item at the position is removed.
+     */
+    public static final int REMOVE = 0;
+
+    /**
+     * The item is inserted at the position.
+     */
+    public static final int INSERT = 1;
+
+    /**
+     * The item at the position is replaced with a newer version.
+     */
+    public static final int CHANGE = 2;
+
+    /**
+     * Flags that are compared to detect a change, the size flags of the
+     * folders are not part of the listing.
+     */
+    private static final int COMPARED_FLAGS = FileItem.FLAG_FILE | FileItem.FLAG_DIRECTORY
+            | FileItem.FLAG_READABLE | FileItem.FLAG_WRITABLE | FileItem.FLAG_HIDDEN;
+
+    /**
+     * A single change of a listing.
+     */
+    public static class Operation {
+
+        /**
+         * One of REMOVE, INSERT or CHANGE.
+         */
+        public final int type;
+
+        /**
+         * Position of the item when the operation is applied.
+         */
+        public final int position;
+
+        /**
+         * Item that is inserted or the new version of a changed item,
+         * null for removals.
+         */
+        public final FileItem item;
+
+        Operation(int type, int position, FileItem item) {
+            this.type = type;
+            this.position = position;
+            this.item = item;
+        }
+    }
+
+    private ListingDiff() {
+        // Nothing here
+    }
+
+    /**
+     * Builds the operations that turn the old listing into the new one.
+     * @param oldItems listing that is displayed.
+     * @param newItems listing that was just read.
+     * @return operations in the order they must be applied, empty if the
+     * listings are the same.
+     */
+    public static List<Operation> compute(List<FileItem> oldItems, List<FileItem> newItems) {
+        int oldSize = oldItems.size();
+        int newSize = newItems.size();
+
+        Map<FileItem, Integer> oldPositions = new HashMap<FileItem, Integer>(oldSize * 2);
+        for (int i = 0; i < oldSize; i++) {
+            oldPositions.put(oldItems.get(i), i);
+        }
+
+        // Old position of each new item, -1 for the items that are new.
+        int[] matches = new int[newSize];
+        for (int i = 0; i < newSize; i++) {
+            Integer oldPosition = oldPositions.get(newItems.get(i));
+            matches[i] = oldPosition == null ? -1 : oldPosition;
+        }
+
+        // The items that keep their relative order stay where they are,
+        // the rest of the matched items are moved with a remove and an insert.
+        boolean[] keptNew = longestIncreasingRun(matches);
+        boolean[] keptOld = new boolean[oldSize];
+        for (int i = 0; i < newSize; i++) {
+            if (keptNew[i]) {
+                keptOld[matches[i]] = true;
+            }
+        }
+
+        List<Operation> operations = new ArrayList<Operation>();
+        for (int i = oldSize - 1; i >= 0; i--) {
+            if (!keptOld[i]) {
+                operations.add(new Operation(REMOVE, i, null));
+            }
+        }
+        for (int i = 0; i < newSize; i++) {
+            if (!keptNew[i]) {
+                operations.add(new Operation(INSERT, i, newItems.get(i)));
+            }
+        }
+        for (int i = 0; i < newSize; i++) {
+            if (keptNew[i] && isChanged(oldItems.get(matches[i]), newItems.get(i))) {
+                operations.add(new Operation(CHANGE, i, newItems.get(i)));
+            }
+        }
+        return operations;
+    }
+
+    /**
+     * Builds the operations for a set of known changes, without reading
+     * the whole directory. The updated items that are not on the listing
+     * are added at the end.
+     * @param items listing that is displayed.
+     * @param updated entries that were created or changed.
+     * @param removed entries that no longer exist.
+     * @return operations in the order they must be applied.
+     */
+    public static List<Operation> compute(List<FileItem> items, List<FileItem> updated,
+                                          List<File> removed) {
+        Map<FileItem, FileItem> updates = new HashMap<FileItem, FileItem>(updated.size() * 2);
+        for (FileItem item : updated) {
+            updates.put(item, item);
+        }
+        Set<FileItem> removals = new HashSet<FileItem>(removed.size() * 2);
+        for (File file : removed) {
+            FileItem key = new FileItem();
+            key.setPath(file);
+            removals.add(key);
+        }
+
+        List<Operation> removeOperations = new ArrayList<Operation>();
+        List<Operation> changeOperations = new ArrayList<Operation>();
+        Set<FileItem> found = new HashSet<FileItem>();
+        int size = items.size();
+        int removedBefore = 0;
+
+        for (int i = 0; i < size; i++) {
+            FileItem item = items.get(i);
+            if (removals.contains(item)) {
+                removeOperations.add(0, new Operation(REMOVE, i, null));
+                removedBefore++;
+                continue;
+            }
+
+            FileItem newItem = updates.get(item);
+            if (newItem != null) {
+                found.add(newItem);
+                if (isChanged(item, newItem)) {
+                    changeOperations.add(new Operation(CHANGE, i - removedBefore, newItem));
+                }
+            }
+        }
+
+        List<Operation> operations = new ArrayList<Operation>(removeOperations);
+        int position = size - removedBefore;
+        for (FileItem item : updated) {
+            if (!found.contains(item)) {
+                operations.add(new Operation(INSERT, position++, item));
+            }
+        }
+        operations.addAll(changeOperations);
+        return operations;
+    }
+
+    /**
+     * Applies the operations to a listing.
+     * @param items listing that is going to be updated.
+     * @param operations operations returned by compute.
+     */
+    public static void apply(List<FileItem> items, List<Operation> operations) {
+        for (Operation operation : operations) {
+            switch (operation.type) {
+                case REMOVE:
+                    items.remove(operation.position);
+                    break;
+                case INSERT:
+                    items.add(operation.position, operation.item);
+                    break;
+                case CHANGE:
+                    items.set(operation.position, operation.item);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Indicates if a matched item has different values.
+     * @param oldItem item of the old listing.
+     * @param newItem item of the new listing with the same path.
+     * @return true if the item changed.
+     */
+    public static boolean isChanged(FileItem oldItem, FileItem newItem) {
+        if ((oldItem.getFlags() & COMPARED_FLAGS) != (newItem.getFlags() & COMPARED_FLAGS)) {
+            return true;
+        }
+        if (oldItem.getLastModifiedTime() != newItem.getLastModifiedTime()) {
+            return true;
+        }
+        // The size of the folders is counted apart.
+        return newItem.isFile() && oldItem.getSize() != newItem.getSize();
+    }
+
+    /**
+     * Finds the longest strictly increasing subsequence of the matched
+     * positions, ignoring the -1 values.
+     * @param values old position of each new item or -1.
+     * @return for each value, true if it belongs to the subsequence.
+     */
+    private static boolean[] longestIncreasingRun(int[] values) {
+        int count = values.length;
+        // tails[k] is the index of the smallest value that ends a run of length k + 1.
+        int[] tails = new int[count];
+        int[] previous = new int[count];
+        int length = 0;
+
+        for (int i = 0; i < count; i++) {
+            if (values[i] < 0) {
+                continue;
+            }
+
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (values[tails[middle]] < values[i]) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+
+            previous[i] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = i;
+            if (low == length) {
+                length++;
+            }
+        }
+
+        boolean[] result = new boolean[count];
+        int index = length > 0 ? tails[length - 1] : -1;
+        while (index >= 0) {
+            result[index] = true;
+            index = previous[index];
+        }
+        return result;
+    }
+}
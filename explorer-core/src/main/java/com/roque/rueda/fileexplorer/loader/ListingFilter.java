@@ -0,0 +1,551 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.loader;
+
+import com.roque.rueda.fileexplorer.model.FileItem;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decides which entries of a directory are listed. The filter is
+ * compiled into a chain of predicates that is applied while the
+ * directory is read, so a rejected entry never becomes a FileItem:
+ * <ol>
+ * <li>The predicates on the name run first, without touching the disk.
+ * The glob and the extensions only apply to files, an entry whose name
+ * does not match costs a single check to know if it is a folder.</li>
+ * <li>The predicates on the values of the file run once they are read.
+ * The size and date ranges only apply to files, so the folders can
+ * still be browsed.</li>
+ * </ol>
+ * Filters are immutable and can be shared between threads.
+ *
+ * Created by Roque on 30/11/13.
+ */
+public class ListingFilter {
+
+    /**
+     * Filter that lists every entry.
+     */
+    public static final ListingFilter ACCEPT_ALL = new Builder().build();
+
+    private static final long KILOBYTE = 1024;
+    private static final long HOUR = 60 * 60 * 1000;
+
+    /**
+     * Predicate on the name of an entry.
+     */
+    private interface NamePredicate {
+        boolean accept(String name);
+    }
+
+    /**
+     * Predicate on the values read from the file system.
+     */
+    private interface StatPredicate {
+        boolean accept(int flags, long size, long lastModified);
+    }
+
+    private final NamePredicate[] mNamePredicates;
+    private final NamePredicate[] mFileNamePredicates;
+    private final StatPredicate[] mStatPredicates;
+    private final String mKey;
+
+    /**
+     * Maximum age of the files in milliseconds, -1 for any age.
+     */
+    private final long mMaxAge;
+
+    private ListingFilter(List<NamePredicate> namePredicates,
+                          List<NamePredicate> fileNamePredicates,
+                          List<StatPredicate> statPredicates, String key, long maxAge) {
+        mNamePredicates = namePredicates.toArray(new NamePredicate[namePredicates.size()]);
+        mFileNamePredicates = fileNamePredicates.toArray(
+                new NamePredicate[fileNamePredicates.size()]);
+        mStatPredicates = statPredicates.toArray(new StatPredicate[statPredicates.size()]);
+        mKey = key;
+        mMaxAge = maxAge;
+    }
+
+    /**
+     *
+     * @return true if the filter lists every entry.
+     */
+    public boolean isAcceptAll() {
+        return mKey.length() == 0;
+    }
+
+    /**
+     *
+     * @return text that identifies the filter, two filters with the same
+     * key list the same entries. Empty for ACCEPT_ALL. The key of a
+     * maximum age does not depend on the time, so a cached listing must
+     * go through dropExpired.
+     */
+    public String getKey() {
+        return mKey;
+    }
+
+    /**
+     * Reads an entry of a directory if the filter accepts it.
+     * @param dir directory that contains the entry.
+     * @param name name of the entry.
+     * @return item with a snapshot of the entry, or null if the entry
+     * is rejected.
+     */
+    public FileItem snapshot(File dir, String name) {
+        for (NamePredicate predicate : mNamePredicates) {
+            if (!predicate.accept(name)) {
+                return null;
+            }
+        }
+
+        File file = new File(dir, name);
+        for (NamePredicate predicate : mFileNamePredicates) {
+            if (!predicate.accept(name)) {
+                // Only the files are filtered by name.
+                if (!file.isDirectory()) {
+                    return null;
+                }
+                break;
+            }
+        }
+
+        int flags = FileItem.readFlags(file);
+        long size = (flags & FileItem.FLAG_FILE) != 0 ? file.length() : 0;
+        long lastModified = file.lastModified();
+        for (StatPredicate predicate : mStatPredicates) {
+            if (!predicate.accept(flags, size, lastModified)) {
+                return null;
+            }
+        }
+        return new FileItem(file, size, lastModified, flags);
+    }
+
+    /**
+     * Applies the filter to an item that was already read, like the
+     * items of the archives.
+     * @param item item that is going to be checked.
+     * @return true if the item is accepted.
+     */
+    public boolean accept(FileItem item) {
+        String name = item.getName();
+        for (NamePredicate predicate : mNamePredicates) {
+            if (!predicate.accept(name)) {
+                return false;
+            }
+        }
+        if (!item.isDirectory()) {
+            for (NamePredicate predicate : mFileNamePredicates) {
+                if (!predicate.accept(name)) {
+                    return false;
+                }
+            }
+        }
+        for (StatPredicate predicate : mStatPredicates) {
+            if (!predicate.accept(item.getFlags(), item.getSize(),
+                    item.getLastModifiedTime())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Removes the files that are older than the maximum age of the filter
+     * from a listing that it accepted some time ago, like a cached one.
+     * @param items items accepted by this filter.
+     * @return the items that are still accepted, the same list if all of
+     * them are.
+     */
+    public List<FileItem> dropExpired(List<FileItem> items) {
+        if (mMaxAge < 0) {
+            return items;
+        }
+
+        long after = System.currentTimeMillis() - mMaxAge;
+        List<FileItem> kept = null;
+        int count = items.size();
+        for (int i = 0; i < count; i++) {
+            FileItem item = items.get(i);
+            boolean expired = item.isFile() && item.getLastModifiedTime() < after;
+            if (expired && kept == null) {
+                kept = new ArrayList<FileItem>(items.subList(0, i));
+            } else if (!expired && kept != null) {
+                kept.add(item);
+            }
+        }
+        return kept != null ? kept : items;
+    }
+
+    /**
+     * Builds the filters.
+     */
+    public static class Builder {
+
+        private boolean mShowHidden = true;
+        private final List<String> mGlobs = new ArrayList<String>();
+        private final List<String> mExtensions = new ArrayList<String>();
+        private long mMinSize = 0;
+        private long mMaxSize = Long.MAX_VALUE;
+        private long mModifiedAfter = Long.MIN_VALUE;
+        private long mModifiedBefore = Long.MAX_VALUE;
+        private long mMaxAge = -1;
+
+        /**
+         * Sets whether the hidden and system entries are listed, the
+         * hidden entries have a name that starts with a dot and the
+         * system entries can not be read nor written.
+         * @param showHidden false to skip the hidden and system entries.
+         * @return this builder.
+         */
+        public Builder setShowHidden(boolean showHidden) {
+            mShowHidden = showHidden;
+            return this;
+        }
+
+        /**
+         * Sets the pattern that the names of the files must match, it
+         * ignores the case. '*' matches any text and '?' any character.
+         * It replaces the patterns added before.
+         * @param glob pattern or null to accept any name.
+         * @return this builder.
+         */
+        public Builder setGlob(String glob) {
+            mGlobs.clear();
+            if (glob != null) {
+                mGlobs.add(glob);
+            }
+            return this;
+        }
+
+        /**
+         * Adds a pattern that the names of the files must match too,
+         * like setGlob.
+         * @param glob pattern.
+         * @return this builder.
+         */
+        public Builder addGlob(String glob) {
+            mGlobs.add(glob);
+            return this;
+        }
+
+        /**
+         * Adds an extension that the files may have, when extensions
+         * are added the files with other extensions are rejected.
+         * @param extension extension without the dot, it ignores the case.
+         * @return this builder.
+         */
+        public Builder addExtension(String extension) {
+            mExtensions.add(extension.toLowerCase());
+            return this;
+        }
+
+        /**
+         * Sets the range of sizes of the files.
+         * @param minSize minimum size in bytes.
+         * @param maxSize maximum size in bytes.
+         * @return this builder.
+         */
+        public Builder setSizeRange(long minSize, long maxSize) {
+            mMinSize = minSize;
+            mMaxSize = maxSize;
+            return this;
+        }
+
+        /**
+         * Sets the range of last modified times of the files.
+         * @param after minimum time in milliseconds.
+         * @param before maximum time in milliseconds.
+         * @return this builder.
+         */
+        public Builder setModifiedRange(long after, long before) {
+            mModifiedAfter = after;
+            mModifiedBefore = before;
+            return this;
+        }
+
+        /**
+         * Sets the maximum age of the files, it is measured each time an
+         * entry is checked.
+         * @param maxAge age in milliseconds, -1 for any age.
+         * @return this builder.
+         */
+        public Builder setMaxAge(long maxAge) {
+            mMaxAge = maxAge;
+            return this;
+        }
+
+        /**
+         * Reads the terms of a query typed by the user, separated by
+         * white spaces:
+         * <ul>
+         * <li>".jpg" adds an extension.</li>
+         * <li>"&gt;10m" or "&lt;500k" limits the size, in bytes, k, m or g.</li>
+         * <li>"-7d" or "-12h" keeps the files modified in the last days
+         * or hours.</li>
+         * <li>Any other term is a glob, a term without wildcards matches
+         * the names that contain it. The names must match all the
+         * globs, "invoice 2023" lists the names that contain both.</li>
+         * </ul>
+         * @param query terms of the query.
+         * @return this builder.
+         */
+        public Builder parseQuery(String query) {
+            for (String term : query.trim().split("\\s+")) {
+                if (term.length() == 0) {
+                    continue;
+                }
+
+                char first = term.charAt(0);
+                if (first == '.' && term.length() > 1) {
+                    addExtension(term.substring(1));
+                } else if ((first == '>' || first == '<') && parseSize(term) >= 0) {
+                    if (first == '>') {
+                        mMinSize = parseSize(term);
+                    } else {
+                        mMaxSize = parseSize(term);
+                    }
+                } else if (first == '-' && parseAge(term) >= 0) {
+                    mMaxAge = parseAge(term);
+                } else if (term.indexOf('*') >= 0 || term.indexOf('?') >= 0) {
+                    addGlob(term);
+                } else {
+                    addGlob("*" + term + "*");
+                }
+            }
+            return this;
+        }
+
+        /**
+         * Compiles the filter, the predicates that reject more entries
+         * for less work go first.
+         * @return the filter.
+         */
+        public ListingFilter build() {
+            List<NamePredicate> namePredicates = new ArrayList<NamePredicate>();
+            List<NamePredicate> fileNamePredicates = new ArrayList<NamePredicate>();
+            List<StatPredicate> statPredicates = new ArrayList<StatPredicate>();
+            StringBuilder key = new StringBuilder();
+
+            if (!mShowHidden) {
+                namePredicates.add(new NotHidden());
+                statPredicates.add(new NotSystem());
+                key.append("h;");
+            }
+            if (!mExtensions.isEmpty()) {
+                String[] extensions = mExtensions.toArray(new String[mExtensions.size()]);
+                fileNamePredicates.add(new ExtensionIn(extensions));
+                key.append("e").append(mExtensions).append(';');
+            }
+            for (String glob : mGlobs) {
+                if (!glob.equals("*")) {
+                    fileNamePredicates.add(new GlobMatch(glob));
+                    key.append("g").append(glob).append(';');
+                }
+            }
+            if (mMinSize > 0 || mMaxSize != Long.MAX_VALUE) {
+                statPredicates.add(new SizeIn(mMinSize, mMaxSize));
+                key.append("s").append(mMinSize).append('-').append(mMaxSize).append(';');
+            }
+            if (mModifiedAfter != Long.MIN_VALUE || mModifiedBefore != Long.MAX_VALUE) {
+                statPredicates.add(new ModifiedIn(mModifiedAfter, mModifiedBefore));
+                key.append("m").append(mModifiedAfter).append('-')
+                        .append(mModifiedBefore).append(';');
+            }
+            if (mMaxAge >= 0) {
+                statPredicates.add(new ModifiedWithin(mMaxAge));
+                key.append("a").append(mMaxAge).append(';');
+            }
+            return new ListingFilter(namePredicates, fileNamePredicates, statPredicates,
+                    key.toString(), mMaxAge);
+        }
+
+        private static long parseSize(String term) {
+            return parseAmount(term.substring(1), "bkmg", KILOBYTE);
+        }
+
+        private static long parseAge(String term) {
+            long hours = parseAmount(term.substring(1), "hd", 24);
+            return hours < 0 ? -1 : hours * HOUR;
+        }
+
+        /**
+         * Parses a number followed by an optional unit, each unit is
+         * the previous one times the factor.
+         * @return the amount in the first unit or -1 if it is not valid.
+         */
+        private static long parseAmount(String text, String units, long factor) {
+            if (text.length() == 0) {
+                return -1;
+            }
+
+            int unit = units.indexOf(Character.toLowerCase(text.charAt(text.length() - 1)));
+            if (unit >= 0) {
+                text = text.substring(0, text.length() - 1);
+            } else {
+                unit = 0;
+            }
+
+            try {
+                long amount = Long.parseLong(text);
+                for (int i = 0; i < unit; i++) {
+                    amount *= factor;
+                }
+                return amount < 0 ? -1 : amount;
+            } catch (NumberFormatException nfe) {
+                return -1;
+            }
+        }
+    }
+
+    private static class NotHidden implements NamePredicate {
+        @Override
+        public boolean accept(String name) {
+            return !name.startsWith(".");
+        }
+    }
+
+    private static class NotSystem implements StatPredicate {
+        @Override
+        public boolean accept(int flags, long size, long lastModified) {
+            return (flags & (FileItem.FLAG_READABLE | FileItem.FLAG_WRITABLE)) != 0;
+        }
+    }
+
+    /**
+     * Compares the extension in place, the name is not copied.
+     */
+    private static class ExtensionIn implements NamePredicate {
+
+        private final String[] mExtensions;
+
+        ExtensionIn(String[] extensions) {
+            mExtensions = extensions;
+        }
+
+        @Override
+        public boolean accept(String name) {
+            int dot = name.lastIndexOf('.');
+            if (dot < 0) {
+                return false;
+            }
+
+            int length = name.length() - dot - 1;
+            for (String extension : mExtensions) {
+                if (extension.length() == length
+                        && name.regionMatches(true, dot + 1, extension, 0, length)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Matches a glob without regular expressions, a '*' is retried from
+     * the last position it matched so the match is linear for patterns
+     * with a single '*'.
+     */
+    private static class GlobMatch implements NamePredicate {
+
+        private final char[] mPattern;
+
+        GlobMatch(String glob) {
+            mPattern = glob.toLowerCase().toCharArray();
+        }
+
+        @Override
+        public boolean accept(String name) {
+            char[] pattern = mPattern;
+            int length = name.length();
+            int p = 0;
+            int n = 0;
+            int starP = -1;
+            int starN = 0;
+
+            while (n < length) {
+                if (p < pattern.length && pattern[p] == '*') {
+                    starP = p++;
+                    starN = n;
+                } else if (p < pattern.length && (pattern[p] == '?'
+                        || pattern[p] == Character.toLowerCase(name.charAt(n)))) {
+                    p++;
+                    n++;
+                } else if (starP >= 0) {
+                    p = starP + 1;
+                    n = ++starN;
+                } else {
+                    return false;
+                }
+            }
+            while (p < pattern.length && pattern[p] == '*') {
+                p++;
+            }
+            return p == pattern.length;
+        }
+    }
+
+    private static class SizeIn implements StatPredicate {
+
+        private final long mMin;
+        private final long mMax;
+
+        SizeIn(long min, long max) {
+            mMin = min;
+            mMax = max;
+        }
+
+        @Override
+        public boolean accept(int flags, long size, long lastModified) {
+            return (flags & FileItem.FLAG_FILE) == 0 || (size >= mMin && size <= mMax);
+        }
+    }
+
+    private static class ModifiedIn implements StatPredicate {
+
+        private final long mAfter;
+        private final long mBefore;
+
+        ModifiedIn(long after, long before) {
+            mAfter = after;
+            mBefore = before;
+        }
+
+        @Override
+        public boolean accept(int flags, long size, long lastModified) {
+            return (flags & FileItem.FLAG_FILE) == 0
+                    || (lastModified >= mAfter && lastModified <= mBefore);
+        }
+    }
+
+    private static class ModifiedWithin implements StatPredicate {
+
+        private final long mMaxAge;
+
+        ModifiedWithin(long maxAge) {
+            mMaxAge = maxAge;
+        }
+
+        @Override
+        public boolean accept(int flags, long size, long lastModified) {
+            return (flags & FileItem.FLAG_FILE) == 0
+                    || lastModified >= System.currentTimeMillis() - mMaxAge;
+        }
+    }
+}
@@ -0,0 +1,430 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.loader;
+
+import com.roque.rueda.fileexplorer.model.FileItem;
+import com.roque.rueda.fileexplorer.utils.FileSorter;
+import com.roque.rueda.fileexplorer.utils.FileTypes;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Listing of a directory that is too big to keep its items in memory.
+ * The items are written to a spill file while the directory is read,
+ * and the rows are read back in pages of a fixed size when they are
+ * requested. Only a few pages are kept, the ones that are farthest
+ * from the rows on screen are dropped first.
+ *
+ * The sort order is an index of rows kept apart from the pages, so
+ * sorting again only replaces the index. The listing uses 8 bytes per
+ * row for the index and the offsets of the rows in the spill file, the
+ * items themselves use the same memory whatever the size of the folder.
+ *
+ * Each row is stored in the spill file with this binary format:
+ * <pre>
+ * short  name length, name bytes in UTF-8
+ * long   size
+ * long   last modified time
+ * int    flags
+ * byte   type
+ * </pre>
+ * build and computeOrder are called on a worker thread, the rest of the
+ * methods on the thread that displays the rows.
+ *
+ * Created by Roque on 03/12/13.
+ */
+public class PagedListing {
+
+    /**
+     * Receives the progress of a build on the thread of the build.
+     */
+    public interface Callback {
+
+        /**
+         * Called every few entries while the directory is read.
+         * @param count number of items written so far.
+         * @return false to stop the build.
+         */
+        boolean onProgress(int count);
+    }
+
+    /**
+     * Default number of rows of each page, a few screens of rows.
+     */
+    public static final int DEFAULT_PAGE_SIZE = 64;
+
+    /**
+     * Default number of pages that are kept.
+     */
+    public static final int DEFAULT_MAX_PAGES = 8;
+
+    private static final String CHARSET = "UTF-8";
+    private static final int PROGRESS_INTERVAL = 1024;
+
+    /**
+     * Number of rows sorted in memory at once, the sorted chunks are
+     * merged after that.
+     */
+    private static final int SORT_CHUNK = 8192;
+
+    private final File mDir;
+    private final File mSpillFile;
+    private final int mPageSize;
+    private final int mMaxPages;
+
+    private int mCount;
+    private int[] mOffsets = new int[PROGRESS_INTERVAL];
+    private ByteBuffer mBuffer;
+    private Reader mReader;
+
+    /**
+     * Row of each sorted position, null while the rows are in the order
+     * they were read.
+     */
+    private int[] mOrder;
+
+    private final Map<Integer, FileItem[]> mPages = new HashMap<Integer, FileItem[]>();
+    private int mFirstVisiblePage;
+    private int mLastVisiblePage;
+
+    /**
+     * Creates an empty listing.
+     * @param dir directory that is going to be listed.
+     * @param spillFile file where the items are written, it is deleted
+     *                  when the listing is closed.
+     * @param pageSize number of rows of each page.
+     * @param maxPages number of pages that are kept.
+     */
+    public PagedListing(File dir, File spillFile, int pageSize, int maxPages) {
+        if (pageSize <= 0 || maxPages <= 0) {
+            throw new IllegalArgumentException("pageSize and maxPages must be positive");
+        }
+
+        mDir = dir;
+        mSpillFile = spillFile;
+        mPageSize = pageSize;
+        mMaxPages = maxPages;
+    }
+
+    /**
+     * Reads the entries that the filter accepts and writes them to the
+     * spill file. The items are classified by their extension only, the
+     * content of the files is not read.
+     * @param names names of the entries of the directory.
+     * @param filter filter of the entries.
+     * @param callback receives the progress, may be null.
+     * @return false if the callback stopped the build.
+     * @throws IOException if the spill file can not be written.
+     */
+    public boolean build(String[] names, ListingFilter filter, Callback callback)
+            throws IOException {
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(mSpillFile)));
+        boolean complete = false;
+        try {
+            for (int i = 0; i < names.length; i++) {
+                if (i % PROGRESS_INTERVAL == 0 && callback != null
+                        && !callback.onProgress(mCount)) {
+                    return false;
+                }
+
+                FileItem item = filter.snapshot(mDir, names[i]);
+                if (item == null) {
+                    continue;
+                }
+                if (out.size() == Integer.MAX_VALUE) {
+                    throw new IOException("Listing too big " + mDir);
+                }
+                if (mCount == mOffsets.length) {
+                    int[] offsets = new int[mCount * 2];
+                    System.arraycopy(mOffsets, 0, offsets, 0, mCount);
+                    mOffsets = offsets;
+                }
+                mOffsets[mCount++] = out.size();
+                write(out, item);
+            }
+            complete = true;
+        } finally {
+            out.close();
+            if (!complete) {
+                mSpillFile.delete();
+            }
+        }
+
+        FileInputStream in = new FileInputStream(mSpillFile);
+        try {
+            FileChannel channel = in.getChannel();
+            // The mapping stays valid after the file is closed.
+            mBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            in.close();
+        }
+        mReader = new Reader(mBuffer);
+        return true;
+    }
+
+    /**
+     * Computes the order of the rows for a sort mode. The rows are sorted
+     * in chunks that are then merged, so the names of all the rows are
+     * never in memory at the same time.
+     * @param mode one of the FileSorter.SORT_ constants.
+     * @return row of each sorted position, to be passed to setOrder.
+     */
+    public int[] computeOrder(int mode) {
+        Reader reader = new Reader(mBuffer.duplicate());
+        int count = mCount;
+
+        // Rows of each chunk, sorted within the chunk.
+        final int[] runs = new int[count];
+        List<FileItem> chunk = new ArrayList<FileItem>(Math.min(count, SORT_CHUNK));
+        for (int start = 0; start < count; start += SORT_CHUNK) {
+            int end = Math.min(count, start + SORT_CHUNK);
+            chunk.clear();
+            for (int row = start; row < end; row++) {
+                chunk.add(reader.read(row));
+            }
+            int[] order = FileSorter.sortOrder(chunk, null, mode);
+            for (int i = 0; i < order.length; i++) {
+                runs[start + i] = start + order[i];
+            }
+        }
+        if (count <= SORT_CHUNK) {
+            return runs;
+        }
+
+        FileSorter.KeyFactory keys = new FileSorter.KeyFactory(mode);
+        int chunks = (count + SORT_CHUNK - 1) / SORT_CHUNK;
+        PriorityQueue<Run> heads = new PriorityQueue<Run>(chunks, new Comparator<Run>() {
+            @Override
+            public int compare(Run lhs, Run rhs) {
+                int result = lhs.head.compareTo(rhs.head);
+                if (result != 0) {
+                    return result;
+                }
+                // Keeps the sort stable, like the sort of each chunk.
+                int left = runs[lhs.position];
+                int right = runs[rhs.position];
+                return left < right ? -1 : (left == right ? 0 : 1);
+            }
+        });
+        for (int start = 0; start < count; start += SORT_CHUNK) {
+            Run run = new Run();
+            run.position = start;
+            run.end = Math.min(count, start + SORT_CHUNK);
+            run.head = keys.create(reader.read(runs[start]));
+            heads.add(run);
+        }
+
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            Run run = heads.poll();
+            order[i] = runs[run.position];
+            run.position++;
+            if (run.position < run.end) {
+                run.head = keys.create(reader.read(runs[run.position]));
+                heads.add(run);
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Sets the order of the rows, the pages are read again.
+     * @param order order computed by computeOrder.
+     */
+    public void setOrder(int[] order) {
+        if (order.length != mCount) {
+            throw new IllegalArgumentException("order of " + order.length
+                    + " rows, the listing has " + mCount);
+        }
+        mOrder = order;
+        mPages.clear();
+    }
+
+    /**
+     *
+     * @return directory that was listed.
+     */
+    public File getDirectory() {
+        return mDir;
+    }
+
+    /**
+     *
+     * @return number of rows of the listing.
+     */
+    public int size() {
+        return mCount;
+    }
+
+    /**
+     * Gets the item at a sorted position, the page of the position is
+     * read if it is not in memory.
+     * @param position position of the row.
+     * @return item of the row.
+     */
+    public FileItem get(int position) {
+        if (position < 0 || position >= mCount) {
+            throw new IndexOutOfBoundsException("position " + position + ", size " + mCount);
+        }
+
+        int index = position / mPageSize;
+        FileItem[] page = mPages.get(index);
+        if (page == null) {
+            page = readPage(index);
+            mPages.put(index, page);
+            trimPages(index);
+        }
+        return page[position - index * mPageSize];
+    }
+
+    /**
+     * Sets the rows that are on screen, the pages far from them are the
+     * first ones to be dropped.
+     * @param first first visible position.
+     * @param last last visible position.
+     */
+    public void setViewport(int first, int last) {
+        mFirstVisiblePage = Math.max(0, first) / mPageSize;
+        mLastVisiblePage = Math.max(first, last) / mPageSize;
+    }
+
+    /**
+     *
+     * @return number of pages in memory.
+     */
+    public int getPageCount() {
+        return mPages.size();
+    }
+
+    /**
+     * Drops the pages and deletes the spill file, the listing can not be
+     * used after this call.
+     */
+    public void close() {
+        mPages.clear();
+        mSpillFile.delete();
+    }
+
+    private FileItem[] readPage(int index) {
+        int start = index * mPageSize;
+        int end = Math.min(mCount, start + mPageSize);
+        FileItem[] page = new FileItem[end - start];
+        for (int position = start; position < end; position++) {
+            int row = mOrder != null ? mOrder[position] : position;
+            page[position - start] = mReader.read(row);
+        }
+        return page;
+    }
+
+    /**
+     * Drops the pages that are farthest from the visible ones until only
+     * the allowed number of pages is left.
+     * @param keep page that is not dropped.
+     */
+    private void trimPages(int keep) {
+        while (mPages.size() > mMaxPages) {
+            int farthest = -1;
+            int farthestDistance = -1;
+            Iterator<Integer> iterator = mPages.keySet().iterator();
+            while (iterator.hasNext()) {
+                int index = iterator.next();
+                if (index == keep) {
+                    continue;
+                }
+                int distance = index < mFirstVisiblePage ? mFirstVisiblePage - index
+                        : (index > mLastVisiblePage ? index - mLastVisiblePage : 0);
+                if (distance > farthestDistance) {
+                    farthest = index;
+                    farthestDistance = distance;
+                }
+            }
+            mPages.remove(farthest);
+        }
+    }
+
+    private static void write(DataOutputStream out, FileItem item) throws IOException {
+        byte[] name = item.getName().getBytes(CHARSET);
+        if (name.length > 0xFFFF) {
+            throw new IOException("Name too long: " + item.getName());
+        }
+        out.writeShort(name.length);
+        out.write(name);
+        out.writeLong(item.getSize());
+        out.writeLong(item.getLastModifiedTime());
+        out.writeInt(item.getFlags());
+        out.writeByte(FileTypes.getType(item));
+    }
+
+    /**
+     * Sorted chunk of rows that is being merged.
+     */
+    private static class Run {
+        int position;
+        int end;
+        FileSorter.ItemKey head;
+    }
+
+    /**
+     * Reads the rows of the spill file, each thread uses its own reader.
+     */
+    private class Reader {
+
+        private final ByteBuffer mRows;
+        private byte[] mName = new byte[256];
+
+        Reader(ByteBuffer rows) {
+            mRows = rows;
+        }
+
+        FileItem read(int row) {
+            mRows.position(mOffsets[row]);
+            int length = mRows.getShort() & 0xFFFF;
+            if (mName.length < length) {
+                mName = new byte[length];
+            }
+            mRows.get(mName, 0, length);
+
+            String name;
+            try {
+                name = new String(mName, 0, length, CHARSET);
+            } catch (UnsupportedEncodingException uee) {
+                throw new AssertionError(uee);
+            }
+            long size = mRows.getLong();
+            long modified = mRows.getLong();
+            int flags = mRows.getInt();
+            FileItem item = new FileItem(new File(mDir, name), size, modified, flags);
+            item.setType(mRows.get());
+            return item;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.loader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the bytes of the files under a directory with one task per
+ * directory, so the subtrees are walked in parallel by the threads of
+ * the executor. Symbolic links are neither counted nor followed. The
+ * total counted so far can be read while the walk is in progress.
+ *
+ * With an executor that runs the tasks on the calling thread the walk
+ * is a plain recursive walk.
+ *
+ * Created by Roque on 02/12/13.
+ */
+public class SizeWalk {
+
+    private final File mRoot;
+    private final Executor mExecutor;
+    private final AtomicLong mBytes = new AtomicLong();
+    private final AtomicInteger mPending = new AtomicInteger();
+    private volatile boolean mCancelled;
+
+    /**
+     * Creates a walk, it does not start until start is called.
+     * @param root directory that is going to be measured.
+     * @param executor executor of the tasks.
+     */
+    public SizeWalk(File root, Executor executor) {
+        mRoot = root;
+        mExecutor = executor;
+    }
+
+    /**
+     * Starts the walk.
+     */
+    public void start() {
+        submit(mRoot);
+    }
+
+    /**
+     *
+     * @return number of bytes counted so far.
+     */
+    public long getBytes() {
+        return mBytes.get();
+    }
+
+    /**
+     *
+     * @return true if all the subtree was counted.
+     */
+    public boolean isFinished() {
+        return mPending.get() == 0;
+    }
+
+    /**
+     * Stops the walk, the total keeps the bytes counted so far.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    /**
+     *
+     * @return true if the walk was cancelled.
+     */
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    private void submit(final File dir) {
+        mPending.incrementAndGet();
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        walk(dir);
+                    } finally {
+                        mPending.decrementAndGet();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ree) {
+            // The executor was shut down, the walk ends with what it counted.
+            mCancelled = true;
+            mPending.decrementAndGet();
+        }
+    }
+
+    /**
+     * Counts the files of a directory and submits a new task for
+     * each of its subdirectories.
+     * @param dir directory that is going to be counted.
+     */
+    private void walk(File dir) {
+        if (mCancelled) {
+            return;
+        }
+
+        String[] names = dir.list();
+        if (names == null) {
+            return;
+        }
+
+        // The directory is not a link, so an entry is a link when its
+        // canonical path is not the directory path plus its name.
+        String canonicalDir;
+        try {
+            canonicalDir = dir.getCanonicalPath();
+        } catch (IOException ioe) {
+            return;
+        }
+        String prefix = canonicalDir.endsWith(File.separator)
+                ? canonicalDir : canonicalDir + File.separator;
+
+        long bytes = 0;
+        for (String name : names) {
+            if (mCancelled) {
+                return;
+            }
+
+            File file = new File(dir, name);
+            boolean isFile = file.isFile();
+            if (!isFile && !file.isDirectory() || isLink(file, prefix + name)) {
+                continue;
+            }
+            if (isFile) {
+                bytes += file.length();
+            } else {
+                submit(file);
+            }
+        }
+        mBytes.addAndGet(bytes);
+    }
+
+    private static boolean isLink(File file, String path) {
+        try {
+            return !file.getCanonicalPath().equals(path);
+        } catch (IOException ioe) {
+            // A path that can not be resolved is not followed.
+            return true;
+        }
+    }
+}
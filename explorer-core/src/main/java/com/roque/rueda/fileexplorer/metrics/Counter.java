@@ -0,0 +1,73 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Count of events, like the hits of a cache. It can be incremented from
+ * any thread without locks.
+ *
+ * Created by Roque on 04/12/13.
+ */
+public class Counter {
+
+    private final String mName;
+    private final AtomicLong mCount = new AtomicLong();
+
+    Counter(String name) {
+        mName = name;
+    }
+
+    /**
+     * Adds one to the count, if the metrics are enabled.
+     */
+    public void increment() {
+        if (Metrics.sEnabled) {
+            mCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Adds a value to the count, if the metrics are enabled.
+     * @param delta value that is added.
+     */
+    public void add(long delta) {
+        if (Metrics.sEnabled) {
+            mCount.addAndGet(delta);
+        }
+    }
+
+    /**
+     *
+     * @return name of the counter.
+     */
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     *
+     * @return current count.
+     */
+    public long get() {
+        return mCount.get();
+    }
+
+    void reset() {
+        mCount.set(0);
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of latencies in nanoseconds, recorded from any thread
+ * without locks.
+ *
+ * The values are counted in buckets like an HDR histogram: each power of
+ * two is split in 16 buckets of the same width, so a value is known with
+ * an error below 1/16 whatever its magnitude, and recording is a few
+ * bit operations and one atomic increment.
+ *
+ * Created by Roque on 04/12/13.
+ */
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Enough buckets for any positive long.
+     */
+    private static final int BUCKETS = (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final String mName;
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mTotal = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    Histogram(String name) {
+        mName = name;
+    }
+
+    /**
+     * Records the time elapsed since the start of a timed section.
+     * @param start value returned by Metrics.start.
+     */
+    public void recordSince(long start) {
+        if (start != 0 && Metrics.sEnabled) {
+            record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Records a value, if the metrics are enabled.
+     * @param nanos value in nanoseconds, the negative values count as 0.
+     */
+    public void record(long nanos) {
+        if (!Metrics.sEnabled) {
+            return;
+        }
+
+        long value = Math.max(0, nanos);
+        mBuckets.incrementAndGet(getBucket(value));
+        mCount.incrementAndGet();
+        mTotal.addAndGet(value);
+
+        long max = mMax.get();
+        while (value > max && !mMax.compareAndSet(max, value)) {
+            max = mMax.get();
+        }
+    }
+
+    /**
+     *
+     * @return name of the histogram.
+     */
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     *
+     * @return number of recorded values.
+     */
+    public long getCount() {
+        return mCount.get();
+    }
+
+    /**
+     *
+     * @return highest recorded value.
+     */
+    public long getMax() {
+        return mMax.get();
+    }
+
+    /**
+     *
+     * @return mean of the recorded values, 0 if there are none.
+     */
+    public long getMean() {
+        long count = mCount.get();
+        return count == 0 ? 0 : mTotal.get() / count;
+    }
+
+    /**
+     * Gets the value below which the specified percentage of the values
+     * fall, rounded up to the end of its bucket.
+     * @param percentile percentage between 0 and 100.
+     * @return value of the percentile, 0 if there are no values.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = 0;
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = mBuckets.get(i);
+            count += counts[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(count * Math.min(100, percentile) / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(getHighestValue(i), mMax.get());
+            }
+        }
+        return mMax.get();
+    }
+
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            mBuckets.set(i, 0);
+        }
+        mCount.set(0);
+        mTotal.set(0);
+        mMax.set(0);
+    }
+
+    /**
+     * Gets the bucket of a value, the values below 16 have a bucket each.
+     */
+    static int getBucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Gets the highest value that is counted in a bucket.
+     */
+    static long getHighestValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.metrics;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registry of the counters and latency histograms of the hot paths. The
+ * metrics are created once, usually in static fields, and are recorded
+ * only while the metrics are enabled; when they are disabled a record is
+ * a single field read and a branch.
+ *
+ * A timed section looks like this:
+ * <pre>
+ * long start = Metrics.start();
+ * ...
+ * HISTOGRAM.recordSince(start);
+ * </pre>
+ *
+ * Created by Roque on 04/12/13.
+ */
+public class Metrics {
+
+    /**
+     * Read on every record. It is not volatile so reading it costs the
+     * same as reading any field, a thread may record a few values after
+     * the metrics were disabled.
+     */
+    static boolean sEnabled;
+
+    private static final ConcurrentMap<String, Counter> sCounters =
+            new ConcurrentHashMap<String, Counter>();
+    private static final ConcurrentMap<String, Histogram> sHistograms =
+            new ConcurrentHashMap<String, Histogram>();
+
+    private Metrics() {
+        // Nothing here
+    }
+
+    /**
+     * Starts or stops recording, the recorded values are kept.
+     * @param enabled true to record the metrics.
+     */
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    /**
+     *
+     * @return true if the metrics are being recorded.
+     */
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * Gets the counter with the specified name, it is created the first
+     * time.
+     * @param name name of the counter, like "cache.disk.hit".
+     * @return counter of the name.
+     */
+    public static Counter counter(String name) {
+        Counter counter = sCounters.get(name);
+        if (counter == null) {
+            counter = new Counter(name);
+            Counter previous = sCounters.putIfAbsent(name, counter);
+            if (previous != null) {
+                counter = previous;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * Gets the histogram with the specified name, it is created the
+     * first time.
+     * @param name name of the histogram, like "listing.load".
+     * @return histogram of the name.
+     */
+    public static Histogram histogram(String name) {
+        Histogram histogram = sHistograms.get(name);
+        if (histogram == null) {
+            histogram = new Histogram(name);
+            Histogram previous = sHistograms.putIfAbsent(name, histogram);
+            if (previous != null) {
+                histogram = previous;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Gets the start time of a timed section.
+     * @return current time in nanoseconds, or 0 if the metrics are
+     * disabled.
+     */
+    public static long start() {
+        return sEnabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Sets all the metrics to zero.
+     */
+    public static void reset() {
+        for (Counter counter : sCounters.values()) {
+            counter.reset();
+        }
+        for (Histogram histogram : sHistograms.values()) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * Writes the values of all the metrics as text, one metric per line
+     * sorted by name. The times are in microseconds.
+     * @param writer writer of the text.
+     */
+    public static void dump(PrintWriter writer) {
+        writer.println("metrics enabled=" + sEnabled);
+
+        for (Map.Entry<String, Counter> entry
+                : new TreeMap<String, Counter>(sCounters).entrySet()) {
+            writer.println("counter " + entry.getKey() + " " + entry.getValue().get());
+        }
+
+        for (Map.Entry<String, Histogram> entry
+                : new TreeMap<String, Histogram>(sHistograms).entrySet()) {
+            Histogram histogram = entry.getValue();
+            writer.println("histogram " + entry.getKey()
+                    + " count=" + histogram.getCount()
+                    + " mean=" + micros(histogram.getMean())
+                    + " p50=" + micros(histogram.getValueAtPercentile(50))
+                    + " p90=" + micros(histogram.getValueAtPercentile(90))
+                    + " p99=" + micros(histogram.getValueAtPercentile(99))
+                    + " max=" + micros(histogram.getMax()));
+        }
+        writer.flush();
+    }
+
+    private static String micros(long nanos) {
+        long tenths = nanos / 100;
+        return (tenths / 10) + "." + (tenths % 10);
+    }
+}
@@ -0,0 +1,359 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.model;
+
+import java.io.File;
+import java.util.Date;
+
+/**
+ * Represents a item for the FileList
+ *
+ * Created by Roque on 4/11/13.
+ */
+public class FileItem {
+
+    /**
+     * The item is a regular file.
+     */
+    public static final int FLAG_FILE = 1;
+
+    /**
+     * The item is a directory.
+     */
+    public static final int FLAG_DIRECTORY = 1 << 1;
+
+    /**
+     * The item can be read by this application.
+     */
+    public static final int FLAG_READABLE = 1 << 2;
+
+    /**
+     * The item can be written by this application.
+     */
+    public static final int FLAG_WRITABLE = 1 << 3;
+
+    /**
+     * The item is hidden, its name starts with a dot.
+     */
+    public static final int FLAG_HIDDEN = 1 << 4;
+
+    /**
+     * The flags of the item were read from the file system.
+     */
+    public static final int FLAG_STAT = 1 << 5;
+
+    /**
+     * The size of the directory is being counted, the size is a partial total.
+     */
+    public static final int FLAG_SIZE_PARTIAL = 1 << 6;
+
+    /**
+     * The size of the directory was counted.
+     */
+    public static final int FLAG_SIZE_COMPLETE = 1 << 7;
+
+    /**
+     * Path of the file.
+     */
+    private File mPath;
+
+    /**
+     * Name of the file.
+     */
+    private String mName;
+
+    /**
+     * Size of the file.
+     */
+    private long mSize;
+
+    /**
+     * Last modified time of the file in milliseconds.
+     */
+    private long mLastModified;
+
+    /**
+     * Type and permission flags of the file.
+     */
+    private int mFlags;
+
+    /**
+     * Icon type of the file, computed the first time it is needed.
+     */
+    private int mType;
+
+    /**
+     * Creates an item base on the file path
+     * @param filePath path of the file.
+     */
+    public FileItem(String filePath) {
+        mPath = new File(filePath);
+        mName = mPath.getName();
+        mSize = 0;
+    }
+
+    /**
+     * Creates an item with values that were already read from the
+     * file system.
+     * @param path path of the file.
+     * @param size size of the file.
+     * @param lastModified last modified time in milliseconds.
+     * @param flags type and permission flags of the file.
+     */
+    public FileItem(File path, long size, long lastModified, int flags) {
+        mPath = path;
+        mName = path.getName();
+        mSize = size;
+        mLastModified = lastModified;
+        mFlags = flags | FLAG_STAT;
+    }
+
+    /**
+     * Creates an item reading all the values that are displayed from
+     * the file system in a single pass, after this the getters of the
+     * item do not touch the disk.
+     * @param file file that is going to be read.
+     * @return item with a snapshot of the file values.
+     */
+    public static FileItem snapshot(File file) {
+        int flags = readFlags(file);
+        long size = (flags & FLAG_FILE) != 0 ? file.length() : 0;
+        return new FileItem(file, size, file.lastModified(), flags);
+    }
+
+    /**
+     * Reads the type, permission and hidden flags of a file.
+     * @param file file that is going to be read.
+     * @return flags of the file, without FLAG_STAT.
+     */
+    public static int readFlags(File file) {
+        int flags = 0;
+
+        // Only entries that are not regular files are checked as directories.
+        if (file.isFile()) {
+            flags |= FLAG_FILE;
+        } else if (file.isDirectory()) {
+            flags |= FLAG_DIRECTORY;
+        }
+
+        if (file.canRead()) {
+            flags |= FLAG_READABLE;
+        }
+        if (file.canWrite()) {
+            flags |= FLAG_WRITABLE;
+        }
+        // Same check done by File.isHidden() on Unix, without a system call.
+        if (file.getName().startsWith(".")) {
+            flags |= FLAG_HIDDEN;
+        }
+        return flags;
+    }
+
+    /**
+     * Default constructor.
+     */
+    public FileItem () {
+        // Nothing here
+    }
+
+    /**
+     *
+     * @param path path to the file.
+     */
+    public void setPath(File path) {
+        mPath = path;
+    }
+
+    /**
+     *
+     * @param name name of the file.
+     */
+    public void setName(String name) {
+        mName = name;
+    }
+
+    /**
+     *
+     * @param size size of the file.
+     */
+    public void setSize(long size) {
+        mSize = size;
+    }
+
+    /**
+     *
+     * @param lastModified set last modified date.
+     */
+    public void setLastModified(Date lastModified) {
+        mLastModified = lastModified == null ? 0 : lastModified.getTime();
+    }
+
+    /**
+     *
+     * @param flags type and permission flags of the file.
+     */
+    public void setFlags(int flags) {
+        mFlags = flags;
+    }
+
+    /**
+     *
+     * @param type icon type of the file.
+     */
+    public void setType(int type) {
+        mType = type;
+    }
+
+    /**
+     *
+     * @return path of the current file.
+     */
+    public File getPath() {
+        return mPath;
+    }
+
+    /**
+     *
+     * @return name of the current file.
+     */
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     *
+     * @return size of the current file
+     */
+    public long getSize() {
+        return mSize;
+    }
+
+    /**
+     *
+     * @return date whether this date was modified
+     */
+    public Date getLastModified() {
+        return mLastModified == 0 ? null : new Date(mLastModified);
+    }
+
+    /**
+     *
+     * @return last modified time in milliseconds or 0 if unknown.
+     */
+    public long getLastModifiedTime() {
+        return mLastModified;
+    }
+
+    /**
+     *
+     * @return type and permission flags of the file.
+     */
+    public int getFlags() {
+        return mFlags;
+    }
+
+    /**
+     *
+     * @return icon type of the file or 0 if it was not computed yet.
+     */
+    public int getType() {
+        return mType;
+    }
+
+    /**
+     *
+     * @return true if the values of this item were read from the file system.
+     */
+    public boolean hasSnapshot() {
+        return (mFlags & FLAG_STAT) != 0;
+    }
+
+    /**
+     *
+     * @return true if the item is a regular file.
+     */
+    public boolean isFile() {
+        return (mFlags & FLAG_FILE) != 0;
+    }
+
+    /**
+     *
+     * @return true if the item is a directory.
+     */
+    public boolean isDirectory() {
+        return (mFlags & FLAG_DIRECTORY) != 0;
+    }
+
+    /**
+     *
+     * @return true if the item can be read.
+     */
+    public boolean canRead() {
+        return (mFlags & FLAG_READABLE) != 0;
+    }
+
+    /**
+     *
+     * @return true if the item can be written.
+     */
+    public boolean canWrite() {
+        return (mFlags & FLAG_WRITABLE) != 0;
+    }
+
+    /**
+     *
+     * @return true if the item is hidden.
+     */
+    public boolean isHidden() {
+        return (mFlags & FLAG_HIDDEN) != 0;
+    }
+
+    /**
+     * @returnn integer hash code for this object.
+     */
+    @Override
+    public int hashCode() {
+        final int baseValue = 101;
+        int result = 1;
+        result = baseValue * result + ((mPath == null) ? 0: mPath.hashCode());
+        return result;
+    }
+
+    /**
+     * Compares this instance with the specified object and indicates
+     * if they are equal. In order to be equal, o must represent the
+     * same object as this instance using a class-specific comparison.
+     * The general contract is that this comparison should be reflexive,
+     * symmetric, and transitive. Also, no object reference other than
+     * null is equal to null.
+     *
+     * @param o Object that is going to be compare with this object
+     * @return true if the object is same as other object
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof FileItem)) return false;
+
+        FileItem fileItem = (FileItem) o;
+
+        if (mPath != null ?
+                !mPath.equals(fileItem.mPath) : fileItem.mPath != null)
+            return false;
+
+        return true;
+    }
+}
@@ -0,0 +1,676 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.model;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Stores the items of a directory in primitive arrays instead of one
+ * object per item: the names are packed in a single UTF-8 buffer and
+ * the sizes, times, flags and icon types are kept in one array each.
+ *
+ * FileItem objects are created only when a row is requested and the
+ * last requested rows are kept, so binding the rows that are on screen
+ * does not allocate. The values set on those objects are written back
+ * to the table. This class is not thread safe, it is used from the main
+ * thread.
+ *
+ * A name that is replaced by a shorter or equal one is written over the
+ * old one, otherwise the old bytes are left dead in the buffer. When the
+ * dead bytes are more than half of the names, the names are packed again.
+ *
+ * Created by Roque on 22/11/13.
+ */
+public class FileItemTable {
+
+    private static final String CHARSET = "UTF-8";
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Number of materialized rows that are kept, must be a power of two.
+     */
+    private static final int ROW_CACHE_SIZE = 128;
+
+    /**
+     * Dead bytes of the names that are never worth packing.
+     */
+    private static final int MIN_COMPACT_BYTES = 4096;
+
+    private File mDir;
+    private int mCount;
+    private int mNextId;
+
+    private byte[] mNames = new byte[INITIAL_CAPACITY * 16];
+    private int mNamesLength;
+
+    /**
+     * Bytes of mNames that belong to names that were removed or replaced.
+     */
+    private int mDeadBytes;
+
+    private int[] mNameOffsets = new int[INITIAL_CAPACITY];
+    private int[] mNameLengths = new int[INITIAL_CAPACITY];
+    private long[] mSizes = new long[INITIAL_CAPACITY];
+    private long[] mModified = new long[INITIAL_CAPACITY];
+    private byte[] mFlags = new byte[INITIAL_CAPACITY];
+    private byte[] mTypes = new byte[INITIAL_CAPACITY];
+
+    /**
+     * Id of each row, it does not change when other rows are inserted
+     * or removed.
+     */
+    private int[] mIds = new int[INITIAL_CAPACITY];
+
+    /**
+     * Position of each row when sorted by name and by natural name, -1
+     * for the rows that were not ranked yet.
+     */
+    private int[] mNameRanks = new int[INITIAL_CAPACITY];
+    private int[] mNaturalRanks = new int[INITIAL_CAPACITY];
+
+    private final RowItem[] mRowCache = new RowItem[ROW_CACHE_SIZE];
+    private final ListView mListView = new ListView();
+
+    /**
+     * Creates an empty table for the items of a directory.
+     * @param dir directory that contains the items.
+     */
+    public FileItemTable(File dir) {
+        mDir = dir;
+    }
+
+    /**
+     * Removes all the rows and sets the directory of the next rows.
+     * @param dir directory that contains the items.
+     */
+    public void reset(File dir) {
+        clear();
+        mDir = dir;
+    }
+
+    /**
+     *
+     * @return directory that contains the items.
+     */
+    public File getDirectory() {
+        return mDir;
+    }
+
+    /**
+     *
+     * @return number of rows.
+     */
+    public int size() {
+        return mCount;
+    }
+
+    /**
+     *
+     * @param row index of the row.
+     * @return name of the item.
+     */
+    public String getName(int row) {
+        checkRow(row);
+        try {
+            return new String(mNames, mNameOffsets[row], mNameLengths[row], CHARSET);
+        } catch (UnsupportedEncodingException uee) {
+            throw new AssertionError(uee);
+        }
+    }
+
+    /**
+     *
+     * @param row index of the row.
+     * @return path of the item.
+     */
+    public File getPath(int row) {
+        return new File(mDir, getName(row));
+    }
+
+    /**
+     *
+     * @param row index of the row.
+     * @return size of the item.
+     */
+    public long getSize(int row) {
+        checkRow(row);
+        return mSizes[row];
+    }
+
+    /**
+     *
+     * @param row index of the row.
+     * @return last modified time of the item in milliseconds.
+     */
+    public long getLastModifiedTime(int row) {
+        checkRow(row);
+        return mModified[row];
+    }
+
+    /**
+     *
+     * @param row index of the row.
+     * @return type and permission flags of the item.
+     */
+    public int getFlags(int row) {
+        checkRow(row);
+        return mFlags[row] & 0xFF;
+    }
+
+    /**
+     *
+     * @param row index of the row.
+     * @return icon type of the item.
+     */
+    public int getType(int row) {
+        checkRow(row);
+        return mTypes[row];
+    }
+
+    /**
+     *
+     * @param row index of the row.
+     * @return position of the row sorted by name or -1 if not ranked.
+     */
+    public int getNameRank(int row) {
+        checkRow(row);
+        return mNameRanks[row];
+    }
+
+    /**
+     *
+     * @param row index of the row.
+     * @return position of the row sorted by natural name or -1 if not ranked.
+     */
+    public int getNaturalRank(int row) {
+        checkRow(row);
+        return mNaturalRanks[row];
+    }
+
+    /**
+     *
+     * @param row index of the row.
+     * @param rank position of the row sorted by name.
+     */
+    public void setNameRank(int row, int rank) {
+        checkRow(row);
+        mNameRanks[row] = rank;
+    }
+
+    /**
+     *
+     * @param row index of the row.
+     * @param rank position of the row sorted by natural name.
+     */
+    public void setNaturalRank(int row, int rank) {
+        checkRow(row);
+        mNaturalRanks[row] = rank;
+    }
+
+    /**
+     * Sets the ranks of all the rows.
+     * @param nameRanks position of each row sorted by name.
+     * @param naturalRanks position of each row sorted by natural name.
+     */
+    public void setRanks(int[] nameRanks, int[] naturalRanks) {
+        if (nameRanks.length != mCount || naturalRanks.length != mCount) {
+            throw new IllegalArgumentException("ranks do not match the " + mCount + " rows");
+        }
+        System.arraycopy(nameRanks, 0, mNameRanks, 0, mCount);
+        System.arraycopy(naturalRanks, 0, mNaturalRanks, 0, mCount);
+    }
+
+    /**
+     *
+     * @param row index of the row.
+     * @return true if the item is a directory.
+     */
+    public boolean isDirectory(int row) {
+        return (getFlags(row) & FileItem.FLAG_DIRECTORY) != 0;
+    }
+
+    /**
+     * Gets the item of a row, the object is created only if the row was
+     * not requested recently.
+     * @param row index of the row.
+     * @return item of the row.
+     */
+    public FileItem get(int row) {
+        checkRow(row);
+
+        int slot = row & (ROW_CACHE_SIZE - 1);
+        RowItem item = mRowCache[slot];
+        if (item != null && item.mRowHint == row && mIds[row] == item.mId) {
+            return item;
+        }
+
+        item = new RowItem(this, row);
+        mRowCache[slot] = item;
+        return item;
+    }
+
+    /**
+     * Adds an item at the end of the table.
+     * @param item item that is going to be added.
+     */
+    public void add(FileItem item) {
+        insert(mCount, item);
+    }
+
+    /**
+     * Inserts an item at the specified row.
+     * @param row index where the item is inserted.
+     * @param item item that is going to be inserted.
+     */
+    public void insert(int row, FileItem item) {
+        if (row < 0 || row > mCount) {
+            throw new IndexOutOfBoundsException("row " + row + ", size " + mCount);
+        }
+
+        ensureCapacity(mCount + 1);
+        int moved = mCount - row;
+        if (moved > 0) {
+            System.arraycopy(mNameOffsets, row, mNameOffsets, row + 1, moved);
+            System.arraycopy(mNameLengths, row, mNameLengths, row + 1, moved);
+            System.arraycopy(mSizes, row, mSizes, row + 1, moved);
+            System.arraycopy(mModified, row, mModified, row + 1, moved);
+            System.arraycopy(mFlags, row, mFlags, row + 1, moved);
+            System.arraycopy(mTypes, row, mTypes, row + 1, moved);
+            System.arraycopy(mIds, row, mIds, row + 1, moved);
+            System.arraycopy(mNameRanks, row, mNameRanks, row + 1, moved);
+            System.arraycopy(mNaturalRanks, row, mNaturalRanks, row + 1, moved);
+            Arrays.fill(mRowCache, null);
+        }
+
+        mCount++;
+        mIds[row] = mNextId++;
+        mNameRanks[row] = -1;
+        mNaturalRanks[row] = -1;
+        setName(row, item.getName());
+        setValues(row, item);
+    }
+
+    /**
+     * Replaces the item of a row.
+     * @param row index of the row.
+     * @param item new item of the row.
+     */
+    public void set(int row, FileItem item) {
+        checkRow(row);
+
+        mIds[row] = mNextId++;
+        if (!getName(row).equals(item.getName())) {
+            mNameRanks[row] = -1;
+            mNaturalRanks[row] = -1;
+        }
+        replaceName(row, item.getName());
+        setValues(row, item);
+        compactIfNeeded();
+    }
+
+    /**
+     * Removes a row. The space used by the name is released when the
+     * names are packed again.
+     * @param row index of the row.
+     */
+    public void remove(int row) {
+        checkRow(row);
+
+        mDeadBytes += mNameLengths[row];
+        int moved = mCount - row - 1;
+        if (moved > 0) {
+            System.arraycopy(mNameOffsets, row + 1, mNameOffsets, row, moved);
+            System.arraycopy(mNameLengths, row + 1, mNameLengths, row, moved);
+            System.arraycopy(mSizes, row + 1, mSizes, row, moved);
+            System.arraycopy(mModified, row + 1, mModified, row, moved);
+            System.arraycopy(mFlags, row + 1, mFlags, row, moved);
+            System.arraycopy(mTypes, row + 1, mTypes, row, moved);
+            System.arraycopy(mIds, row + 1, mIds, row, moved);
+            System.arraycopy(mNameRanks, row + 1, mNameRanks, row, moved);
+            System.arraycopy(mNaturalRanks, row + 1, mNaturalRanks, row, moved);
+        }
+        mCount--;
+        Arrays.fill(mRowCache, null);
+        compactIfNeeded();
+    }
+
+    /**
+     * Removes all the rows.
+     */
+    public void clear() {
+        mCount = 0;
+        mNamesLength = 0;
+        mDeadBytes = 0;
+        Arrays.fill(mRowCache, null);
+    }
+
+    /**
+     * Moves the rows to a new order, the names are packed again so the
+     * space of the removed rows is released.
+     * @param order index of the current row that goes at each position.
+     */
+    public void reorder(int[] order) {
+        if (order.length != mCount) {
+            throw new IllegalArgumentException("order has " + order.length
+                    + " rows, table has " + mCount);
+        }
+
+        int capacity = mIds.length;
+        byte[] names = new byte[mNames.length];
+        int namesLength = 0;
+        int[] nameOffsets = new int[capacity];
+        int[] nameLengths = new int[capacity];
+        long[] sizes = new long[capacity];
+        long[] modified = new long[capacity];
+        byte[] flags = new byte[capacity];
+        byte[] types = new byte[capacity];
+        int[] ids = new int[capacity];
+        int[] nameRanks = new int[capacity];
+        int[] naturalRanks = new int[capacity];
+
+        for (int i = 0; i < mCount; i++) {
+            int row = order[i];
+            int length = mNameLengths[row];
+            System.arraycopy(mNames, mNameOffsets[row], names, namesLength, length);
+            nameOffsets[i] = namesLength;
+            nameLengths[i] = length;
+            namesLength += length;
+
+            sizes[i] = mSizes[row];
+            modified[i] = mModified[row];
+            flags[i] = mFlags[row];
+            types[i] = mTypes[row];
+            ids[i] = mIds[row];
+            nameRanks[i] = mNameRanks[row];
+            naturalRanks[i] = mNaturalRanks[row];
+        }
+
+        mNames = names;
+        mNamesLength = namesLength;
+        mDeadBytes = 0;
+        mNameOffsets = nameOffsets;
+        mNameLengths = nameLengths;
+        mSizes = sizes;
+        mModified = modified;
+        mFlags = flags;
+        mTypes = types;
+        mIds = ids;
+        mNameRanks = nameRanks;
+        mNaturalRanks = naturalRanks;
+        Arrays.fill(mRowCache, null);
+    }
+
+    /**
+     * Gets a list view of this table, the items of the list are created
+     * when they are requested and the changes of the list are written
+     * to the table.
+     * @return list backed by this table.
+     */
+    public List<FileItem> asList() {
+        return mListView;
+    }
+
+    /**
+     * Gets the number of bytes used by the arrays of this table.
+     * @return approximate size of the table in bytes.
+     */
+    public long getMemoryUsage() {
+        int capacity = mIds.length;
+        // offsets, lengths, ids and ranks are ints, sizes and times are
+        // longs, flags and types are bytes.
+        return mNames.length + (long) capacity * (4 + 4 + 4 + 4 + 4 + 8 + 8 + 1 + 1);
+    }
+
+    /**
+     *
+     * @return bytes of the names buffer that belong to names that were
+     * removed or replaced.
+     */
+    int getDeadNameBytes() {
+        return mDeadBytes;
+    }
+
+    private void setName(int row, String name) {
+        appendName(row, encode(name));
+    }
+
+    /**
+     * Sets the name of a row that already has one, in the place of the
+     * old name if it fits.
+     */
+    private void replaceName(int row, String name) {
+        byte[] bytes = encode(name);
+        int oldLength = mNameLengths[row];
+        if (bytes.length <= oldLength) {
+            System.arraycopy(bytes, 0, mNames, mNameOffsets[row], bytes.length);
+            mNameLengths[row] = bytes.length;
+            mDeadBytes += oldLength - bytes.length;
+        } else {
+            mDeadBytes += oldLength;
+            appendName(row, bytes);
+        }
+    }
+
+    private void appendName(int row, byte[] bytes) {
+        if (mNamesLength + bytes.length > mNames.length) {
+            int capacity = Math.max(mNames.length * 2, mNamesLength + bytes.length);
+            mNames = grow(mNames, capacity);
+        }
+        System.arraycopy(bytes, 0, mNames, mNamesLength, bytes.length);
+        mNameOffsets[row] = mNamesLength;
+        mNameLengths[row] = bytes.length;
+        mNamesLength += bytes.length;
+    }
+
+    private static byte[] encode(String name) {
+        try {
+            return name.getBytes(CHARSET);
+        } catch (UnsupportedEncodingException uee) {
+            throw new AssertionError(uee);
+        }
+    }
+
+    /**
+     * Packs the names again when most of the buffer is dead, the rows
+     * keep their order.
+     */
+    private void compactIfNeeded() {
+        if (mDeadBytes < MIN_COMPACT_BYTES || mDeadBytes * 2 < mNamesLength) {
+            return;
+        }
+
+        int liveBytes = mNamesLength - mDeadBytes;
+        byte[] names = new byte[Math.max(INITIAL_CAPACITY * 16, liveBytes * 2)];
+        int namesLength = 0;
+        for (int row = 0; row < mCount; row++) {
+            int length = mNameLengths[row];
+            System.arraycopy(mNames, mNameOffsets[row], names, namesLength, length);
+            mNameOffsets[row] = namesLength;
+            namesLength += length;
+        }
+        mNames = names;
+        mNamesLength = namesLength;
+        mDeadBytes = 0;
+    }
+
+    private void setValues(int row, FileItem item) {
+        mSizes[row] = item.getSize();
+        mModified[row] = item.getLastModifiedTime();
+        mFlags[row] = (byte) item.getFlags();
+        mTypes[row] = (byte) item.getType();
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mIds.length) {
+            return;
+        }
+
+        int newCapacity = Math.max(mIds.length * 2, capacity);
+        mNameOffsets = grow(mNameOffsets, newCapacity);
+        mNameLengths = grow(mNameLengths, newCapacity);
+        mSizes = grow(mSizes, newCapacity);
+        mModified = grow(mModified, newCapacity);
+        mFlags = grow(mFlags, newCapacity);
+        mTypes = grow(mTypes, newCapacity);
+        mIds = grow(mIds, newCapacity);
+        mNameRanks = grow(mNameRanks, newCapacity);
+        mNaturalRanks = grow(mNaturalRanks, newCapacity);
+    }
+
+    // Arrays.copyOf is not available before API 9.
+
+    private static byte[] grow(byte[] array, int capacity) {
+        byte[] result = new byte[capacity];
+        System.arraycopy(array, 0, result, 0, array.length);
+        return result;
+    }
+
+    private static int[] grow(int[] array, int capacity) {
+        int[] result = new int[capacity];
+        System.arraycopy(array, 0, result, 0, array.length);
+        return result;
+    }
+
+    private static long[] grow(long[] array, int capacity) {
+        long[] result = new long[capacity];
+        System.arraycopy(array, 0, result, 0, array.length);
+        return result;
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= mCount) {
+            throw new IndexOutOfBoundsException("row " + row + ", size " + mCount);
+        }
+    }
+
+    /**
+     * Finds the current row of an id.
+     * @param id id of the row.
+     * @param hint row where the id was the last time.
+     * @return index of the row or -1 if the row was removed.
+     */
+    private int findRow(int id, int hint) {
+        if (hint >= 0 && hint < mCount && mIds[hint] == id) {
+            return hint;
+        }
+        for (int i = 0; i < mCount; i++) {
+            if (mIds[i] == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Item created from a row, the values that are set on it are also
+     * written to the row while the row exists.
+     */
+    private static class RowItem extends FileItem {
+
+        private final FileItemTable mTable;
+        private final int mId;
+        private int mRowHint;
+
+        RowItem(FileItemTable table, int row) {
+            super(table.getPath(row), table.mSizes[row], table.mModified[row],
+                    table.mFlags[row] & 0xFF);
+            super.setType(table.mTypes[row]);
+            mTable = table;
+            mId = table.mIds[row];
+            mRowHint = row;
+        }
+
+        private int row() {
+            mRowHint = mTable.findRow(mId, mRowHint);
+            return mRowHint;
+        }
+
+        @Override
+        public void setSize(long size) {
+            super.setSize(size);
+            int row = row();
+            if (row >= 0) {
+                mTable.mSizes[row] = size;
+            }
+        }
+
+        @Override
+        public void setFlags(int flags) {
+            super.setFlags(flags);
+            int row = row();
+            if (row >= 0) {
+                mTable.mFlags[row] = (byte) flags;
+            }
+        }
+
+        @Override
+        public void setType(int type) {
+            super.setType(type);
+            int row = row();
+            if (row >= 0) {
+                mTable.mTypes[row] = (byte) type;
+            }
+        }
+    }
+
+    /**
+     * List view of the table.
+     */
+    private class ListView extends AbstractList<FileItem> implements RandomAccess {
+
+        @Override
+        public FileItem get(int index) {
+            return FileItemTable.this.get(index);
+        }
+
+        @Override
+        public int size() {
+            return mCount;
+        }
+
+        @Override
+        public FileItem set(int index, FileItem item) {
+            FileItem previous = FileItemTable.this.get(index);
+            FileItemTable.this.set(index, item);
+            return previous;
+        }
+
+        @Override
+        public void add(int index, FileItem item) {
+            insert(index, item);
+            modCount++;
+        }
+
+        @Override
+        public FileItem remove(int index) {
+            FileItem previous = FileItemTable.this.get(index);
+            FileItemTable.this.remove(index);
+            modCount++;
+            return previous;
+        }
+
+        @Override
+        public void clear() {
+            FileItemTable.this.clear();
+            modCount++;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.operations;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A copy, move, delete, move to the trash or restore from the trash of a
+ * group of files, the unit of work of the FileOperationQueue.
+ *
+ * Created by Roque on 28/11/13.
+ */
+public class FileOperation {
+
+    public static final int TYPE_COPY = 0;
+    public static final int TYPE_MOVE = 1;
+    public static final int TYPE_DELETE = 2;
+    public static final int TYPE_TRASH = 3;
+
+    /**
+     * Moves back files that were moved to a TrashArea, the sources are
+     * the paths of the files inside the trash.
+     */
+    public static final int TYPE_RESTORE = 4;
+
+    private final long mId;
+    private final int mType;
+    private final List<File> mSources;
+    private final File mDestination;
+
+    /**
+     * Creates an operation.
+     * @param id id of the operation, unique in the journal.
+     * @param type one of the TYPE_ constants.
+     * @param sources files or directories that are processed.
+     * @param destination directory where the sources are copied or moved,
+     *                    null for the other types.
+     */
+    public FileOperation(long id, int type, List<File> sources, File destination) {
+        if ((type == TYPE_COPY || type == TYPE_MOVE) && destination == null) {
+            throw new IllegalArgumentException("destination is required");
+        }
+
+        mId = id;
+        mType = type;
+        mSources = Collections.unmodifiableList(new ArrayList<File>(sources));
+        mDestination = destination;
+    }
+
+    public long getId() {
+        return mId;
+    }
+
+    public int getType() {
+        return mType;
+    }
+
+    public List<File> getSources() {
+        return mSources;
+    }
+
+    public File getDestination() {
+        return mDestination;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.operations;
+
+/**
+ * Progress of a FileOperation at a point in time.
+ *
+ * Created by Roque on 28/11/13.
+ */
+public class OperationProgress {
+
+    /**
+     * Value of the remaining time when it is not known yet.
+     */
+    public static final long UNKNOWN = -1;
+
+    private final long mBytesDone;
+    private final long mBytesTotal;
+    private final int mFilesDone;
+    private final int mFilesTotal;
+    private final long mBytesPerSecond;
+    private final long mRemainingMillis;
+
+    public OperationProgress(long bytesDone, long bytesTotal, int filesDone, int filesTotal,
+                             long bytesPerSecond, long remainingMillis) {
+        mBytesDone = bytesDone;
+        mBytesTotal = bytesTotal;
+        mFilesDone = filesDone;
+        mFilesTotal = filesTotal;
+        mBytesPerSecond = bytesPerSecond;
+        mRemainingMillis = remainingMillis;
+    }
+
+    public long getBytesDone() {
+        return mBytesDone;
+    }
+
+    public long getBytesTotal() {
+        return mBytesTotal;
+    }
+
+    public int getFilesDone() {
+        return mFilesDone;
+    }
+
+    public int getFilesTotal() {
+        return mFilesTotal;
+    }
+
+    /**
+     *
+     * @return recent speed of the operation.
+     */
+    public long getBytesPerSecond() {
+        return mBytesPerSecond;
+    }
+
+    /**
+     *
+     * @return estimated time to finish or UNKNOWN.
+     */
+    public long getRemainingMillis() {
+        return mRemainingMillis;
+    }
+}
@@ -0,0 +1,720 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.operations;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs a single FileOperation.
+ *
+ * A copy first walks the sources, creating the directories and listing
+ * the files, then the files are copied by several workers. The biggest
+ * files are copied first so no worker is left alone with a big file at
+ * the end. Big files are copied with FileChannel.transferTo, which lets
+ * the kernel copy the data without passing it through the heap.
+ *
+ * A move is a rename when the destination is on the same volume,
+ * otherwise the files are copied and the sources deleted.
+ *
+ * A delete lists each directory on one worker and queues its
+ * subdirectories, so the subtrees are deleted in parallel. A directory
+ * is deleted after all its content, the progress is the number of
+ * files and directories deleted. Moving to the trash renames the files
+ * into the TrashArea of their volume.
+ *
+ * Each file is written with a temporary name and renamed when it is
+ * complete, then it gets the modified time of its source. Files whose
+ * target already has the same size and modified time are skipped, so
+ * running an operation again after a crash continues where it stopped.
+ *
+ * Created by Roque on 28/11/13.
+ */
+class OperationRunner {
+
+    /**
+     * Files of this size or bigger are copied with transferTo.
+     */
+    static final long TRANSFER_THRESHOLD = 256 * 1024;
+
+    /**
+     * Bytes copied by each transferTo call, so the progress and the
+     * cancellation are checked while a big file is copied.
+     */
+    private static final long TRANSFER_CHUNK = 8 * 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * File systems like FAT store the modified time with a resolution
+     * of two seconds.
+     */
+    private static final long MODIFIED_TIME_RESOLUTION = 2000;
+
+    private static final String PART_SUFFIX = ".part";
+
+    /**
+     * Time that a delete worker waits before it checks again if the
+     * operation was cancelled, in milliseconds.
+     */
+    private static final long CANCEL_CHECK_INTERVAL = 100;
+
+    private final FileOperation mOperation;
+    private final Executor mExecutor;
+    private final int mParallelism;
+    private final boolean mResumed;
+    private volatile boolean mCancelled;
+
+    private final AtomicLong mBytesDone = new AtomicLong();
+    private final AtomicInteger mFilesDone = new AtomicInteger();
+    private final AtomicInteger mFailures = new AtomicInteger();
+    private volatile long mBytesTotal;
+    private volatile int mFilesTotal;
+    private volatile String mFirstError;
+
+    // Files found by the scan.
+    private int mCount;
+    private File[] mSources = new File[64];
+    private File[] mTargets = new File[64];
+    private long[] mSizes = new long[64];
+    private long[] mModified = new long[64];
+
+    // Directories waiting to be listed by the delete workers.
+    private final List<DeleteNode> mDeleteStack = new ArrayList<DeleteNode>();
+    private int mDeletesListing;
+
+    /**
+     * Creates a runner.
+     * @param operation operation that is going to run.
+     * @param executor executor of the workers, it must queue the tasks
+     *                 that find all its threads busy.
+     * @param parallelism number of files that are copied at the same time.
+     * @param resumed true if the operation already ran before, the
+     *                sources that no longer exist are not an error.
+     */
+    OperationRunner(FileOperation operation, Executor executor, int parallelism, boolean resumed) {
+        mOperation = operation;
+        mExecutor = executor;
+        mParallelism = Math.max(1, parallelism);
+        mResumed = resumed;
+    }
+
+    FileOperation getOperation() {
+        return mOperation;
+    }
+
+    void cancel() {
+        mCancelled = true;
+    }
+
+    boolean isCancelled() {
+        return mCancelled;
+    }
+
+    long getBytesDone() {
+        return mBytesDone.get();
+    }
+
+    long getBytesTotal() {
+        return mBytesTotal;
+    }
+
+    int getFilesDone() {
+        return mFilesDone.get();
+    }
+
+    int getFilesTotal() {
+        return mFilesTotal;
+    }
+
+    int getFailures() {
+        return mFailures.get();
+    }
+
+    /**
+     *
+     * @return message of the first error or null.
+     */
+    String getFirstError() {
+        return mFirstError;
+    }
+
+    /**
+     * Runs the operation on the calling thread.
+     * @return number of files that could not be processed.
+     */
+    int run() {
+        switch (mOperation.getType()) {
+            case FileOperation.TYPE_COPY:
+                copy(mOperation.getSources());
+                break;
+            case FileOperation.TYPE_MOVE:
+                move();
+                break;
+            case FileOperation.TYPE_DELETE:
+                List<File> existing = new ArrayList<File>();
+                for (File source : mOperation.getSources()) {
+                    if (source.exists() || !mResumed) {
+                        existing.add(source);
+                    }
+                }
+                delete(existing);
+                break;
+            case FileOperation.TYPE_TRASH:
+                trash();
+                break;
+            case FileOperation.TYPE_RESTORE:
+                restore();
+                break;
+        }
+        return mFailures.get();
+    }
+
+    private void copy(List<File> sources) {
+        for (File source : sources) {
+            if (mCancelled) {
+                return;
+            }
+            if (!source.exists()) {
+                if (!mResumed) {
+                    fail("Not found " + source);
+                }
+                continue;
+            }
+            scan(source, new File(mOperation.getDestination(), source.getName()));
+        }
+
+        long total = 0;
+        for (int i = 0; i < mCount; i++) {
+            total += mSizes[i];
+        }
+        mBytesTotal = total;
+        mFilesTotal = mCount;
+
+        copyFiles();
+    }
+
+    private void move() {
+        List<File> remaining = new ArrayList<File>();
+        for (File source : mOperation.getSources()) {
+            if (!source.exists()) {
+                if (!mResumed) {
+                    fail("Not found " + source);
+                }
+                continue;
+            }
+
+            File target = new File(mOperation.getDestination(), source.getName());
+            if (isSameFile(source, target)) {
+                // Moved to the directory where it already is.
+                mFilesDone.incrementAndGet();
+                continue;
+            }
+
+            // Same volume, only the directory entry changes.
+            if (!target.exists() && !isInside(target, source) && source.renameTo(target)) {
+                mFilesDone.incrementAndGet();
+            } else {
+                remaining.add(source);
+            }
+        }
+        if (remaining.isEmpty()) {
+            return;
+        }
+
+        int failures = mFailures.get();
+        copy(remaining);
+        if (!mCancelled && mFailures.get() == failures) {
+            delete(remaining);
+        }
+    }
+
+    /**
+     * Renames the sources into the trash of their volume, the files that
+     * are already in the trash are deleted.
+     */
+    private void trash() {
+        List<File> trashed = new ArrayList<File>();
+        List<TrashArea> used = new ArrayList<TrashArea>();
+        for (File source : mOperation.getSources()) {
+            if (mCancelled) {
+                break;
+            }
+            if (!source.exists()) {
+                // A resumed operation may have moved it already.
+                if (!mResumed) {
+                    fail("Not found " + source);
+                }
+                continue;
+            }
+
+            TrashArea trash = TrashArea.forFile(source);
+            if (trash == null) {
+                fail("No trash in the volume of " + source);
+                continue;
+            }
+            addTrash(used, trash);
+            if (trash.contains(source)) {
+                trashed.add(source);
+                continue;
+            }
+            try {
+                trash.moveToTrash(source);
+                mFilesDone.incrementAndGet();
+            } catch (IOException ioe) {
+                fail(ioe.getMessage());
+            }
+        }
+        if (!mCancelled) {
+            delete(trashed);
+        }
+        clean(used);
+    }
+
+    /**
+     * Renames the sources, paths inside a trash, back to where they were.
+     */
+    private void restore() {
+        List<TrashArea> used = new ArrayList<TrashArea>();
+        for (File source : mOperation.getSources()) {
+            if (mCancelled) {
+                break;
+            }
+            if (!source.exists()) {
+                if (!mResumed) {
+                    fail("Not found " + source);
+                }
+                continue;
+            }
+
+            TrashArea trash = TrashArea.forTrashedFile(source);
+            if (trash == null) {
+                fail("Not in the trash " + source);
+                continue;
+            }
+            addTrash(used, trash);
+            try {
+                trash.restore(trash.getEntry(source));
+                mFilesDone.incrementAndGet();
+            } catch (IOException ioe) {
+                fail(ioe.getMessage());
+            }
+        }
+        clean(used);
+    }
+
+    private static void addTrash(List<TrashArea> trashes, TrashArea trash) {
+        for (TrashArea added : trashes) {
+            if (added.getRoot().equals(trash.getRoot())) {
+                return;
+            }
+        }
+        trashes.add(trash);
+    }
+
+    /**
+     * Deletes the left overs of the trashes, here and not when the trash
+     * is listed so the thread of the UI never writes to the disk.
+     */
+    private static void clean(List<TrashArea> trashes) {
+        for (TrashArea trash : trashes) {
+            trash.clean();
+        }
+    }
+
+    /**
+     * Creates the directories of the source in the target and lists its
+     * files.
+     */
+    private void scan(File source, File target) {
+        if (mCancelled) {
+            return;
+        }
+
+        if (source.isDirectory()) {
+            if (isSymlink(source)) {
+                fail("Skipped link to a directory " + source);
+                return;
+            }
+            if (isInside(target, source)) {
+                fail("Unable to copy " + source + " inside itself");
+                return;
+            }
+            if (!target.isDirectory() && !target.mkdirs()) {
+                fail("Unable to create " + target);
+                return;
+            }
+
+            String[] names = source.list();
+            if (names == null) {
+                fail("Unable to list " + source);
+                return;
+            }
+            for (String name : names) {
+                scan(new File(source, name), new File(target, name));
+            }
+        } else {
+            add(source, target);
+        }
+    }
+
+    private void add(File source, File target) {
+        if (mCount == mSources.length) {
+            int capacity = mCount * 2;
+            File[] sources = new File[capacity];
+            File[] targets = new File[capacity];
+            long[] sizes = new long[capacity];
+            long[] modified = new long[capacity];
+            System.arraycopy(mSources, 0, sources, 0, mCount);
+            System.arraycopy(mTargets, 0, targets, 0, mCount);
+            System.arraycopy(mSizes, 0, sizes, 0, mCount);
+            System.arraycopy(mModified, 0, modified, 0, mCount);
+            mSources = sources;
+            mTargets = targets;
+            mSizes = sizes;
+            mModified = modified;
+        }
+        mSources[mCount] = source;
+        mTargets[mCount] = target;
+        mSizes[mCount] = source.length();
+        mModified[mCount] = source.lastModified();
+        mCount++;
+    }
+
+    /**
+     * Copies the files found by the scan with several workers.
+     */
+    private void copyFiles() {
+        // The biggest files first.
+        Integer[] order = new Integer[mCount];
+        for (int i = 0; i < mCount; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                long l = mSizes[lhs];
+                long r = mSizes[rhs];
+                return l > r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        final int[] indexes = new int[mCount];
+        for (int i = 0; i < mCount; i++) {
+            indexes[i] = order[i];
+        }
+
+        final AtomicInteger next = new AtomicInteger();
+        runWorkers(new Runnable() {
+            @Override
+            public void run() {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int position;
+                while (!mCancelled && (position = next.getAndIncrement()) < indexes.length) {
+                    copyFile(indexes[position], buffer);
+                }
+            }
+        }, Math.min(mParallelism, mCount));
+    }
+
+    /**
+     * Runs the worker on several threads and waits until all of them
+     * return.
+     */
+    private void runWorkers(Runnable worker, int workers) {
+        if (workers <= 1) {
+            worker.run();
+            return;
+        }
+
+        final CountDownLatch finished = new CountDownLatch(workers);
+        for (int i = 0; i < workers; i++) {
+            final Runnable task = worker;
+            try {
+                mExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            task.run();
+                        } finally {
+                            finished.countDown();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException ree) {
+                // The executor was shut down, the operation runs again
+                // the next time.
+                mCancelled = true;
+                finished.countDown();
+            }
+        }
+
+        try {
+            finished.await();
+        } catch (InterruptedException ie) {
+            mCancelled = true;
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void copyFile(int index, byte[] buffer) {
+        File source = mSources[index];
+        File target = mTargets[index];
+        long size = mSizes[index];
+        long modified = mModified[index];
+
+        // Only a resumed operation can find its own copies, any other
+        // file with the same name is overwritten.
+        if (mResumed && target.isFile() && target.length() == size
+                && Math.abs(target.lastModified() - modified) < MODIFIED_TIME_RESOLUTION) {
+            // Copied by a previous run.
+            mBytesDone.addAndGet(size);
+            mFilesDone.incrementAndGet();
+            return;
+        }
+
+        File temp = new File(target.getParentFile(), target.getName() + PART_SUFFIX);
+        try {
+            FileInputStream in = new FileInputStream(source);
+            try {
+                FileOutputStream out = new FileOutputStream(temp);
+                try {
+                    if (size >= TRANSFER_THRESHOLD) {
+                        transfer(in.getChannel(), out.getChannel(), size);
+                    } else {
+                        int read;
+                        while ((read = in.read(buffer)) >= 0) {
+                            out.write(buffer, 0, read);
+                            mBytesDone.addAndGet(read);
+                        }
+                    }
+                } finally {
+                    out.close();
+                }
+            } finally {
+                in.close();
+            }
+
+            if (mCancelled) {
+                temp.delete();
+                return;
+            }
+            if (target.exists() && !target.delete() || !temp.renameTo(target)) {
+                throw new IOException("Unable to rename " + temp);
+            }
+            target.setLastModified(modified);
+            mFilesDone.incrementAndGet();
+        } catch (IOException ioe) {
+            temp.delete();
+            fail("Unable to copy " + source + ": " + ioe.getMessage());
+        }
+    }
+
+    private void transfer(FileChannel in, FileChannel out, long size) throws IOException {
+        long position = 0;
+        while (position < size && !mCancelled) {
+            long count = in.transferTo(position, Math.min(TRANSFER_CHUNK, size - position), out);
+            if (count <= 0) {
+                // The source got shorter while it was copied.
+                break;
+            }
+            position += count;
+            mBytesDone.addAndGet(count);
+        }
+    }
+
+    /**
+     * Deletes the files and the directories with all their content, the
+     * links to directories are deleted but not followed.
+     */
+    private void delete(List<File> files) {
+        mDeleteStack.clear();
+        for (File file : files) {
+            if (mCancelled) {
+                return;
+            }
+            deleteEntry(file, null);
+        }
+        if (mDeleteStack.isEmpty()) {
+            return;
+        }
+
+        runWorkers(new Runnable() {
+            @Override
+            public void run() {
+                DeleteNode node;
+                while ((node = nextDeleteNode()) != null) {
+                    try {
+                        deleteContent(node);
+                    } finally {
+                        synchronized (mDeleteStack) {
+                            mDeletesListing--;
+                            mDeleteStack.notifyAll();
+                        }
+                    }
+                }
+            }
+        }, mParallelism);
+    }
+
+    /**
+     * Waits for a directory to list.
+     * @return the directory or null when there are no more directories or
+     * the operation was cancelled.
+     */
+    private DeleteNode nextDeleteNode() {
+        synchronized (mDeleteStack) {
+            try {
+                // A directory that is being listed may add more directories.
+                while (mDeleteStack.isEmpty() && mDeletesListing > 0 && !mCancelled) {
+                    mDeleteStack.wait(CANCEL_CHECK_INTERVAL);
+                }
+            } catch (InterruptedException ie) {
+                mCancelled = true;
+                Thread.currentThread().interrupt();
+            }
+            if (mDeleteStack.isEmpty() || mCancelled) {
+                return null;
+            }
+            mDeletesListing++;
+            // The last directory added first, so the tree is walked in
+            // depth and few directories are waiting at the same time.
+            return mDeleteStack.remove(mDeleteStack.size() - 1);
+        }
+    }
+
+    /**
+     * Deletes the files of a directory and queues its subdirectories.
+     */
+    private void deleteContent(DeleteNode node) {
+        String[] names = node.mDir.list();
+        if (names == null) {
+            fail("Unable to list " + node.mDir);
+            return;
+        }
+        for (String name : names) {
+            if (mCancelled) {
+                return;
+            }
+            deleteEntry(new File(node.mDir, name), node);
+        }
+        deleteFinished(node);
+    }
+
+    /**
+     * Deletes a file, a link or an empty directory right away, a directory
+     * with content is queued.
+     */
+    private void deleteEntry(File file, DeleteNode parent) {
+        // Most entries are files, deleting them first saves a stat.
+        if (file.delete()) {
+            mFilesDone.incrementAndGet();
+        } else if (file.isDirectory() && !isSymlink(file)) {
+            if (parent != null) {
+                parent.mPending.incrementAndGet();
+            }
+            synchronized (mDeleteStack) {
+                mDeleteStack.add(new DeleteNode(file, parent));
+                mDeleteStack.notify();
+            }
+        } else {
+            fail("Unable to delete " + file);
+        }
+    }
+
+    /**
+     * Deletes a directory whose content is deleted, and its parents
+     * when they are done too.
+     */
+    private void deleteFinished(DeleteNode node) {
+        while (node != null && node.mPending.decrementAndGet() == 0) {
+            if (node.mDir.delete()) {
+                mFilesDone.incrementAndGet();
+            } else {
+                fail("Unable to delete " + node.mDir);
+            }
+            node = node.mParent;
+        }
+    }
+
+    private void fail(String message) {
+        if (mFailures.getAndIncrement() == 0) {
+            mFirstError = message;
+        }
+    }
+
+    /**
+     * A directory that is being deleted.
+     */
+    private static final class DeleteNode {
+
+        final File mDir;
+        final DeleteNode mParent;
+
+        /**
+         * Subdirectories not deleted yet, plus one until the directory is
+         * listed.
+         */
+        final AtomicInteger mPending = new AtomicInteger(1);
+
+        DeleteNode(File dir, DeleteNode parent) {
+            mDir = dir;
+            mParent = parent;
+        }
+    }
+
+    private static boolean isSymlink(File file) {
+        try {
+            return FileUtils.isSymlink(file);
+        } catch (IOException ioe) {
+            return true;
+        }
+    }
+
+    private static boolean isSameFile(File file, File other) {
+        try {
+            return file.getCanonicalPath().equals(other.getCanonicalPath());
+        } catch (IOException ioe) {
+            return false;
+        }
+    }
+
+    /**
+     * Indicates if the file is the directory or is inside of it.
+     */
+    private static boolean isInside(File file, File dir) {
+        try {
+            String path = file.getCanonicalPath();
+            String dirPath = dir.getCanonicalPath();
+            return path.equals(dirPath) || path.startsWith(dirPath + File.separator);
+        } catch (IOException ioe) {
+            return false;
+        }
+    }
+}
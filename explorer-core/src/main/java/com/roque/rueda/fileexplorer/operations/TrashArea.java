@@ -0,0 +1,398 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.operations;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import com.roque.rueda.fileexplorer.platform.JvmPlatform;
+import com.roque.rueda.fileexplorer.platform.StorageLocator;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A trash directory at the top of a volume. Moving a file to the trash
+ * is a rename, so it takes the same time for a file or for a directory
+ * with thousands of files, and restoring it is a rename back.
+ *
+ * The trash has this layout:
+ * <pre>
+ * .trash/files/&lt;id&gt;     the file or directory that was moved
+ * .trash/info/&lt;id&gt;.ti   its index entry
+ * </pre>
+ * Each index entry has this binary format:
+ * <pre>
+ * int    magic
+ * int    version
+ * UTF    original path
+ * long   time when it was moved
+ * </pre>
+ * The entry is written before the rename, an entry whose file is not in
+ * the trash is from a rename that did not happen. Listing the trash skips
+ * those entries without changing anything, they are deleted by clean,
+ * which the operations call from their own thread once they are done.
+ *
+ * Created by Roque on 07/12/13.
+ */
+public class TrashArea {
+
+    /**
+     * Name of the trash directory in the root of the volume.
+     */
+    public static final String DIR_NAME = ".trash";
+
+    private static final String FILES_DIR = "files";
+    private static final String INFO_DIR = "info";
+    private static final String NO_MEDIA = ".nomedia";
+
+    private static final int MAGIC = 0x46455454;
+    private static final int VERSION = 1;
+    private static final String SUFFIX = ".ti";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final AtomicLong sNextId = new AtomicLong(System.currentTimeMillis());
+
+    /**
+     * Held for reading while a file is moved in or out of a trash and for
+     * writing while the left overs are deleted, so clean never sees the
+     * entry of a rename that is about to happen.
+     */
+    private static final ReadWriteLock sLock = new ReentrantReadWriteLock();
+
+    /**
+     * Absolute and canonical paths of the volumes that have a trash.
+     */
+    private static volatile File[] sVolumes;
+
+    static {
+        install(new JvmPlatform());
+    }
+
+    private final File mRoot;
+    private final File mDir;
+    private final File mFilesDir;
+    private final File mInfoDir;
+
+    /**
+     * Creates the trash of a volume, the directories are created when
+     * the first file is moved.
+     * @param root directory where the trash directory is.
+     */
+    public TrashArea(File root) {
+        mRoot = root;
+        mDir = new File(root, DIR_NAME);
+        mFilesDir = new File(mDir, FILES_DIR);
+        mInfoDir = new File(mDir, INFO_DIR);
+    }
+
+    /**
+     * Sets the locator of the volumes that have a trash, the sd card.
+     * @param storage locator of the sd card.
+     */
+    public static void install(StorageLocator storage) {
+        File sdCard = storage.getExternalStorageDirectory();
+        if (sdCard == null) {
+            sVolumes = new File[0];
+            return;
+        }
+
+        File absolute = sdCard.getAbsoluteFile();
+        File canonical;
+        try {
+            canonical = sdCard.getCanonicalFile();
+        } catch (IOException ioe) {
+            canonical = absolute;
+        }
+        sVolumes = new File[] { absolute, canonical };
+    }
+
+    /**
+     * Gets the trash of the volume where a file is. The file is compared
+     * with the known volumes, first by its absolute path and then by its
+     * canonical path so a link into a volume finds its trash too.
+     * @param file file or directory that is going to be moved.
+     * @return trash of the volume or null if the file is not in one.
+     */
+    public static TrashArea forFile(File file) {
+        File[] volumes = sVolumes;
+        String path = file.getAbsolutePath();
+        for (File volume : volumes) {
+            if (isInside(path, volume.getPath())) {
+                return new TrashArea(volume);
+            }
+        }
+
+        try {
+            path = file.getCanonicalPath();
+        } catch (IOException ioe) {
+            return null;
+        }
+        for (File volume : volumes) {
+            if (isInside(path, volume.getPath())) {
+                return new TrashArea(volume);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the trash that contains a file that was moved.
+     * @param trashed path of the file inside the trash.
+     * @return trash of the file or null if the file is not in a trash.
+     */
+    public static TrashArea forTrashedFile(File trashed) {
+        File files = trashed.getAbsoluteFile().getParentFile();
+        File dir = files != null ? files.getParentFile() : null;
+        if (dir == null || dir.getParentFile() == null
+                || !FILES_DIR.equals(files.getName()) || !DIR_NAME.equals(dir.getName())) {
+            return null;
+        }
+        return new TrashArea(dir.getParentFile());
+    }
+
+    /**
+     *
+     * @return directory where the trash directory is.
+     */
+    public File getRoot() {
+        return mRoot;
+    }
+
+    /**
+     *
+     * @return trash directory, deleting it empties the trash.
+     */
+    public File getDirectory() {
+        return mDir;
+    }
+
+    /**
+     * Indicates if a file is the trash directory or is inside of it, those
+     * files can only be deleted.
+     * @param file file that is going to be analyzed.
+     * @return true if the file is part of the trash.
+     */
+    public boolean contains(File file) {
+        return isInside(file.getAbsolutePath(), mDir.getAbsolutePath());
+    }
+
+    /**
+     * Moves a file or a directory to the trash, a link is moved but not
+     * followed.
+     * @param file file that is going to be moved.
+     * @return entry of the file in the trash.
+     * @throws IOException if the file can not be renamed, like when it is
+     * in other volume.
+     */
+    public TrashEntry moveToTrash(File file) throws IOException {
+        createDirectories();
+
+        String id;
+        File trashed;
+        do {
+            id = Long.toString(sNextId.getAndIncrement());
+            trashed = new File(mFilesDir, id);
+        } while (trashed.exists());
+
+        File original = file.getAbsoluteFile();
+        long now = System.currentTimeMillis();
+        File info = new File(mInfoDir, id + SUFFIX);
+        sLock.readLock().lock();
+        try {
+            writeInfo(info, original, now);
+            if (!original.renameTo(trashed)) {
+                info.delete();
+                throw new IOException("Unable to move " + original + " to " + mDir);
+            }
+        } finally {
+            sLock.readLock().unlock();
+        }
+        return new TrashEntry(original, trashed, now);
+    }
+
+    /**
+     * Moves a file back to the directory where it was.
+     * @param entry entry of the file in this trash.
+     * @throws IOException if there is already a file with the same path or
+     * the file can not be renamed.
+     */
+    public void restore(TrashEntry entry) throws IOException {
+        File original = entry.getOriginalPath();
+        File trashed = entry.getTrashedPath();
+        if (original.exists()) {
+            throw new IOException("Already exists " + original);
+        }
+
+        File parent = original.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Unable to create " + parent);
+        }
+        sLock.readLock().lock();
+        try {
+            if (!trashed.renameTo(original)) {
+                throw new IOException("Unable to restore " + original);
+            }
+            getInfoFile(trashed).delete();
+        } finally {
+            sLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Reads the entry of a file that was moved to this trash.
+     * @param trashed path of the file inside the trash.
+     * @return entry of the file.
+     * @throws IOException if the entry can not be read.
+     */
+    public TrashEntry getEntry(File trashed) throws IOException {
+        return readInfo(getInfoFile(trashed), trashed);
+    }
+
+    /**
+     * Reads the entries of the files in the trash, nothing is changed so
+     * it can run while other thread moves files to the trash.
+     * @return entries, the most recently moved first.
+     */
+    public List<TrashEntry> list() {
+        List<TrashEntry> entries = new ArrayList<TrashEntry>();
+        String[] names = mInfoDir.list();
+        if (names == null) {
+            return entries;
+        }
+
+        for (String name : names) {
+            if (!name.endsWith(SUFFIX)) {
+                continue;
+            }
+
+            File trashed = new File(mFilesDir, name.substring(0, name.length() - SUFFIX.length()));
+            try {
+                if (trashed.exists()) {
+                    entries.add(readInfo(new File(mInfoDir, name), trashed));
+                }
+            } catch (IOException ioe) {
+                // The file stays in the trash until it is emptied.
+            }
+        }
+
+        TrashEntry[] sorted = entries.toArray(new TrashEntry[entries.size()]);
+        Arrays.sort(sorted, new Comparator<TrashEntry>() {
+            @Override
+            public int compare(TrashEntry lhs, TrashEntry rhs) {
+                long l = lhs.getDeletedTime();
+                long r = rhs.getDeletedTime();
+                return l > r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        return Arrays.asList(sorted);
+    }
+
+    /**
+     * Deletes the left overs of the moves that did not finish: the
+     * entries being written and the entries whose file is not in the
+     * trash. It waits for the moves in progress.
+     */
+    public void clean() {
+        sLock.writeLock().lock();
+        try {
+            String[] names = mInfoDir.list();
+            if (names == null) {
+                return;
+            }
+
+            for (String name : names) {
+                File info = new File(mInfoDir, name);
+                if (!name.endsWith(SUFFIX)) {
+                    // Left over of a write that did not finish.
+                    info.delete();
+                } else if (!new File(mFilesDir,
+                        name.substring(0, name.length() - SUFFIX.length())).exists()) {
+                    info.delete();
+                }
+            }
+        } finally {
+            sLock.writeLock().unlock();
+        }
+    }
+
+    private static boolean isInside(String path, String dirPath) {
+        return path.equals(dirPath) || path.startsWith(dirPath + File.separator);
+    }
+
+    private void createDirectories() throws IOException {
+        if (!mFilesDir.isDirectory() && !mFilesDir.mkdirs()
+                || !mInfoDir.isDirectory() && !mInfoDir.mkdirs()) {
+            throw new IOException("Unable to create " + mDir);
+        }
+        // Keeps the media scanner out of the trash.
+        File noMedia = new File(mDir, NO_MEDIA);
+        if (!noMedia.exists()) {
+            noMedia.createNewFile();
+        }
+    }
+
+    private File getInfoFile(File trashed) {
+        return new File(mInfoDir, trashed.getName() + SUFFIX);
+    }
+
+    private static void writeInfo(File file, File original, long deletedTime)
+            throws IOException {
+        File temp = new File(file.getParentFile(), file.getName() + TEMP_SUFFIX);
+        try {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(original.getPath());
+                out.writeLong(deletedTime);
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("Unable to rename " + temp);
+            }
+        } catch (IOException ioe) {
+            temp.delete();
+            throw ioe;
+        }
+    }
+
+    private static TrashEntry readInfo(File file, File trashed) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a trash entry " + file);
+            }
+            File original = new File(in.readUTF());
+            long deletedTime = in.readLong();
+            return new TrashEntry(original, trashed, deletedTime);
+        } finally {
+            in.close();
+        }
+    }
+}
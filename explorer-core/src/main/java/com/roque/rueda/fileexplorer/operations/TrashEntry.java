@@ -0,0 +1,68 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.operations;
+
+import java.io.File;
+
+/**
+ * A file or directory that was moved to a TrashArea.
+ *
+ * Created by Roque on 07/12/13.
+ */
+public class TrashEntry {
+
+    private final File mOriginalPath;
+    private final File mTrashedPath;
+    private final long mDeletedTime;
+
+    TrashEntry(File originalPath, File trashedPath, long deletedTime) {
+        mOriginalPath = originalPath;
+        mTrashedPath = trashedPath;
+        mDeletedTime = deletedTime;
+    }
+
+    /**
+     *
+     * @return name of the file before it was moved to the trash.
+     */
+    public String getName() {
+        return mOriginalPath.getName();
+    }
+
+    /**
+     *
+     * @return path where the file is restored.
+     */
+    public File getOriginalPath() {
+        return mOriginalPath;
+    }
+
+    /**
+     *
+     * @return path of the file inside the trash.
+     */
+    public File getTrashedPath() {
+        return mTrashedPath;
+    }
+
+    /**
+     *
+     * @return time when the file was moved to the trash.
+     */
+    public long getDeletedTime() {
+        return mDeletedTime;
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.platform;
+
+import java.io.File;
+import java.net.FileNameMap;
+import java.net.URLConnection;
+
+/**
+ * Platform used on a plain JVM, the mime types come from the table of
+ * the JDK and there is no external storage.
+ *
+ * Created by Roque on 02/12/13.
+ */
+public class JvmPlatform implements MimeTypeResolver, StorageLocator {
+
+    private final FileNameMap mFileNameMap = URLConnection.getFileNameMap();
+
+    @Override
+    public String getMimeTypeFromExtension(String extension) {
+        if (extension == null || extension.length() == 0) {
+            return null;
+        }
+        return mFileNameMap.getContentTypeFor("file." + extension);
+    }
+
+    @Override
+    public boolean hasExtension(String extension) {
+        return getMimeTypeFromExtension(extension) != null;
+    }
+
+    @Override
+    public File getExternalStorageDirectory() {
+        return null;
+    }
+}
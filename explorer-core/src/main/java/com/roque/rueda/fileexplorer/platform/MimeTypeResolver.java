@@ -0,0 +1,39 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.platform;
+
+/**
+ * Maps the extensions of the files to mime types, on Android this is
+ * the MimeTypeMap of the system.
+ *
+ * Created by Roque on 02/12/13.
+ */
+public interface MimeTypeResolver {
+
+    /**
+     * Gets the mime type of an extension.
+     * @param extension extension without the dot, in lower case.
+     * @return mime type or null if the extension is not known.
+     */
+    String getMimeTypeFromExtension(String extension);
+
+    /**
+     * Indicates if the extension has a known mime type.
+     * @param extension extension without the dot.
+     * @return true if the extension is known.
+     */
+    boolean hasExtension(String extension);
+}
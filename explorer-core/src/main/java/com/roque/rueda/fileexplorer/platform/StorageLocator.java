@@ -0,0 +1,33 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.platform;
+
+import java.io.File;
+
+/**
+ * Locates the storage volumes of the device, on Android this is the
+ * Environment of the system.
+ *
+ * Created by Roque on 02/12/13.
+ */
+public interface StorageLocator {
+
+    /**
+     *
+     * @return directory of the external storage or null if there is none.
+     */
+    File getExternalStorageDirectory();
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.search;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Finds a text in raw bytes with the Boyer-Moore-Horspool algorithm, the
+ * bytes are never decoded. The text is encoded in UTF-8 and the letters
+ * A to Z can match ignoring the case, the other characters must match
+ * exactly.
+ *
+ * For each byte the pattern is shifted by the distance from the last
+ * occurrence of that byte in the pattern to its end, so most of the bytes
+ * of the content are not even compared.
+ *
+ * Created by Roque on 07/12/13.
+ */
+public class BytePattern {
+
+    private static final byte[] IDENTITY = new byte[256];
+    private static final byte[] LOWER_CASE = new byte[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            IDENTITY[i] = (byte) i;
+            LOWER_CASE[i] = (byte) (i >= 'A' && i <= 'Z' ? i + ('a' - 'A') : i);
+        }
+    }
+
+    private final byte[] mPattern;
+    private final byte[] mFold;
+    private final int[] mShifts = new int[256];
+
+    /**
+     * Creates a pattern.
+     * @param text text that is looked for, it can not be empty.
+     * @param ignoreCase true if the letters A to Z match in any case.
+     */
+    public BytePattern(String text, boolean ignoreCase) {
+        if (text.length() == 0) {
+            throw new IllegalArgumentException("text is empty");
+        }
+
+        byte[] bytes;
+        try {
+            bytes = text.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException uee) {
+            throw new AssertionError(uee);
+        }
+
+        mFold = ignoreCase ? LOWER_CASE : IDENTITY;
+        mPattern = new byte[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            mPattern[i] = mFold[bytes[i] & 0xFF];
+        }
+
+        int last = mPattern.length - 1;
+        for (int i = 0; i < 256; i++) {
+            mShifts[i] = mPattern.length;
+        }
+        for (int i = 0; i < last; i++) {
+            mShifts[mPattern[i] & 0xFF] = last - i;
+        }
+    }
+
+    /**
+     *
+     * @return number of bytes of the pattern.
+     */
+    public int length() {
+        return mPattern.length;
+    }
+
+    /**
+     * Looks for the pattern in a range of bytes.
+     * @param data bytes that are searched.
+     * @param from index of the first byte of the range.
+     * @param to index after the last byte of the range.
+     * @return index of the first match or -1 if there is none.
+     */
+    public int indexOf(byte[] data, int from, int to) {
+        if (mFold == IDENTITY) {
+            return indexOfExact(data, from, to);
+        }
+
+        byte[] pattern = mPattern;
+        byte[] fold = mFold;
+        int last = pattern.length - 1;
+        byte lastByte = pattern[last];
+
+        int end = to - pattern.length;
+        int i = from;
+        while (i <= end) {
+            byte current = fold[data[i + last] & 0xFF];
+            if (current == lastByte) {
+                int j = last - 1;
+                while (j >= 0 && fold[data[i + j] & 0xFF] == pattern[j]) {
+                    j--;
+                }
+                if (j < 0) {
+                    return i;
+                }
+            }
+            i += mShifts[current & 0xFF];
+        }
+        return -1;
+    }
+
+    /**
+     * Same as indexOf without folding the bytes, the most common search.
+     */
+    private int indexOfExact(byte[] data, int from, int to) {
+        byte[] pattern = mPattern;
+        int[] shifts = mShifts;
+        int last = pattern.length - 1;
+        byte lastByte = pattern[last];
+
+        int end = to - pattern.length;
+        int i = from;
+        while (i <= end) {
+            byte current = data[i + last];
+            if (current == lastByte) {
+                int j = last - 1;
+                while (j >= 0 && data[i + j] == pattern[j]) {
+                    j--;
+                }
+                if (j < 0) {
+                    return i;
+                }
+            }
+            i += shifts[current & 0xFF];
+        }
+        return -1;
+    }
+}
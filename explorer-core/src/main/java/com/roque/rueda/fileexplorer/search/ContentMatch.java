@@ -0,0 +1,61 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.search;
+
+import com.roque.rueda.fileexplorer.model.FileItem;
+
+/**
+ * A file whose content contains the text of a ContentSearcher.
+ *
+ * Created by Roque on 07/12/13.
+ */
+public class ContentMatch {
+
+    private final FileItem mItem;
+    private final long[] mOffsets;
+    private final int mMatchCount;
+
+    ContentMatch(FileItem item, long[] offsets, int matchCount) {
+        mItem = item;
+        mOffsets = offsets;
+        mMatchCount = matchCount;
+    }
+
+    /**
+     *
+     * @return the file that matched.
+     */
+    public FileItem getItem() {
+        return mItem;
+    }
+
+    /**
+     *
+     * @return byte offsets of the first matches in the file, at most
+     * ContentSearcher.MAX_OFFSETS.
+     */
+    public long[] getOffsets() {
+        return mOffsets;
+    }
+
+    /**
+     *
+     * @return number of times the text is in the file.
+     */
+    public int getMatchCount() {
+        return mMatchCount;
+    }
+}
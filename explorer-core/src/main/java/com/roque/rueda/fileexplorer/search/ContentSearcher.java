@@ -0,0 +1,361 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.search;
+
+import com.roque.rueda.fileexplorer.model.FileItem;
+import com.roque.rueda.fileexplorer.utils.FileTypes;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Finds the files under a directory whose content contains a text, like
+ * grep. The calling thread walks the directories and queues the files
+ * while several workers search them, so the first matches are reported
+ * before the walk ends.
+ *
+ * The files are read into a window of bytes, the small ones with plain
+ * reads and the bigger ones from memory mapped chunks, and the window is
+ * searched with a BytePattern. The files whose name says they are media
+ * or archives are not opened, and a file with a zero byte at its start
+ * is taken as binary and skipped.
+ *
+ * Created by Roque on 07/12/13.
+ */
+public class ContentSearcher {
+
+    /**
+     * Receives the matches on the worker threads.
+     */
+    public interface Callback {
+        /**
+         * Called when a file contains the text.
+         * @param match file and offsets of the matches.
+         */
+        void onMatch(ContentMatch match);
+    }
+
+    /**
+     * Maximum number of offsets kept for each file.
+     */
+    public static final int MAX_OFFSETS = 16;
+
+    /**
+     * Bytes at the start of a file that are checked for a zero byte.
+     */
+    static final int SNIFF_SIZE = 512;
+
+    private static final int WINDOW_SIZE = 64 * 1024;
+
+    /**
+     * Files smaller than this are read with plain reads, the bigger ones
+     * are mapped.
+     */
+    private static final long MAP_THRESHOLD = 64 * 1024;
+
+    /**
+     * Bytes mapped at once, so big files do not take the address space.
+     */
+    private static final long MAP_CHUNK = 8 * 1024 * 1024;
+
+    /**
+     * Files waiting for a worker, the walk waits when the queue is full.
+     */
+    private static final int QUEUE_CAPACITY = 1024;
+
+    /**
+     * Time that a thread waits on the queue before it checks again if the
+     * search was cancelled, in milliseconds.
+     */
+    private static final long CANCEL_CHECK_INTERVAL = 100;
+
+    private final File mRoot;
+    private final BytePattern mPattern;
+    private final int mMaxResults;
+    private final Executor mExecutor;
+    private final int mParallelism;
+    private volatile boolean mCancelled;
+    private volatile boolean mWalkFinished;
+
+    private final BlockingQueue<File> mQueue = new LinkedBlockingQueue<File>(QUEUE_CAPACITY);
+    private final AtomicInteger mSearched = new AtomicInteger();
+    private final AtomicInteger mMatched = new AtomicInteger();
+
+    /**
+     * Creates a searcher.
+     * @param root directory that is searched.
+     * @param pattern text that is looked for.
+     * @param maxResults the search stops after this number of files match.
+     * @param executor executor of the workers, it must have at least
+     *                 parallelism threads.
+     * @param parallelism number of files read at the same time.
+     */
+    public ContentSearcher(File root, BytePattern pattern, int maxResults, Executor executor,
+                           int parallelism) {
+        mRoot = root;
+        mPattern = pattern;
+        mMaxResults = maxResults;
+        mExecutor = executor;
+        mParallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Stops the search, search returns as soon as possible.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    /**
+     *
+     * @return files that were searched so far.
+     */
+    public int getSearched() {
+        return mSearched.get();
+    }
+
+    /**
+     *
+     * @return files that contain the text so far.
+     */
+    public int getMatched() {
+        return mMatched.get();
+    }
+
+    /**
+     * Searches the files, the calling thread walks the directories.
+     * @param callback callback that receives the matches.
+     * @return number of files that contain the text.
+     */
+    public int search(final Callback callback) {
+        final CountDownLatch finished = new CountDownLatch(mParallelism);
+        for (int i = 0; i < mParallelism; i++) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        work(callback);
+                    } finally {
+                        finished.countDown();
+                    }
+                }
+            });
+        }
+
+        walk(mRoot);
+        mWalkFinished = true;
+
+        try {
+            finished.await();
+        } catch (InterruptedException ie) {
+            mCancelled = true;
+            Thread.currentThread().interrupt();
+        }
+        return mMatched.get();
+    }
+
+    private void walk(File dir) {
+        String[] names = dir.list();
+        if (names == null) {
+            return;
+        }
+
+        for (String name : names) {
+            if (mCancelled) {
+                return;
+            }
+
+            File file = new File(dir, name);
+            if (file.isDirectory()) {
+                if (!isSymlink(file)) {
+                    walk(file);
+                }
+            } else if (isCandidate(name)) {
+                enqueue(file);
+            }
+        }
+    }
+
+    private void enqueue(File file) {
+        try {
+            while (!mCancelled
+                    && !mQueue.offer(file, CANCEL_CHECK_INTERVAL, TimeUnit.MILLISECONDS)) {
+                // The workers are behind, waits for room.
+            }
+        } catch (InterruptedException ie) {
+            mCancelled = true;
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void work(Callback callback) {
+        byte[] window = new byte[Math.max(WINDOW_SIZE, mPattern.length() * 2)];
+        try {
+            while (!mCancelled) {
+                File file = mQueue.poll(CANCEL_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+                if (file == null) {
+                    if (mWalkFinished && mQueue.isEmpty()) {
+                        return;
+                    }
+                    continue;
+                }
+
+                ContentMatch match;
+                try {
+                    match = searchFile(file, window);
+                } catch (IOException ioe) {
+                    // Not readable, it does not match.
+                    match = null;
+                }
+                mSearched.incrementAndGet();
+
+                if (match != null && !mCancelled) {
+                    int matched = mMatched.incrementAndGet();
+                    if (matched <= mMaxResults) {
+                        callback.onMatch(match);
+                    }
+                    if (matched >= mMaxResults) {
+                        mCancelled = true;
+                    }
+                }
+            }
+        } catch (InterruptedException ie) {
+            mCancelled = true;
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Searches the text in a file.
+     * @return the match or null if the file does not contain the text or
+     * it is binary.
+     */
+    ContentMatch searchFile(File file, byte[] window) throws IOException {
+        int length = mPattern.length();
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            long size = input.length();
+            if (size < length) {
+                return null;
+            }
+            FileChannel channel = input.getChannel();
+            MappedByteBuffer mapped = null;
+            long mappedStart = 0;
+
+            long[] offsets = new long[MAX_OFFSETS];
+            int count = 0;
+            // Bytes at the start of the window kept from the previous
+            // one, a match may start in them.
+            int kept = 0;
+            long windowOffset = 0;
+            long position = 0;
+
+            while (position < size && !mCancelled) {
+                int read = (int) Math.min(window.length - kept, size - position);
+                if (size < MAP_THRESHOLD) {
+                    input.readFully(window, kept, read);
+                } else {
+                    if (mapped == null || position >= mappedStart + mapped.capacity()) {
+                        mappedStart = position;
+                        mapped = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                                Math.min(MAP_CHUNK, size - position));
+                    }
+                    read = (int) Math.min(read, mappedStart + mapped.capacity() - position);
+                    mapped.position((int) (position - mappedStart));
+                    mapped.get(window, kept, read);
+                }
+                int filled = kept + read;
+
+                if (position == 0 && isBinary(window, Math.min(filled, SNIFF_SIZE))) {
+                    return null;
+                }
+
+                int index = 0;
+                while ((index = mPattern.indexOf(window, index, filled)) >= 0) {
+                    if (count < MAX_OFFSETS) {
+                        offsets[count] = windowOffset + index;
+                    }
+                    count++;
+                    index++;
+                }
+
+                // A match can not fit in the bytes that are kept.
+                kept = Math.min(length - 1, filled);
+                System.arraycopy(window, filled - kept, window, 0, kept);
+                windowOffset += filled - kept;
+                position += read;
+            }
+
+            if (count == 0 || mCancelled) {
+                return null;
+            }
+            long[] trimmed = new long[Math.min(count, MAX_OFFSETS)];
+            System.arraycopy(offsets, 0, trimmed, 0, trimmed.length);
+            return new ContentMatch(FileItem.snapshot(file), trimmed, count);
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Indicates if a file can contain text from its name only, media
+     * files and archives are compressed.
+     */
+    static boolean isCandidate(String name) {
+        switch (FileTypes.getTypeFromName(name)) {
+            case FileTypes.TYPE_APK:
+            case FileTypes.TYPE_ZIP:
+            case FileTypes.TYPE_AUDIO:
+            case FileTypes.TYPE_VIDEO:
+            case FileTypes.TYPE_IMAGE:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Text files do not contain zero bytes, most binary files have some
+     * in their headers.
+     */
+    static boolean isBinary(byte[] data, int length) {
+        for (int i = 0; i < length; i++) {
+            if (data[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isSymlink(File file) {
+        try {
+            return FileUtils.isSymlink(file);
+        } catch (IOException ioe) {
+            return true;
+        }
+    }
+}
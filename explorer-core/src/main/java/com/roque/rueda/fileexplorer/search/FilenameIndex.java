@@ -0,0 +1,267 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.search;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Index of the names of every file under a directory, stored in a file
+ * that is memory mapped, so opening the index only reads its header.
+ *
+ * The names are split in trigrams, for each trigram the index keeps the
+ * sorted list of the entries whose name contains it. A query intersects
+ * the lists of the trigrams of each term and only checks the names of
+ * the entries that remain.
+ *
+ * File format, all the numbers are big endian:
+ * <pre>
+ * header:    int magic, int version, int entry count, int trigram count,
+ *            int trigram table offset, int postings offset
+ * offsets:   int offset of each entry
+ * entries:   int parent, long last modified time, byte flags,
+ *            short name length, name bytes in UTF-8
+ * trigrams:  int trigram, int first posting, int posting count, sorted
+ * postings:  int entry id, sorted for each trigram
+ * </pre>
+ * Entry 0 is the root directory and its name is the absolute path. The
+ * last modified time is stored only for directories.
+ *
+ * Created by Roque on 24/11/13.
+ */
+public class FilenameIndex {
+
+    static final int MAGIC = 0x46454E49;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 24;
+    static final int TRIGRAM_RECORD_SIZE = 12;
+    static final int FLAG_DIRECTORY = 1;
+    static final String CHARSET = "UTF-8";
+
+    /**
+     * Default maximum number of results of a query.
+     */
+    public static final int DEFAULT_MAX_RESULTS = 200;
+
+    private final MappedByteBuffer mBuffer;
+    private final int mEntryCount;
+    private final int mTrigramCount;
+    private final int mTrigramsOffset;
+    private final int mPostingsOffset;
+
+    private FilenameIndex(MappedByteBuffer buffer) throws IOException {
+        mBuffer = buffer;
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a filename index");
+        }
+        mEntryCount = buffer.getInt(8);
+        mTrigramCount = buffer.getInt(12);
+        mTrigramsOffset = buffer.getInt(16);
+        mPostingsOffset = buffer.getInt(20);
+    }
+
+    /**
+     * Opens an index file.
+     * @param file file written by FilenameIndexBuilder.
+     * @return index backed by the mapped file.
+     * @throws IOException if the file can not be read or is not an index.
+     */
+    public static FilenameIndex open(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            // The mapping stays valid after the channel is closed.
+            return new FilenameIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     *
+     * @return number of entries, including the root directory.
+     */
+    public int getEntryCount() {
+        return mEntryCount;
+    }
+
+    int getParent(int id) {
+        return mBuffer.getInt(entryOffset(id));
+    }
+
+    long getLastModified(int id) {
+        return mBuffer.getLong(entryOffset(id) + 4);
+    }
+
+    boolean isDirectory(int id) {
+        return (mBuffer.get(entryOffset(id) + 12) & FLAG_DIRECTORY) != 0;
+    }
+
+    String getName(int id) {
+        int offset = entryOffset(id) + 13;
+        int length = mBuffer.getShort(offset) & 0xFFFF;
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = mBuffer.get(offset + 2 + i);
+        }
+        try {
+            return new String(bytes, CHARSET);
+        } catch (UnsupportedEncodingException uee) {
+            throw new AssertionError(uee);
+        }
+    }
+
+    /**
+     * Builds the path of an entry from the names of its parents.
+     * @param id id of the entry.
+     * @return path of the entry.
+     */
+    public File getPath(int id) {
+        if (id == 0) {
+            return new File(getName(0));
+        }
+        return new File(getPath(getParent(id)), getName(id));
+    }
+
+    /**
+     * Gets the root directory of the index.
+     * @return directory that was indexed.
+     */
+    public File getRoot() {
+        return getPath(0);
+    }
+
+    private int entryOffset(int id) {
+        return mBuffer.getInt(HEADER_SIZE + id * 4);
+    }
+
+    /**
+     * Finds the entries whose name contains every term of the query,
+     * ignoring the case. The terms are separated by white spaces.
+     * @param query terms to look for.
+     * @param maxResults maximum number of results.
+     * @return paths of the entries that match.
+     */
+    public List<File> query(String query, int maxResults) {
+        String[] terms = query.trim().toLowerCase().split("\\s+");
+        List<File> results = new ArrayList<File>();
+        if (terms.length == 0 || terms[0].length() == 0) {
+            return results;
+        }
+
+        int[] candidates = null;
+        for (String term : terms) {
+            for (int i = 0; i + 3 <= term.length(); i++) {
+                int[] postings = getPostings(trigram(term.charAt(i), term.charAt(i + 1),
+                        term.charAt(i + 2)));
+                candidates = candidates == null ? postings : intersect(candidates, postings);
+                if (candidates.length == 0) {
+                    return results;
+                }
+            }
+        }
+
+        // Entry 0 is the root, it is never a result.
+        int count = candidates == null ? mEntryCount : candidates.length;
+        for (int i = 0; i < count && results.size() < maxResults; i++) {
+            int id = candidates == null ? i : candidates[i];
+            if (id == 0) {
+                continue;
+            }
+
+            String name = getName(id).toLowerCase();
+            boolean matches = true;
+            for (String term : terms) {
+                if (name.indexOf(term) < 0) {
+                    matches = false;
+                    break;
+                }
+            }
+            if (matches) {
+                results.add(getPath(id));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Gets the sorted ids of the entries that contain the trigram.
+     */
+    private int[] getPostings(int trigram) {
+        int low = 0;
+        int high = mTrigramCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int record = mTrigramsOffset + middle * TRIGRAM_RECORD_SIZE;
+            int value = mBuffer.getInt(record);
+            if (value < trigram) {
+                low = middle + 1;
+            } else if (value > trigram) {
+                high = middle - 1;
+            } else {
+                int first = mBuffer.getInt(record + 4);
+                int count = mBuffer.getInt(record + 8);
+                int[] postings = new int[count];
+                for (int i = 0; i < count; i++) {
+                    postings[i] = mBuffer.getInt(mPostingsOffset + (first + i) * 4);
+                }
+                return postings;
+            }
+        }
+        return new int[0];
+    }
+
+    private static int[] intersect(int[] left, int[] right) {
+        int[] result = new int[Math.min(left.length, right.length)];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < left.length && j < right.length) {
+            if (left[i] < right[j]) {
+                i++;
+            } else if (left[i] > right[j]) {
+                j++;
+            } else {
+                result[count++] = left[i];
+                i++;
+                j++;
+            }
+        }
+
+        int[] trimmed = new int[count];
+        System.arraycopy(result, 0, trimmed, 0, count);
+        return trimmed;
+    }
+
+    /**
+     * Packs three lower case characters in an int. The characters below
+     * 1024 are stored as they are, the rest of the trigrams are hashed
+     * and may collide, the names are always checked after the lookup.
+     */
+    static int trigram(char a, char b, char c) {
+        if (a < 1024 && b < 1024 && c < 1024) {
+            return (a << 20) | (b << 10) | c;
+        }
+        int hash = (a * 31 + b) * 31 + c;
+        return (1 << 30) | (hash & ((1 << 30) - 1));
+    }
+}
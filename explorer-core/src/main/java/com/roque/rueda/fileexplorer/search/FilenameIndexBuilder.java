@@ -0,0 +1,318 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.search;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Walks a directory tree and writes a FilenameIndex of it.
+ *
+ * When a previous index is given the directories whose last modified
+ * time did not change are not listed again, their entries are copied
+ * from the previous index. Only the directories themselves are checked,
+ * so updating the index of a tree that did not change costs one stat
+ * per directory.
+ *
+ * Created by Roque on 24/11/13.
+ */
+public class FilenameIndexBuilder {
+
+    private final File mRoot;
+    private final FilenameIndex mPrevious;
+    private volatile boolean mCancelled;
+
+    private int mCount;
+    private int[] mParents = new int[1024];
+    private long[] mModified = new long[1024];
+    private byte[] mFlags = new byte[1024];
+    private String[] mNames = new String[1024];
+
+    // Children of each entry of the previous index, as linked lists.
+    private int[] mFirstChild;
+    private int[] mNextSibling;
+
+    private int mListedDirs;
+    private int mReusedDirs;
+
+    /**
+     * Creates a builder.
+     * @param root directory that is going to be indexed.
+     * @param previous index of the same directory used to skip the
+     *                 directories that did not change, may be null.
+     */
+    public FilenameIndexBuilder(File root, FilenameIndex previous) {
+        mRoot = root.getAbsoluteFile();
+        mPrevious = previous != null && previous.getRoot().equals(mRoot) ? previous : null;
+    }
+
+    /**
+     * Stops the walk, build returns false as soon as possible.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    /**
+     *
+     * @return number of directories that were listed by the last build.
+     */
+    public int getListedDirectories() {
+        return mListedDirs;
+    }
+
+    /**
+     *
+     * @return number of directories copied from the previous index.
+     */
+    public int getReusedDirectories() {
+        return mReusedDirs;
+    }
+
+    /**
+     * Walks the tree and writes the index.
+     * @param file file where the index is written.
+     * @return false if the build was cancelled.
+     * @throws IOException if the index can not be written.
+     */
+    public boolean build(File file) throws IOException {
+        if (mPrevious != null) {
+            linkPreviousChildren();
+        }
+
+        walk(mRoot, mRoot.getPath(), -1, mPrevious != null ? 0 : -1);
+        if (mCancelled) {
+            return false;
+        }
+
+        write(file);
+        return true;
+    }
+
+    private void linkPreviousChildren() {
+        int count = mPrevious.getEntryCount();
+        mFirstChild = new int[count];
+        mNextSibling = new int[count];
+        Arrays.fill(mFirstChild, -1);
+        Arrays.fill(mNextSibling, -1);
+        // Backwards so the lists keep the order of the index.
+        for (int id = count - 1; id > 0; id--) {
+            int parent = mPrevious.getParent(id);
+            mNextSibling[id] = mFirstChild[parent];
+            mFirstChild[parent] = id;
+        }
+    }
+
+    /**
+     * Adds a directory and its children.
+     * @param dir directory to add.
+     * @param name name stored for the directory.
+     * @param parent id of the parent in the new index.
+     * @param previousId id of the directory in the previous index or -1.
+     */
+    private void walk(File dir, String name, int parent, int previousId) {
+        if (mCancelled) {
+            return;
+        }
+
+        long lastModified = dir.lastModified();
+        int id = add(parent, name, lastModified, FilenameIndex.FLAG_DIRECTORY);
+
+        if (previousId >= 0 && mPrevious.getLastModified(previousId) == lastModified) {
+            mReusedDirs++;
+            for (int child = mFirstChild[previousId]; child >= 0; child = mNextSibling[child]) {
+                String childName = mPrevious.getName(child);
+                if (mPrevious.isDirectory(child)) {
+                    walk(new File(dir, childName), childName, id, child);
+                } else {
+                    add(id, childName, 0, 0);
+                }
+            }
+            return;
+        }
+
+        mListedDirs++;
+        String[] names = dir.list();
+        if (names == null) {
+            return;
+        }
+
+        Map<String, Integer> previousDirs = null;
+        if (previousId >= 0) {
+            previousDirs = new HashMap<String, Integer>();
+            for (int child = mFirstChild[previousId]; child >= 0; child = mNextSibling[child]) {
+                if (mPrevious.isDirectory(child)) {
+                    previousDirs.put(mPrevious.getName(child), child);
+                }
+            }
+        }
+
+        for (String childName : names) {
+            File child = new File(dir, childName);
+            if (child.isDirectory() && !isSymlink(child)) {
+                Integer previousChild = previousDirs != null ? previousDirs.get(childName) : null;
+                walk(child, childName, id, previousChild != null ? previousChild : -1);
+            } else {
+                add(id, childName, 0, 0);
+            }
+        }
+    }
+
+    private static boolean isSymlink(File file) {
+        try {
+            return FileUtils.isSymlink(file);
+        } catch (IOException ioe) {
+            return true;
+        }
+    }
+
+    private int add(int parent, String name, long lastModified, int flags) {
+        if (mCount == mParents.length) {
+            int capacity = mCount * 2;
+            mParents = grow(mParents, capacity);
+            mModified = grow(mModified, capacity);
+            mFlags = grow(mFlags, capacity);
+            String[] names = new String[capacity];
+            System.arraycopy(mNames, 0, names, 0, mCount);
+            mNames = names;
+        }
+        mParents[mCount] = parent;
+        mModified[mCount] = lastModified;
+        mFlags[mCount] = (byte) flags;
+        mNames[mCount] = name;
+        return mCount++;
+    }
+
+    private void write(File file) throws IOException {
+        byte[][] names = new byte[mCount][];
+        for (int i = 0; i < mCount; i++) {
+            names[i] = encode(mNames[i]);
+        }
+
+        // Each pair is the trigram in the high bits and the entry id in
+        // the low bits, sorting them groups the postings of a trigram.
+        long[] pairs = new long[Math.max(16, mCount * 8)];
+        int pairCount = 0;
+        for (int id = 1; id < mCount; id++) {
+            String name = mNames[id].toLowerCase();
+            for (int i = 0; i + 3 <= name.length(); i++) {
+                if (pairCount == pairs.length) {
+                    pairs = grow(pairs, pairCount * 2);
+                }
+                int trigram = FilenameIndex.trigram(name.charAt(i), name.charAt(i + 1),
+                        name.charAt(i + 2));
+                pairs[pairCount++] = ((long) trigram << 32) | id;
+            }
+        }
+        Arrays.sort(pairs, 0, pairCount);
+
+        // Drops the repeated trigrams of the same name.
+        int unique = 0;
+        int trigramCount = 0;
+        for (int i = 0; i < pairCount; i++) {
+            if (unique > 0 && pairs[unique - 1] == pairs[i]) {
+                continue;
+            }
+            if (unique == 0 || (pairs[unique - 1] >>> 32) != (pairs[i] >>> 32)) {
+                trigramCount++;
+            }
+            pairs[unique++] = pairs[i];
+        }
+
+        int offset = FilenameIndex.HEADER_SIZE + mCount * 4;
+        int[] entryOffsets = new int[mCount];
+        for (int i = 0; i < mCount; i++) {
+            entryOffsets[i] = offset;
+            offset += 4 + 8 + 1 + 2 + names[i].length;
+        }
+        int trigramsOffset = offset;
+        int postingsOffset = trigramsOffset + trigramCount * FilenameIndex.TRIGRAM_RECORD_SIZE;
+
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+        try {
+            out.writeInt(FilenameIndex.MAGIC);
+            out.writeInt(FilenameIndex.VERSION);
+            out.writeInt(mCount);
+            out.writeInt(trigramCount);
+            out.writeInt(trigramsOffset);
+            out.writeInt(postingsOffset);
+
+            for (int entryOffset : entryOffsets) {
+                out.writeInt(entryOffset);
+            }
+            for (int i = 0; i < mCount; i++) {
+                out.writeInt(mParents[i]);
+                out.writeLong(mModified[i]);
+                out.writeByte(mFlags[i]);
+                out.writeShort(names[i].length);
+                out.write(names[i]);
+            }
+
+            int start = 0;
+            while (start < unique) {
+                int end = start + 1;
+                while (end < unique && (pairs[end] >>> 32) == (pairs[start] >>> 32)) {
+                    end++;
+                }
+                out.writeInt((int) (pairs[start] >>> 32));
+                out.writeInt(start);
+                out.writeInt(end - start);
+                start = end;
+            }
+            for (int i = 0; i < unique; i++) {
+                out.writeInt((int) pairs[i]);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static byte[] encode(String name) {
+        try {
+            return name.getBytes(FilenameIndex.CHARSET);
+        } catch (UnsupportedEncodingException uee) {
+            throw new AssertionError(uee);
+        }
+    }
+
+    private int[] grow(int[] array, int capacity) {
+        int[] grown = new int[capacity];
+        System.arraycopy(array, 0, grown, 0, mCount);
+        return grown;
+    }
+
+    private long[] grow(long[] array, int capacity) {
+        long[] grown = new long[capacity];
+        System.arraycopy(array, 0, grown, 0, Math.min(array.length, capacity));
+        return grown;
+    }
+
+    private byte[] grow(byte[] array, int capacity) {
+        byte[] grown = new byte[capacity];
+        System.arraycopy(array, 0, grown, 0, mCount);
+        return grown;
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.storage;
+
+import com.roque.rueda.fileexplorer.utils.FileTypes;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts the bytes used under a directory by folder and by category of
+ * file, with one task per folder so the subtrees are read in parallel
+ * by the threads of the executor. The tree of UsageNodes can be read
+ * while the analysis is in progress. Symbolic links are not followed.
+ *
+ * The tree of a previous analysis of the same directory can be given:
+ * a folder whose last modified time did not change has the same entries,
+ * so its files are not read again and only its subfolders are checked.
+ * A file that changed size without being replaced is not seen until its
+ * folder changes.
+ *
+ * Created by Roque on 05/12/13.
+ */
+public class StorageAnalyzer {
+
+    private final File mRoot;
+    private final Executor mExecutor;
+    private final UsageNode mRootNode;
+    private final UsageNode mPrevious;
+    private final AtomicInteger mPending = new AtomicInteger();
+    private final AtomicInteger mFolders = new AtomicInteger();
+    private final AtomicInteger mReusedFolders = new AtomicInteger();
+    private volatile boolean mCancelled;
+
+    /**
+     * Creates an analysis, it does not start until start is called.
+     * @param root directory that is going to be analyzed.
+     * @param executor executor of the tasks.
+     * @param previous root node of a previous analysis of the same
+     *                 directory, may be null.
+     */
+    public StorageAnalyzer(File root, Executor executor, UsageNode previous) {
+        mRoot = root;
+        mExecutor = executor;
+        mRootNode = new UsageNode(root.getAbsolutePath(), null);
+        mPrevious = previous != null && previous.getName().equals(mRootNode.getName())
+                ? previous : null;
+    }
+
+    /**
+     * Starts the analysis.
+     */
+    public void start() {
+        submit(mRootNode, mRoot, mPrevious);
+    }
+
+    /**
+     *
+     * @return root of the tree, it grows while the analysis runs.
+     */
+    public UsageNode getRoot() {
+        return mRootNode;
+    }
+
+    /**
+     *
+     * @return number of folders counted so far.
+     */
+    public int getFolderCount() {
+        return mFolders.get();
+    }
+
+    /**
+     *
+     * @return number of folders taken from the previous analysis.
+     */
+    public int getReusedFolderCount() {
+        return mReusedFolders.get();
+    }
+
+    /**
+     *
+     * @return true if all the folders were counted.
+     */
+    public boolean isFinished() {
+        return mPending.get() == 0;
+    }
+
+    /**
+     * Stops the analysis, the tree keeps the folders counted so far.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    /**
+     *
+     * @return true if the analysis was cancelled.
+     */
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    private void submit(final UsageNode node, final File dir, final UsageNode previous) {
+        mPending.incrementAndGet();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    count(node, dir, previous);
+                } finally {
+                    mPending.decrementAndGet();
+                }
+            }
+        });
+    }
+
+    /**
+     * Counts the files of a folder and submits a new task for each of
+     * its subfolders.
+     * @param node node of the folder.
+     * @param dir folder that is going to be counted.
+     * @param previous node of the folder in the previous analysis, may be null.
+     */
+    private void count(UsageNode node, File dir, UsageNode previous) {
+        if (mCancelled) {
+            return;
+        }
+
+        long lastModified = dir.lastModified();
+        if (previous != null && previous.isCounted() && lastModified != 0
+                && previous.getLastModified() == lastModified) {
+            reuse(node, dir, previous);
+            return;
+        }
+
+        String[] names = dir.list();
+        if (names == null) {
+            return;
+        }
+
+        // The folder is not a link, so an entry is a link when its
+        // canonical path is not the folder path plus its name.
+        String canonicalDir;
+        try {
+            canonicalDir = dir.getCanonicalPath();
+        } catch (IOException ioe) {
+            return;
+        }
+        String prefix = canonicalDir.endsWith(File.separator)
+                ? canonicalDir : canonicalDir + File.separator;
+
+        Map<String, UsageNode> previousChildren = getChildrenByName(previous);
+        long[] bytes = new long[UsageNode.CATEGORY_COUNT];
+        int files = 0;
+        for (String name : names) {
+            if (mCancelled) {
+                return;
+            }
+
+            File file = new File(dir, name);
+            boolean isFile = file.isFile();
+            if (!isFile && !file.isDirectory() || isLink(file, prefix + name)) {
+                continue;
+            }
+            if (isFile) {
+                bytes[UsageNode.getCategory(FileTypes.getTypeFromName(name))] += file.length();
+                files++;
+            } else {
+                submit(node.addChild(name), file,
+                        previousChildren != null ? previousChildren.get(name) : null);
+            }
+        }
+        node.setOwnFiles(lastModified, bytes, files);
+        mFolders.incrementAndGet();
+    }
+
+    /**
+     * Takes the files of a folder that did not change from the previous
+     * analysis, its subfolders are still checked.
+     */
+    private void reuse(UsageNode node, File dir, UsageNode previous) {
+        for (UsageNode child : previous.getChildren()) {
+            submit(node.addChild(child.getName()), new File(dir, child.getName()), child);
+        }
+        node.setOwnFiles(previous.getLastModified(), previous.getOwnBytes(),
+                previous.getOwnFiles());
+        mFolders.incrementAndGet();
+        mReusedFolders.incrementAndGet();
+    }
+
+    private static Map<String, UsageNode> getChildrenByName(UsageNode node) {
+        if (node == null) {
+            return null;
+        }
+        List<UsageNode> children = node.getChildren();
+        Map<String, UsageNode> byName = new HashMap<String, UsageNode>(children.size() * 2);
+        for (UsageNode child : children) {
+            byName.put(child.getName(), child);
+        }
+        return byName;
+    }
+
+    /**
+     * Indicates if an entry is a symbolic link, the links to files are
+     * not counted because the file is counted in its own folder.
+     * @param file entry of a folder.
+     * @param path path of the entry inside the canonical folder.
+     */
+    private static boolean isLink(File file, String path) {
+        try {
+            return !file.getCanonicalPath().equals(path);
+        } catch (IOException ioe) {
+            // A path that can not be resolved is not followed.
+            return true;
+        }
+    }
+}
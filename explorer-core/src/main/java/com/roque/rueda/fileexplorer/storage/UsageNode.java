@@ -0,0 +1,228 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.storage;
+
+import com.roque.rueda.fileexplorer.utils.FileTypes;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bytes used by a folder and by everything under it, split by the
+ * category of the files. The nodes are built by a StorageAnalyzer and
+ * can be read while the analysis is in progress, the totals grow as the
+ * subfolders are counted.
+ *
+ * Created by Roque on 05/12/13.
+ */
+public class UsageNode {
+
+    public static final int CATEGORY_AUDIO = 0;
+    public static final int CATEGORY_VIDEO = 1;
+    public static final int CATEGORY_IMAGE = 2;
+    public static final int CATEGORY_ARCHIVE = 3;
+    public static final int CATEGORY_APK = 4;
+    public static final int CATEGORY_OTHER = 5;
+
+    /**
+     * Number of categories.
+     */
+    public static final int CATEGORY_COUNT = 6;
+
+    private final String mName;
+    private final UsageNode mParent;
+    private final List<UsageNode> mChildren = new ArrayList<UsageNode>();
+
+    /**
+     * Values of the files directly inside the folder, set once when the
+     * folder is read.
+     */
+    private long mLastModified;
+    private long[] mOwnBytes;
+    private int mOwnFiles;
+
+    /**
+     * Values of the whole subtree, including the own files.
+     */
+    private final long[] mBytes = new long[CATEGORY_COUNT];
+    private long mTotalBytes;
+    private int mFiles;
+
+    UsageNode(String name, UsageNode parent) {
+        mName = name;
+        mParent = parent;
+    }
+
+    /**
+     * Gets the category of a file type.
+     * @param type one of the FileTypes.TYPE_ constants.
+     * @return one of the CATEGORY_ constants.
+     */
+    public static int getCategory(int type) {
+        switch (type) {
+            case FileTypes.TYPE_AUDIO:
+                return CATEGORY_AUDIO;
+            case FileTypes.TYPE_VIDEO:
+                return CATEGORY_VIDEO;
+            case FileTypes.TYPE_IMAGE:
+                return CATEGORY_IMAGE;
+            case FileTypes.TYPE_ZIP:
+                return CATEGORY_ARCHIVE;
+            case FileTypes.TYPE_APK:
+                return CATEGORY_APK;
+            default:
+                return CATEGORY_OTHER;
+        }
+    }
+
+    /**
+     *
+     * @return name of the folder, the path for the root node.
+     */
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     *
+     * @return node of the parent folder, null for the root node.
+     */
+    public UsageNode getParent() {
+        return mParent;
+    }
+
+    /**
+     *
+     * @return path of the folder.
+     */
+    public File getPath() {
+        return mParent == null ? new File(mName) : new File(mParent.getPath(), mName);
+    }
+
+    /**
+     * Gets the subfolders found so far, the ones that use more bytes first.
+     * @return copy of the children.
+     */
+    public List<UsageNode> getChildrenBySize() {
+        List<UsageNode> children;
+        synchronized (this) {
+            children = new ArrayList<UsageNode>(mChildren);
+        }
+
+        final long[] bytes = new long[children.size()];
+        final Map<UsageNode, Integer> index = new HashMap<UsageNode, Integer>();
+        for (int i = 0; i < bytes.length; i++) {
+            // Read once, the totals may grow while sorting.
+            bytes[i] = children.get(i).getBytes();
+            index.put(children.get(i), i);
+        }
+        Collections.sort(children, new Comparator<UsageNode>() {
+            @Override
+            public int compare(UsageNode lhs, UsageNode rhs) {
+                long left = bytes[index.get(lhs)];
+                long right = bytes[index.get(rhs)];
+                return left > right ? -1 : (left == right ? 0 : 1);
+            }
+        });
+        return children;
+    }
+
+    /**
+     *
+     * @return bytes of all the files under the folder.
+     */
+    public synchronized long getBytes() {
+        return mTotalBytes;
+    }
+
+    /**
+     * Gets the bytes of a category of files under the folder.
+     * @param category one of the CATEGORY_ constants.
+     * @return bytes of the files of the category.
+     */
+    public synchronized long getBytes(int category) {
+        return mBytes[category];
+    }
+
+    /**
+     *
+     * @return number of files under the folder.
+     */
+    public synchronized int getFileCount() {
+        return mFiles;
+    }
+
+    /**
+     *
+     * @return true once the files directly inside the folder were counted.
+     */
+    public synchronized boolean isCounted() {
+        return mOwnBytes != null;
+    }
+
+    synchronized long getLastModified() {
+        return mLastModified;
+    }
+
+    synchronized long[] getOwnBytes() {
+        return mOwnBytes;
+    }
+
+    synchronized int getOwnFiles() {
+        return mOwnFiles;
+    }
+
+    synchronized List<UsageNode> getChildren() {
+        return new ArrayList<UsageNode>(mChildren);
+    }
+
+    synchronized UsageNode addChild(String name) {
+        UsageNode child = new UsageNode(name, this);
+        mChildren.add(child);
+        return child;
+    }
+
+    /**
+     * Sets the values of the files directly inside the folder and adds
+     * them to this node and to every parent.
+     */
+    void setOwnFiles(long lastModified, long[] bytes, int files) {
+        synchronized (this) {
+            mLastModified = lastModified;
+            mOwnBytes = bytes;
+            mOwnFiles = files;
+        }
+
+        long total = 0;
+        for (long value : bytes) {
+            total += value;
+        }
+        for (UsageNode node = this; node != null; node = node.mParent) {
+            synchronized (node) {
+                for (int i = 0; i < CATEGORY_COUNT; i++) {
+                    node.mBytes[i] += bytes[i];
+                }
+                node.mTotalBytes += total;
+                node.mFiles += files;
+            }
+        }
+    }
+}
@@ -0,0 +1,550 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.utils;
+
+import com.roque.rueda.fileexplorer.model.FileItem;
+import com.roque.rueda.fileexplorer.model.FileItemTable;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Sorts the items of a directory, the directories are always placed
+ * before the files.
+ *
+ * The names are compared with collation keys only once per listing, to
+ * compute the rank of each name. The ranks are stored with the items and
+ * every sort after that compares ints and longs on an array of indexes,
+ * so changing the sort order does not compare strings at all.
+ *
+ * Created by Roque on 23/11/13.
+ */
+public class FileSorter {
+
+    /**
+     * Sort by name.
+     */
+    public static final int SORT_NAME = 0;
+
+    /**
+     * Sort by name, the numbers inside the names are compared by value.
+     */
+    public static final int SORT_NATURAL = 1;
+
+    /**
+     * Sort by size, the biggest first.
+     */
+    public static final int SORT_SIZE = 2;
+
+    /**
+     * Sort by last modified date, the newest first.
+     */
+    public static final int SORT_MODIFIED = 3;
+
+    /**
+     * Sort by icon type and then by name.
+     */
+    public static final int SORT_TYPE = 4;
+
+    /**
+     * Rank of an item whose rank was not computed yet.
+     */
+    public static final int NO_RANK = -1;
+
+    /**
+     * Width used to pad the numbers of a name for the natural sort.
+     */
+    private static final int NUMBER_WIDTH = 20;
+
+    /**
+     * Position of each item when the items are sorted by name and by
+     * natural name. The arrays are not changed once computed, so the
+     * ranks can be kept with a cached listing.
+     */
+    public static class Ranks {
+        public final int[] name;
+        public final int[] natural;
+
+        /**
+         * Locale of the collator that compared the names.
+         */
+        public final Locale locale;
+
+        Ranks(int[] name, int[] natural, Locale locale) {
+            this.name = name;
+            this.natural = natural;
+            this.locale = locale;
+        }
+
+        /**
+         *
+         * @return true if the names would be ranked the same way now,
+         * false if the locale changed since they were ranked.
+         */
+        public boolean isCurrent() {
+            return locale.equals(Locale.getDefault());
+        }
+    }
+
+    /**
+     * Values of the items that are compared.
+     */
+    private static class Keys {
+        boolean[] directories;
+        int[] ranks;
+        long[] values;
+        int[] types;
+    }
+
+    /**
+     * Creates the keys of the items for the lists that are too big to be
+     * ranked at once. It is not thread safe, each thread uses its own.
+     */
+    public static class KeyFactory {
+
+        private final Collator mCollator = newCollator();
+        private final int mMode;
+
+        /**
+         * Creates a factory of keys for a sort mode.
+         * @param mode one of the SORT_ constants.
+         */
+        public KeyFactory(int mode) {
+            mMode = mode;
+        }
+
+        /**
+         * Creates the key of an item, it collates the name of the item.
+         * @param item item that is going to be sorted.
+         * @return key of the item.
+         */
+        public ItemKey create(FileItem item) {
+            long value = 0;
+            if (mMode == SORT_SIZE) {
+                value = item.getSize();
+            } else if (mMode == SORT_MODIFIED) {
+                value = item.getLastModifiedTime();
+            }
+            int type = mMode == SORT_TYPE ? item.getType() : 0;
+            return new ItemKey(item.isDirectory(), value, type,
+                    mCollator.getCollationKey(rankName(item.getName(), mMode == SORT_NATURAL)));
+        }
+    }
+
+    /**
+     * Values of an item that are compared, the keys are in the same order
+     * as the items placed by the sorts.
+     */
+    public static class ItemKey implements Comparable<ItemKey> {
+
+        private final boolean mDirectory;
+        private final long mValue;
+        private final int mType;
+        private final CollationKey mName;
+
+        ItemKey(boolean directory, long value, int type, CollationKey name) {
+            mDirectory = directory;
+            mValue = value;
+            mType = type;
+            mName = name;
+        }
+
+        @Override
+        public int compareTo(ItemKey other) {
+            if (mDirectory != other.mDirectory) {
+                return mDirectory ? -1 : 1;
+            }
+            if (mValue != other.mValue) {
+                // The biggest or newest first.
+                return mValue > other.mValue ? -1 : 1;
+            }
+            if (mType != other.mType) {
+                return mType < other.mType ? -1 : 1;
+            }
+            return mName.compareTo(other.mName);
+        }
+    }
+
+    private FileSorter() {
+        // Nothing here
+    }
+
+    /**
+     * Computes the name ranks of the items, this is the expensive part of
+     * sorting and should be done on a worker thread.
+     * @param items items of a directory.
+     * @return ranks of the items, in the same order as the items.
+     */
+    public static Ranks computeRanks(List<FileItem> items) {
+        int count = items.size();
+        String[] names = new String[count];
+        for (int i = 0; i < count; i++) {
+            names[i] = items.get(i).getName();
+        }
+
+        Locale locale = Locale.getDefault();
+        Collator collator = newCollator(locale);
+        return new Ranks(computeRanks(collator, names, false),
+                computeRanks(collator, names, true), locale);
+    }
+
+    /**
+     * Sorts the rows of a table. The rows without rank, like the rows
+     * added after the ranks were computed, are ranked first.
+     * @param table table that is going to be sorted.
+     * @param mode one of the SORT_ constants.
+     */
+    public static void sort(FileItemTable table, int mode) {
+        rankMissing(table);
+
+        int count = table.size();
+        boolean natural = mode == SORT_NATURAL;
+        Keys keys = new Keys();
+        keys.directories = new boolean[count];
+        keys.ranks = new int[count];
+        for (int row = 0; row < count; row++) {
+            keys.directories[row] = table.isDirectory(row);
+            keys.ranks[row] = natural ? table.getNaturalRank(row) : table.getNameRank(row);
+        }
+
+        if (mode == SORT_SIZE || mode == SORT_MODIFIED) {
+            keys.values = new long[count];
+            for (int row = 0; row < count; row++) {
+                keys.values[row] = mode == SORT_SIZE
+                        ? table.getSize(row) : table.getLastModifiedTime(row);
+            }
+        } else if (mode == SORT_TYPE) {
+            keys.types = new int[count];
+            for (int row = 0; row < count; row++) {
+                keys.types[row] = table.getType(row);
+            }
+        }
+
+        table.reorder(sortOrder(keys, count));
+    }
+
+    /**
+     * Sorts a list of items.
+     * @param items items that are going to be sorted.
+     * @param ranks ranks of the items or null to compute them.
+     * @param mode one of the SORT_ constants.
+     */
+    public static void sort(List<FileItem> items, Ranks ranks, int mode) {
+        int count = items.size();
+        int[] order = sortOrder(items, ranks, mode);
+        List<FileItem> sorted = new ArrayList<FileItem>(count);
+        for (int index : order) {
+            sorted.add(items.get(index));
+        }
+        for (int i = 0; i < count; i++) {
+            items.set(i, sorted.get(i));
+        }
+    }
+
+    /**
+     * Computes the sorted order of a list of items without moving them.
+     * @param items items that are going to be sorted.
+     * @param ranks ranks of the items or null to compute them.
+     * @param mode one of the SORT_ constants.
+     * @return index in the list of the item at each sorted position.
+     */
+    public static int[] sortOrder(List<FileItem> items, Ranks ranks, int mode) {
+        int count = items.size();
+        boolean natural = mode == SORT_NATURAL;
+        Keys keys = new Keys();
+        keys.directories = new boolean[count];
+        if (ranks != null && ranks.name.length == count) {
+            keys.ranks = natural ? ranks.natural : ranks.name;
+        } else {
+            // Only the ranks of this mode are needed.
+            String[] names = new String[count];
+            for (int i = 0; i < count; i++) {
+                names[i] = items.get(i).getName();
+            }
+            keys.ranks = computeRanks(newCollator(), names, natural);
+        }
+        if (mode == SORT_SIZE || mode == SORT_MODIFIED) {
+            keys.values = new long[count];
+        } else if (mode == SORT_TYPE) {
+            keys.types = new int[count];
+        }
+
+        for (int i = 0; i < count; i++) {
+            FileItem item = items.get(i);
+            keys.directories[i] = item.isDirectory();
+            if (keys.values != null) {
+                keys.values[i] = mode == SORT_SIZE ? item.getSize() : item.getLastModifiedTime();
+            } else if (keys.types != null) {
+                keys.types[i] = item.getType();
+            }
+        }
+
+        return sortOrder(keys, count);
+    }
+
+    private static Collator newCollator() {
+        return newCollator(Locale.getDefault());
+    }
+
+    private static Collator newCollator(Locale locale) {
+        Collator collator = Collator.getInstance(locale);
+        collator.setStrength(Collator.SECONDARY);
+        return collator;
+    }
+
+    private static int[] computeRanks(Collator collator, String[] names, boolean natural) {
+        int count = names.length;
+        CollationKey[] collationKeys = new CollationKey[count];
+        for (int i = 0; i < count; i++) {
+            collationKeys[i] = collator.getCollationKey(natural ? padNumbers(names[i]) : names[i]);
+        }
+
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        final CollationKey[] keys = collationKeys;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                return keys[lhs].compareTo(keys[rhs]);
+            }
+        });
+
+        int[] ranks = new int[count];
+        for (int i = 0; i < count; i++) {
+            ranks[order[i]] = i;
+        }
+        return ranks;
+    }
+
+    /**
+     * Ranks the rows that were added after the ranks were computed, each
+     * row is placed with a binary search over the ranked names.
+     * @param table table with the rows.
+     */
+    private static void rankMissing(FileItemTable table) {
+        int count = table.size();
+        int missing = 0;
+        for (int row = 0; row < count; row++) {
+            if (table.getNameRank(row) == NO_RANK || table.getNaturalRank(row) == NO_RANK) {
+                missing++;
+            }
+        }
+        if (missing == 0) {
+            return;
+        }
+
+        Collator collator = newCollator();
+        if (missing > count / 4) {
+            // Cheaper to rank all the rows again.
+            String[] names = new String[count];
+            for (int row = 0; row < count; row++) {
+                names[row] = table.getName(row);
+            }
+            table.setRanks(computeRanks(collator, names, false), computeRanks(collator, names, true));
+            return;
+        }
+
+        for (int pass = 0; pass < 2; pass++) {
+            boolean natural = pass == 1;
+            // Rows with rank, by rank. Removed rows leave holes in the
+            // ranks, so the ranked rows are sorted and numbered again.
+            long[] rankedRows = new long[count];
+            int ranked = 0;
+            for (int row = 0; row < count; row++) {
+                int rank = natural ? table.getNaturalRank(row) : table.getNameRank(row);
+                if (rank != NO_RANK) {
+                    rankedRows[ranked++] = ((long) rank << 32) | row;
+                }
+            }
+            Arrays.sort(rankedRows, 0, ranked);
+            int[] rowByRank = new int[count];
+            for (int rank = 0; rank < ranked; rank++) {
+                int row = (int) rankedRows[rank];
+                rowByRank[rank] = row;
+                setRank(table, row, rank, natural);
+            }
+
+            for (int row = 0; row < count; row++) {
+                int rank = natural ? table.getNaturalRank(row) : table.getNameRank(row);
+                if (rank != NO_RANK) {
+                    continue;
+                }
+
+                String name = rankName(table.getName(row), natural);
+                int low = 0;
+                int high = ranked;
+                while (low < high) {
+                    int middle = (low + high) >>> 1;
+                    String other = rankName(table.getName(rowByRank[middle]), natural);
+                    if (collator.compare(other, name) <= 0) {
+                        low = middle + 1;
+                    } else {
+                        high = middle;
+                    }
+                }
+
+                // Makes room for the new rank.
+                for (int other = 0; other < count; other++) {
+                    int otherRank = natural ? table.getNaturalRank(other) : table.getNameRank(other);
+                    if (otherRank != NO_RANK && otherRank >= low) {
+                        setRank(table, other, otherRank + 1, natural);
+                    }
+                }
+                System.arraycopy(rowByRank, low, rowByRank, low + 1, ranked - low);
+                rowByRank[low] = row;
+                setRank(table, row, low, natural);
+                ranked++;
+            }
+        }
+    }
+
+    private static String rankName(String name, boolean natural) {
+        return natural ? padNumbers(name) : name;
+    }
+
+    private static void setRank(FileItemTable table, int row, int rank, boolean natural) {
+        if (natural) {
+            table.setNaturalRank(row, rank);
+        } else {
+            table.setNameRank(row, rank);
+        }
+    }
+
+    private static int[] sortOrder(Keys keys, int count) {
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        mergeSort(order, new int[count], 0, count, keys);
+        return order;
+    }
+
+    private static int compare(Keys keys, int a, int b) {
+        if (keys.directories[a] != keys.directories[b]) {
+            return keys.directories[a] ? -1 : 1;
+        }
+
+        if (keys.values != null) {
+            long left = keys.values[a];
+            long right = keys.values[b];
+            if (left != right) {
+                // The biggest or newest first.
+                return left > right ? -1 : 1;
+            }
+        } else if (keys.types != null) {
+            int left = keys.types[a];
+            int right = keys.types[b];
+            if (left != right) {
+                return left < right ? -1 : 1;
+            }
+        }
+
+        int left = keys.ranks[a];
+        int right = keys.ranks[b];
+        return left < right ? -1 : (left == right ? 0 : 1);
+    }
+
+    /**
+     * Stable merge sort of the indexes.
+     */
+    private static void mergeSort(int[] order, int[] buffer, int from, int to, Keys keys) {
+        int length = to - from;
+        if (length < 8) {
+            // Insertion sort for the small ranges.
+            for (int i = from + 1; i < to; i++) {
+                int value = order[i];
+                int j = i - 1;
+                while (j >= from && compare(keys, order[j], value) > 0) {
+                    order[j + 1] = order[j];
+                    j--;
+                }
+                order[j + 1] = value;
+            }
+            return;
+        }
+
+        int middle = (from + to) >>> 1;
+        mergeSort(order, buffer, from, middle, keys);
+        mergeSort(order, buffer, middle, to, keys);
+
+        if (compare(keys, order[middle - 1], order[middle]) <= 0) {
+            // Already in order.
+            return;
+        }
+
+        System.arraycopy(order, from, buffer, from, length);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < middle && compare(keys, buffer[left], buffer[right]) <= 0)) {
+                order[i] = buffer[left++];
+            } else {
+                order[i] = buffer[right++];
+            }
+        }
+    }
+
+    /**
+     * Pads the numbers of the name with zeros, so the collator compares
+     * them by value.
+     * @param name name of the item.
+     * @return name with the numbers padded.
+     */
+    static String padNumbers(String name) {
+        int length = name.length();
+        StringBuilder builder = null;
+        int i = 0;
+
+        while (i < length) {
+            char c = name.charAt(i);
+            if (c < '0' || c > '9') {
+                if (builder != null) {
+                    builder.append(c);
+                }
+                i++;
+                continue;
+            }
+
+            int start = i;
+            while (i < length && name.charAt(i) >= '0' && name.charAt(i) <= '9') {
+                i++;
+            }
+            // Leading zeros do not change the value.
+            int digitsStart = start;
+            while (digitsStart < i - 1 && name.charAt(digitsStart) == '0') {
+                digitsStart++;
+            }
+
+            if (builder == null) {
+                builder = new StringBuilder(length + NUMBER_WIDTH);
+                builder.append(name, 0, start);
+            }
+            for (int pad = i - digitsStart; pad < NUMBER_WIDTH; pad++) {
+                builder.append('0');
+            }
+            builder.append(name, digitsStart, i);
+        }
+
+        return builder == null ? name : builder.toString();
+    }
+}
@@ -0,0 +1,400 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.utils;
+
+import com.roque.rueda.fileexplorer.model.FileItem;
+import com.roque.rueda.fileexplorer.platform.JvmPlatform;
+import com.roque.rueda.fileexplorer.platform.MimeTypeResolver;
+import com.roque.rueda.fileexplorer.platform.StorageLocator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Classifies the files into the types that have an icon. The mime types
+ * of the extensions and the location of the sd card come from the
+ * platform, which is the JVM one until other is installed.
+ *
+ * Created by Roque on 02/12/13.
+ */
+public class FileTypes {
+
+    /**
+     * Type of an item that was not classified yet.
+     */
+    public static final int TYPE_UNKNOWN = 0;
+    public static final int TYPE_SYSTEM = 1;
+    public static final int TYPE_SD_CARD = 2;
+    public static final int TYPE_FOLDER = 3;
+    public static final int TYPE_APK = 4;
+    public static final int TYPE_ZIP = 5;
+    public static final int TYPE_AUDIO = 6;
+    public static final int TYPE_VIDEO = 7;
+    public static final int TYPE_IMAGE = 8;
+    public static final int TYPE_FILE = 9;
+
+    /**
+     * Number of types.
+     */
+    public static final int TYPE_COUNT = 10;
+
+    private static final String AUDIO_FILE = "audio/";
+    private static final String VIDEO_FILE = "video/";
+    private static final String IMAGE_FILE = "image/";
+    private static final String APK_FILE = ".apk";
+    private static final String ZIP_FILE = ".zip";
+    private static final String ROOT = "/";
+
+    /**
+     * Characters that Uri.fromFile leaves as they are and that make
+     * MimeTypeMap.getFileExtensionFromUrl reject the file name.
+     */
+    private static final String INVALID_NAME_CHARS = "!~'*";
+
+    private static volatile MimeTypeResolver sMimeTypes;
+    private static volatile StorageLocator sStorage;
+
+    static {
+        JvmPlatform platform = new JvmPlatform();
+        sMimeTypes = platform;
+        sStorage = platform;
+    }
+
+    /**
+     * Absolute and canonical paths of the sd card, read only once.
+     */
+    private static String[] sSdCardPaths;
+
+    /**
+     * Type of each extension, computed once per extension. It is read
+     * for every file by the walks, so the lookups do not lock.
+     */
+    private static final ConcurrentMap<String, Integer> sExtensionTypes =
+            new ConcurrentHashMap<String, Integer>();
+
+    /**
+     * Sets the platform used to classify the files, the values computed
+     * with the previous platform are forgotten.
+     * @param mimeTypes mime types of the extensions.
+     * @param storage locator of the sd card.
+     */
+    public static void install(MimeTypeResolver mimeTypes, StorageLocator storage) {
+        sMimeTypes = mimeTypes;
+        sStorage = storage;
+        sExtensionTypes.clear();
+        synchronized (FileTypes.class) {
+            sSdCardPaths = null;
+        }
+    }
+
+    /**
+     * Gets the extension of the file name the same way that
+     * MimeTypeMap.getFileExtensionFromUrl does for the Uri of the file.
+     * @param fileName name of the file.
+     * @return extension of the file or an empty string if there is none.
+     */
+    static String getExtension(String fileName) {
+        for (int i = 0; i < INVALID_NAME_CHARS.length(); i++) {
+            if (fileName.indexOf(INVALID_NAME_CHARS.charAt(i)) >= 0) {
+                return "";
+            }
+        }
+
+        int dotPos = fileName.lastIndexOf('.');
+        if (dotPos < 0) {
+            return "";
+        }
+        return fileName.substring(dotPos + 1);
+    }
+
+    /**
+     * Gets the type of a extension using his mime type, the result
+     * is stored so each extension is resolved only once.
+     * @param extension extension of the file.
+     * @return one of TYPE_AUDIO, TYPE_VIDEO, TYPE_IMAGE or TYPE_FILE.
+     */
+    static int getExtensionType(String extension) {
+        Integer cached = sExtensionTypes.get(extension);
+        if (cached != null) {
+            return cached;
+        }
+
+        int type = getMediaType(sMimeTypes.getMimeTypeFromExtension(extension));
+        sExtensionTypes.put(extension, type);
+        return type;
+    }
+
+    /**
+     * Gets the type of a mime type the way the icons were chosen from
+     * the extensions, only the media types have their own icon.
+     * @param mimeType mime type, may be null.
+     * @return one of TYPE_AUDIO, TYPE_VIDEO, TYPE_IMAGE or TYPE_FILE.
+     */
+    static int getMediaType(String mimeType) {
+        if (mimeType == null) {
+            return TYPE_FILE;
+        }
+
+        mimeType = mimeType.toLowerCase();
+        if (mimeType.startsWith(AUDIO_FILE)) {
+            return TYPE_AUDIO;
+        } else if (mimeType.startsWith(VIDEO_FILE)) {
+            return TYPE_VIDEO;
+        } else if (mimeType.startsWith(IMAGE_FILE)) {
+            return TYPE_IMAGE;
+        }
+        return TYPE_FILE;
+    }
+
+    /**
+     * Gets the type of a mime type that was sniffed from the content,
+     * the archives and the packages are recognized too.
+     * @param mimeType mime type, may be null.
+     * @return one of TYPE_APK, TYPE_ZIP, TYPE_AUDIO, TYPE_VIDEO,
+     * TYPE_IMAGE or TYPE_FILE.
+     */
+    static int getMimeIconType(String mimeType) {
+        if (MimeSniffer.APK.equals(mimeType)) {
+            return TYPE_APK;
+        } else if (MimeSniffer.ZIP.equals(mimeType) || MimeSniffer.JAR.equals(mimeType)) {
+            return TYPE_ZIP;
+        }
+        return getMediaType(mimeType);
+    }
+
+    /**
+     * Gets the mime type of a file from its extension, or from its
+     * content when the extension is not known.
+     * @param file file that is going to be analyzed.
+     * @return mime type of the file or null if it is not known.
+     */
+    public static String getMimeType(File file) {
+        String extension = getExtension(file.getName()).toLowerCase();
+        String mimeType = sMimeTypes.getMimeTypeFromExtension(extension);
+        return mimeType != null ? mimeType : MimeSniffer.sniff(file);
+    }
+
+    /**
+     * Determines if a file is a Audio File using his mime type.
+     * @param file File that is going to be analyzed
+     * @return true if the file is consider as a Audio type.
+     */
+    static boolean isMusic(File file) {
+        return getExtensionType(getExtension(file.getName())) == TYPE_AUDIO;
+    }
+
+    /**
+     * Determines if a file is a Video File using his mime type.
+     * @param file File that is going to be analyzed
+     * @return true if the file is consider as a Video type.
+     */
+    static boolean isVideo(File file) {
+        return getExtensionType(getExtension(file.getName())) == TYPE_VIDEO;
+    }
+
+    /**
+     * Determines if a file is a Image File using his mime type.
+     * @param file File that is going to be analyzed
+     * @return true if the file is consider as a Image type.
+     */
+    static boolean isPicture(File file) {
+        return getExtensionType(getExtension(file.getName())) == TYPE_IMAGE;
+    }
+
+    /**
+     * Determines if a path of the file system is protected.
+     * @param path Path that is going to be analyzed.
+     * @return true if the path can not be read or write in.
+     */
+    public static boolean isProtected(File path) {
+        return (!path.canRead() && !path.canWrite());
+    }
+
+    /**
+     * Indicate if the path is a zip file, the content of the file is
+     * read so the name of the file does not matter.
+     * @param path Path that is going to be analyzed.
+     * @return true of the file is a zip file.
+     */
+    public static boolean isUnzippable(File path) {
+        return (path.isFile() && path.canRead() && MimeSniffer.isZip(path));
+    }
+
+    /**
+     * Determines if the dir is the root path or not.
+     * @param dir directory that is going to be analyzed.
+     * @return true if the directory is the root path.
+     */
+    public static boolean isRootFile(File dir) {
+        return dir.getAbsolutePath().equals(ROOT);
+    }
+
+    /**
+     * Determines if the directory is the sd card or not.
+     * @param file file that is going to be analyzed.
+     * @return true if the directory is the sd card.
+     */
+    public static boolean isSdCard(File file) {
+        String[] sdCardPaths = getSdCardPaths();
+        if (sdCardPaths.length == 0) {
+            return false;
+        }
+
+        // The paths of the sd card were resolved once, only the paths
+        // that are not one of them are resolved.
+        String path = file.getAbsolutePath();
+        for (String sdCardPath : sdCardPaths) {
+            if (path.equals(sdCardPath)) {
+                return true;
+            }
+        }
+        try {
+            return file.getCanonicalPath().equals(sdCardPaths[1]);
+        } catch (IOException ioe){
+            return false;
+        }
+    }
+
+    /**
+     * Determines if the item is the sd card or not, like isSdCard of its
+     * path, so a link to the sd card is the sd card too.
+     * @param item item that is going to be analyzed.
+     * @return true if the item is the sd card.
+     */
+    public static boolean isSdCard(FileItem item) {
+        return isSdCard(item.getPath());
+    }
+
+    private static synchronized String[] getSdCardPaths() {
+        if (sSdCardPaths == null) {
+            File sdCard = sStorage.getExternalStorageDirectory();
+            if (sdCard == null) {
+                sSdCardPaths = new String[0];
+                return sSdCardPaths;
+            }
+
+            String absolutePath = sdCard.getAbsolutePath();
+            String canonicalPath;
+            try {
+                canonicalPath = sdCard.getCanonicalPath();
+            } catch (IOException ioe) {
+                canonicalPath = absolutePath;
+            }
+            sSdCardPaths = new String[] { absolutePath, canonicalPath };
+        }
+        return sSdCardPaths;
+    }
+
+    /**
+     * Gets the type of a regular file from its name only, the disk is
+     * not read.
+     * @param fileName name of the file.
+     * @return one of TYPE_APK, TYPE_ZIP, TYPE_AUDIO, TYPE_VIDEO,
+     * TYPE_IMAGE or TYPE_FILE.
+     */
+    public static int getTypeFromName(String fileName) {
+        return getFileType(fileName);
+    }
+
+    /**
+     * Gets the type of a regular file from his name.
+     * @param fileName name of the file.
+     * @return type of the file.
+     */
+    private static int getFileType(String fileName) {
+        if (fileName.endsWith(APK_FILE)) {
+            return TYPE_APK;
+        } else if (fileName.endsWith(ZIP_FILE)) {
+            return TYPE_ZIP;
+        } else {
+            return getExtensionType(getExtension(fileName));
+        }
+    }
+
+    /**
+     * Gets the type of a file reading his values from the disk.
+     * @param file file that is going to be analyzed.
+     * @return type of the file.
+     */
+    public static int getType(File file) {
+
+        // Is this a directory?
+        if (!file.isFile()) {
+            if (isProtected(file)) {
+                return TYPE_SYSTEM;
+            } else if (isSdCard(file)) {
+                return TYPE_SD_CARD;
+            } else {
+                return TYPE_FOLDER;
+            }
+        } else {
+            if (isProtected(file)) {
+                return TYPE_SYSTEM;
+            } else {
+                return getFileType(file.getName());
+            }
+        }
+    }
+
+    /**
+     * Gets the type of the item, the type is computed only the
+     * first time and stored in the item. Items that were not read
+     * from the file system are classified using the disk.
+     * @param item item that is going to be analyzed.
+     * @return type of the item.
+     */
+    public static int getType(FileItem item) {
+        int type = item.getType();
+        if (type != TYPE_UNKNOWN) {
+            return type;
+        }
+
+        if (!item.hasSnapshot()) {
+            type = getType(item.getPath());
+        } else if (!item.canRead() && !item.canWrite()) {
+            type = TYPE_SYSTEM;
+        } else if (!item.isFile()) {
+            type = isSdCard(item) ? TYPE_SD_CARD : TYPE_FOLDER;
+        } else {
+            type = getFileType(item.getName());
+        }
+
+        item.setType(type);
+        return type;
+    }
+
+    /**
+     * Gets the type of the item like getType, but a readable file
+     * whose extension has no known mime type is classified reading
+     * the start of its content. Reads the disk, so it is meant for the
+     * threads that list the files.
+     * @param item item that is going to be analyzed.
+     * @return type of the item.
+     */
+    public static int sniffType(FileItem item) {
+        int type = getType(item);
+        if (type != TYPE_FILE || !item.canRead()
+                || sMimeTypes.hasExtension(getExtension(item.getName()))) {
+            return type;
+        }
+
+        type = getMimeIconType(MimeSniffer.sniff(item.getPath()));
+        item.setType(type);
+        return type;
+    }
+}
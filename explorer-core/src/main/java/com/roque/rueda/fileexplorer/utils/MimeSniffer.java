@@ -0,0 +1,297 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Finds the mime type of a file from the magic number at the start of
+ * its content, so files without extension or with a wrong extension are
+ * classified by what they contain.
+ *
+ * At most the first 64 bytes of a file are read, into direct buffers
+ * that are reused. The signatures are kept in a trie, each byte of the
+ * header is compared once no matter how many signatures there are. The
+ * result is stored by path and last modified time.
+ *
+ * Created by Roque on 26/11/13.
+ */
+public class MimeSniffer {
+
+    public static final String ZIP = "application/zip";
+    public static final String APK = "application/vnd.android.package-archive";
+    public static final String JAR = "application/java-archive";
+
+    /**
+     * Number of bytes read from each file.
+     */
+    static final int HEADER_SIZE = 64;
+
+    /**
+     * Byte of a signature that matches any value.
+     */
+    private static final int ANY = -1;
+
+    /**
+     * Signatures in hex, "??" matches any byte, and their mime type.
+     */
+    private static final String[][] SIGNATURES = {
+            { "504B0304", ZIP },
+            { "504B0506", ZIP },
+            { "504B0708", ZIP },
+            { "89504E470D0A1A0A", "image/png" },
+            { "FFD8FF", "image/jpeg" },
+            { "474946383761", "image/gif" },
+            { "474946383961", "image/gif" },
+            { "424D", "image/bmp" },
+            { "52494646????????57454250", "image/webp" },
+            { "52494646????????57415645", "audio/x-wav" },
+            { "52494646????????41564920", "video/avi" },
+            { "????????66747970", "video/mp4" },
+            { "????????667479704D344120", "audio/mp4" },
+            { "????????66747970336770", "video/3gpp" },
+            { "494433", "audio/mpeg" },
+            { "FFFB", "audio/mpeg" },
+            { "FFF3", "audio/mpeg" },
+            { "FFF2", "audio/mpeg" },
+            { "4F676753", "audio/ogg" },
+            { "664C6143", "audio/flac" },
+            { "2321414D52", "audio/amr" },
+            { "4D546864", "audio/midi" },
+            { "1A45DFA3", "video/webm" },
+            { "3026B2758E66CF11", "video/x-ms-asf" },
+            { "000001BA", "video/mpeg" },
+            { "000001B3", "video/mpeg" },
+            { "25504446", "application/pdf" },
+            { "1F8B", "application/gzip" },
+            { "377ABCAF271C", "application/x-7z-compressed" },
+            { "526172211A07", "application/x-rar-compressed" },
+            { "7F454C46", "application/x-executable" },
+            { "6465780A", "application/x-dex" }
+    };
+
+    /**
+     * Node of the signature trie, the children are indexed by byte value
+     * and the wildcard child matches any byte.
+     */
+    private static class Node {
+        Node[] children;
+        Node any;
+        String mimeType;
+    }
+
+    private static final Node sRoot = new Node();
+
+    static {
+        for (String[] signature : SIGNATURES) {
+            add(parse(signature[0]), signature[1]);
+        }
+    }
+
+    private static final int MAX_CACHED = 1024;
+    private static final int MAX_POOLED_BUFFERS = 4;
+
+    /**
+     * Mime type by path and last modified time, the least recently used
+     * are dropped.
+     */
+    private static final Map<String, String> sCache =
+            new LinkedHashMap<String, String>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                    return size() > MAX_CACHED;
+                }
+            };
+
+    /**
+     * Value stored for the files that do not match any signature.
+     */
+    private static final String NO_MATCH = "";
+
+    private static final ByteBuffer[] sBuffers = new ByteBuffer[MAX_POOLED_BUFFERS];
+    private static int sBufferCount;
+
+    /**
+     * Gets the mime type of a file from its content.
+     * @param file file that is going to be read.
+     * @return mime type of the file or null if the file can not be read
+     * or its content is not recognized.
+     */
+    public static String sniff(File file) {
+        String key = file.getPath() + '@' + file.lastModified();
+        synchronized (sCache) {
+            String cached = sCache.get(key);
+            if (cached != null) {
+                return cached == NO_MATCH ? null : cached;
+            }
+        }
+
+        String mimeType = null;
+        ByteBuffer buffer = obtainBuffer();
+        try {
+            if (readHeader(file, buffer)) {
+                mimeType = match(buffer);
+            }
+        } catch (IOException ioe) {
+            // Not readable, the result is not cached.
+            return null;
+        } finally {
+            recycleBuffer(buffer);
+        }
+
+        // Archives that are also packages.
+        if (ZIP.equals(mimeType)) {
+            String name = file.getName().toLowerCase();
+            if (name.endsWith(".apk")) {
+                mimeType = APK;
+            } else if (name.endsWith(".jar")) {
+                mimeType = JAR;
+            }
+        }
+
+        synchronized (sCache) {
+            sCache.put(key, mimeType == null ? NO_MATCH : mimeType);
+        }
+        return mimeType;
+    }
+
+    /**
+     * Indicates if the content of the file is a zip archive, including
+     * the packages and the java archives.
+     * @param file file that is going to be read.
+     * @return true if the file is a zip archive.
+     */
+    public static boolean isZip(File file) {
+        String mimeType = sniff(file);
+        return ZIP.equals(mimeType) || APK.equals(mimeType) || JAR.equals(mimeType);
+    }
+
+    /**
+     * Reads the first bytes of a file, the buffer is left ready to be read.
+     * @return false if the file is empty.
+     */
+    private static boolean readHeader(File file, ByteBuffer buffer) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // Reads until the buffer is full or the file ends.
+            }
+        } finally {
+            in.close();
+        }
+        buffer.flip();
+        return buffer.hasRemaining();
+    }
+
+    /**
+     * Walks the trie with the bytes of the header, the longest signature
+     * that matches wins.
+     * @param header bytes at the start of the file.
+     * @return mime type or null if no signature matches.
+     */
+    static String match(ByteBuffer header) {
+        Match match = new Match();
+        match(sRoot, header, 0, match);
+        return match.mimeType;
+    }
+
+    /**
+     * Longest signature found while the trie is walked.
+     */
+    private static class Match {
+        String mimeType;
+        int length = -1;
+    }
+
+    private static void match(Node node, ByteBuffer header, int index, Match match) {
+        if (node.mimeType != null && index > match.length) {
+            match.mimeType = node.mimeType;
+            match.length = index;
+        }
+        if (index >= header.limit()) {
+            return;
+        }
+
+        if (node.children != null) {
+            Node child = node.children[header.get(index) & 0xFF];
+            if (child != null) {
+                match(child, header, index + 1, match);
+            }
+        }
+        if (node.any != null) {
+            match(node.any, header, index + 1, match);
+        }
+    }
+
+    private static void add(int[] signature, String mimeType) {
+        Node node = sRoot;
+        for (int value : signature) {
+            Node next;
+            if (value == ANY) {
+                if (node.any == null) {
+                    node.any = new Node();
+                }
+                next = node.any;
+            } else {
+                if (node.children == null) {
+                    node.children = new Node[256];
+                }
+                if (node.children[value] == null) {
+                    node.children[value] = new Node();
+                }
+                next = node.children[value];
+            }
+            node = next;
+        }
+        node.mimeType = mimeType;
+    }
+
+    private static int[] parse(String hex) {
+        int[] signature = new int[hex.length() / 2];
+        for (int i = 0; i < signature.length; i++) {
+            String value = hex.substring(i * 2, i * 2 + 2);
+            signature[i] = "??".equals(value) ? ANY : Integer.parseInt(value, 16);
+        }
+        return signature;
+    }
+
+    private static ByteBuffer obtainBuffer() {
+        synchronized (sBuffers) {
+            if (sBufferCount > 0) {
+                ByteBuffer buffer = sBuffers[--sBufferCount];
+                sBuffers[sBufferCount] = null;
+                buffer.clear();
+                return buffer;
+            }
+        }
+        return ByteBuffer.allocateDirect(HEADER_SIZE);
+    }
+
+    private static void recycleBuffer(ByteBuffer buffer) {
+        synchronized (sBuffers) {
+            if (sBufferCount < sBuffers.length) {
+                sBuffers[sBufferCount++] = buffer;
+            }
+        }
+    }
+}
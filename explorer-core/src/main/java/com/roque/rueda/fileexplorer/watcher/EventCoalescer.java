@@ -0,0 +1,192 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.watcher;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Groups the file system events of a directory, so a burst of events is
+ * delivered as a single batch and the batches are delivered at most once
+ * per interval.
+ *
+ * The first event after a batch opens a window, every event received
+ * during the window is added to the same batch and the batch is
+ * delivered when the window ends. Several events for the same name are
+ * reported once. This class does not depend on Android, the events and
+ * the timer are supplied by the caller.
+ *
+ * Created by Roque on 21/11/13.
+ */
+public class EventCoalescer {
+
+    /**
+     * Runs the delivery of a batch after a delay.
+     */
+    public interface Scheduler {
+
+        /**
+         * Runs the task once after the delay.
+         * @param task task that is going to be run.
+         * @param delayMillis delay in milliseconds.
+         */
+        void schedule(Runnable task, long delayMillis);
+    }
+
+    /**
+     * Receives the batches of events.
+     */
+    public interface Sink {
+
+        /**
+         * Called once per window with the names that had events.
+         * @param names names of the entries that changed, in the order
+         *              of their first event.
+         * @param overflow true if there were too many events or the
+         *                 directory itself changed, the whole directory
+         *                 should be read again.
+         */
+        void onEvents(Set<String> names, boolean overflow);
+    }
+
+    /**
+     * Default maximum number of names in a batch, after this the batch
+     * is reported as an overflow.
+     */
+    public static final int DEFAULT_MAX_NAMES = 512;
+
+    private final long mInterval;
+    private final int mMaxNames;
+    private final Scheduler mScheduler;
+    private final Sink mSink;
+
+    private Set<String> mNames = new LinkedHashSet<String>();
+    private boolean mOverflow;
+    private boolean mScheduled;
+    private boolean mClosed;
+
+    private final Runnable mFlushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * Creates a coalescer that uses the default maximum number of names.
+     * @param intervalMillis length of each window in milliseconds.
+     * @param scheduler scheduler that runs the delivery.
+     * @param sink sink that receives the batches.
+     */
+    public EventCoalescer(long intervalMillis, Scheduler scheduler, Sink sink) {
+        this(intervalMillis, DEFAULT_MAX_NAMES, scheduler, sink);
+    }
+
+    /**
+     * Creates a coalescer.
+     * @param intervalMillis length of each window in milliseconds.
+     * @param maxNames maximum number of names in a batch.
+     * @param scheduler scheduler that runs the delivery.
+     * @param sink sink that receives the batches.
+     */
+    public EventCoalescer(long intervalMillis, int maxNames, Scheduler scheduler, Sink sink) {
+        mInterval = intervalMillis;
+        mMaxNames = maxNames;
+        mScheduler = scheduler;
+        mSink = sink;
+    }
+
+    /**
+     * Adds the event of an entry. Can be called from any thread.
+     * @param name name of the entry inside the directory.
+     */
+    public void onEvent(String name) {
+        synchronized (this) {
+            if (mClosed) {
+                return;
+            }
+
+            if (!mOverflow) {
+                mNames.add(name);
+                if (mNames.size() > mMaxNames) {
+                    mOverflow = true;
+                    mNames.clear();
+                }
+            }
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Adds an event that requires reading the whole directory, like the
+     * directory being moved or the event queue overflowing. Can be called
+     * from any thread.
+     */
+    public void onOverflow() {
+        synchronized (this) {
+            if (mClosed) {
+                return;
+            }
+
+            mOverflow = true;
+            mNames.clear();
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Discards the pending events and stops delivering batches.
+     */
+    public void close() {
+        synchronized (this) {
+            mClosed = true;
+            mNames.clear();
+            mOverflow = false;
+        }
+    }
+
+    private void scheduleFlush() {
+        if (!mScheduled) {
+            mScheduled = true;
+            mScheduler.schedule(mFlushTask, mInterval);
+        }
+    }
+
+    /**
+     * Delivers the batch of the window that just ended.
+     */
+    void flush() {
+        Set<String> names;
+        boolean overflow;
+
+        synchronized (this) {
+            mScheduled = false;
+            if (mClosed || (mNames.isEmpty() && !mOverflow)) {
+                return;
+            }
+
+            names = mNames;
+            overflow = mOverflow;
+            mNames = new LinkedHashSet<String>();
+            mOverflow = false;
+        }
+
+        // The sink is called without the lock, so new events can be
+        // added to the next window meanwhile.
+        mSink.onEvents(Collections.unmodifiableSet(names), overflow);
+    }
+}
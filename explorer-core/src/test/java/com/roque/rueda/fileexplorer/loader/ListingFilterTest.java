@@ -0,0 +1,128 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.loader;
+
+import com.roque.rueda.fileexplorer.model.FileItem;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the terms of the queries typed by the user.
+ *
+ * Created by Roque on 07/12/13.
+ */
+public class ListingFilterTest {
+
+    private static final int FILE = FileItem.FLAG_FILE | FileItem.FLAG_READABLE
+            | FileItem.FLAG_WRITABLE;
+    private static final int DIRECTORY = FileItem.FLAG_DIRECTORY | FileItem.FLAG_READABLE
+            | FileItem.FLAG_WRITABLE;
+    private static final long DAY = 24 * 60 * 60 * 1000;
+
+    @Test
+    public void plainTermsMustAllMatch() {
+        ListingFilter filter = new ListingFilter.Builder().parseQuery("invoice 2023").build();
+
+        assertTrue(filter.accept(file("Invoice_2023_03.pdf")));
+        assertTrue(filter.accept(file("2023 invoice.txt")));
+        assertFalse(filter.accept(file("invoice_2022.pdf")));
+        assertFalse(filter.accept(file("report_2023.pdf")));
+    }
+
+    @Test
+    public void globsAndPlainTermsMustAllMatch() {
+        ListingFilter filter = new ListingFilter.Builder().parseQuery("*.jpg holiday").build();
+
+        assertTrue(filter.accept(file("holiday_01.JPG")));
+        assertFalse(filter.accept(file("holiday_01.png")));
+        assertFalse(filter.accept(file("IMG_0001.jpg")));
+    }
+
+    @Test
+    public void foldersAreNotFilteredByName() {
+        ListingFilter filter = new ListingFilter.Builder().parseQuery("invoice 2023").build();
+
+        assertTrue(filter.accept(new FileItem(new File("/sdcard/Documents"), 0, 0, DIRECTORY)));
+    }
+
+    @Test
+    public void otherTermsAreCombinedWithTheNames() {
+        ListingFilter filter = new ListingFilter.Builder().parseQuery("invoice >1k .pdf").build();
+
+        assertTrue(filter.accept(new FileItem(new File("/sdcard/invoice.pdf"), 2048, 0, FILE)));
+        assertFalse(filter.accept(new FileItem(new File("/sdcard/invoice.pdf"), 512, 0, FILE)));
+        assertFalse(filter.accept(new FileItem(new File("/sdcard/invoice.txt"), 2048, 0, FILE)));
+    }
+
+    @Test
+    public void setGlobReplacesTheTerms() {
+        ListingFilter filter = new ListingFilter.Builder().parseQuery("invoice 2023")
+                .setGlob("*.txt").build();
+
+        assertTrue(filter.accept(file("notes.txt")));
+        assertFalse(filter.accept(file("invoice_2023.pdf")));
+    }
+
+    @Test
+    public void keyHasEveryTerm() {
+        ListingFilter first = new ListingFilter.Builder().parseQuery("invoice 2023").build();
+        ListingFilter second = new ListingFilter.Builder().parseQuery("2023").build();
+
+        assertFalse(first.getKey().equals(second.getKey()));
+        assertEquals(first.getKey(),
+                new ListingFilter.Builder().parseQuery(" invoice   2023 ").build().getKey());
+        assertTrue(new ListingFilter.Builder().parseQuery("*").build().isAcceptAll());
+    }
+
+    @Test
+    public void keyOfAnAgeDoesNotDependOnTheTime() throws InterruptedException {
+        ListingFilter first = new ListingFilter.Builder().parseQuery("-7d").build();
+        Thread.sleep(5);
+        ListingFilter second = new ListingFilter.Builder().parseQuery("-7d").build();
+
+        assertEquals(first.getKey(), second.getKey());
+        assertFalse(first.getKey().equals(
+                new ListingFilter.Builder().parseQuery("-1d").build().getKey()));
+    }
+
+    @Test
+    public void expiredFilesAreDropped() {
+        long now = System.currentTimeMillis();
+        ListingFilter filter = new ListingFilter.Builder().setMaxAge(DAY).build();
+        FileItem recent = new FileItem(new File("/sdcard/recent.txt"), 100, now, FILE);
+        FileItem old = new FileItem(new File("/sdcard/old.txt"), 100, now - 2 * DAY, FILE);
+        FileItem folder = new FileItem(new File("/sdcard/Music"), 0, now - 2 * DAY, DIRECTORY);
+
+        assertTrue(filter.accept(recent));
+        assertFalse(filter.accept(old));
+        List<FileItem> fresh = Arrays.asList(recent, folder);
+        assertSame(fresh, filter.dropExpired(fresh));
+        assertEquals(fresh, filter.dropExpired(Arrays.asList(recent, old, folder)));
+    }
+
+    private static FileItem file(String name) {
+        return new FileItem(new File("/sdcard", name), 100, 0, FILE);
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.loader;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Checks the bytes counted by a walk of a temporary directory.
+ *
+ * Created by Roque on 07/12/13.
+ */
+public class SizeWalkTest {
+
+    /**
+     * Runs the tasks on the calling thread.
+     */
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable task) {
+            task.run();
+        }
+    };
+
+    private File mTemp;
+
+    @Before
+    public void setUp() throws IOException {
+        mTemp = File.createTempFile("walk", "").getCanonicalFile();
+        assertTrue(mTemp.delete() && mTemp.mkdir());
+        File dir = new File(mTemp, "photos");
+        assertTrue(dir.mkdir());
+        FileUtils.writeStringToFile(new File(mTemp, "notes.txt"), "1234567890");
+        FileUtils.writeStringToFile(new File(dir, "a.jpg"), "12345");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(mTemp);
+    }
+
+    @Test
+    public void countsTheFilesOfTheSubtree() {
+        SizeWalk walk = new SizeWalk(mTemp, DIRECT);
+        walk.start();
+
+        assertTrue(walk.isFinished());
+        assertEquals(15, walk.getBytes());
+    }
+
+    @Test
+    public void linksAreNotCounted() throws Exception {
+        assumeTrue(link("notes.txt", "notes-link.txt") && link("photos", "photos-link"));
+
+        SizeWalk walk = new SizeWalk(mTemp, DIRECT);
+        walk.start();
+
+        assertTrue(walk.isFinished());
+        assertEquals(15, walk.getBytes());
+    }
+
+    @Test
+    public void rejectedWalkFinishes() {
+        SizeWalk walk = new SizeWalk(mTemp, new Executor() {
+            @Override
+            public void execute(Runnable task) {
+                throw new RejectedExecutionException();
+            }
+        });
+        walk.start();
+
+        assertTrue(walk.isFinished());
+        assertTrue(walk.isCancelled());
+    }
+
+    private boolean link(String target, String name) throws Exception {
+        try {
+            Process process = Runtime.getRuntime().exec(new String[] {
+                    "ln", "-s", new File(mTemp, target).getPath(), new File(mTemp, name).getPath()});
+            return process.waitFor() == 0;
+        } catch (IOException ioe) {
+            // No ln on this system.
+            return false;
+        }
+    }
+}
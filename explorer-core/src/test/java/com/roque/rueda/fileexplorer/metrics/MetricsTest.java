@@ -0,0 +1,112 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.metrics;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Checks that the disabled metrics record nothing and allocate nothing,
+ * and that the enabled metrics record the values.
+ *
+ * Created by Roque on 07/12/13.
+ */
+public class MetricsTest {
+
+    private static final int CALLS = 1000000;
+
+    /**
+     * Allowed allocation for a million calls of each record method, far
+     * below one byte per call.
+     */
+    private static final long ALLOCATION_SLACK = 4096;
+
+    @After
+    public void tearDown() {
+        Metrics.setEnabled(false);
+        Metrics.reset();
+    }
+
+    @Test
+    public void disabledMetricsRecordNothing() {
+        Metrics.setEnabled(false);
+        Counter counter = Metrics.counter("test.disabled.counter");
+        Histogram histogram = Metrics.histogram("test.disabled.histogram");
+
+        assertEquals(0, Metrics.start());
+        recordAll(counter, histogram, 1000);
+
+        assertEquals(0, counter.get());
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getValueAtPercentile(99));
+    }
+
+    @Test
+    public void disabledMetricsAllocateNothing() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        Metrics.setEnabled(false);
+        Counter counter = Metrics.counter("test.allocation.counter");
+        Histogram histogram = Metrics.histogram("test.allocation.histogram");
+        long thread = Thread.currentThread().getId();
+
+        // Warm up so the measured calls are compiled.
+        recordAll(counter, histogram, CALLS);
+
+        long before = threads.getThreadAllocatedBytes(thread);
+        recordAll(counter, histogram, CALLS);
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        assertTrue("allocated " + allocated + " bytes", allocated < ALLOCATION_SLACK);
+        assertEquals(0, counter.get());
+        assertEquals(0, histogram.getCount());
+    }
+
+    @Test
+    public void enabledMetricsRecordValues() {
+        Metrics.setEnabled(true);
+        Counter counter = Metrics.counter("test.enabled.counter");
+        Histogram histogram = Metrics.histogram("test.enabled.histogram");
+
+        recordAll(counter, histogram, 10);
+
+        assertEquals(20, counter.get());
+        // record and recordSince, ten times each.
+        assertEquals(20, histogram.getCount());
+        assertTrue(Metrics.start() != 0);
+    }
+
+    private static void recordAll(Counter counter, Histogram histogram, int calls) {
+        for (int i = 0; i < calls; i++) {
+            counter.increment();
+            counter.add(1);
+            histogram.record(i);
+            histogram.recordSince(Metrics.start());
+        }
+    }
+}
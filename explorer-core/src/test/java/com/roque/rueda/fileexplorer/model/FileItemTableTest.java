@@ -0,0 +1,116 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.model;
+
+import com.roque.rueda.fileexplorer.utils.FileSorter;
+
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the names of the table keep their space bounded.
+ *
+ * Created by Roque on 07/12/13.
+ */
+public class FileItemTableTest {
+
+    private static final File DIR = new File("/sdcard/DCIM");
+    private static final int FLAGS = FileItem.FLAG_FILE | FileItem.FLAG_READABLE;
+
+    @Test
+    public void setReusesTheSlotOfALongerName() {
+        FileItemTable table = new FileItemTable(DIR);
+        table.add(item("IMG_0001.jpg"));
+        table.add(item("notes.txt"));
+        long usage = table.getMemoryUsage();
+
+        table.set(0, item("a.jpg"));
+
+        assertEquals("a.jpg", table.getName(0));
+        assertEquals("notes.txt", table.getName(1));
+        assertEquals("IMG_0001.jpg".length() - "a.jpg".length(),
+                table.getDeadNameBytes());
+        assertEquals(usage, table.getMemoryUsage());
+    }
+
+    @Test
+    public void renamesDoNotGrowTheNames() {
+        FileItemTable table = new FileItemTable(DIR);
+        for (int i = 0; i < 100; i++) {
+            table.add(item("file_" + i + ".txt"));
+        }
+        long usage = table.getMemoryUsage();
+
+        for (int round = 0; round < 10000; round++) {
+            int row = round % 100;
+            table.set(row, item("renamed_file_" + round + "_" + row + ".txt"));
+        }
+
+        for (int row = 0; row < 100; row++) {
+            assertEquals("renamed_file_" + (9900 + row) + "_" + row + ".txt",
+                    table.getName(row));
+        }
+        assertTrue(table.getMemoryUsage() <= usage * 2);
+    }
+
+    @Test
+    public void removedNamesAreCompacted() {
+        FileItemTable table = new FileItemTable(DIR);
+        for (int i = 0; i < 2000; i++) {
+            table.add(item("photo_" + i + ".jpg"));
+        }
+        for (int i = 0; i < 1990; i++) {
+            table.remove(0);
+        }
+
+        assertEquals(10, table.size());
+        for (int row = 0; row < 10; row++) {
+            assertEquals("photo_" + (1990 + row) + ".jpg", table.getName(row));
+        }
+        assertTrue(table.getDeadNameBytes() < 4096);
+    }
+
+    @Test
+    public void sortAfterRemoveAndInsert() {
+        FileItemTable table = new FileItemTable(DIR);
+        for (char c = 'a'; c <= 't'; c++) {
+            table.add(item("f" + c));
+        }
+        FileSorter.sort(table, FileSorter.SORT_NAME);
+
+        // Leaves holes in the ranks, like a delete seen by the watcher.
+        table.remove(2);
+        table.remove(5);
+        table.add(item("fzz"));
+        table.add(item("fbb"));
+        FileSorter.sort(table, FileSorter.SORT_NAME);
+
+        String[] expected = { "fa", "fb", "fbb", "fd", "fe", "ff", "fh", "fi", "fj", "fk",
+                "fl", "fm", "fn", "fo", "fp", "fq", "fr", "fs", "ft", "fzz" };
+        assertEquals(expected.length, table.size());
+        for (int row = 0; row < expected.length; row++) {
+            assertEquals(expected[row], table.getName(row));
+        }
+    }
+
+    private static FileItem item(String name) {
+        return new FileItem(new File(DIR, name), 1, 0, FLAGS);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.operations;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a copy only keeps the files of a previous run when the
+ * operation is resumed.
+ *
+ * Created by Roque on 07/12/13.
+ */
+public class OperationRunnerTest {
+
+    private File mTemp;
+    private File mSource;
+    private File mTarget;
+    private ExecutorService mExecutor;
+
+    @Before
+    public void setUp() throws IOException {
+        mTemp = File.createTempFile("runner", "").getCanonicalFile();
+        assertTrue(mTemp.delete() && mTemp.mkdir());
+        File destination = new File(mTemp, "destination");
+        assertTrue(destination.mkdir());
+
+        // Same size and time, different content.
+        mSource = new File(mTemp, "notes.txt");
+        mTarget = new File(destination, "notes.txt");
+        FileUtils.writeStringToFile(mSource, "new content");
+        FileUtils.writeStringToFile(mTarget, "old content");
+        assertTrue(mTarget.setLastModified(mSource.lastModified()));
+
+        mExecutor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mExecutor.shutdownNow();
+        FileUtils.deleteDirectory(mTemp);
+    }
+
+    @Test
+    public void copyOverwritesAFileOfTheSameSize() throws IOException {
+        assertEquals(0, run(FileOperation.TYPE_COPY, false));
+        assertEquals("new content", FileUtils.readFileToString(mTarget));
+    }
+
+    @Test
+    public void moveKeepsTheContentOfTheSource() throws IOException {
+        assertEquals(0, run(FileOperation.TYPE_MOVE, false));
+        assertFalse(mSource.exists());
+        assertEquals("new content", FileUtils.readFileToString(mTarget));
+    }
+
+    @Test
+    public void resumedCopyKeepsTheCopiedFiles() throws IOException {
+        assertEquals(0, run(FileOperation.TYPE_COPY, true));
+        assertEquals("old content", FileUtils.readFileToString(mTarget));
+    }
+
+    private int run(int type, boolean resumed) {
+        FileOperation operation = new FileOperation(1, type,
+                Collections.singletonList(mSource), mTarget.getParentFile());
+        return new OperationRunner(operation, mExecutor, 2, resumed).run();
+    }
+}
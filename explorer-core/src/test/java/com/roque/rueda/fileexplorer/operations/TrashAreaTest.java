@@ -0,0 +1,139 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.operations;
+
+import com.roque.rueda.fileexplorer.platform.JvmPlatform;
+import com.roque.rueda.fileexplorer.platform.StorageLocator;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Checks the trash of a fake sd card in a temporary directory.
+ *
+ * Created by Roque on 07/12/13.
+ */
+public class TrashAreaTest {
+
+    private File mTemp;
+    private File mSdCard;
+
+    @Before
+    public void setUp() throws IOException {
+        mTemp = File.createTempFile("trash", "").getCanonicalFile();
+        assertTrue(mTemp.delete() && mTemp.mkdir());
+        mSdCard = new File(mTemp, "sdcard");
+        assertTrue(mSdCard.mkdir());
+        TrashArea.install(new StorageLocator() {
+            @Override
+            public File getExternalStorageDirectory() {
+                return mSdCard;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TrashArea.install(new JvmPlatform());
+        FileUtils.deleteDirectory(mTemp);
+    }
+
+    @Test
+    public void trashIsAtTheRootOfTheSdCard() throws IOException {
+        File dir = new File(mSdCard, "DCIM/Camera");
+        assertTrue(dir.mkdirs());
+
+        TrashArea trash = TrashArea.forFile(new File(dir, "IMG_0001.jpg"));
+        assertNotNull(trash);
+        assertEquals(mSdCard, trash.getRoot());
+        assertEquals(mSdCard, TrashArea.forFile(mSdCard).getRoot());
+    }
+
+    @Test
+    public void filesOutsideTheSdCardHaveNoTrash() {
+        assertNull(TrashArea.forFile(mTemp));
+        assertNull(TrashArea.forFile(new File(mTemp, "sdcard2/file.txt")));
+    }
+
+    @Test
+    public void linkIntoTheSdCardFindsItsTrash() throws Exception {
+        File link = new File(mTemp, "link");
+        Process process = new ProcessBuilder("ln", "-s", mSdCard.getPath(), link.getPath())
+                .start();
+        assumeTrue(process.waitFor() == 0);
+
+        TrashArea trash = TrashArea.forFile(new File(link, "file.txt"));
+        assertNotNull(trash);
+        assertEquals(mSdCard, trash.getRoot());
+    }
+
+    @Test
+    public void movedFileCanBeRestored() throws IOException {
+        File file = new File(mSdCard, "Music/song.mp3");
+        FileUtils.writeStringToFile(file, "song");
+        TrashArea trash = TrashArea.forFile(file);
+
+        TrashEntry entry = trash.moveToTrash(file);
+        assertFalse(file.exists());
+        assertTrue(trash.contains(entry.getTrashedPath()));
+
+        List<TrashEntry> entries = trash.list();
+        assertEquals(1, entries.size());
+        assertEquals(file.getAbsoluteFile(), entries.get(0).getOriginalPath());
+
+        trash.restore(entries.get(0));
+        assertEquals("song", FileUtils.readFileToString(file));
+        assertTrue(trash.list().isEmpty());
+    }
+
+    @Test
+    public void listChangesNothingAndCleanDeletesTheLeftOvers() throws IOException {
+        File file = new File(mSdCard, "notes.txt");
+        FileUtils.writeStringToFile(file, "notes");
+        TrashArea trash = TrashArea.forFile(file);
+        trash.moveToTrash(file);
+
+        // A move that wrote its entry but was not renamed yet, and an
+        // entry that is being written.
+        File infoDir = new File(trash.getDirectory(), "info");
+        File pending = new File(infoDir, "1.ti");
+        File writing = new File(infoDir, "2.ti.tmp");
+        FileUtils.writeStringToFile(pending, "");
+        FileUtils.writeStringToFile(writing, "");
+
+        assertEquals(1, trash.list().size());
+        assertTrue(pending.exists());
+        assertTrue(writing.exists());
+
+        trash.clean();
+        assertFalse(pending.exists());
+        assertFalse(writing.exists());
+        assertEquals(1, trash.list().size());
+    }
+}
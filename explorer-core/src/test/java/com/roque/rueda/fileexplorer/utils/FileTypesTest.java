@@ -0,0 +1,306 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.utils;
+
+import com.roque.rueda.fileexplorer.model.FileItem;
+import com.roque.rueda.fileexplorer.platform.JvmPlatform;
+import com.roque.rueda.fileexplorer.platform.MimeTypeResolver;
+import com.roque.rueda.fileexplorer.platform.StorageLocator;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that FileTypes classifies the files like the getIcon method
+ * that it replaced. The old method is kept here as the reference, with
+ * the Uri and MimeTypeMap calls it made ported to plain Java.
+ *
+ * Created by Roque on 07/12/13.
+ */
+public class FileTypesTest {
+
+    /**
+     * Mime types of the fake platform, the lookup is case sensitive like
+     * the MimeTypeMap of the system.
+     */
+    private static final String[][] MIME_TYPES = {
+            { "mp3", "audio/mpeg" },
+            { "ogg", "application/ogg" },
+            { "mp4", "video/mp4" },
+            { "3gp", "video/3gpp" },
+            { "png", "image/png" },
+            { "jpg", "image/jpeg" },
+            { "txt", "text/plain" },
+            { "zip", "application/zip" },
+            { "jar", "application/java-archive" },
+            { "apk", "application/vnd.android.package-archive" },
+            { "pdf", "application/pdf" }
+    };
+
+    /**
+     * File names and the type that getIcon gave them.
+     */
+    private static final Object[][] FILES = {
+            { "app.apk", FileTypes.TYPE_APK },
+            { "archive.zip", FileTypes.TYPE_ZIP },
+            { "library.jar", FileTypes.TYPE_FILE },
+            { "song.mp3", FileTypes.TYPE_AUDIO },
+            { "SONG.MP3", FileTypes.TYPE_FILE },
+            { "radio.ogg", FileTypes.TYPE_FILE },
+            { "movie.mp4", FileTypes.TYPE_VIDEO },
+            { "clip.3gp", FileTypes.TYPE_VIDEO },
+            { "photo.png", FileTypes.TYPE_IMAGE },
+            { "photo.final.jpg", FileTypes.TYPE_IMAGE },
+            { "notes.txt", FileTypes.TYPE_FILE },
+            { "manual.pdf", FileTypes.TYPE_FILE },
+            { "README", FileTypes.TYPE_FILE },
+            { ".hidden", FileTypes.TYPE_FILE },
+            { "trailing.", FileTypes.TYPE_FILE },
+            { "my song.mp3", FileTypes.TYPE_AUDIO },
+            { "canci\u00f3n.mp3", FileTypes.TYPE_AUDIO },
+            { "hash#1.png", FileTypes.TYPE_IMAGE },
+            { "query?.png", FileTypes.TYPE_IMAGE },
+            { "(1) copy.mp4", FileTypes.TYPE_VIDEO },
+            { "wow!.mp3", FileTypes.TYPE_FILE },
+            { "tilde~.mp3", FileTypes.TYPE_FILE },
+            { "quote'.png", FileTypes.TYPE_FILE },
+            { "star*.mp4", FileTypes.TYPE_FILE },
+            { "APP.APK", FileTypes.TYPE_FILE },
+            { "archive.zip.txt", FileTypes.TYPE_FILE },
+            { "notes.txt.zip", FileTypes.TYPE_ZIP }
+    };
+
+    /**
+     * Characters that Uri.encode leaves as they are.
+     */
+    private static final String UNRESERVED = "_-!.~'()*";
+
+    private static final Pattern VALID_NAME = Pattern.compile("[a-zA-Z_0-9\\.\\-\\(\\)\\%]+");
+
+    private final Map<String, String> mMimeTypes = new HashMap<String, String>();
+    private File mDir;
+    private File mSdCard;
+
+    @Before
+    public void setUp() throws IOException {
+        for (String[] mimeType : MIME_TYPES) {
+            mMimeTypes.put(mimeType[0], mimeType[1]);
+        }
+
+        mDir = File.createTempFile("filetypes", "");
+        assertTrue(mDir.delete() && mDir.mkdir());
+        mSdCard = new File(mDir, "storage");
+        assertTrue(mSdCard.mkdir());
+
+        FileTypes.install(new MimeTypeResolver() {
+            @Override
+            public String getMimeTypeFromExtension(String extension) {
+                return mMimeTypes.get(extension);
+            }
+
+            @Override
+            public boolean hasExtension(String extension) {
+                return mMimeTypes.containsKey(extension);
+            }
+        }, new StorageLocator() {
+            @Override
+            public File getExternalStorageDirectory() {
+                return mSdCard;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        JvmPlatform platform = new JvmPlatform();
+        FileTypes.install(platform, platform);
+        delete(mDir);
+    }
+
+    @Test
+    public void filesMatchGetIcon() throws IOException {
+        for (Object[] row : FILES) {
+            File file = new File(mDir, (String) row[0]);
+            assertTrue(file.createNewFile());
+
+            assertEquals(file.getName(), row[1], getIconType(file));
+            assertClassification(file);
+        }
+    }
+
+    @Test
+    public void directoriesMatchGetIcon() throws IOException {
+        File folder = new File(mDir, "music.mp3");
+        assertTrue(folder.mkdir());
+
+        assertEquals(FileTypes.TYPE_FOLDER, getIconType(folder));
+        assertClassification(folder);
+        assertEquals(FileTypes.TYPE_SD_CARD, getIconType(mSdCard));
+        assertClassification(mSdCard);
+    }
+
+    @Test
+    public void linkToSdCardMatchesGetIcon() throws Exception {
+        File link = new File(mDir, "sdcard");
+        Process ln = new ProcessBuilder("ln", "-s", mSdCard.getPath(), link.getPath()).start();
+        Assume.assumeTrue(ln.waitFor() == 0);
+
+        assertEquals(FileTypes.TYPE_SD_CARD, getIconType(link));
+        assertClassification(link);
+    }
+
+    @Test
+    public void protectedFilesMatchGetIcon() throws IOException {
+        File file = new File(mDir, "secret.mp3");
+        assertTrue(file.createNewFile());
+        file.setReadable(false, false);
+        file.setWritable(false, false);
+        // The permissions do not apply to root.
+        Assume.assumeTrue(!file.canRead() && !file.canWrite());
+
+        assertEquals(FileTypes.TYPE_SYSTEM, getIconType(file));
+        assertClassification(file);
+    }
+
+    @Test
+    public void itemsWithoutPermissionsAreSystem() {
+        FileItem item = new FileItem(new File(mDir, "song.mp3"), 10, 0, FileItem.FLAG_FILE);
+        assertEquals(FileTypes.TYPE_SYSTEM, FileTypes.getType(item));
+    }
+
+    /**
+     * Checks the classification from the disk and from a listed item.
+     */
+    private void assertClassification(File file) {
+        int expected = getIconType(file);
+        assertEquals(file.getName(), expected, FileTypes.getType(file));
+        assertEquals(file.getName(), expected, FileTypes.getType(FileItem.snapshot(file)));
+        assertEquals(file.getName(), expected,
+                FileTypes.getType(new FileItem(file.getAbsolutePath())));
+    }
+
+    /**
+     * The old IconUtil.getIcon, returning the type of the icon.
+     */
+    private int getIconType(File file) {
+        if (!file.isFile()) {
+            if (!file.canRead() && !file.canWrite()) {
+                return FileTypes.TYPE_SYSTEM;
+            } else if (isSdCard(file)) {
+                return FileTypes.TYPE_SD_CARD;
+            } else {
+                return FileTypes.TYPE_FOLDER;
+            }
+        } else {
+            String fileName = file.getName();
+            if (!file.canRead() && !file.canWrite()) {
+                return FileTypes.TYPE_SYSTEM;
+            } else if (fileName.endsWith(".apk")) {
+                return FileTypes.TYPE_APK;
+            } else if (fileName.endsWith(".zip")) {
+                return FileTypes.TYPE_ZIP;
+            } else if (mimeTypeStartsWith(file, "audio/")) {
+                return FileTypes.TYPE_AUDIO;
+            } else if (mimeTypeStartsWith(file, "video/")) {
+                return FileTypes.TYPE_VIDEO;
+            } else if (mimeTypeStartsWith(file, "image/")) {
+                return FileTypes.TYPE_IMAGE;
+            } else {
+                return FileTypes.TYPE_FILE;
+            }
+        }
+    }
+
+    private boolean isSdCard(File file) {
+        try {
+            return file.getCanonicalPath().equals(mSdCard.getCanonicalPath());
+        } catch (IOException ioe) {
+            return false;
+        }
+    }
+
+    private boolean mimeTypeStartsWith(File file, String prefix) {
+        String type = mMimeTypes.get(getFileExtensionFromUrl(uriFromFile(file)));
+        return type != null && type.toLowerCase().startsWith(prefix);
+    }
+
+    /**
+     * Uri.fromFile(file).toString(), the path is encoded like Uri.encode
+     * with "/" allowed.
+     */
+    private static String uriFromFile(File file) {
+        StringBuilder uri = new StringBuilder("file://");
+        try {
+            for (byte b : file.getPath().getBytes("UTF-8")) {
+                char c = (char) (b & 0xFF);
+                if (c < 0x80 && (Character.isLetterOrDigit(c) || c == '/'
+                        || UNRESERVED.indexOf(c) >= 0)) {
+                    uri.append(c);
+                } else {
+                    uri.append('%').append(String.format("%02X", b & 0xFF));
+                }
+            }
+        } catch (UnsupportedEncodingException uee) {
+            throw new AssertionError(uee);
+        }
+        return uri.toString();
+    }
+
+    /**
+     * MimeTypeMap.getFileExtensionFromUrl.
+     */
+    private static String getFileExtensionFromUrl(String url) {
+        int fragment = url.lastIndexOf('#');
+        if (fragment > 0) {
+            url = url.substring(0, fragment);
+        }
+        int query = url.lastIndexOf('?');
+        if (query > 0) {
+            url = url.substring(0, query);
+        }
+        int filenamePos = url.lastIndexOf('/');
+        String filename = 0 <= filenamePos ? url.substring(filenamePos + 1) : url;
+        if (filename.length() > 0 && VALID_NAME.matcher(filename).matches()) {
+            int dotPos = filename.lastIndexOf('.');
+            if (0 <= dotPos) {
+                return filename.substring(dotPos + 1);
+            }
+        }
+        return "";
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2013 Roque Rueda.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.roque.rueda.fileexplorer.watcher;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the batches of the EventCoalescer with a fake clock, the events
+ * are fed by the test like a FileObserver would.
+ *
+ * Created by Roque on 07/12/13.
+ */
+public class EventCoalescerTest {
+
+    private static final long INTERVAL = 100;
+
+    /**
+     * Scheduler that runs the tasks when the fake clock reaches them.
+     */
+    private static class FakeScheduler implements EventCoalescer.Scheduler {
+
+        long mNow;
+        final List<Runnable> mTasks = new ArrayList<Runnable>();
+        final List<Long> mTimes = new ArrayList<Long>();
+        int mScheduled;
+
+        @Override
+        public void schedule(Runnable task, long delayMillis) {
+            mTasks.add(task);
+            mTimes.add(mNow + delayMillis);
+            mScheduled++;
+        }
+
+        void advance(long millis) {
+            long end = mNow + millis;
+            while (true) {
+                int next = -1;
+                for (int i = 0; i < mTimes.size(); i++) {
+                    if (mTimes.get(i) <= end && (next < 0 || mTimes.get(i) < mTimes.get(next))) {
+                        next = i;
+                    }
+                }
+                if (next < 0) {
+                    break;
+                }
+                mNow = mTimes.remove(next);
+                mTasks.remove(next).run();
+            }
+            mNow = end;
+        }
+    }
+
+    /**
+     * Sink that keeps the batches and the time they were delivered.
+     */
+    private class RecordingSink implements EventCoalescer.Sink {
+
+        final List<Set<String>> mBatches = new ArrayList<Set<String>>();
+        final List<Boolean> mOverflows = new ArrayList<Boolean>();
+        final List<Long> mTimes = new ArrayList<Long>();
+
+        @Override
+        public void onEvents(Set<String> names, boolean overflow) {
+            mBatches.add(names);
+            mOverflows.add(overflow);
+            mTimes.add(mScheduler.mNow);
+        }
+    }
+
+    private FakeScheduler mScheduler;
+    private RecordingSink mSink;
+    private EventCoalescer mCoalescer;
+
+    @Before
+    public void setUp() {
+        mScheduler = new FakeScheduler();
+        mSink = new RecordingSink();
+        mCoalescer = new EventCoalescer(INTERVAL, mScheduler, mSink);
+    }
+
+    @Test
+    public void burstIsDeliveredOncePerInterval() {
+        // 250 events, one every millisecond.
+        for (int i = 0; i < 250; i++) {
+            mCoalescer.onEvent("file" + i);
+            mScheduler.advance(1);
+        }
+        mScheduler.advance(INTERVAL);
+
+        assertEquals(3, mSink.mBatches.size());
+        assertEquals(Arrays.asList(INTERVAL, 2 * INTERVAL, 3 * INTERVAL), mSink.mTimes);
+        int total = 0;
+        for (Set<String> batch : mSink.mBatches) {
+            total += batch.size();
+        }
+        assertEquals(250, total);
+        assertEquals(3, mScheduler.mScheduled);
+    }
+
+    @Test
+    public void nothingIsDeliveredWithoutEvents() {
+        mScheduler.advance(10 * INTERVAL);
+        assertTrue(mSink.mBatches.isEmpty());
+        assertEquals(0, mScheduler.mScheduled);
+    }
+
+    @Test
+    public void namesAreReportedOnceInOrderOfFirstEvent() {
+        mCoalescer.onEvent("b");
+        mCoalescer.onEvent("a");
+        mCoalescer.onEvent("b");
+        mCoalescer.onEvent("c");
+        mCoalescer.onEvent("a");
+        mScheduler.advance(INTERVAL);
+
+        assertEquals(1, mSink.mBatches.size());
+        assertEquals(Arrays.asList("b", "a", "c"), new ArrayList<String>(mSink.mBatches.get(0)));
+        assertFalse(mSink.mOverflows.get(0));
+    }
+
+    @Test
+    public void maxNamesIsNotAnOverflow() {
+        for (int i = 0; i < EventCoalescer.DEFAULT_MAX_NAMES; i++) {
+            mCoalescer.onEvent("file" + i);
+            // Repeated names do not count.
+            mCoalescer.onEvent("file0");
+        }
+        mScheduler.advance(INTERVAL);
+
+        assertEquals(EventCoalescer.DEFAULT_MAX_NAMES, mSink.mBatches.get(0).size());
+        assertFalse(mSink.mOverflows.get(0));
+    }
+
+    @Test
+    public void tooManyNamesCollapseToFullRefresh() {
+        for (int i = 0; i <= EventCoalescer.DEFAULT_MAX_NAMES; i++) {
+            mCoalescer.onEvent("file" + i);
+        }
+        mCoalescer.onEvent("more");
+        mScheduler.advance(INTERVAL);
+
+        assertEquals(1, mSink.mBatches.size());
+        assertTrue(mSink.mOverflows.get(0));
+        assertTrue(mSink.mBatches.get(0).isEmpty());
+
+        // The next window starts clean.
+        mCoalescer.onEvent("next");
+        mScheduler.advance(INTERVAL);
+        assertEquals(2, mSink.mBatches.size());
+        assertFalse(mSink.mOverflows.get(1));
+        assertEquals(1, mSink.mBatches.get(1).size());
+    }
+
+    @Test
+    public void overflowEventCollapsesToFullRefresh() {
+        mCoalescer.onEvent("a");
+        mCoalescer.onOverflow();
+        mCoalescer.onEvent("b");
+        mScheduler.advance(INTERVAL);
+
+        assertEquals(1, mSink.mBatches.size());
+        assertTrue(mSink.mOverflows.get(0));
+        assertTrue(mSink.mBatches.get(0).isEmpty());
+    }
+
+    @Test
+    public void closeDiscardsPendingEvents() {
+        mCoalescer.onEvent("a");
+        mCoalescer.close();
+        mCoalescer.onEvent("b");
+        mScheduler.advance(INTERVAL);
+
+        assertTrue(mSink.mBatches.isEmpty());
+    }
+}